@@ -53,10 +53,10 @@ public class Appia {
   protected Vector<EventScheduler> eventSchedulers=new Vector<EventScheduler>();
   protected TimerManager timerManager=null;
   protected Thread thread = null;
-  protected int nEvents=0;
   private ThreadFactory threadFactory;  
-  private boolean running = true;
+  private boolean started = false;
   private String managementMBeanID;
+  private EventLoop[] eventLoops=new EventLoop[] { new EventLoop(0) };
   
   /**
    * Default constructor.
@@ -91,84 +91,179 @@ public class Appia {
     this.timerManager.start();
   }
 
-  public void instanceInsertEventScheduler(EventScheduler eventScheduler) {
-    if ( ! eventSchedulers.contains(eventScheduler) )
+  public synchronized void instanceInsertEventScheduler(EventScheduler eventScheduler) {
+    if ( ! eventSchedulers.contains(eventScheduler) ) {
       eventSchedulers.addElement(eventScheduler);
+      leastLoadedEventLoop().insertEventScheduler(eventScheduler);
+    }
   }
 
-  public void instanceRemoveEventScheduler(EventScheduler eventScheduler) {
+  public synchronized void instanceRemoveEventScheduler(EventScheduler eventScheduler) {
     eventSchedulers.removeElement(eventScheduler);
+    for (int i=0 ; i < eventLoops.length ; i++)
+      eventLoops[i].removeEventScheduler(eventScheduler);
   }
 
   public void instanceInsertListenRequest(ExternalEvent descriptor) {}
   
   public void instanceRemoveListenRequest(ExternalEvent descriptor) {}
 
-  public synchronized void instanceInsertedEvent() {
-      notify();
-      nEvents++;
+  /**
+   * Wakes every parked event loop.
+   * <br>
+   * {@link net.sf.appia.core.EventScheduler EventSchedulers} signal only the
+   * loop they are pinned to. This method is kept for compatibility.
+   */
+  public void instanceInsertedEvent() {
+    final EventLoop[] loops=eventLoops;
+    for (int i=0 ; i < loops.length ; i++)
+      loops[i].insertedEvent();
   }
   
+  /**
+   * Gets the thread that called {@link #instanceRun()}, which also executes the first event loop.
+   * 
+   * @return the main Appia thread
+   */
   public Thread instanceGetAppiaThread() {
     return thread;
   }
 
+  /**
+   * Checks if the given thread is executing one of the event loops of this Appia.
+   * 
+   * @param t the thread to check
+   * @return true if the thread is an event loop thread
+   */
+  public boolean instanceIsAppiaThread(Thread t) {
+    final EventLoop[] loops=eventLoops;
+    for (int i=0 ; i < loops.length ; i++) {
+      if (loops[i].getThread() == t)
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Gets the number of event loops used by this Appia.
+   * 
+   * @return the number of event loops
+   */
+  public synchronized int instanceGetEventLoops() {
+    return eventLoops.length;
+  }
+
+  /**
+   * Sets the number of event loops, each one executed by its own thread.
+   * <br>
+   * Every {@link net.sf.appia.core.EventScheduler EventScheduler}, and therefore every
+   * {@link net.sf.appia.core.Channel Channel} that uses it, is pinned to one of the loops.
+   * Channels that share {@link net.sf.appia.core.Session Sessions} must share the same
+   * EventScheduler. The default is a single loop, executed by the thread that
+   * calls {@link #instanceRun()}.
+   * <br>
+   * The already registered EventSchedulers are redistributed among the new loops.
+   * 
+   * @param n the number of event loops
+   * @throws AppiaException if Appia is already running or the number of loops is invalid
+   */
+  public synchronized void instanceSetEventLoops(int n) throws AppiaException {
+    if (started)
+      throw new AppiaException("Unable to change the number of event loops of a running Appia");
+    if (n < 1)
+      throw new AppiaException("Invalid number of event loops: "+n);
+    
+    eventLoops=new EventLoop[n];
+    for (int i=0 ; i < n ; i++)
+      eventLoops[i]=new EventLoop(i);
+    for (int i=0 ; i < eventSchedulers.size() ; i++)
+      eventLoops[i % n].insertEventScheduler(eventSchedulers.elementAt(i));
+  }
+
+  /**
+   * Checks if all the event loops of this Appia are running and parked, with
+   * no events to consume.
+   * <br>
+   * The answer only holds while no other thread inserts events. It is used by the
+   * {@link net.sf.appia.core.VirtualTimerManager VirtualTimerManager}, the only
+   * source of events of a simulation, to know when to advance the time.
+   * 
+   * @return true if Appia is idle
+   */
+  public boolean instanceIsIdle() {
+    final EventLoop[] loops;
+    synchronized (this) {
+      if (!started)
+        return false;
+      loops=eventLoops;
+    }
+    for (int i=0 ; i < loops.length ; i++) {
+      if (!loops[i].isIdle())
+        return false;
+    }
+    return true;
+  }
+
+  private EventLoop leastLoadedEventLoop() {
+    EventLoop loop=eventLoops[0];
+    for (int i=1 ; i < eventLoops.length ; i++) {
+      if (eventLoops[i].size() < loop.size())
+        loop=eventLoops[i];
+    }
+    return loop;
+  }
+
   public void instanceRun() {
+    final EventLoop[] loops;
+    synchronized (this) {
+      started=true;
+      loops=eventLoops;
+    }
+    
     // Starting associated TimerManager
     timerManager.start();
 
     //some final initializations
     int i;
     thread = Thread.currentThread();
+    loops[0].setThread(thread);
     for (i=0 ; i < eventSchedulers.size() ; i++) {
       final EventScheduler es=eventSchedulers.elementAt(i);
       es.start();
     }
     
-    i=0;
-    boolean consumedEvent;
-    EventScheduler es;
+    // the first loop runs in this thread, the others in their own
+    for (i=1 ; i < loops.length ; i++) {
+      final EventLoop loop=loops[i];
+      final Thread t=threadFactory.newThread(new Runnable() {
+        public void run() {
+          try {
+            loop.run();
+          } catch (RuntimeException e) {
+            instanceStop();
+            throw e;
+          }
+        }
+      });
+      t.setName(loop.toString());
+      t.setDaemon(true);
+      loop.setThread(t);
+      t.start();
+    }
     
-    while (true) {	
-      try {
-        es=eventSchedulers.elementAt(i);
-      } catch (ArrayIndexOutOfBoundsException e) {
-        es=null;
-      }
-      
-      if ( es != null )
-        consumedEvent=es.consumeEvent();
-      else
-        consumedEvent=false;
-      
-      synchronized (this) {
-    	  if ( consumedEvent )
-    		  nEvents--;
-    	  
-    	  while ( running && nEvents == 0 ) {
-    		  try {
-    			  wait();
-    		  } catch (InterruptedException e) {}
-    	  }        
-        
-    	if(!running)
-    		break;    		
-      }
-      
-      i++;
-      if ( i >= eventSchedulers.size() ) {
-        i=0;
-        //so other threads can run
-        // Thread.yield();
-      }
+    try {
+      loops[0].run();
+    } finally {
+      for (i=1 ; i < loops.length ; i++)
+        loops[i].stop();
     }
-
   }
 
   public void instanceStop() {
       synchronized (this) {
-      	running = false;
       	timerManager.stop();
+      	for (int i=0 ; i < eventLoops.length ; i++)
+      	  eventLoops[i].stop();
 //      	instanceGetAppiaThread().interrupt();
   	}
   }
@@ -268,6 +363,17 @@ public class Appia {
       return appia.thread;
   }
 
+  /**
+   * Sets the number of event loops of the default <i>Appia</i>.
+   * 
+   * @param n the number of event loops
+   * @throws AppiaException if <i>Appia</i> is already running
+   * @see #instanceSetEventLoops(int)
+   */
+  public static void setEventLoops(int n) throws AppiaException {
+      appia.instanceSetEventLoops(n);
+  }
+
   public synchronized ThreadFactory getThreadFactory() {
       return threadFactory;
   }
@@ -20,7 +20,6 @@
  
 package net.sf.appia.core;
 
-import java.util.Hashtable;
 import java.util.concurrent.ThreadFactory;
 
 import net.sf.appia.core.events.channel.ChannelClose;
@@ -78,7 +77,10 @@ public class Channel {
     
   String channelID;
   private QoS qos;
-  private Hashtable eventsRoutes=null;
+  // event class -> ChannelEventRoute, including the subclasses already seen
+  private volatile IdentityTable eventsRoutes=null;
+  // session -> position in the stack
+  private IdentityTable positions=null;
   
   private EventScheduler eventScheduler;
   private TimerManager timerManager;
@@ -205,28 +207,36 @@ public class Channel {
    * {@link net.sf.appia.core.AppiaEventException#UNWANTEDEVENT UNWANTEDEVENT}
    */
   public ChannelEventRoute getEventRoute(Event event) throws AppiaEventException {
-    if (eventsRoutes == null)
+    final IdentityTable routes=eventsRoutes;
+    if (routes == null)
       throw new AppiaEventException(AppiaEventException.CLOSEDCHANNEL,"Channel Not Started");
     
-    ChannelEventRoute channelRoute=(ChannelEventRoute)eventsRoutes.get(event.getClass());
+    final ChannelEventRoute channelRoute=(ChannelEventRoute)routes.get(event.getClass());
+    if (channelRoute != null)
+      return channelRoute;
     
-    if (channelRoute==null) {
-      
-      //verifies if there is a route for a superclass of
-      //the event received
-      for ( Class c = event.getClass().getSuperclass() ;
-      (c != null) && (channelRoute == null) ;
-      c = c.getSuperclass() ) {
-        channelRoute = (ChannelEventRoute)eventsRoutes.get(c);
-      }
-      
-      if ( channelRoute != null ) {
-        eventsRoutes.put(event.getClass(),channelRoute);
-      } else {
-        throw new AppiaEventException(AppiaEventException.UNWANTEDEVENT,"Unwanted Event '"+event.getClass().getName()
-                +"' on Channel '"+this.channelID+"'.");
-      }
-    }
+    return addSubclassRoute(event.getClass());
+  }
+  
+  /*
+   * Finds the route of an event class that is not in the QoS, using the
+   * route of its closest superclass, and adds it to the table.
+   */
+  private synchronized ChannelEventRoute addSubclassRoute(Class eventType) throws AppiaEventException {
+    final IdentityTable routes=eventsRoutes;
+    if (routes == null)
+      throw new AppiaEventException(AppiaEventException.CLOSEDCHANNEL,"Channel Not Started");
+    
+    ChannelEventRoute channelRoute=null;
+    for ( Class c = eventType ; (c != null) && (channelRoute == null) ; c = c.getSuperclass() )
+      channelRoute = (ChannelEventRoute)routes.get(c);
+    
+    if (channelRoute == null)
+      throw new AppiaEventException(AppiaEventException.UNWANTEDEVENT,"Unwanted Event '"+eventType.getName()
+          +"' on Channel '"+this.channelID+"'.");
+    
+    if (routes.get(eventType) == null)
+      eventsRoutes=routes.with(eventType,channelRoute);
     return channelRoute;
   }
   
@@ -245,30 +255,18 @@ public class Channel {
   public int getFirstSession(ChannelEventRoute channelRoute, int dir, Session source)
   throws AppiaEventException {
     
-    final Session[] route=channelRoute.getRoute();
-    
-    int i,index;
-    
     if (source == null) {
       if (dir == Direction.UP)
         return 0;
       else
-        return route.length-1;
+        return channelRoute.getRoute().length-1;
     }
     
-    for(i=sessions.length-1 ; (i >= 0) && (sessions[i] != source) ; i--);
-    
-    if (i < 0)
+    final Integer position=(positions == null) ? null : (Integer)positions.get(source);
+    if (position == null)
       throw new AppiaEventException(AppiaEventException.UNKNOWNSESSION,"Session not memeber of Channel");
     
-    i+=dir;
-    index=-1;
-    while ( (i >= 0) && (i < sessions.length) && (index < 0) ) {
-      for(index=route.length-1 ; (index >= 0) && (route[index] != sessions[i]) ; index--);
-      i+=dir;
-    }
-    
-    return ((index < 0) ? route.length : index) ;
+    return channelRoute.getFirstSession(position.intValue(),dir);
   }
   
 /*
@@ -377,7 +375,7 @@ public class Channel {
     makeEventsRoutes();
     
     try {
-      if (Thread.currentThread() == eventScheduler.getAppiaInstance().instanceGetAppiaThread())
+      if (Thread.currentThread() == eventScheduler.getAppiaThread())
     	(new ChannelInit(this)).go();
       else
         (new ChannelInit()).asyncGo(this,Direction.UP);
@@ -415,7 +413,7 @@ public class Channel {
     	}
       if (alive) {
         try {
-          if (Thread.currentThread() == eventScheduler.getAppiaInstance().instanceGetAppiaThread())
+          if (Thread.currentThread() == eventScheduler.getAppiaThread())
         	(new ChannelClose(this)).go();
           else
             (new ChannelClose()).asyncGo(this,Direction.DOWN);
@@ -447,6 +445,10 @@ public class Channel {
    * if the Channel is closed
    */
   protected void insertEvent(Event event) throws AppiaEventException {
+    insertEvent(event,true);
+  }
+  
+  void insertEvent(Event event, boolean wake) throws AppiaEventException {
     synchronized (this) {
       if (!alive && !(event instanceof ChannelInit)) {
         if (started) {
@@ -463,7 +465,21 @@ public class Channel {
       }
     }
     
-    eventScheduler.insert(event);
+    if (wake)
+      eventScheduler.insert(event);
+    else
+      eventScheduler.insert(event,false);
+  }
+  
+  /**
+   * Wakes the event loop that consumes the events of this Channel, after events
+   * were inserted with {@link Event#asyncGo(Channel, int, boolean) asyncGo} without
+   * waking it.
+   */
+  public void wakeEventLoop() {
+    final EventLoop loop=eventScheduler.getEventLoop();
+    if (loop != null)
+      loop.insertedEvent();
   }
   
   private void createUnboundedSessions() {
@@ -476,13 +492,27 @@ public class Channel {
     }
   }
   
+  /*
+   * Compiles the routes of the QoS for the sessions of the channel.
+   * The subclasses of the QoS events are added when first seen.
+   */
   private void makeEventsRoutes() {
-    final QoSEventRoute[] qosRoutes=qos.getEventsRoutes();
-    eventsRoutes=new Hashtable();
+    final Object[] stack=new Object[sessions.length];
+    final Object[] index=new Object[sessions.length];
+    for (int i=0 ; i < sessions.length ; i++) {
+      stack[i]=sessions[i];
+      index[i]=new Integer(i);
+    }
+    positions=new IdentityTable(stack,index);
     
+    final QoSEventRoute[] qosRoutes=qos.getEventsRoutes();
+    final Object[] types=new Object[qosRoutes.length];
+    final Object[] routes=new Object[qosRoutes.length];
     for (int i=0 ; i < qosRoutes.length ; i++) {
-      eventsRoutes.put(qosRoutes[i].getEventType(),qosRoutes[i].makeChannelRoute(this));
+      types[i]=qosRoutes[i].getEventType();
+      routes[i]=qosRoutes[i].makeChannelRoute(this);
     }
+    eventsRoutes=new IdentityTable(types,routes);
   }
   
   
@@ -515,7 +545,7 @@ public class Channel {
     
     // ChannelClose
     if ( event instanceof ChannelClose ) {
-      eventsRoutes.clear();
+      eventsRoutes=IdentityTable.EMPTY;
       return;
     }
     
@@ -569,6 +599,8 @@ public class Channel {
     private void registerMBean() throws AppiaException{
         log.info("Registering MBean for channel "+channelID);
         final ChannelManager manager = new ChannelManager(this);
+        if(jmxConfiguration.isSchedulerStatistics())
+            eventScheduler.setStatisticsEnabled(true);
         Session currentSession = null;
         int numSensorSessions = 0, numManagedSessions = 0;
         
@@ -46,6 +46,11 @@ public class ChannelEventRoute {
   private boolean[] waypoints;
   private Session[] route;
 
+  // index in the route of the first session visited by an event that leaves
+  // the session at each position of the stack, going up or down
+  private int[] nextUp;
+  private int[] nextDown;
+
   /**
    * Creates a <i>ChannelEventRoute</i> for the {@link net.sf.appia.core.Channel Channel},
    * from the given {@link net.sf.appia.core.QoSEventRoute QoSEventRoute}.
@@ -69,13 +74,38 @@ public class ChannelEventRoute {
     }
 
     route=new Session[size];
+    final int[] position=new int[sessions.length];
 
     for (i=0,j=0 ; i < sessions.length ; i++) {
       if (waypoints[i]) {
          route[j]=sessions[i];
+         position[i]=j;
          j++;
       }
     }
+
+    nextUp=new int[sessions.length];
+    nextDown=new int[sessions.length];
+    for (i=sessions.length-1,j=route.length ; i >= 0 ; i--) {
+      nextUp[i]=j;
+      if (waypoints[i])
+        j=position[i];
+    }
+    for (i=0,j=route.length ; i < sessions.length ; i++) {
+      nextDown[i]=j;
+      if (waypoints[i])
+        j=position[i];
+    }
+  }
+
+  /**
+   * Get the index, in the route, of the first session to be visited by an
+   * event sent by the session at the given position of the channel stack.
+   *
+   * @return the index, or the route length if there is no such session
+   */
+  int getFirstSession(int position, int dir) {
+    return (dir == Direction.UP) ? nextUp[position] : nextDown[position];
   }
 
   /**
@@ -229,6 +229,8 @@ public class Event {
        */
       if ((currentSession == route.length)	&& (this instanceof SendableEvent)) {
         ((SendableEvent) this).detachFromMemory();
+        if (((SendableEvent) this).getMessage() != null)
+          ((SendableEvent) this).getMessage().release();
       }
       return null;
     }
@@ -263,8 +265,10 @@ public class Event {
     // TODO: does this have any effect on performance ???
     // If so it can be commented.
     if (appiaThread == null)
-      appiaThread=eventScheduler.getAppiaInstance().instanceGetAppiaThread();
-    if (Thread.currentThread() != appiaThread)
+      appiaThread=eventScheduler.getAppiaThread();
+    // with several event loops, events may also be sent to channels of other loops
+    if ((Thread.currentThread() != appiaThread) && 
+        !eventScheduler.getAppiaInstance().instanceIsAppiaThread(Thread.currentThread()))
       throw new AppiaEventException(AppiaEventException.WRONGTHREAD,"Method \"go\" called from outside the Appia thread");
     
     eventScheduler.insert(this);
@@ -297,7 +301,7 @@ public class Event {
     currentSession = -1;
     
     eventScheduler = channel.getEventScheduler();
-    appiaThread=eventScheduler.getAppiaInstance().instanceGetAppiaThread();
+    appiaThread=eventScheduler.getAppiaThread();
     
     isInitiated = true;
   }
@@ -351,6 +355,19 @@ public class Event {
    * @see net.sf.appia.core.memoryManager.MemoryManager
    */
   public final void asyncGo(Channel channel, int dir)
+  throws AppiaEventException {
+    asyncGo(channel,dir,true);
+  }
+  
+  /**
+   * Inserts the Event in the Channel <i>asynchronously</i>, optionally without waking
+   * the event loop of the Channel. Used to insert several events with a single wake-up.
+   * If the loop is not woken, the caller must call {@link Channel#wakeEventLoop()} 
+   * after inserting the last event.
+   * 
+   * @see #asyncGo(Channel, int)
+   */
+  public final void asyncGo(Channel channel, int dir, boolean wake)
   throws AppiaEventException {
     
     this.channel=channel;
@@ -368,6 +385,9 @@ public class Event {
     final MemoryManager mm = channel.getMemoryManager();
     if (AppiaConfig.QUOTA_ON && mm != null) {
     	try {
+    		// the events inserted without waking the loop must be consumed to free memory
+    		if (!wake && mm.aboveThreshold(this.dir))
+    			channel.wakeEventLoop();
 			mm.synchronizedAboveThreshold(this.dir);
 		} catch (InterruptedException e) {
 			throw new AppiaEventException("Unable to insert event asynchronously",e);
@@ -376,7 +396,47 @@ public class Event {
     
     // insert this event in the channel
     // if the channel was not initialized, it  waits
-    channel.insertEvent(this);
+    channel.insertEvent(this,wake);
+  }
+  
+  /**
+   * Inserts the Event in the Channel <i>asynchronously</i>, if the Channel is
+   * not full. It never blocks.
+   * <br>
+   * If the Channel has a memory manager and the memory used by its events is
+   * above the threshold of the given direction, the Event is not inserted and
+   * the caller may try again later. Together with a flow control protocol, such as
+   * {@link net.sf.appia.protocols.flowcontrol.FlowControlLayer FlowControlLayer},
+   * this lets the application send as fast as the receivers consume.
+   * <br>
+   * This method cannot be called from the Appia thread it self.
+   *
+   * @param channel the {@link net.sf.appia.core.Channel Channel} of the Event
+   * @param dir the {@link net.sf.appia.core.Direction Direction} of the Event
+   * @return <tt>true</tt> if the Event was inserted, <tt>false</tt> if the Channel is full.
+   * @throws AppiaEventException
+   * @see #asyncGo(Channel, int)
+   * @see net.sf.appia.core.memoryManager.MemoryManager#aboveThreshold(int)
+   */
+  public final boolean tryAsyncGo(Channel channel, int dir)
+  throws AppiaEventException {
+    
+    this.channel=channel;
+    this.dir=dir;
+    src=null;
+    sourceSet=true;
+    
+    init();
+    
+    if (Thread.currentThread() == appiaThread)
+      throw new AppiaEventException(AppiaEventException.WRONGTHREAD,"Method \"tryAsyncGo\" called from within Appia thread");
+    
+    final MemoryManager mm = channel.getMemoryManager();
+    if (AppiaConfig.QUOTA_ON && mm != null && mm.aboveThreshold(dir))
+      return false;
+    
+    channel.insertEvent(this,true);
+    return true;
   }
   
   private Object schedulerData=null;
@@ -0,0 +1,169 @@
+/**
+ * Appia: Group communication and protocol composition framework library
+ * Copyright 2026 University of Lisbon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributor(s): See Appia web page for a list of contributors.
+ */
+
+package net.sf.appia.core;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An event loop of an {@link net.sf.appia.core.Appia Appia} instance.
+ * <br>
+ * Each loop is executed by a single thread and round-robins through the
+ * {@link net.sf.appia.core.EventScheduler EventSchedulers} pinned to it. Since
+ * an EventScheduler is always consumed by the same loop, all the
+ * {@link net.sf.appia.core.Channel Channels} that share it are executed by
+ * a single thread, as required by {@link net.sf.appia.core.Event#go Event.go()}.
+ *
+ * @see net.sf.appia.core.Appia
+ */
+class EventLoop implements Runnable {
+
+  private static final EventScheduler[] EMPTY=new EventScheduler[0];
+
+  private final int index;
+  // copy on write, so the loop reads it without locking
+  private volatile EventScheduler[] eventSchedulers=EMPTY;
+
+  private volatile Thread thread=null;
+  private volatile boolean running=true;
+  private volatile boolean parked=false;
+
+  EventLoop(int index) {
+    this.index=index;
+  }
+
+  int getIndex() {
+    return index;
+  }
+
+  Thread getThread() {
+    return thread;
+  }
+
+  void setThread(Thread thread) {
+    this.thread=thread;
+  }
+
+  int size() {
+    return eventSchedulers.length;
+  }
+
+  synchronized void insertEventScheduler(EventScheduler eventScheduler) {
+    final EventScheduler[] current=eventSchedulers;
+    for (int i=0 ; i < current.length ; i++) {
+      if (current[i] == eventScheduler)
+        return;
+    }
+    final EventScheduler[] updated=new EventScheduler[current.length+1];
+    System.arraycopy(current,0,updated,0,current.length);
+    updated[current.length]=eventScheduler;
+    eventScheduler.setEventLoop(this);
+    eventSchedulers=updated;
+    insertedEvent();
+  }
+
+  synchronized void removeEventScheduler(EventScheduler eventScheduler) {
+    final EventScheduler[] current=eventSchedulers;
+    for (int i=0 ; i < current.length ; i++) {
+      if (current[i] == eventScheduler) {
+        final EventScheduler[] updated=new EventScheduler[current.length-1];
+        System.arraycopy(current,0,updated,0,i);
+        System.arraycopy(current,i+1,updated,i,updated.length-i);
+        eventSchedulers=updated;
+        return;
+      }
+    }
+  }
+
+  /**
+   * Signals the loop that an event was inserted in one of its
+   * {@link net.sf.appia.core.EventScheduler EventSchedulers}.
+   * <br>
+   * The loop thread is only woken if it is parked, so this is cheap to call
+   * on every insertion.
+   */
+  void insertedEvent() {
+    if (parked)
+      LockSupport.unpark(thread);
+  }
+
+  void stop() {
+    running=false;
+    LockSupport.unpark(thread);
+  }
+
+  /**
+   * Consumes events until the loop is stopped.
+   * <br>
+   * A full pass over the EventSchedulers that consumes no event parks the
+   * loop thread. Before parking, the loop announces it and checks the
+   * schedulers once more, so an event inserted concurrently is never missed.
+   */
+  public void run() {
+    thread=Thread.currentThread();
+
+    while (running) {
+      final EventScheduler[] schedulers=eventSchedulers;
+      boolean consumedEvent=false;
+
+      for (int i=0 ; i < schedulers.length ; i++) {
+        if ( schedulers[i].consumeEvent() )
+          consumedEvent=true;
+      }
+
+      if ( ! consumedEvent ) {
+        parked=true;
+        if ( running && ! hasEvents(eventSchedulers) ) {
+          LockSupport.park(this);
+          // clears a pending interrupt, otherwise park would not block again
+          Thread.interrupted();
+        }
+        parked=false;
+      }
+    }
+  }
+
+  /**
+   * Tests if the loop is parked with no events to consume.
+   * <br>
+   * Events are only kept outside the waiting queues while the loop consumes them,
+   * so the waiting queues are checked before the parked flag. The result is
+   * only stable if no other thread inserts events meanwhile.
+   */
+  boolean isIdle() {
+    final EventScheduler[] schedulers=eventSchedulers;
+    for (int i=0 ; i < schedulers.length ; i++) {
+      if ( schedulers[i].hasWaitingEvents() )
+        return false;
+    }
+    return parked;
+  }
+
+  private boolean hasEvents(EventScheduler[] schedulers) {
+    for (int i=0 ; i < schedulers.length ; i++) {
+      if ( schedulers[i].hasEvents() )
+        return true;
+    }
+    return false;
+  }
+
+  public String toString() {
+    return "Appia Event Loop "+index;
+  }
+}
@@ -34,6 +34,7 @@
  */
 public class EventScheduler {
   private Appia appia;
+  private volatile EventLoop eventLoop=null;
   
   private Event mainHead=null;
   private Event mainTail=null;
@@ -42,26 +43,52 @@ public class EventScheduler {
   private Event reverseHead=null;
   private Event reverseTail=null;
   
-  private Event waitingHead=null;
-  private Event waitingTail=null;
+  private int mainSize=0;
+  private int reverseSize=0;
+  
+  private final WaitingQueue waiting=new WaitingQueue();
+  
+  private volatile SchedulerStatistics statistics=null;
+  private volatile boolean statisticsEnabled=false;
   
   private int currentDirection=0;
   private Channel currentChannel=null;
   private Session currentSession=null;
   
+  /**
+   * Name of the system property that, when <tt>true</tt>, enables the 
+   * statistics of all schedulers when they are created.
+   * 
+   * @see #setStatisticsEnabled(boolean)
+   */
+  public static final String STATISTICS_PROPERTY="appia.scheduler.statistics";
+  
   public EventScheduler() {
     appia=Appia.appia;
     appia.instanceInsertEventScheduler(this);
+    if (Boolean.getBoolean(STATISTICS_PROPERTY))
+      setStatisticsEnabled(true);
   }
   
   public EventScheduler(Appia appia) {
     this.appia = appia;
     appia.instanceInsertEventScheduler(this);
+    if (Boolean.getBoolean(STATISTICS_PROPERTY))
+      setStatisticsEnabled(true);
   }
   
   public void insert(Event event) {
+    insert(event,true);
+  }
+  
+  /**
+   * Inserts an event, optionally without waking the event loop.
+   * Used to insert several events with a single wake-up of the loop.
+   */
+  void insert(Event event, boolean wake) {
+    final EventLoop loop=eventLoop;
     if (
-        (Thread.currentThread() == appia.instanceGetAppiaThread()) &&
+        (Thread.currentThread() == loop.getThread()) &&
         (currentSession != null) &&
         (event.getChannel() == currentChannel) &&
         ((event.currentSession() == currentSession) || (event.getSourceSession() == currentSession))
@@ -85,6 +112,7 @@ public class EventScheduler {
           }
         }
         mainLast=event;
+        mainSize++;
         
       } else { // inserting in the opposite direction
         event.setSchedulerData(null);
@@ -93,36 +121,14 @@ public class EventScheduler {
         else
           reverseTail.setSchedulerData(event);
         reverseTail=event;
+        reverseSize++;
       }
     } else { // inserting on a different channel, etc
-    	synchronized (this) {
-    		event.setSchedulerData(null);
-    		if(waitingTail == null || event.getPriority() <= waitingTail.getPriority()){
-    			if (waitingHead == null)
-    				waitingHead=event;
-    			else {
-    				waitingTail.setSchedulerData(event);
-    			}
-    			waitingTail=event;
-    		}
-    		else if(event.getPriority() > waitingHead.getPriority()){
-    			event.setSchedulerData(waitingHead);
-    			waitingHead = event;    			
-    		} else {
-    			// start in the second
-    			Event previous = waitingHead, current = (Event) waitingHead.getSchedulerData();
-    			//while(current != null && event.getPriority() <= current.getPriority()){
-    			while(event.getPriority() <= current.getPriority()){
-    				previous = current;
-    				current = (Event) current.getSchedulerData();
-    			}
-    			event.setSchedulerData(current);
-    			previous.setSchedulerData(event);
-    		}
-    	}
+      event.setSchedulerData(null);
+      waiting.offer(event);
+      if (wake)
+        loop.insertedEvent();
     }
-    
-    appia.instanceInsertedEvent();
   }
   
   public boolean consumeEvent() {
@@ -135,6 +141,7 @@ public class EventScheduler {
       mainHead=(Event) mainHead.getSchedulerData();
       if (mainHead == null)
         mainTail=null;
+      mainSize--;
     } else {
       if (reverseHead != null) {
         event=reverseHead;
@@ -145,17 +152,12 @@ public class EventScheduler {
           mainTail=reverseTail;
         reverseHead=null;
         reverseTail=null;
+        mainSize=reverseSize-1;
+        reverseSize=0;
       } else {
-        synchronized (this) {
-          if (waitingHead != null) {
-            event=waitingHead;
-            waitingHead=(Event) waitingHead.getSchedulerData();
-            if (waitingHead == null)
-              waitingTail=null;
-          } else {
-            consumed=false;
-          }
-        }
+        event=waiting.poll();
+        if (event == null)
+          consumed=false;
       }
     }
     
@@ -170,8 +172,18 @@ public class EventScheduler {
         
         mainLast=null;
         
+        final SchedulerStatistics stats=statisticsEnabled ? statistics : null;
         try {
+          if (stats == null) {
             session.handle(event);
+          } else {
+            final Class<?> eventClass=event.getClass();
+            final int dir=currentDirection;
+            stats.queues(mainSize,reverseSize);
+            final long start=System.nanoTime();
+            session.handle(event);
+            stats.record(session,eventClass,dir,System.nanoTime()-start);
+          }
         } catch (RuntimeException e) {
             e.printStackTrace();
             System.err.println("--------------------------------"+
@@ -190,6 +202,22 @@ public class EventScheduler {
     return consumed;
   }
     
+  /**
+   * Tests if there are events waiting to be consumed.
+   * <b>Must only be called by the event loop thread.</b>
+   */
+  boolean hasEvents() {
+    return (mainHead != null) || (reverseHead != null) || !waiting.isEmpty();
+  }
+
+  /**
+   * Tests if there are events inserted by other threads, or in other channels,
+   * waiting to be consumed. May be called by any thread.
+   */
+  boolean hasWaitingEvents() {
+    return !waiting.isEmpty();
+  }
+    
   public Session getHandelingSession() {
     return currentSession;
   }
@@ -198,6 +226,86 @@ public class EventScheduler {
     return appia;
   }
 
+  /**
+   * Gets the thread of the event loop that consumes the events of this scheduler.
+   * 
+   * @return the thread, or <tt>null</tt> if Appia is not yet running
+   */
+  public Thread getAppiaThread() {
+    final EventLoop loop=eventLoop;
+    return loop == null ? null : loop.getThread();
+  }
+
+  EventLoop getEventLoop() {
+    return eventLoop;
+  }
+
+  void setEventLoop(EventLoop eventLoop) {
+    this.eventLoop=eventLoop;
+  }
+
+  /**
+   * Enables or disables the statistics of the events consumed by this scheduler.
+   * <br>
+   * When enabled, the time spent by each session handling each event is 
+   * measured, with two readings of {@link System#nanoTime()}. Statistics
+   * recorded before are kept when they are disabled and enabled again.
+   * May be called by any thread.
+   * 
+   * @see #getStatistics()
+   */
+  public synchronized void setStatisticsEnabled(boolean enabled) {
+    if (enabled && (statistics == null))
+      statistics=new SchedulerStatistics();
+    statisticsEnabled=enabled;
+  }
+  
+  public boolean isStatisticsEnabled() {
+    return statisticsEnabled;
+  }
+  
+  /**
+   * Gets the statistics of the events consumed by this scheduler.
+   * 
+   * @return the statistics, or <tt>null</tt> if they were never enabled.
+   */
+  public SchedulerStatistics getStatistics() {
+    return statistics;
+  }
+  
+  /**
+   * Discards the statistics recorded so far.
+   */
+  public synchronized void resetStatistics() {
+    if (statistics != null)
+      statistics=new SchedulerStatistics();
+  }
+  
+  /**
+   * Number of events in the queue of the current session and direction.
+   * Read without synchronization, by any thread, the value is approximate.
+   */
+  public int getMainQueueSize() {
+    return mainSize;
+  }
+  
+  /**
+   * Number of events in the queue of the current session going in the 
+   * opposite direction. 
+   * Read without synchronization, by any thread, the value is approximate.
+   */
+  public int getReverseQueueSize() {
+    return reverseSize;
+  }
+  
+  /**
+   * Number of events inserted from other channels or threads, waiting to be
+   * consumed. It counts the events, so it should not be called often.
+   */
+  public int getWaitingQueueSize() {
+    return waiting.size();
+  }
+
   public void start() {}
   public void stop() {}
   
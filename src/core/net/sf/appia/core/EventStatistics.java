@@ -0,0 +1,168 @@
+/**
+ * Appia: Group communication and protocol composition framework library
+ * Copyright 2026 University of Lisbon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ *
+ * Contributor(s): See Appia web page for a list of contributors.
+ */
+package net.sf.appia.core;
+
+/**
+ * Counters and latency histogram of the events of one class, handled by one
+ * {@link net.sf.appia.core.Session Session} in one direction.
+ * <br>
+ * Latencies are counted in a histogram with buckets of exponentially growing
+ * width, each power of two divided in {@link #SUB_BUCKETS} buckets, so 
+ * percentiles are accurate to 1/{@link #SUB_BUCKETS} of their value. Recording
+ * allocates nothing.
+ * <br>
+ * Values are recorded by the event loop thread and may be read by any thread,
+ * without locking. A reader may therefore see a value recorded in some fields
+ * and not yet in others.
+ *
+ * @see net.sf.appia.core.SchedulerStatistics
+ */
+public final class EventStatistics {
+
+  /** Number of bits of the bucket inside each power of two. */
+  private static final int SUB_BITS=3;
+  /** Number of buckets of each power of two. */
+  public static final int SUB_BUCKETS=1 << SUB_BITS;
+  /** Latencies above 2^MAX_BITS nanoseconds (about 18 minutes) are counted as 2^MAX_BITS. */
+  private static final int MAX_BITS=40;
+  private static final long MAX_VALUE=(1L << MAX_BITS)-1;
+  private static final int BUCKETS=(MAX_BITS-SUB_BITS+1)*SUB_BUCKETS;
+
+  private final Session session;
+  private final Class<?> eventClass;
+  private final int direction;
+
+  private final long[] buckets=new long[BUCKETS];
+  private volatile long count=0;
+  private long totalNanos=0;
+  private long maxNanos=0;
+
+  EventStatistics(Session session, Class<?> eventClass, int direction) {
+    this.session=session;
+    this.eventClass=eventClass;
+    this.direction=direction;
+  }
+
+  void record(long nanos) {
+    if (nanos < 0)
+      nanos=0;
+    buckets[bucket(nanos)]++;
+    totalNanos+=nanos;
+    if (nanos > maxNanos)
+      maxNanos=nanos;
+    count++;
+  }
+
+  private static int bucket(long value) {
+    if (value > MAX_VALUE)
+      value=MAX_VALUE;
+    if (value < SUB_BUCKETS)
+      return (int)value;
+    final int magnitude=63-Long.numberOfLeadingZeros(value);
+    final int sub=(int)(value >>> (magnitude-SUB_BITS)) & (SUB_BUCKETS-1);
+    return (magnitude-SUB_BITS+1)*SUB_BUCKETS+sub;
+  }
+
+  /* highest value counted in the bucket */
+  private static long bucketValue(int bucket) {
+    if (bucket < SUB_BUCKETS)
+      return bucket;
+    final int magnitude=bucket/SUB_BUCKETS+SUB_BITS-1;
+    final long sub=bucket % SUB_BUCKETS;
+    return ((SUB_BUCKETS+sub+1) << (magnitude-SUB_BITS))-1;
+  }
+
+  /** The session that handled the events. */
+  public Session getSession() {
+    return session;
+  }
+
+  /** The class of the events. */
+  public Class<?> getEventClass() {
+    return eventClass;
+  }
+
+  /** The direction of the events, {@link Direction#UP} or {@link Direction#DOWN}. */
+  public int getDirection() {
+    return direction;
+  }
+
+  /** Number of events handled. */
+  public long getCount() {
+    return count;
+  }
+
+  /** Total time spent handling the events, in nanoseconds. */
+  public long getTotalNanos() {
+    return totalNanos;
+  }
+
+  /** Longest time spent handling one event, in nanoseconds. */
+  public long getMaxNanos() {
+    return maxNanos;
+  }
+
+  /** Mean time spent handling an event, in nanoseconds. */
+  public long getMeanNanos() {
+    final long c=count;
+    return c == 0 ? 0 : totalNanos/c;
+  }
+
+  /**
+   * Time, in nanoseconds, within which the given percentage of the events 
+   * was handled.
+   * 
+   * @param percentile the percentage, between 0 and 100.
+   */
+  public long getPercentileNanos(double percentile) {
+    long total=0;
+    for (int i=0 ; i < BUCKETS ; i++)
+      total+=buckets[i];
+    if (total == 0)
+      return 0;
+
+    final long rank=Math.max(1,(long)Math.ceil(total*percentile/100.0));
+    long seen=0;
+    for (int i=0 ; i < BUCKETS ; i++) {
+      seen+=buckets[i];
+      if (seen >= rank)
+        return Math.min(bucketValue(i),maxNanos);
+    }
+    return maxNanos;
+  }
+
+  /**
+   * One line with the session, event, direction, count, and mean, 50th, 99th,
+   * 99.9th percentile and maximum latencies in microseconds.
+   */
+  public String toString() {
+    return session.getId()+" "+eventClass.getName()+" "+(direction == Direction.UP ? "UP" : "DOWN")+
+      " count="+count+
+      " mean="+micros(getMeanNanos())+
+      " p50="+micros(getPercentileNanos(50))+
+      " p99="+micros(getPercentileNanos(99))+
+      " p999="+micros(getPercentileNanos(99.9))+
+      " max="+micros(maxNanos)+"us";
+  }
+
+  private static String micros(long nanos) {
+    final long tenths=(nanos+50)/100;
+    return (tenths/10)+"."+(tenths%10);
+  }
+}
@@ -0,0 +1,106 @@
+/**
+ * Appia: Group communication and protocol composition framework library
+ * Copyright 2026 University of Lisbon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributor(s): See Appia web page for a list of contributors.
+ */
+
+package net.sf.appia.core;
+
+/**
+ * Immutable table that maps objects, compared by identity, to values.
+ * <br>
+ * It uses open addressing over arrays, so lookups take a few array reads
+ * and need no locking. Adding a key creates a new table.
+ *
+ * @see net.sf.appia.core.Channel
+ */
+final class IdentityTable {
+
+  static final IdentityTable EMPTY=new IdentityTable(new Object[0],new Object[0]);
+
+  private final Object[] keys;
+  private final Object[] values;
+  private final int mask;
+  private final int size;
+
+  /**
+   * Creates a table with the given keys and values.
+   */
+  IdentityTable(Object[] keys, Object[] values) {
+    int n=2;
+    while (n < 2*keys.length)
+      n<<=1;
+    this.keys=new Object[n];
+    this.values=new Object[n];
+    mask=n-1;
+    size=keys.length;
+
+    for (int i=0 ; i < keys.length ; i++) {
+      int pos=slot(keys[i]);
+      while (this.keys[pos] != null && this.keys[pos] != keys[i])
+        pos=(pos+1) & mask;
+      this.keys[pos]=keys[i];
+      this.values[pos]=values[i];
+    }
+  }
+
+  private int slot(Object key) {
+    final int h=System.identityHashCode(key);
+    return (h ^ (h >>> 16)) & mask;
+  }
+
+  /**
+   * @return the value of the key, or <tt>null</tt> if it is not in the table.
+   */
+  Object get(Object key) {
+    int pos=slot(key);
+    Object k;
+    while ((k=keys[pos]) != null) {
+      if (k == key)
+        return values[pos];
+      pos=(pos+1) & mask;
+    }
+    return null;
+  }
+
+  /**
+   * @return a new table with the entries of this one and the given one.
+   */
+  IdentityTable with(Object key, Object value) {
+    final Object[] newKeys=new Object[size+1];
+    final Object[] newValues=new Object[size+1];
+    int j=0;
+    for (int i=0 ; i < keys.length ; i++) {
+      if (keys[i] != null && keys[i] != key) {
+        newKeys[j]=keys[i];
+        newValues[j]=values[i];
+        j++;
+      }
+    }
+    newKeys[j]=key;
+    newValues[j]=value;
+    j++;
+
+    if (j < newKeys.length) {
+      final Object[] k=new Object[j];
+      final Object[] v=new Object[j];
+      System.arraycopy(newKeys,0,k,0,j);
+      System.arraycopy(newValues,0,v,0,j);
+      return new IdentityTable(k,v);
+    }
+    return new IdentityTable(newKeys,newValues);
+  }
+}
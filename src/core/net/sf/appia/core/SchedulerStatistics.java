@@ -0,0 +1,121 @@
+/**
+ * Appia: Group communication and protocol composition framework library
+ * Copyright 2026 University of Lisbon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ *
+ * Contributor(s): See Appia web page for a list of contributors.
+ */
+package net.sf.appia.core;
+
+/**
+ * Statistics of the events consumed by an 
+ * {@link net.sf.appia.core.EventScheduler EventScheduler}.
+ * <br>
+ * For each session, event class and direction it keeps an
+ * {@link net.sf.appia.core.EventStatistics EventStatistics} with the number of
+ * events and the time spent handling them. It also keeps the longest length
+ * of the queues of the scheduler.
+ * <br>
+ * Statistics are recorded by the event loop thread. Recording an event only
+ * allocates the first time its session, class and direction are seen. 
+ * They may be read by any thread.
+ *
+ * @see net.sf.appia.core.EventScheduler#setStatisticsEnabled(boolean)
+ */
+public final class SchedulerStatistics {
+
+  private static final EventStatistics[] NO_STATISTICS=new EventStatistics[0];
+
+  private final long startTime=System.currentTimeMillis();
+  
+  /* Session -> IdentityTable of event class -> EventStatistics[2], up and down */
+  private volatile IdentityTable sessions=IdentityTable.EMPTY;
+  private volatile EventStatistics[] all=NO_STATISTICS;
+
+  private volatile int maxMainQueue=0;
+  private volatile int maxReverseQueue=0;
+
+  SchedulerStatistics() {}
+
+  void record(Session session, Class<?> eventClass, int direction, long nanos) {
+    final IdentityTable classes=(IdentityTable)sessions.get(session);
+    EventStatistics[] pair=null;
+    if (classes != null)
+      pair=(EventStatistics[])classes.get(eventClass);
+    final int i=(direction == Direction.UP) ? 0 : 1;
+    EventStatistics stats=(pair == null) ? null : pair[i];
+    if (stats == null)
+      stats=add(session,eventClass,direction,classes,pair,i);
+    stats.record(nanos);
+  }
+
+  private EventStatistics add(Session session, Class<?> eventClass, int direction, 
+      IdentityTable classes, EventStatistics[] pair, int i) {
+    final EventStatistics stats=new EventStatistics(session,eventClass,direction);
+    if (pair == null) {
+      pair=new EventStatistics[2];
+      final IdentityTable newClasses=(classes == null ? IdentityTable.EMPTY : classes).with(eventClass,pair);
+      sessions=sessions.with(session,newClasses);
+    }
+    pair[i]=stats;
+
+    final EventStatistics[] newAll=new EventStatistics[all.length+1];
+    System.arraycopy(all,0,newAll,0,all.length);
+    newAll[all.length]=stats;
+    all=newAll;
+    return stats;
+  }
+
+  void queues(int main, int reverse) {
+    if (main > maxMainQueue)
+      maxMainQueue=main;
+    if (reverse > maxReverseQueue)
+      maxReverseQueue=reverse;
+  }
+
+  /** Statistics of all the sessions, events and directions seen. */
+  public EventStatistics[] getEventStatistics() {
+    return all.clone();
+  }
+
+  /** Statistics of the events handled by the given session. */
+  public EventStatistics[] getEventStatistics(Session session) {
+    final EventStatistics[] a=all;
+    int n=0;
+    for (int i=0 ; i < a.length ; i++)
+      if (a[i].getSession() == session)
+        n++;
+    final EventStatistics[] r=new EventStatistics[n];
+    n=0;
+    for (int i=0 ; i < a.length ; i++)
+      if (a[i].getSession() == session)
+        r[n++]=a[i];
+    return r;
+  }
+
+  /** Time when the statistics started, in milliseconds. */
+  public long getStartTime() {
+    return startTime;
+  }
+
+  /** Longest length of the queue of events of the current session and direction. */
+  public int getMaxMainQueue() {
+    return maxMainQueue;
+  }
+
+  /** Longest length of the queue of events of the current session going in the opposite direction. */
+  public int getMaxReverseQueue() {
+    return maxReverseQueue;
+  }
+}
@@ -168,11 +168,11 @@ public class TimerManager implements Runnable, TimeProvider {
     }
   }
   
-  private synchronized void setAlive(boolean alive) {
+  protected synchronized void setAlive(boolean alive) {
     this.alive=alive;
   }
   
-  private synchronized boolean isAlive() {
+  protected synchronized boolean isAlive() {
     return alive;
   }
   
@@ -243,7 +243,11 @@ public class TimerManager implements Runnable, TimeProvider {
    * @see java.lang.Thread#start
    */  
   public void start() {
-    setAlive(true);
+    synchronized (this) {
+      if (alive)
+        return;
+      alive=true;
+    }
     thread.start();
   }
   
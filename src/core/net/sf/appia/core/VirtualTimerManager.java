@@ -0,0 +1,390 @@
+/**
+ * Appia: Group communication and protocol composition framework library
+ * Copyright 2026 University of Lisbon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ *
+ * Contributor(s): See Appia web page for a list of contributors.
+ */
+package net.sf.appia.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.LockSupport;
+
+import net.sf.appia.core.events.channel.ChannelEvent;
+import net.sf.appia.core.events.channel.PeriodicTimer;
+import net.sf.appia.core.events.channel.Timer;
+
+/**
+ * <I>Appia</I> timers manager with a virtual clock, for simulations.
+ * <br>
+ * The time only advances when every registered {@link Appia} is idle, and
+ * then it jumps directly to the next timer. A simulation therefore runs as
+ * fast as its events are processed, independently of the timeouts used by the
+ * protocols. Besides timers, it executes tasks at given instants of the virtual
+ * time, which are used by simulated transports, such as
+ * {@link net.sf.appia.protocols.simnet.SimNetLayer}, to deliver messages.
+ * <br>
+ * Timers and tasks with the same time are executed in the order they were
+ * scheduled. If all simulated nodes share one Appia with a single event loop,
+ * and only this manager inserts events from other threads, every run of the
+ * same simulation is identical.
+ * <br>
+ * Each Appia must be {@link #register(Appia) registered} before its channels
+ * are created, since channels keep the timer manager of their Appia.
+ *
+ * @see net.sf.appia.core.TimerManager
+ */
+public class VirtualTimerManager extends TimerManager {
+
+  /**
+   * Default initial time, in milliseconds since January 1st, 1970. 
+   * It is fixed so that runs are reproducible.
+   */
+  public static final long DEFAULT_EPOCH=1000000000000L;
+
+  private static final long NANOS_PER_MILLI=1000000;
+  private static final long NANOS_PER_MICRO=1000;
+  private static final int SPINS=100;
+  private static final long PARK_NANOS=20000;
+
+  /**
+   * A timer or a task. Ordered by time and then by the order they were scheduled.
+   */
+  private static final class Entry implements Comparable<Entry> {
+    private final String id;
+    private final long period;
+    private final ChannelEvent event;
+    private final Runnable task;
+    private long time;
+    private long seq;
+    private Entry sameId;
+    private boolean cancelled=false;
+
+    private Entry(String id, long period, ChannelEvent event, Runnable task) {
+      this.id=id;
+      this.period=period;
+      this.event=event;
+      this.task=task;
+    }
+
+    public int compareTo(Entry other) {
+      if (time != other.time)
+        return time < other.time ? -1 : 1;
+      if (seq != other.seq)
+        return seq < other.seq ? -1 : 1;
+      return 0;
+    }
+  }
+
+  private final TreeSet<Entry> queue=new TreeSet<Entry>();
+  private final HashMap<String,Entry> timers=new HashMap<String,Entry>();
+  private final CopyOnWriteArrayList<Appia> appias=new CopyOnWriteArrayList<Appia>();
+  private final long epoch;
+
+  // virtual time, in nanoseconds since the epoch
+  private volatile long now=0;
+  private long seq=0;
+  private long executed=0;
+  private boolean waiting=false;
+
+  /**
+   * Creates a new VirtualTimerManager, starting at the {@link #DEFAULT_EPOCH}.
+   */
+  public VirtualTimerManager(ThreadFactory thf) {
+    this(thf,DEFAULT_EPOCH);
+  }
+
+  /**
+   * Creates a new VirtualTimerManager.
+   *
+   * @param thf the factory of the manager thread
+   * @param epoch the initial time, in milliseconds since January 1st, 1970
+   */
+  public VirtualTimerManager(ThreadFactory thf, long epoch) {
+    super(thf);
+    this.epoch=epoch;
+  }
+
+  /**
+   * Makes the given Appia use this manager. The time only advances when all
+   * registered Appias are idle. If none is registered, it advances as soon
+   * as the previous timers are executed.
+   */
+  public void register(Appia appia) {
+    if (!appias.contains(appia))
+      appias.add(appia);
+    if (appia.instanceGetTimerManager() != this)
+      appia.instanceSetTimerManager(this);
+  }
+
+  /**
+   * Stops waiting for the given Appia.
+   */
+  public void unregister(Appia appia) {
+    appias.remove(appia);
+  }
+
+  public void handleTimerRequest(Timer timer) {
+    final int q=timer.getQualifierMode();
+
+    if ( q == EventQualifier.ON )
+      schedule(new Entry(timer.timerID,0,timer,null),timer.getTimeout()*NANOS_PER_MILLI);
+    else if ( q == EventQualifier.OFF )
+      cancel(timer.timerID);
+  }
+
+  public void handlePeriodicTimer(PeriodicTimer timer) {
+    final int q=timer.getQualifierMode();
+
+    if ( q == EventQualifier.ON )
+      schedule(new Entry(timer.timerID,timer.getPeriod()*NANOS_PER_MILLI,timer,null),
+          timer.getPeriod()*NANOS_PER_MILLI);
+    else if ( q == EventQualifier.OFF )
+      cancel(timer.timerID);
+  }
+
+  /**
+   * Executes the given task, in the manager thread, after the given virtual delay.
+   * The task must not block, and should only insert events with
+   * {@link Event#asyncGo(Channel, int) asyncGo}.
+   *
+   * @param task the task to execute
+   * @param delay the delay, in nanoseconds
+   */
+  public void schedule(Runnable task, long delay) {
+    schedule(new Entry(null,0,null,task),delay);
+  }
+
+  private synchronized void schedule(Entry entry, long delay) {
+    if (entry.id != null) {
+      final Entry first=timers.get(entry.id);
+      if (first != null)
+        entry.sameId=first;
+      timers.put(entry.id,entry);
+    }
+    enqueue(entry,now+Math.max(delay,0));
+    if (waiting)
+      notify();
+  }
+
+  private void enqueue(Entry entry, long time) {
+    entry.time=time;
+    entry.seq=seq++;
+    queue.add(entry);
+  }
+
+  /**
+   * Cancels the timer with the given ID. If several exist, the one that
+   * expires first is cancelled.
+   */
+  private synchronized void cancel(String timerID) {
+    Entry entry=timers.get(timerID);
+    if (entry == null)
+      return;
+
+    Entry found=entry, foundPrev=null, prev=null;
+    for ( ; entry != null ; prev=entry, entry=entry.sameId) {
+      if (entry.compareTo(found) < 0) {
+        found=entry;
+        foundPrev=prev;
+      }
+    }
+
+    unlinkId(found,foundPrev);
+    found.cancelled=true;
+    queue.remove(found);
+  }
+
+  private void unlinkId(Entry entry, Entry prev) {
+    if (prev != null)
+      prev.sameId=entry.sameId;
+    else if (entry.sameId != null)
+      timers.put(entry.id,entry.sameId);
+    else
+      timers.remove(entry.id);
+    entry.sameId=null;
+  }
+
+  private void removeId(Entry entry) {
+    Entry prev=null;
+    for (Entry e=timers.get(entry.id) ; e != null ; prev=e, e=e.sameId) {
+      if (e == entry) {
+        unlinkId(entry,prev);
+        return;
+      }
+    }
+  }
+
+  /**
+   * Number of pending timers and tasks.
+   */
+  public synchronized int size() {
+    return queue.size();
+  }
+
+  /**
+   * Number of timers and tasks executed so far.
+   */
+  public synchronized long getExecuted() {
+    return executed;
+  }
+
+  /**
+   * Advances the time to the next timer and removes all the timers and tasks
+   * of that instant.
+   *
+   * @return false if there are no timers
+   */
+  private synchronized boolean expire(ArrayList<Entry> expired) {
+    if (queue.isEmpty())
+      return false;
+
+    final long time=queue.first().time;
+    if (time > now)
+      now=time;
+    while (!queue.isEmpty() && queue.first().time == time) {
+      final Entry entry=queue.first();
+      queue.remove(entry);
+      // periodic timers keep their ID until cancelled
+      if (entry.id != null && entry.period <= 0)
+        removeId(entry);
+      expired.add(entry);
+    }
+    executed+=expired.size();
+    return true;
+  }
+
+  private synchronized void reschedule(Entry entry) {
+    if (!entry.cancelled)
+      enqueue(entry,entry.time+entry.period);
+  }
+
+  private synchronized void sleep() {
+    waiting=true;
+    try {
+      while (isAlive() && queue.isEmpty())
+        wait();
+    } catch (InterruptedException e) {
+      // stopping
+    } finally {
+      waiting=false;
+    }
+  }
+
+  /**
+   * Waits until every registered Appia is idle. Nothing else inserts events
+   * while this thread waits, so it is enough to see them idle once.
+   */
+  private void awaitIdle() {
+    int spins=0;
+    while (isAlive() && !isIdle()) {
+      if (spins++ < SPINS)
+        Thread.yield();
+      else
+        LockSupport.parkNanos(PARK_NANOS);
+    }
+  }
+
+  private boolean isIdle() {
+    for (Appia appia : appias) {
+      if (!appia.instanceIsIdle())
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Sends the expired timers back to their channels and executes the tasks.
+   */
+  private void dispatch(ArrayList<Entry> expired) {
+    for (int i=0 ; i < expired.size() ; i++) {
+      final Entry entry=expired.get(i);
+
+      if (entry.task != null) {
+        entry.task.run();
+        continue;
+      }
+
+      try {
+        ChannelEvent event;
+        if (entry.period > 0)
+          event=(ChannelEvent) entry.event.cloneEvent();
+        else
+          event=entry.event;
+
+        event.setQualifierMode(EventQualifier.NOTIFY);
+        event.asyncGo(event.getChannel(),Direction.invert(event.getDir()));
+      }
+      catch (AppiaEventException e) {
+        //e.printStackTrace();
+      }
+      catch (CloneNotSupportedException e) {
+        throw new AppiaError("VirtualTimerManager: CloneNotSupportedException ");
+      }
+
+      if (entry.period > 0)
+        reschedule(entry);
+    }
+  }
+
+  public void stop() {
+    super.stop();
+    synchronized (this) {
+      notify();
+    }
+  }
+
+  /**
+   * Current virtual time in milliseconds.
+   */
+  public long currentTimeMillis() {
+    return epoch+now/NANOS_PER_MILLI;
+  }
+
+  /**
+   * Current virtual time in microseconds.
+   */
+  public long currentTimeMicros() {
+    return epoch*(NANOS_PER_MILLI/NANOS_PER_MICRO)+now/NANOS_PER_MICRO;
+  }
+
+  /**
+   * Current virtual time in nanoseconds, since the epoch.
+   */
+  public long nanoTime() {
+    return now;
+  }
+
+  /** The code executed by the manager thread.
+   * @see java.lang.Thread#run
+   */
+  public void run() {
+    final ArrayList<Entry> expired=new ArrayList<Entry>();
+
+    while (isAlive()) {
+      awaitIdle();
+      if (!isAlive())
+        break;
+      if (expire(expired)) {
+        dispatch(expired);
+        expired.clear();
+      } else
+        sleep();
+    }
+  }
+}
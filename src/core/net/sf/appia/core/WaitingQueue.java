@@ -0,0 +1,145 @@
+/**
+ * Appia: Group communication and protocol composition framework library
+ * Copyright 2026 University of Lisbon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributor(s): See Appia web page for a list of contributors.
+ */
+
+package net.sf.appia.core;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Queue of the {@link net.sf.appia.core.Event Events} inserted in an
+ * {@link net.sf.appia.core.EventScheduler EventScheduler} from outside of
+ * its event loop.
+ * <br>
+ * The queue accepts several concurrent producers and a single consumer,
+ * the event loop thread, without using locks. There is one FIFO lane per
+ * event priority and a bitmap of the lanes that may hold events, so
+ * inserting and removing are independent of the number of queued events.
+ * Events with higher priority are removed first.
+ *
+ * @see net.sf.appia.core.EventScheduler
+ */
+final class WaitingQueue {
+
+  private static final int LANES=Event.MAX_PRIORITY+1;
+  private static final int WORDS=(LANES+63)/64;
+
+  private final AtomicReferenceArray<ConcurrentLinkedQueue<Event>> lanes=
+    new AtomicReferenceArray<ConcurrentLinkedQueue<Event>>(LANES);
+  private final AtomicLongArray bitmap=new AtomicLongArray(WORDS);
+
+  /**
+   * Inserts an event. May be called by any thread.
+   */
+  void offer(Event event) {
+    final int priority=event.getPriority();
+    getLane(priority).offer(event);
+    setBit(priority);
+  }
+
+  /**
+   * Removes the next event, with the highest priority.
+   * <b>Must only be called by the event loop thread.</b>
+   *
+   * @return the next event or <tt>null</tt> if the queue is empty.
+   */
+  Event poll() {
+    for (int w=WORDS-1 ; w >= 0 ; w--) {
+      long bits=bitmap.get(w);
+      while (bits != 0) {
+        final int bit=63-Long.numberOfLeadingZeros(bits);
+        final int priority=(w << 6)+bit;
+        final ConcurrentLinkedQueue<Event> lane=lanes.get(priority);
+
+        Event event=lane.poll();
+        if (event != null)
+          return event;
+
+        // the lane seems empty; a producer that inserted meanwhile sets the bit again
+        clearBit(priority);
+        if (lane.isEmpty()) {
+          bits&=~(1L << bit);
+        } else {
+          setBit(priority);
+          event=lane.poll();
+          if (event != null)
+            return event;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Tests if the queue may have events.
+   * It may return true, but never false, for a queue that is being emptied.
+   */
+  boolean isEmpty() {
+    for (int w=0 ; w < WORDS ; w++) {
+      if (bitmap.get(w) != 0)
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Counts the queued events, for monitoring. May be called by any thread.
+   * It visits all the queued events and the result is approximate while
+   * events are being inserted or removed.
+   */
+  int size() {
+    int size=0;
+    for (int priority=0 ; priority < LANES ; priority++) {
+      final ConcurrentLinkedQueue<Event> lane=lanes.get(priority);
+      if (lane != null)
+        size+=lane.size();
+    }
+    return size;
+  }
+
+  private ConcurrentLinkedQueue<Event> getLane(int priority) {
+    ConcurrentLinkedQueue<Event> lane=lanes.get(priority);
+    if (lane == null) {
+      lanes.compareAndSet(priority,null,new ConcurrentLinkedQueue<Event>());
+      lane=lanes.get(priority);
+    }
+    return lane;
+  }
+
+  private void setBit(int priority) {
+    final int w=priority >>> 6;
+    final long mask=1L << (priority & 63);
+    long bits;
+    while (((bits=bitmap.get(w)) & mask) == 0) {
+      if (bitmap.compareAndSet(w,bits,bits | mask))
+        return;
+    }
+  }
+
+  private void clearBit(int priority) {
+    final int w=priority >>> 6;
+    final long mask=1L << (priority & 63);
+    long bits;
+    while (((bits=bitmap.get(w)) & mask) != 0) {
+      if (bitmap.compareAndSet(w,bits,bits & ~mask))
+        return;
+    }
+  }
+}
@@ -0,0 +1,362 @@
+/**
+ * Appia: Group communication and protocol composition framework library
+ * Copyright 2026 University of Lisbon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Contributor(s): See Appia web page for a list of contributors.
+ */
+
+package net.sf.appia.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ThreadFactory;
+
+import net.sf.appia.core.events.channel.ChannelEvent;
+import net.sf.appia.core.events.channel.PeriodicTimer;
+import net.sf.appia.core.events.channel.Timer;
+
+/**
+ * <I>Appia</I> timers manager based on a hashed timing wheel.
+ * <br>
+ * Timers are kept in a circular array of buckets, each one covering one tick.
+ * Scheduling a timer and cancelling it (by its ID) take constant time,
+ * independently of the number of pending timers. Timers expire with the
+ * precision of one tick and never before their time.
+ * <br>
+ * When <i>coalescing</i> is on, all the timers that expire in the same tick
+ * are inserted in their channels with a single wake-up of each event loop.
+ * <br>
+ * To use it, set it with {@link net.sf.appia.core.Appia#setTimerManager(TimerManager)}
+ * or with the <tt>timerManager</tt> attribute of the XML configuration.
+ *
+ * @see net.sf.appia.core.TimerManager
+ */
+public class WheelTimerManager extends TimerManager {
+
+  /**
+   * Default duration of a tick, in milliseconds.
+   */
+  public static final long DEFAULT_TICK=10;
+  /**
+   * Default number of buckets of the wheel.
+   */
+  public static final int DEFAULT_WHEEL_SIZE=512;
+
+  private static final long NANOS_PER_MILLI=1000000;
+
+  /**
+   * A pending timer. It is both a node of its bucket and of the list of
+   * timers with the same ID.
+   */
+  private static final class Entry {
+    private final String id;
+    private final long period;
+    private final ChannelEvent event;
+    private long deadline;
+    private Entry prev;
+    private Entry next;
+    private Entry sameId;
+    private boolean scheduled=false;
+    private boolean cancelled=false;
+
+    private Entry(String id, long period, ChannelEvent event) {
+      this.id=id;
+      this.period=period;
+      this.event=event;
+    }
+  }
+
+  private final long tickNanos;
+  private final Entry[] wheel;
+  private final int mask;
+  private final HashMap<String,Entry> timers=new HashMap<String,Entry>();
+  private final long startNanos=System.nanoTime();
+
+  private long currentTick=0;
+  private int size=0;
+  private boolean idle=false;
+  private boolean coalesce=true;
+
+  /**
+   * Creates a new WheelTimerManager with the default tick and wheel size.
+   */
+  public WheelTimerManager(ThreadFactory thf) {
+    this(thf,DEFAULT_TICK,DEFAULT_WHEEL_SIZE);
+  }
+
+  /**
+   * Creates a new WheelTimerManager.
+   *
+   * @param thf the factory of the manager thread
+   * @param tick the duration of a tick, in milliseconds
+   * @param wheelSize the number of buckets, rounded up to a power of two
+   */
+  public WheelTimerManager(ThreadFactory thf, long tick, int wheelSize) {
+    super(thf);
+    if (tick <= 0)
+      throw new IllegalArgumentException("WheelTimerManager: tick must be positive");
+    if (wheelSize <= 0 || wheelSize > (1 << 30))
+      throw new IllegalArgumentException("WheelTimerManager: invalid wheel size "+wheelSize);
+
+    int n=1;
+    while (n < wheelSize)
+      n<<=1;
+    tickNanos=tick*NANOS_PER_MILLI;
+    wheel=new Entry[n];
+    mask=n-1;
+  }
+
+  /**
+   * Sets if timers that expire in the same tick are delivered with a single
+   * wake-up of each event loop. It is on by default.
+   */
+  public synchronized void setCoalesce(boolean coalesce) {
+    this.coalesce=coalesce;
+  }
+
+  public synchronized boolean isCoalesce() {
+    return coalesce;
+  }
+
+  /**
+   * Number of pending timers.
+   */
+  public synchronized int size() {
+    return size;
+  }
+
+  public void handleTimerRequest(Timer timer) {
+    final int q=timer.getQualifierMode();
+
+    if ( q == EventQualifier.ON )
+      schedule(new Entry(timer.timerID,0,timer),timer.getTimeout());
+    else if ( q == EventQualifier.OFF )
+      cancel(timer.timerID);
+  }
+
+  public void handlePeriodicTimer(PeriodicTimer timer) {
+    final int q=timer.getQualifierMode();
+
+    if ( q == EventQualifier.ON )
+      schedule(new Entry(timer.timerID,timer.getPeriod(),timer),timer.getPeriod());
+    else if ( q == EventQualifier.OFF )
+      cancel(timer.timerID);
+  }
+
+  private synchronized void schedule(Entry entry, long timeout) {
+    final Entry first=timers.get(entry.id);
+    if (first != null)
+      entry.sameId=first;
+    timers.put(entry.id,entry);
+
+    entry.deadline=tickOf(System.nanoTime()+timeout*NANOS_PER_MILLI);
+    link(entry);
+
+    if (idle)
+      notify();
+  }
+
+  /**
+   * Cancels the timer with the given ID. If several exist, the one that
+   * expires first is cancelled.
+   */
+  private synchronized void cancel(String timerID) {
+    Entry entry=timers.get(timerID);
+    if (entry == null)
+      return;
+
+    Entry found=entry, foundPrev=null, prev=null;
+    for ( ; entry != null ; prev=entry, entry=entry.sameId) {
+      if (entry.deadline < found.deadline) {
+        found=entry;
+        foundPrev=prev;
+      }
+    }
+
+    unlinkId(found,foundPrev);
+    found.cancelled=true;
+    if (found.scheduled)
+      unlink(found);
+  }
+
+  private void unlinkId(Entry entry, Entry prev) {
+    if (prev != null)
+      prev.sameId=entry.sameId;
+    else if (entry.sameId != null)
+      timers.put(entry.id,entry.sameId);
+    else
+      timers.remove(entry.id);
+    entry.sameId=null;
+  }
+
+  private void removeId(Entry entry) {
+    Entry prev=null;
+    for (Entry e=timers.get(entry.id) ; e != null ; prev=e, e=e.sameId) {
+      if (e == entry) {
+        unlinkId(entry,prev);
+        return;
+      }
+    }
+  }
+
+  private void link(Entry entry) {
+    if (entry.deadline <= currentTick)
+      entry.deadline=currentTick+1;
+
+    final int bucket=(int) (entry.deadline & mask);
+    entry.prev=null;
+    entry.next=wheel[bucket];
+    if (entry.next != null)
+      entry.next.prev=entry;
+    wheel[bucket]=entry;
+    entry.scheduled=true;
+    size++;
+  }
+
+  private void unlink(Entry entry) {
+    if (entry.prev != null)
+      entry.prev.next=entry.next;
+    else
+      wheel[(int) (entry.deadline & mask)]=entry.next;
+    if (entry.next != null)
+      entry.next.prev=entry.prev;
+    entry.prev=entry.next=null;
+    entry.scheduled=false;
+    size--;
+  }
+
+  private long tickOf(long nanos) {
+    return (nanos-startNanos+tickNanos-1)/tickNanos;
+  }
+
+  /**
+   * Advances the wheel to the current tick and removes the expired timers.
+   */
+  private synchronized void expire(ArrayList<Entry> expired) {
+    final long now=(System.nanoTime()-startNanos)/tickNanos;
+    long from=currentTick+1;
+    if (now-from >= wheel.length)
+      from=now-wheel.length+1;
+
+    for (long t=from ; t <= now ; t++) {
+      Entry entry=wheel[(int) (t & mask)];
+      while (entry != null) {
+        final Entry next=entry.next;
+        if (entry.deadline <= now) {
+          unlink(entry);
+          // periodic timers keep their ID until cancelled
+          if (entry.period <= 0)
+            removeId(entry);
+          expired.add(entry);
+        }
+        entry=next;
+      }
+    }
+    if (now > currentTick)
+      currentTick=now;
+  }
+
+  private synchronized void reschedule(Entry entry) {
+    if (!entry.cancelled) {
+      entry.deadline=currentTick+(entry.period*NANOS_PER_MILLI+tickNanos-1)/tickNanos;
+      link(entry);
+    }
+  }
+
+  private synchronized void sleep() {
+    try {
+      if (size == 0) {
+        idle=true;
+        wait();
+      } else {
+        final long nextTick=startNanos+(currentTick+1)*tickNanos;
+        final long millis=(nextTick-System.nanoTime()+NANOS_PER_MILLI-1)/NANOS_PER_MILLI;
+        if (millis > 0)
+          wait(millis);
+      }
+    } catch (InterruptedException e) {
+      // stopping
+    } finally {
+      idle=false;
+    }
+  }
+
+  /**
+   * Sends the expired timers back to their channels.
+   */
+  private void dispatch(ArrayList<Entry> expired) {
+    final boolean wakeEach=!isCoalesce();
+    final IdentityHashMap<EventLoop,EventLoop> loops=
+      wakeEach ? null : new IdentityHashMap<EventLoop,EventLoop>();
+
+    for (int i=0 ; i < expired.size() ; i++) {
+      final Entry entry=expired.get(i);
+      try {
+        ChannelEvent event;
+        if (entry.period > 0)
+          event=(ChannelEvent) entry.event.cloneEvent();
+        else
+          event=entry.event;
+
+        event.setQualifierMode(EventQualifier.NOTIFY);
+        ((Event) event).asyncGo(event.getChannel(),Direction.invert(event.getDir()),wakeEach);
+
+        if (!wakeEach) {
+          final EventLoop loop=event.getChannel().getEventScheduler().getEventLoop();
+          if (loop != null)
+            loops.put(loop,loop);
+        }
+      }
+      catch (AppiaEventException e) {
+        //e.printStackTrace();
+      }
+      catch (CloneNotSupportedException e) {
+        throw new AppiaError("WheelTimerManager: CloneNotSupportedException ");
+      }
+
+      if (entry.period > 0)
+        reschedule(entry);
+    }
+
+    if (!wakeEach) {
+      for (EventLoop loop : loops.keySet())
+        loop.insertedEvent();
+    }
+  }
+
+  public void stop() {
+    super.stop();
+    synchronized (this) {
+      notify();
+    }
+  }
+
+  /** The code executed by the manager thread.
+   * @see java.lang.Thread#run
+   */
+  public void run() {
+    final ArrayList<Entry> expired=new ArrayList<Entry>();
+
+    while (isAlive()) {
+      expire(expired);
+      if (!expired.isEmpty()) {
+        dispatch(expired);
+        expired.clear();
+      }
+      sleep();
+    }
+  }
+}
@@ -52,7 +52,7 @@ public class SendableEvent extends Event implements Cloneable {
 
   public SendableEvent(Channel channel, int dir, Session source) throws AppiaEventException {
     super(channel,dir,source);
-    message=new Message();
+    message=channel.getMessageFactory().newMessage();
     detached = false;
     // added on 9-Jul-2001
     attachToMemory();		
@@ -123,6 +123,8 @@ public class SendableEvent extends Event implements Cloneable {
 	 * he reaches the end of his route or if we dont call the go() method in 
 	 * the last session. If this is not done by the protocol programmer, it is 
 	 * done in the finalizer of the message, but the performance is not so good.
+	 * Messages of a {@link net.sf.appia.core.message.PooledMessageFactory PooledMessageFactory}
+	 * are not finalized, and are detached when released. The event itself has no finalizer.
 	 * @see net.sf.appia.core.message.Message
 	 * @see net.sf.appia.core.memoryManager.MemoryManager
 	 */
@@ -143,15 +145,4 @@ public class SendableEvent extends Event implements Cloneable {
 	    return ev;
 	}
 
-	/**
-	 * Called when the garbage Collector runs and this object is going to
-	 * be destroyed.
-	 * @see java.lang.Object#finalize()
-	 */
-	protected void finalize() throws Throwable {
-	    super.finalize();
-        if(message!=null && message.length() > 0)
-	    detachFromMemory();
-	}
-
 }
@@ -21,12 +21,17 @@ package net.sf.appia.core.memoryManager;
 
 import java.io.*;
 import java.security.InvalidParameterException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.sf.appia.core.*;
 
 /**
  * This class is used by the events and a {@link net.sf.appia.core.Channel} to stabilish a
  * maximum number of bytes used by {@link net.sf.appia.core.message.Message messages} that a channel can hold.
+ * <br>
+ * The used memory is updated by the Appia thread and by the threads that insert events
+ * in the channel, so it is kept in an atomic counter. Threads that wait for the memory
+ * to go below a threshold are only woken when there are threads waiting.
  *
  * @see Channel
  * @see net.sf.appia.core.message.Message
@@ -45,7 +50,7 @@ public class MemoryManager {
 	/*
 	 * contains the size of allocated memory
 	 */
-	private int currentSize;
+	private final AtomicInteger currentSize = new AtomicInteger(0);
 	/*
 	 * contains a tolerance margin
 	 */
@@ -53,6 +58,10 @@ public class MemoryManager {
 	private int downthreshold;
 	
 	private Object downMutex = new Object(), upMutex = new Object();
+	/*
+	 * number of threads waiting on each mutex, guarded by the mutex
+	 */
+	private volatile int downWaiting = 0, upWaiting = 0;
 	
 	/**
 	 * Constructor of the class.
@@ -68,7 +77,6 @@ public class MemoryManager {
 			maxSize = 0;
 		else
 			maxSize = size;
-		currentSize = 0;
 		setThreshold(upth, Direction.UP);
 		setThreshold(downth,Direction.DOWN);
 		if (AppiaConfig.MM_DEBUG_ON && debugOutput!=null)
@@ -83,10 +91,10 @@ public class MemoryManager {
 	 */
 	public boolean aboveThreshold(int direction) throws InvalidParameterException {
 		if(direction == Direction.UP){
-			return currentSize >= upthreshold;
+			return currentSize.get() >= upthreshold;
 		}
 		else if(direction == Direction.DOWN){
-			return currentSize >= downthreshold;
+			return currentSize.get() >= downthreshold;
 		}
 		else
 			throw new InvalidParameterException("Direction must be UP or DOWN in aboveThreshold");
@@ -104,14 +112,22 @@ public class MemoryManager {
 		// the aboveThreshold() already verifies is the direction parameter is valid.
 		boolean above = aboveThreshold(direction);
 		if(above){
-			Object sync = null;
-			if(direction == Direction.UP)
-				sync = upMutex;
-			else
-				sync = downMutex;
+			final boolean up = direction == Direction.UP;
+			final Object sync = up ? upMutex : downMutex;
 			synchronized (sync) {
-				while(above = aboveThreshold(direction)){
-					sync.wait();
+				if(up)
+					upWaiting++;
+				else
+					downWaiting++;
+				try {
+					while(above = aboveThreshold(direction)){
+						sync.wait();
+					}
+				} finally {
+					if(up)
+						upWaiting--;
+					else
+						downWaiting--;
 				}
 			}
 		}
@@ -172,7 +188,7 @@ public class MemoryManager {
 	 * @param newSize the new size of the memory (in bytes).
 	 */
 	public void setMaxSize(int newSize) throws AppiaWrongSizeException {
-		if ((newSize <= 0) || (newSize < currentSize)) 
+		if ((newSize <= 0) || (newSize < currentSize.get())) 
 			throw new AppiaWrongSizeException("Could not set size of "+mmID+" to "+newSize);
 		maxSize = newSize;
 	} // end of method setMaxSize
@@ -188,7 +204,7 @@ public class MemoryManager {
 	 * Gets the amount of memory (in bytes) occupied in the memory manager.
 	 */
 	public int used() {
-		return currentSize;
+		return currentSize.get();
 	}
 	
 	/**
@@ -199,13 +215,16 @@ public class MemoryManager {
 	public boolean malloc(int nBytes) {
 		if (nBytes <= 0)
 			return true;
-		if ((currentSize + nBytes) > maxSize) {
-			if (AppiaConfig.MM_DEBUG_ON && debugOutput!=null)
-				debugOutput.println("MemoryManager: "+mmID+": malloc of "+nBytes+
-						" bytes FAILED! current size = "+currentSize);
-			return false;
-		}
-		currentSize += nBytes;
+		int size;
+		do {
+			size = currentSize.get();
+			if ((size + nBytes) > maxSize) {
+				if (AppiaConfig.MM_DEBUG_ON && debugOutput!=null)
+					debugOutput.println("MemoryManager: "+mmID+": malloc of "+nBytes+
+							" bytes FAILED! current size = "+size);
+				return false;
+			}
+		} while (!currentSize.compareAndSet(size, size + nBytes));
 		
 		if (AppiaConfig.MM_DEBUG_ON && debugOutput!=null)
 			debugOutput.println("MemoryManager: "+mmID+": malloc of "+nBytes+
@@ -221,18 +240,21 @@ public class MemoryManager {
 		if (nBytes == 0)
 			return;
 		
-		if (nBytes < 0 || currentSize == 0) { 
-			if(AppiaConfig.MM_DEBUG_ON && debugOutput!=null)
-				debugOutput.println("MemoryManager: "+mmID+": free error: state is nBytes="+nBytes+" and "+
-						"currentSize="+currentSize);
-			return;
-		}
-		
-		currentSize -= Math.min(nBytes,currentSize);
+		int size, newSize;
+		do {
+			size = currentSize.get();
+			if (nBytes < 0 || size == 0) { 
+				if(AppiaConfig.MM_DEBUG_ON && debugOutput!=null)
+					debugOutput.println("MemoryManager: "+mmID+": free error: state is nBytes="+nBytes+" and "+
+							"currentSize="+size);
+				return;
+			}
+			newSize = size - Math.min(nBytes,size);
+		} while (!currentSize.compareAndSet(size, newSize));
 		
-		if(currentSize <= (downthreshold*NOTIFY_THRESHOLD))
+		if(downWaiting > 0 && newSize <= (downthreshold*NOTIFY_THRESHOLD))
 			synchronized (downMutex) { downMutex.notifyAll(); }
-		if(currentSize <= (upthreshold*NOTIFY_THRESHOLD))
+		if(upWaiting > 0 && newSize <= (upthreshold*NOTIFY_THRESHOLD))
 			synchronized (upMutex) { upMutex.notifyAll(); }
 		
 		if(AppiaConfig.MM_DEBUG_ON && debugOutput!=null)
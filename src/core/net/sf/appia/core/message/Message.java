@@ -52,9 +52,8 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.UTFDataFormatException;
-import java.net.InetAddress;
-import java.net.InetSocketAddress;
-import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import net.sf.appia.core.*;
 import net.sf.appia.core.memoryManager.*;
@@ -82,9 +81,6 @@ public class Message implements Cloneable {
 	private static final int LONGSIZE = 8;
 	private static final int BOOLSIZE = 1;
 	
-	private static final byte GENERIC_OBJECT = 0;
-	private static final byte INET_SOCKET_ADDR = 1;
-	
 	private AuxOutputStream aos = null;
 	private AuxInputStream ais = null;
 	
@@ -97,14 +93,22 @@ public class Message implements Cloneable {
      * @author <a href="mailto:apinto@di.fc.ul.pt">Alexandre Pinto</a>
      * @version 1.0
 	 */
-	public class Block {
+	public static class Block {
 		public byte[] buf;
 		public int offset;
 		public int length;
 		public int off;
 		public int len;
 		public Block next = null;
-		public int refs = 1;
+		/**
+		 * Number of messages that share the block. It is only changed atomically, by
+		 * {@link #addRef()} and {@link #removeRef()}, as clones that share it may be
+		 * used, and released, by different threads.
+		 */
+		public volatile int refs = 1;
+		
+		private static final AtomicIntegerFieldUpdater<Block> REFS =
+			AtomicIntegerFieldUpdater.newUpdater(Block.class, "refs");
 		
 		public Block() {}
 		
@@ -115,6 +119,34 @@ public class Message implements Cloneable {
 			this.off = pos;
 			this.len = length - (pos - off);
 		}
+		
+		/**
+		 * Adds a message to the ones that share the block.
+		 */
+		public final void addRef() {
+			REFS.incrementAndGet(this);
+		}
+		
+		/**
+		 * Removes a message from the ones that share the block.
+		 * @return the number of messages that still share it.
+		 */
+		public final int removeRef() {
+			return REFS.decrementAndGet(this);
+		}
+		
+		/*
+		 * Tells if the buffer of the block is reused after the block is freed,
+		 * in which case it can not be shared with other blocks.
+		 */
+		boolean recyclable() {
+			return false;
+		}
+		
+		/*
+		 * Called when the last message that used the block is released.
+		 */
+		void free() {}
 	}
 	
 	protected Block first = null;
@@ -129,6 +161,9 @@ public class Message implements Cloneable {
 	private Object mmLock = new Object();
 	protected boolean canBind = true;
 	
+	/* Kept after the route of its event ends, so it is not released */
+	private boolean retained = false;
+	
 	/**
 	 * Builds a new empty message.
 	 */
@@ -180,7 +215,7 @@ public class Message implements Cloneable {
 		}
 		
 		while (first != null) {
-			first.refs--;
+			first.removeRef();
 			first = first.next;
 		}
 		
@@ -258,7 +293,7 @@ public class Message implements Cloneable {
 			if (ro_mode) {
 				if ((size - newsize) >= ro_len) {
 					size -= ro_len;
-					first.refs--;
+					first.removeRef();
 					first = first.next;
 					
 					if (first != null) {
@@ -304,7 +339,7 @@ public class Message implements Cloneable {
 			unBind(size);	  
 		size = 0;
 		while(first != null){
-			first.refs--;
+			first.removeRef();
 			first = first.next;
 		}
 		ro_mode = false;
@@ -338,7 +373,7 @@ public class Message implements Cloneable {
 			first.len -= mbuf.len;
 			
 			if (first.len == 0) {
-				first.refs--;
+				first.removeRef();
 				first = first.next;
 			}
 			size -= mbuf.len;
@@ -354,7 +389,7 @@ public class Message implements Cloneable {
 				System.arraycopy(first.buf, ro_off, mbuf.data, off, ro_len);
 				off += ro_len;
 				
-				first.refs--;
+				first.removeRef();
 				first=first.next;
 				size-=ro_len;
 				
@@ -369,7 +404,7 @@ public class Message implements Cloneable {
 					off += first.len;
 					
 					size -= first.len;
-					first.refs--;
+					first.removeRef();
 					first = first.next;
 				} else {
 					int remove = size - newsize;
@@ -410,8 +445,9 @@ public class Message implements Cloneable {
 		int l = mbuf.len;
 		
 		if ((first == null) || (l > (first.off - first.offset)) || (first.refs > 1)) {
-			byte[] a = new byte[l + INCREASE];
-			Block b = new Block(a, 0, a.length, a.length - l);
+			Block b = newBlock(l + INCREASE);
+			b.off -= l;
+			b.len = l;
 			
 			b.next = first;
 			first = b;
@@ -510,7 +546,7 @@ public class Message implements Cloneable {
 			if (b.len == remain) {
 				if (copy != null) {
 					System.arraycopy(b.buf,b.off,copy.buf,off,remain);
-					b.refs--;
+					b.removeRef();
 				}
 				
 				m.first = b.next;
@@ -520,6 +556,17 @@ public class Message implements Cloneable {
 				if (copy != null) {
 					System.arraycopy(b.buf,b.off,copy.buf,off,remain);
 					m.first=copyBlock(b,b.off+remain,b.len-remain);
+				} else if (b.recyclable()) {
+					// the buffer can not be shared by both messages
+					final int n=b.len-remain;
+					m.first=newBlock(n);
+					m.first.off-=n;
+					m.first.len=n;
+					System.arraycopy(b.buf,b.off+remain,m.first.buf,m.first.off,n);
+					m.first.next = b.next;
+					
+					b.next = null;
+					b.len = remain;
 				} else {
 					m.first =
 						new Block(b.buf,b.off + remain,(b.offset + b.length) - (b.off + remain),b.off + remain);
@@ -535,7 +582,7 @@ public class Message implements Cloneable {
 				if (copy != null) {
 					System.arraycopy(b.buf,b.off,copy.buf,off,b.len);
 					off+=b.len;
-					b.refs--;
+					b.removeRef();
 				}
 				remain -= b.len;
 			}
@@ -593,6 +640,40 @@ public class Message implements Cloneable {
 		m.size = 0;
 	}
 	
+	/**
+	 * Creates an empty block, with a buffer of at least <i>length</i> bytes.
+	 * The block data (<i>off</i> and <i>len</i>) is positioned at the end of the buffer.
+	 * @param length the minimum size of the buffer.
+	 * @return the new block.
+	 */
+	protected Block newBlock(int length) {
+		return new Block(new byte[length], 0, length, length);
+	}
+	
+	/**
+	 * Tells that the message is no longer used.<br>
+	 * The Appia kernel calls it when the route of a SendableEvent ends. 
+	 * This implementation does nothing. Messages created by a
+	 * {@link PooledMessageFactory PooledMessageFactory} are reused and must not be
+	 * accessed after being released, unless they are {@link #retain() retained}.
+	 */
+	public void release() {}
+	
+	/**
+	 * Tells that the message is still used after the route of its event ends,
+	 * so it must not be released, and reused. Clones are not retained.
+	 */
+	public void retain() {
+		retained = true;
+	}
+	
+	/**
+	 * Tells if the message was {@link #retain() retained}.
+	 */
+	public boolean isRetained() {
+		return retained;
+	}
+	
 	/**
 	 * Gets a byte array version of the message.
 	 * @return a byte array containing the message.
@@ -620,6 +701,35 @@ public class Message implements Cloneable {
 		return array;
 	}
 	
+	/**
+	 * Gets the message as a sequence of read-only buffers that share the
+	 * message blocks, without copying them.
+	 * It is meant for gathering writes to channels, like 
+	 * {@link java.nio.channels.GatheringByteChannel#write(ByteBuffer[])}.
+	 * The message must not be changed while the buffers are used.
+	 * @return the buffers, in the message order.
+	 */
+	public ByteBuffer[] toByteBuffers() {
+		int n = 0;
+		for (Block b = first; b != null; b = b.next)
+			n++;
+		
+		final ByteBuffer[] buffers = new ByteBuffer[n];
+		final MsgBuffer walkBuffer = new MsgBuffer();
+		final MsgWalk walk = getMsgWalkReadOnly();
+		n = 0;
+		for (walk.next(walkBuffer); walkBuffer.data != null; walk.next(walkBuffer)) {
+			if (walkBuffer.len > 0)
+				buffers[n++] = ByteBuffer.wrap(walkBuffer.data, walkBuffer.off, walkBuffer.len).asReadOnlyBuffer();
+		}
+		
+		if (n == buffers.length)
+			return buffers;
+		final ByteBuffer[] trimmed = new ByteBuffer[n];
+		System.arraycopy(buffers, 0, trimmed, 0, n);
+		return trimmed;
+	}
+	
 	/**
 	 * Gets a MessageWalk object, which is used to travel through the message blocks.
 	 * @return a new instance of MessageWalk object. 
@@ -644,11 +754,13 @@ public class Message implements Cloneable {
 		Message msg = (Message) super.clone();
 		
 		for (Block b=first ; b != null ; b=b.next)
-			b.refs++;
+			b.addRef();
 		
 		msg.mbuf = new MsgBuffer();
-		msg.ais = new AuxInputStream();
-		msg.aos = new AuxOutputStream();
+		msg.retained = false;
+		// created when needed
+		msg.ais = null;
+		msg.aos = null;
 		
 		return msg;
 	}
@@ -712,7 +824,7 @@ public class Message implements Cloneable {
 		}
 		
 		if (ro_len == 0) {
-			first.refs--;
+			first.removeRef();
 			first = first.next;
 			
 			ro_mode = false;
@@ -815,7 +927,7 @@ public class Message implements Cloneable {
 		byte[] a = toByteArray();
 		Block b = new Block(a, 0, a.length, 0);
 		while (first != null) {
-			first.refs--;
+			first.removeRef();
 			first = first.next;
 		}
 		first = b;
@@ -826,14 +938,14 @@ public class Message implements Cloneable {
 	 */
 	private Block copyBlock(Block b, int off, int len) {
 		//byte[] a=new byte[len > INCREASE ? len+INCREASE : INCREASE];
-		byte[] a=new byte[len];
-		
-		Block aux=new Block(a,0,a.length,a.length-len);
+		Block aux=newBlock(len);
+		aux.off-=len;
+		aux.len=len;
 		System.arraycopy(b.buf,off,aux.buf,aux.off,len);
 		
 		aux.next=b.next;
 		aux.refs=1;
-		b.refs--;
+		b.removeRef();
 		
 		return aux;
 	}
@@ -989,20 +1101,20 @@ public class Message implements Cloneable {
 	 * Push an {@link java.lang.Object Object} (<i>header</i>) into the head of
 	 * the message.
 	 * <br>
-	 * The Object must implement the
+	 * Objects whose class has a codec registered in
+	 * {@link net.sf.appia.core.message.ObjectCodecs ObjectCodecs} are encoded
+	 * by it. Any other Object is serialized, and so must implement the
 	 * {@link java.io.Serializable Serializable} interface. Otherwise
 	 * a MessageException is raised.
 	 *
 	 * @param obj the {@link java.lang.Object Object} (<i>header</i>) to put in
 	 * the message
 	 * @see net.sf.appia.core.message.MessageException
+	 * @see net.sf.appia.core.message.ObjectCodecs
 	 */
 	public void pushObject(Object obj) {
-		if(obj instanceof InetSocketAddress){
-			pushInetSocketAddress((InetSocketAddress) obj);
-			pushByte(INET_SOCKET_ADDR);
+		if (obj != null && ObjectCodecs.push(obj, this))
 			return;
-		}
 		
 		if (aos == null)
 			aos = new AuxOutputStream();
@@ -1020,7 +1132,7 @@ public class Message implements Cloneable {
 		push(mbuf);
 		aos.copyInternalTo(mbuf.data, mbuf.off, mbuf.len);
 		pushInt(mbuf.len);
-		pushByte(GENERIC_OBJECT);
+		pushUnsignedByte(ObjectCodecs.SERIALIZED);
 	}
 	
 	/**
@@ -1210,19 +1322,6 @@ public class Message implements Cloneable {
 		}
 	}
 	
-	/**
-	 * Pushes the given address into the message.
-	 * @param address the address to push
-	 */
-	private void pushInetSocketAddress(InetSocketAddress address){
-		MsgBuffer mbuf = new MsgBuffer();
-		mbuf.len = 6;
-		push(mbuf);
-		mbuf.data[mbuf.off + 0] = (byte) ((address.getPort() >>> 8) & 0xFF);
-		mbuf.data[mbuf.off + 1] = (byte) ((address.getPort() >>> 0) & 0xFF);
-		System.arraycopy(address.getAddress().getAddress(), 0, mbuf.data, mbuf.off + 2, 4);
-	}
-	
 	/**
 	 * Pops a {@link java.lang.Object Object} from the message.
 	 * <br>
@@ -1233,11 +1332,10 @@ public class Message implements Cloneable {
 	 * @see net.sf.appia.core.message.MessageException
 	 */
 	public Object popObject() {
-		byte objectType = popByte();
-		if(objectType == INET_SOCKET_ADDR){
-			return popInetSocketAddress();
-		}
-		// else, is the generic object
+		final int objectType = popUnsignedByte();
+		if (objectType != ObjectCodecs.SERIALIZED)
+			return ObjectCodecs.pop(objectType, this);
+		
 		if (ais == null)
 			ais=new AuxInputStream();
 		
@@ -1507,28 +1605,6 @@ public class Message implements Cloneable {
 		return new String(str, 0, strlen);
 	}
 	
-	private InetSocketAddress popInetSocketAddress() {
-		MsgBuffer mbuf = new MsgBuffer();
-		mbuf.len = 6;
-		pop(mbuf);
-		StringBuilder strBuilder = new StringBuilder();
-		for (int i = 0; i < 3; i++) {
-			strBuilder.append((int)(mbuf.data[mbuf.off + i + 2] & 0xff));
-			strBuilder.append(".");
-		}
-		strBuilder.append((int)(mbuf.data[mbuf.off + 3 + 2] & 0xff));
-		InetAddress inet = null;
-		try {
-			inet = InetAddress.getByName(strBuilder.toString());
-		} catch (UnknownHostException ex) {
-            throw new MessageException("Unable to retrieve the IP address \""+
-                    strBuilder.toString()+"\" correctly.",ex);
-        }
-		int port = (((int) mbuf.data[mbuf.off]) & 0xFF) << 8;
-		port |= (((int) mbuf.data[mbuf.off + 1]) & 0xFF) << 0;
-		return new InetSocketAddress(inet,port);
-	}
-	
 	/**
 	 * Returns the <i>Object</i> from the head of the message, without removing it.
 	 * <br>
@@ -1542,11 +1618,17 @@ public class Message implements Cloneable {
 		if (size <= 0)
 			return null;
 		
-		byte objectType = popByte();
-		if(objectType == INET_SOCKET_ADDR){
-			InetSocketAddress addr = peekInetSocketAddress();
-			pushByte(objectType);
-			return addr;
+		final int objectType = popUnsignedByte();
+		if (objectType != ObjectCodecs.SERIALIZED) {
+			final Object obj;
+			try {
+				obj = ObjectCodecs.pop(objectType, this);
+			} catch (MessageException ex) {
+				pushUnsignedByte(objectType);
+				throw ex;
+			}
+			ObjectCodecs.push(obj, this);
+			return obj;
 		}
 		
 		if (ais == null)
@@ -1560,11 +1642,11 @@ public class Message implements Cloneable {
 			ObjectInputStream ois = new ObjectInputStream(ais);
 			Object obj = ois.readObject();
 			pushInt(size);
-			pushByte(objectType);
+			pushUnsignedByte(objectType);
 			return obj;
 		} catch (Exception ex) {
 			pushInt(size);
-			pushByte(objectType);
+			pushUnsignedByte(objectType);
 			throw new MessageException("Error peeking object.",ex);
 		}
 	}
@@ -1820,28 +1902,6 @@ public class Message implements Cloneable {
 		return new String(str, 0, strlen);
 	}
 	
-	private InetSocketAddress peekInetSocketAddress() {
-		MsgBuffer mbuf = new MsgBuffer();
-		mbuf.len = 6;
-		peek(mbuf);
-		StringBuilder strBuilder = new StringBuilder();
-		for (int i = 0; i < 3; i++) {
-			strBuilder.append((int)(mbuf.data[mbuf.off + i + 2] & 0xff));
-			strBuilder.append(".");
-		}
-		strBuilder.append((int)(mbuf.data[mbuf.off + 3 + 2] & 0xff));
-		InetAddress inet = null;
-		try {
-			inet = InetAddress.getByName(strBuilder.toString());
-		} catch (UnknownHostException ex) {
-            throw new MessageException("Unable to retrieve the IP address \""+
-                    strBuilder.toString()+"\" correctly.",ex);
-        }
-		int port = (((int) mbuf.data[mbuf.off]) & 0xFF) << 8;
-		port |= (((int) mbuf.data[mbuf.off + 1]) & 0xFF) << 0;
-		return new InetSocketAddress(inet,port);
-	}
-	
 	public class AuxOutputStream extends OutputStream {
 		
 		private byte[] buf;
@@ -0,0 +1,45 @@
+/**
+ * Appia: Group communication and protocol composition framework library
+ * Copyright 2026 University of Lisbon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ *
+ * Contributor(s): See Appia web page for a list of contributors.
+ */
+package net.sf.appia.core.message;
+
+/**
+ * A compact binary encoding of objects of one class, used by
+ * {@link Message#pushObject(Object)} and {@link Message#popObject()} 
+ * instead of Java serialization.
+ * <br>
+ * Codecs are registered in {@link ObjectCodecs}.
+ * 
+ * @see ObjectCodecs
+ */
+public interface ObjectCodec {
+    
+    /**
+     * Pushes the object into the head of the message.
+     * @param obj the object, of the class of the codec.
+     * @param message the message.
+     */
+    public void push(Object obj, Message message);
+    
+    /**
+     * Pops an object pushed by {@link #push(Object, Message)}.
+     * @param message the message.
+     * @return the object.
+     */
+    public Object pop(Message message);
+}
@@ -0,0 +1,247 @@
+/**
+ * Appia: Group communication and protocol composition framework library
+ * Copyright 2026 University of Lisbon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ *
+ * Contributor(s): See Appia web page for a list of contributors.
+ */
+package net.sf.appia.core.message;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Registry of the {@link ObjectCodec codecs} used by 
+ * {@link Message#pushObject(Object)}.
+ * <br>
+ * Each codec is registered with the class it encodes (only objects of that 
+ * exact class use it) and with a tag, a number between 1 and 255 
+ * that identifies it in the messages. Objects without a codec are serialized,
+ * as before.
+ * <br>
+ * Tags below {@link #FIRST_USER_TAG} are reserved:
+ * <ul>
+ * <li>1 to 15, for <tt>InetSocketAddress</tt>, <tt>String</tt> and the boxed primitive types,
+ * registered here;
+ * <li>16 to 19, for the group communication types <tt>Endpt</tt>, <tt>ViewID</tt>,
+ * <tt>Group</tt> and <tt>ViewState</tt>, registered when these classes are loaded.
+ * If a message with one of these tags is received before, the class is loaded then.
+ * </ul>
+ * Both ends must register the same codecs with the same tags.
+ * 
+ * @see ObjectCodec
+ */
+public final class ObjectCodecs {
+    
+    /**
+     * First tag that may be used by applications.
+     */
+    public static final int FIRST_USER_TAG = 64;
+    
+    /* Tag of serialized objects. */
+    static final int SERIALIZED = 0;
+    
+    private static final int TAGS = 256;
+    
+    private static final class Entry {
+        private final int tag;
+        private final Class<?> type;
+        private final ObjectCodec codec;
+        
+        private Entry(int tag, Class<?> type, ObjectCodec codec) {
+            this.tag = tag;
+            this.type = type;
+            this.codec = codec;
+        }
+    }
+    
+    private static final ConcurrentHashMap<Class<?>,Entry> byClass = new ConcurrentHashMap<Class<?>,Entry>();
+    private static final AtomicReferenceArray<Entry> byTag = new AtomicReferenceArray<Entry>(TAGS);
+    
+    // classes that register the reserved tags when loaded
+    private static final String[] reserved = new String[TAGS];
+    
+    static {
+        register(1, InetSocketAddress.class, new InetSocketAddressCodec());
+        register(2, String.class, new ObjectCodec() {
+            public void push(Object obj, Message message) { message.pushString((String) obj); }
+            public Object pop(Message message) { return message.popString(); }
+        });
+        register(3, Long.class, new ObjectCodec() {
+            public void push(Object obj, Message message) { message.pushLong(((Long) obj).longValue()); }
+            public Object pop(Message message) { return new Long(message.popLong()); }
+        });
+        register(4, Integer.class, new ObjectCodec() {
+            public void push(Object obj, Message message) { message.pushInt(((Integer) obj).intValue()); }
+            public Object pop(Message message) { return new Integer(message.popInt()); }
+        });
+        register(5, Short.class, new ObjectCodec() {
+            public void push(Object obj, Message message) { message.pushShort(((Short) obj).shortValue()); }
+            public Object pop(Message message) { return new Short(message.popShort()); }
+        });
+        register(6, Byte.class, new ObjectCodec() {
+            public void push(Object obj, Message message) { message.pushByte(((Byte) obj).byteValue()); }
+            public Object pop(Message message) { return new Byte(message.popByte()); }
+        });
+        register(7, Boolean.class, new ObjectCodec() {
+            public void push(Object obj, Message message) { message.pushBoolean(((Boolean) obj).booleanValue()); }
+            public Object pop(Message message) { return Boolean.valueOf(message.popBoolean()); }
+        });
+        register(8, Character.class, new ObjectCodec() {
+            public void push(Object obj, Message message) { message.pushUnsignedShort(((Character) obj).charValue()); }
+            public Object pop(Message message) { return new Character((char) message.popUnsignedShort()); }
+        });
+        register(9, Float.class, new ObjectCodec() {
+            public void push(Object obj, Message message) { message.pushFloat(((Float) obj).floatValue()); }
+            public Object pop(Message message) { return new Float(message.popFloat()); }
+        });
+        register(10, Double.class, new ObjectCodec() {
+            public void push(Object obj, Message message) { message.pushDouble(((Double) obj).doubleValue()); }
+            public Object pop(Message message) { return new Double(message.popDouble()); }
+        });
+        
+        reserved[16] = "net.sf.appia.protocols.group.Endpt";
+        reserved[17] = "net.sf.appia.protocols.group.ViewID";
+        reserved[18] = "net.sf.appia.protocols.group.Group";
+        reserved[19] = "net.sf.appia.protocols.group.ViewState";
+    }
+    
+    private ObjectCodecs() {}
+    
+    /**
+     * Registers a codec.
+     * Registering again the same class with the same tag replaces the codec.
+     * 
+     * @param tag the tag of the codec, between 1 and 255.
+     * @param type the class encoded by the codec.
+     * @param codec the codec.
+     * @throws IllegalArgumentException if the tag is invalid or already used by 
+     * another class, or if the class already has another tag.
+     */
+    public static synchronized void register(int tag, Class<?> type, ObjectCodec codec) {
+        if (tag <= SERIALIZED || tag >= TAGS)
+            throw new IllegalArgumentException("Invalid codec tag "+tag);
+        if (type == null || codec == null)
+            throw new IllegalArgumentException("Codec class and codec must not be null");
+        
+        final Entry old = byTag.get(tag);
+        if (old != null && old.type != type)
+            throw new IllegalArgumentException("Codec tag "+tag+" is used by "+old.type.getName());
+        final Entry oldType = byClass.get(type);
+        if (oldType != null && oldType.tag != tag)
+            throw new IllegalArgumentException(type.getName()+" already has codec tag "+oldType.tag);
+        
+        final Entry entry = new Entry(tag, type, codec);
+        byTag.set(tag, entry);
+        byClass.put(type, entry);
+    }
+    
+    /**
+     * Gets the codec of a class.
+     * @return the codec, or null if the objects of the class are serialized.
+     */
+    public static ObjectCodec getCodec(Class<?> type) {
+        final Entry entry = byClass.get(type);
+        return entry == null ? null : entry.codec;
+    }
+    
+    /*
+     * Pushes the object and its tag, if it has a codec.
+     * Returns false if it must be serialized.
+     */
+    static boolean push(Object obj, Message message) {
+        final Entry entry = byClass.get(obj.getClass());
+        if (entry == null)
+            return false;
+        entry.codec.push(obj, message);
+        message.pushUnsignedByte(entry.tag);
+        return true;
+    }
+    
+    /*
+     * Pops an object with the given tag, already removed from the message.
+     */
+    static Object pop(int tag, Message message) {
+        Entry entry = byTag.get(tag);
+        if (entry == null && reserved[tag] != null) {
+            load(reserved[tag]);
+            entry = byTag.get(tag);
+        }
+        if (entry == null)
+            throw new MessageException("No codec for object tag "+tag+".");
+        return entry.codec.pop(message);
+    }
+    
+    private static void load(String className) {
+        try {
+            Class.forName(className, true, ObjectCodecs.class.getClassLoader());
+            return;
+        } catch (ClassNotFoundException e) {
+            // tries the context class loader
+        }
+        final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        if (loader == null)
+            return;
+        try {
+            Class.forName(className, true, loader);
+        } catch (ClassNotFoundException e) {
+            throw new MessageException("Codec class "+className+" not found.", e);
+        }
+    }
+    
+    /*
+     * [address length][address][port], where an address length of 0
+     * is followed by the host name of an unresolved address.
+     */
+    private static final class InetSocketAddressCodec implements ObjectCodec {
+        
+        public void push(Object obj, Message message) {
+            final InetSocketAddress address = (InetSocketAddress) obj;
+            message.pushUnsignedShort(address.getPort());
+            if (address.getAddress() == null) {
+                message.pushString(address.getHostName());
+                message.pushUnsignedByte(0);
+            } else {
+                final byte[] ip = address.getAddress().getAddress();
+                final MsgBuffer mbuf = new MsgBuffer();
+                mbuf.len = ip.length;
+                message.push(mbuf);
+                System.arraycopy(ip, 0, mbuf.data, mbuf.off, ip.length);
+                message.pushUnsignedByte(ip.length);
+            }
+        }
+        
+        public Object pop(Message message) {
+            final int length = message.popUnsignedByte();
+            if (length == 0) {
+                final String host = message.popString();
+                return InetSocketAddress.createUnresolved(host, message.popUnsignedShort());
+            }
+            
+            final MsgBuffer mbuf = new MsgBuffer();
+            mbuf.len = length;
+            message.pop(mbuf);
+            final byte[] ip = new byte[length];
+            System.arraycopy(mbuf.data, mbuf.off, ip, 0, length);
+            try {
+                return new InetSocketAddress(InetAddress.getByAddress(ip), message.popUnsignedShort());
+            } catch (UnknownHostException ex) {
+                throw new MessageException("Invalid IP address in message.", ex);
+            }
+        }
+    }
+}
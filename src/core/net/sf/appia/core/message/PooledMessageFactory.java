@@ -0,0 +1,233 @@
+/**
+ * Appia: Group communication and protocol composition framework library
+ * Copyright 2026 University of Lisbon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ *
+ * Contributor(s): See Appia web page for a list of contributors.
+ */
+package net.sf.appia.core.message;
+
+/**
+ * This class defines a PooledMessageFactory. It reuses the messages, and the
+ * buffers of their blocks, after they are {@link Message#release() released}.
+ * <br>
+ * The Appia kernel releases the message of a SendableEvent when the event
+ * route ends. So, with this factory, <b>sessions that keep a message after
+ * forwarding its event must keep a clone of it, or {@link Message#retain() retain}
+ * it</b>. Sessions that keep it to retransmit it, such as FIFO and stability, keep
+ * clones. A message given to a {@link net.sf.appia.protocols.common.ServiceEvent}
+ * is retained, as it identifies the message notified later, for instance by the
+ * uniform and total order protocols. Retained messages are not reused.
+ * <br>
+ * Blocks are reference counted by the existing copy-on-write mechanism, so a
+ * buffer is only reused after all the clones that share it are released. The
+ * counts are updated atomically, so clones may be released by different threads.
+ * A message, and each of its clones, must still be used by one thread at a time.
+ * <br>
+ * Messages created by this factory are not finalized. If a 
+ * {@link net.sf.appia.core.memoryManager.MemoryManager MemoryManager} is used, 
+ * messages that are dropped before the end of the event route must be released 
+ * (or emptied) by the session that drops them.
+ * <br>
+ * To use it set it in the channel with 
+ * {@link net.sf.appia.core.Channel#setMessageFactory(MessageFactory)}, 
+ * or in the XML configuration.
+ */
+public class PooledMessageFactory implements MessageFactory {
+    
+    /**
+     * Default size of the pooled buffers.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 2048;
+    /**
+     * Default maximum number of pooled buffers, and of pooled messages.
+     */
+    public static final int DEFAULT_POOL_SIZE = 1024;
+    
+    /* Block with a buffer that is reused. */
+    private static final class PooledBlock extends Message.Block {
+        private final PooledMessageFactory factory;
+        
+        private PooledBlock(PooledMessageFactory factory) {
+            super(new byte[factory.blockSize], 0, factory.blockSize, factory.blockSize);
+            this.factory = factory;
+        }
+        
+        boolean recyclable() {
+            return true;
+        }
+        
+        void free() {
+            factory.putBlock(this);
+        }
+    }
+    
+    /* Message that is reused. */
+    private static final class PooledMessage extends Message {
+        private final PooledMessageFactory factory;
+        private boolean released = false;
+        
+        private PooledMessage(PooledMessageFactory factory) {
+            super();
+            this.factory = factory;
+        }
+        
+        protected Block newBlock(int length) {
+            if (length <= factory.blockSize)
+                return factory.getBlock();
+            return super.newBlock(length);
+        }
+        
+        public void release() {
+            if (released || isRetained())
+                return;
+            released = true;
+            
+            Block b = first;
+            while (b != null) {
+                final Block next = b.next;
+                if (b.removeRef() == 0)
+                    b.free();
+                b = next;
+            }
+            first = null;
+            discardAll();
+            setMemoryManager(null);
+            factory.putMessage(this);
+        }
+        
+        public Object clone() throws CloneNotSupportedException {
+            final PooledMessage msg = (PooledMessage) super.clone();
+            msg.released = false;
+            return msg;
+        }
+        
+        /* Messages are released, not finalized. */
+        protected void finalize() {}
+    }
+    
+    private final int blockSize;
+    
+    private final PooledBlock[] blocks;
+    private int nBlocks = 0;
+    private final PooledMessage[] messages;
+    private int nMessages = 0;
+    
+    /**
+     * Creates a factory with the default sizes.
+     */
+    public PooledMessageFactory() {
+        this(DEFAULT_BLOCK_SIZE, DEFAULT_POOL_SIZE);
+    }
+    
+    /**
+     * Creates a factory.
+     * @param blockSize size of the pooled buffers. Larger buffers are not pooled.
+     * @param poolSize maximum number of pooled buffers, and of pooled messages.
+     */
+    public PooledMessageFactory(int blockSize, int poolSize) {
+        if (blockSize < Message.INCREASE)
+            throw new IllegalArgumentException("PooledMessageFactory: block size must be at least "+Message.INCREASE);
+        if (poolSize < 0)
+            throw new IllegalArgumentException("PooledMessageFactory: invalid pool size "+poolSize);
+        this.blockSize = blockSize;
+        blocks = new PooledBlock[poolSize];
+        messages = new PooledMessage[poolSize];
+    }
+    
+    /**
+     * 
+     * @see net.sf.appia.core.message.MessageFactory#newMessage()
+     */
+    public Message newMessage() {
+        PooledMessage msg = null;
+        synchronized (messages) {
+            if (nMessages > 0) {
+                msg = messages[--nMessages];
+                messages[nMessages] = null;
+            }
+        }
+        if (msg == null)
+            return new PooledMessage(this);
+        msg.released = false;
+        return msg;
+    }
+
+    /**
+     * 
+     * @see net.sf.appia.core.message.MessageFactory#newMessage(byte[], int, int)
+     */
+    public Message newMessage(byte[] payload, int offset, int length) {
+        final Message msg = newMessage();
+        msg.setByteArray(payload, offset, length);
+        return msg;
+    }
+    
+    public int getBlockSize() {
+        return blockSize;
+    }
+    
+    /**
+     * Number of buffers waiting to be reused.
+     */
+    public int getPooledBlocks() {
+        synchronized (blocks) {
+            return nBlocks;
+        }
+    }
+    
+    /**
+     * Number of messages waiting to be reused.
+     */
+    public int getPooledMessages() {
+        synchronized (messages) {
+            return nMessages;
+        }
+    }
+    
+    private PooledBlock getBlock() {
+        PooledBlock b = null;
+        synchronized (blocks) {
+            if (nBlocks > 0) {
+                b = blocks[--nBlocks];
+                blocks[nBlocks] = null;
+            }
+        }
+        if (b == null)
+            return new PooledBlock(this);
+        
+        b.offset = 0;
+        b.length = blockSize;
+        b.off = blockSize;
+        b.len = 0;
+        b.next = null;
+        b.refs = 1;
+        return b;
+    }
+    
+    private void putBlock(PooledBlock b) {
+        b.next = null;
+        synchronized (blocks) {
+            if (nBlocks < blocks.length)
+                blocks[nBlocks++] = b;
+        }
+    }
+    
+    private void putMessage(PooledMessage msg) {
+        synchronized (messages) {
+            if (nMessages < messages.length)
+                messages[nMessages++] = msg;
+        }
+    }
+}
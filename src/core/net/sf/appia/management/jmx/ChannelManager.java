@@ -47,7 +47,12 @@ import javax.management.Notification;
 import javax.management.NotificationBroadcasterSupport;
 import javax.management.ReflectionException;
 
+import net.sf.appia.core.AppiaCursorException;
 import net.sf.appia.core.Channel;
+import net.sf.appia.core.ChannelCursor;
+import net.sf.appia.core.EventScheduler;
+import net.sf.appia.core.EventStatistics;
+import net.sf.appia.core.SchedulerStatistics;
 import net.sf.appia.core.Session;
 import net.sf.appia.management.AppiaManagementException;
 import net.sf.appia.management.ManagedSession;
@@ -68,6 +73,14 @@ implements DynamicMBean, SensorSessionListener {
     private static Logger log = Logger.getLogger(ChannelManager.class);
     
     private static final String LOCALATT_USED_MEMORY = "usedMemory";
+    private static final String LOCALATT_STATISTICS_ENABLED = "statisticsEnabled";
+    private static final String LOCALATT_EVENT_STATISTICS = "eventStatistics";
+    private static final String LOCALATT_MAIN_QUEUE = "mainQueueSize";
+    private static final String LOCALATT_MAX_MAIN_QUEUE = "maxMainQueueSize";
+    private static final String LOCALATT_REVERSE_QUEUE = "reverseQueueSize";
+    private static final String LOCALATT_MAX_REVERSE_QUEUE = "maxReverseQueueSize";
+    private static final String LOCALATT_WAITING_QUEUE = "waitingQueueSize";
+    private static final String LOCALOP_RESET_STATISTICS = "resetStatistics";
     
     private class Operation<T extends MBeanFeatureInfo>{
         T operation;
@@ -102,6 +115,25 @@ implements DynamicMBean, SensorSessionListener {
         mbai = new ArrayList<MBeanAttributeInfo>();
         mbai.add(new MBeanAttributeInfo(LOCALATT_USED_MEMORY,"gets the memory used by this channel",
                 this.getClass().getName(),true,false,false));
+        mbai.add(new MBeanAttributeInfo(LOCALATT_STATISTICS_ENABLED,
+                "enables the event statistics of the scheduler of this channel",
+                Boolean.class.getName(),true,true,false));
+        mbai.add(new MBeanAttributeInfo(LOCALATT_EVENT_STATISTICS,
+                "gets the count and handling time of the events, per session of this channel",
+                String[].class.getName(),true,false,false));
+        mbai.add(new MBeanAttributeInfo(LOCALATT_MAIN_QUEUE,"gets the number of events in the main queue of the scheduler",
+                Integer.class.getName(),true,false,false));
+        mbai.add(new MBeanAttributeInfo(LOCALATT_MAX_MAIN_QUEUE,"gets the longest main queue of the scheduler",
+                Integer.class.getName(),true,false,false));
+        mbai.add(new MBeanAttributeInfo(LOCALATT_REVERSE_QUEUE,"gets the number of events in the reverse queue of the scheduler",
+                Integer.class.getName(),true,false,false));
+        mbai.add(new MBeanAttributeInfo(LOCALATT_MAX_REVERSE_QUEUE,"gets the longest reverse queue of the scheduler",
+                Integer.class.getName(),true,false,false));
+        mbai.add(new MBeanAttributeInfo(LOCALATT_WAITING_QUEUE,
+                "gets the number of events inserted from other threads, waiting in the scheduler",
+                Integer.class.getName(),true,false,false));
+        mboi.add(new MBeanOperationInfo(LOCALOP_RESET_STATISTICS,"discards the event statistics of the scheduler",
+                null,"void",MBeanOperationInfo.ACTION));
         updateMBeanInfo();
     }
 
@@ -192,11 +224,64 @@ implements DynamicMBean, SensorSessionListener {
             return channel.getMemoryManager().used();
     }
 
+    /**
+     * Gets the statistics of the events handled by the sessions of the managed channel,
+     * one line per session, event class and direction.
+     * 
+     * @return the statistics, or an empty array if they are not enabled.
+     * @see EventScheduler#setStatisticsEnabled(boolean)
+     */
+    public String[] getEventStatistics() {
+        final SchedulerStatistics stats = channel.getEventScheduler().getStatistics();
+        if(stats == null)
+            return new String[0];
+        final ArrayList<String> lines = new ArrayList<String>();
+        final ChannelCursor cc = channel.getCursor();
+        cc.top();
+        try {
+            while(cc.isPositioned()){
+                final Session s = cc.getSession();
+                if(s != null){
+                    final EventStatistics[] es = stats.getEventStatistics(s);
+                    for(int i=0; i<es.length; i++)
+                        lines.add(es[i].toString());
+                }
+                cc.down();
+            }
+        } catch (AppiaCursorException e) {
+            log.debug("Error visiting the sessions of channel "+channel.getChannelID()+": "+e);
+        }
+        return lines.toArray(new String[lines.size()]);
+    }
+    
+    private Object getSchedulerAttribute(String att) {
+        final EventScheduler scheduler = channel.getEventScheduler();
+        if(att.equals(LOCALATT_STATISTICS_ENABLED))
+            return scheduler.isStatisticsEnabled();
+        if(att.equals(LOCALATT_EVENT_STATISTICS))
+            return getEventStatistics();
+        if(att.equals(LOCALATT_MAIN_QUEUE))
+            return scheduler.getMainQueueSize();
+        if(att.equals(LOCALATT_REVERSE_QUEUE))
+            return scheduler.getReverseQueueSize();
+        if(att.equals(LOCALATT_WAITING_QUEUE))
+            return scheduler.getWaitingQueueSize();
+        final SchedulerStatistics stats = scheduler.getStatistics();
+        if(att.equals(LOCALATT_MAX_MAIN_QUEUE))
+            return stats == null ? -1 : stats.getMaxMainQueue();
+        if(att.equals(LOCALATT_MAX_REVERSE_QUEUE))
+            return stats == null ? -1 : stats.getMaxReverseQueue();
+        return null;
+    }
+
     public Object getAttribute(String att) throws AttributeNotFoundException, MBeanException, ReflectionException {
         if(log.isDebugEnabled())
             log.debug("GET from DynamicMBean: "+att);
         if(att.equals(LOCALATT_USED_MEMORY))
             return getUsedMemory();
+        final Object value = getSchedulerAttribute(att);
+        if(value != null)
+            return value;
         
         final Operation<MBeanAttributeInfo> op = attributes.get(att);
         if(op != null && (op.operation.isIs() || op.operation.isReadable())){
@@ -277,6 +362,10 @@ implements DynamicMBean, SensorSessionListener {
         }
         else if (actionName.equals("invoke") && params.length == 3)
             return invoke((String)params[0], (Object[])params[1], (String[])params[2]);
+        else if (actionName.equals(LOCALOP_RESET_STATISTICS)){
+            channel.getEventScheduler().resetStatistics();
+            return null;
+        }
         final Operation<MBeanOperationInfo> op = operations.get(actionName);
         if (op == null)
             throw new MBeanException(new AppiaManagementException("Operation "+actionName+" not found."));
@@ -297,6 +386,13 @@ implements DynamicMBean, SensorSessionListener {
         if(myAtt.getName().equals("Attribute"))
             myAtt = (Attribute) att.getValue();
         
+        if(myAtt.getName().equals(LOCALATT_STATISTICS_ENABLED)){
+            if(!(myAtt.getValue() instanceof Boolean))
+                throw new InvalidAttributeValueException("attribute "+LOCALATT_STATISTICS_ENABLED+" must be a Boolean");
+            channel.getEventScheduler().setStatisticsEnabled(((Boolean) myAtt.getValue()).booleanValue());
+            return;
+        }
+        
         final Operation<MBeanAttributeInfo> op = attributes.get(myAtt.getName());
         if(log.isDebugEnabled()){
             log.debug("ATT "+myAtt+" Name "+myAtt.getName()+" Value "+myAtt.getValue()+" OP="+op);
@@ -42,6 +42,7 @@ public class JMXConfiguration {
     private String namingServer;
     private int namingPort;
     private boolean local;
+    private boolean schedulerStatistics;
     private String managementMBeanID = "";
     
     public JMXConfiguration(String mbeanID) {
@@ -103,6 +104,22 @@ public class JMXConfiguration {
         this.local = local;
     }
 
+    /**
+     * @return Returns true if the event statistics of the scheduler are enabled
+     * when the channel is registered.
+     */
+    public boolean isSchedulerStatistics() {
+        return schedulerStatistics;
+    }
+
+    /**
+     * @param schedulerStatistics Enables the event statistics of the scheduler.
+     * @see net.sf.appia.core.EventScheduler#setStatisticsEnabled(boolean)
+     */
+    public void setSchedulerStatistics(boolean schedulerStatistics) {
+        this.schedulerStatistics = schedulerStatistics;
+    }
+
     /**
      * @return Returns the managementMBeanID.
      */
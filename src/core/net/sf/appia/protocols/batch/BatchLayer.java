@@ -0,0 +1,68 @@
+/**
+ * Appia: Group communication and protocol composition framework library
+ * Copyright 2026 University of Lisbon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ *
+ * Contributor(s): See Appia web page for a list of contributors.
+ */
+package net.sf.appia.protocols.batch;
+
+import net.sf.appia.core.Layer;
+import net.sf.appia.core.Session;
+import net.sf.appia.core.events.SendableEvent;
+import net.sf.appia.core.events.channel.ChannelClose;
+import net.sf.appia.core.events.channel.ChannelInit;
+import net.sf.appia.protocols.frag.MaxPDUSizeEvent;
+
+/**
+ * Layer of the batching protocol. It must be placed directly above the
+ * transport layer, such as 
+ * {@link net.sf.appia.protocols.tcpcomplete.TcpCompleteLayer TcpCompleteLayer} or
+ * {@link net.sf.appia.protocols.udpsimple.UdpSimpleLayer UdpSimpleLayer}.
+ * <br>
+ * Small events sent to the same destination are packed in a single
+ * {@link BatchEvent} and unpacked by the receiver.
+ * 
+ * @see BatchSession
+ */
+public class BatchLayer extends Layer {
+
+  public BatchLayer() {
+    evProvide=new Class[]{
+        BatchEvent.class,
+        BatchTimer.class,
+        MaxPDUSizeEvent.class,
+    };
+
+    evRequire=new Class[]{
+        SendableEvent.class,
+        ChannelInit.class,
+    };
+
+    evAccept=new Class[]{
+        SendableEvent.class,
+        ChannelInit.class,
+        ChannelClose.class,
+        BatchTimer.class,
+        MaxPDUSizeEvent.class,
+    };
+  }
+
+  /**
+   * @see net.sf.appia.core.Layer#createSession()
+   */
+  public Session createSession() {
+    return new BatchSession(this);
+  }
+}
@@ -0,0 +1,438 @@
+/**
+ * Appia: Group communication and protocol composition framework library
+ * Copyright 2026 University of Lisbon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ *
+ * Contributor(s): See Appia web page for a list of contributors.
+ */
+package net.sf.appia.protocols.batch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import net.sf.appia.core.AppiaEventException;
+import net.sf.appia.core.AppiaException;
+import net.sf.appia.core.Channel;
+import net.sf.appia.core.Direction;
+import net.sf.appia.core.Event;
+import net.sf.appia.core.EventQualifier;
+import net.sf.appia.core.Layer;
+import net.sf.appia.core.Session;
+import net.sf.appia.core.events.AppiaMulticast;
+import net.sf.appia.core.events.SendableEvent;
+import net.sf.appia.core.events.channel.ChannelClose;
+import net.sf.appia.core.events.channel.ChannelInit;
+import net.sf.appia.core.message.Message;
+import net.sf.appia.protocols.common.EventTypeRegistry;
+import net.sf.appia.protocols.frag.MaxPDUSizeEvent;
+import net.sf.appia.protocols.utils.ParseUtils;
+import net.sf.appia.xml.interfaces.InitializableSession;
+import net.sf.appia.xml.utils.SessionProperties;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Session of the batching protocol.
+ * <br>
+ * Events going down are kept, per channel and destination, until one of these happens:
+ * <ul>
+ * <li>the <i>linger</i> time expires;
+ * <li>the batch reaches the maximum number of events;
+ * <li>the next event would not fit in the maximum size, which is the smallest of
+ * the configured size and of the PDU size of the transport, if it answers the
+ * {@link MaxPDUSizeEvent};
+ * <li>an event that does not fit in a batch is sent to the same destination;
+ * <li>an event is sent to other destinations that include a peer of the batch.
+ * Each peer is in a single batch, so its events are sent in order;
+ * <li>the channel is closed.
+ * </ul>
+ * A batch with a single event is sent unchanged. Otherwise, the events are sent in a 
+ * {@link BatchEvent} whose message is a sequence of <tt>[int length][header][message]</tt>,
+ * where the header identifies the event type, as in the transport protocols. The receiver
+ * delivers them in the order they were sent.
+ * <br>
+ * If the transport can not send a BatchEvent, it reports the BatchEvent itself as undelivered.
+ * 
+ * @see BatchLayer
+ */
+public class BatchSession extends Session implements InitializableSession {
+
+  private static Logger log = Logger.getLogger(BatchSession.class);
+
+  /**
+   * Default maximum time, in milliseconds, that an event waits for others.
+   */
+  public static final long DEFAULT_LINGER=5;
+  /**
+   * Default maximum size of a batch, in bytes.
+   */
+  public static final int DEFAULT_MAX_SIZE=8192;
+  /**
+   * Default maximum number of events of a batch.
+   */
+  public static final int DEFAULT_MAX_EVENTS=64;
+
+  private static final int LENGTH_SIZE=4;
+
+  private long param_LINGER=DEFAULT_LINGER;
+  private int param_MAX_SIZE=DEFAULT_MAX_SIZE;
+  private int param_MAX_EVENTS=DEFAULT_MAX_EVENTS;
+
+  private final EventTypeRegistry eventTypes=new EventTypeRegistry();
+  private final HashMap<Channel,ChannelState> channels=new HashMap<Channel,ChannelState>();
+
+  /* Events waiting to be sent to a destination. */
+  private static final class Batch {
+    private final Object key;
+    private final Object dest;
+    private final Object[] peers;
+    private final ArrayList<SendableEvent> events=new ArrayList<SendableEvent>();
+    private int size=0;
+
+    private Batch(Object key, Object dest, Object[] peers) {
+      this.key=key;
+      this.dest=dest;
+      this.peers=peers;
+    }
+  }
+
+  /* Key of the batches of an AppiaMulticast, which is created for each event. */
+  private static final class MulticastKey {
+    private final Object multicast;
+    private final Object[] destinations;
+    private final int hash;
+
+    private MulticastKey(AppiaMulticast dest) {
+      multicast=dest.getMulticastAddress();
+      destinations=dest.getDestinations();
+      hash=Arrays.hashCode(destinations) ^ (multicast == null ? 0 : multicast.hashCode());
+    }
+
+    public boolean equals(Object o) {
+      if (!(o instanceof MulticastKey))
+        return false;
+      final MulticastKey k=(MulticastKey) o;
+      return (multicast == null ? k.multicast == null : multicast.equals(k.multicast)) && 
+          Arrays.equals(destinations,k.destinations);
+    }
+
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  private static final class ChannelState {
+    private final Channel channel;
+    // in the order they were created
+    private final LinkedHashMap<Object,Batch> batches=new LinkedHashMap<Object,Batch>();
+    // batch of each peer
+    private final HashMap<Object,Batch> peers=new HashMap<Object,Batch>();
+    private int maxSize;
+    private MaxPDUSizeEvent query=null;
+    private boolean timerOn=false;
+
+    private ChannelState(Channel channel, int maxSize) {
+      this.channel=channel;
+      this.maxSize=maxSize;
+    }
+  }
+
+  public BatchSession(Layer layer) {
+    super(layer);
+  }
+
+  /**
+   * Initializes the session using the parameters given in the XML configuration.
+   * Possible parameters:
+   * <ul>
+   * <li><b>linger</b> maximum time, in milliseconds, that an event waits for others.
+   * If it is 0, events are not batched.
+   * <li><b>max_size</b> maximum size of a batch, in bytes.
+   * <li><b>max_events</b> maximum number of events of a batch.
+   * </ul>
+   * 
+   * @param params The parameters given in the XML configuration.
+   */
+  public void init(SessionProperties params) {
+    if (params.containsKey("linger"))
+      param_LINGER=params.getLong("linger");
+    if (params.containsKey("max_size"))
+      param_MAX_SIZE=params.getInt("max_size");
+    if (params.containsKey("max_events"))
+      param_MAX_EVENTS=params.getInt("max_events");
+  }
+
+  public void handle(Event e) {
+    if (e instanceof BatchEvent && e.getDir() == Direction.UP)
+      handleBatch((BatchEvent) e);
+    else if (e instanceof SendableEvent && e.getDir() == Direction.DOWN)
+      handleSendable((SendableEvent) e);
+    else if (e instanceof BatchTimer)
+      handleTimer((BatchTimer) e);
+    else if (e instanceof MaxPDUSizeEvent)
+      handlePDUSize((MaxPDUSizeEvent) e);
+    else if (e instanceof ChannelInit)
+      handleChannelInit((ChannelInit) e);
+    else if (e instanceof ChannelClose)
+      handleChannelClose((ChannelClose) e);
+    else {
+      try {
+        e.go();
+      } catch (AppiaEventException ex) {
+        ex.printStackTrace();
+      }
+    }
+  }
+
+  private void handleChannelInit(ChannelInit e) {
+    final Channel channel=e.getChannel();
+    final ChannelState state=new ChannelState(channel,param_MAX_SIZE);
+    channels.put(channel,state);
+    eventTypes.addChannel(channel);
+
+    try {
+      e.go();
+    } catch (AppiaEventException ex) {
+      ex.printStackTrace();
+    }
+
+    try {
+      state.query=new MaxPDUSizeEvent(channel,Direction.DOWN,this);
+      state.query.go();
+    } catch (AppiaEventException ex) {
+      ex.printStackTrace();
+    }
+  }
+
+  private void handleChannelClose(ChannelClose e) {
+    final ChannelState state=channels.remove(e.getChannel());
+    if (state != null) {
+      flushAll(state);
+      eventTypes.removeChannel(state.channel);
+    }
+
+    try {
+      e.go();
+    } catch (AppiaEventException ex) {
+      ex.printStackTrace();
+    }
+  }
+
+  private void handlePDUSize(MaxPDUSizeEvent e) {
+    if (e.getDir() == Direction.UP) {
+      final ChannelState state=channels.get(e.getChannel());
+      if (state != null) {
+        state.maxSize=Math.min(param_MAX_SIZE,e.pduSize);
+        if (log.isDebugEnabled())
+          log.debug("Maximum batch size of channel "+state.channel.getChannelID()+" is "+state.maxSize);
+        if (e == state.query) {
+          state.query=null;
+          return;
+        }
+      }
+    }
+
+    try {
+      e.go();
+    } catch (AppiaEventException ex) {
+      ex.printStackTrace();
+    }
+  }
+
+  private void handleTimer(BatchTimer e) {
+    if (e.getDir() == Direction.DOWN) {
+      try {
+        e.go();
+      } catch (AppiaEventException ex) {
+        ex.printStackTrace();
+      }
+      return;
+    }
+
+    final ChannelState state=channels.get(e.getChannel());
+    if (state != null) {
+      state.timerOn=false;
+      flushAll(state);
+    }
+  }
+
+  private void handleSendable(SendableEvent e) {
+    final ChannelState state=channels.get(e.getChannel());
+    if (state == null || param_LINGER <= 0) {
+      send(e);
+      return;
+    }
+
+    final int size=LENGTH_SIZE+eventTypes.headerSize(e)+e.getMessage().length();
+    final Object key=(e.dest instanceof AppiaMulticast) ? new MulticastKey((AppiaMulticast) e.dest) : e.dest;
+    Batch batch=state.batches.get(key);
+    final Object[] peers=(batch != null) ? batch.peers : getPeers(e.dest);
+
+    // events to a peer must not overtake the events kept for it in other batches
+    for (int i=0 ; i < peers.length ; i++) {
+      final Batch other=state.peers.get(peers[i]);
+      if (other != null && other != batch)
+        flush(state,other);
+    }
+
+    if (size > state.maxSize) {
+      // too large to be batched, but it must not overtake the events kept for the same destination
+      if (batch != null)
+        flush(state,batch);
+      send(e);
+      return;
+    }
+
+    if (batch != null && batch.size+size > state.maxSize) {
+      flush(state,batch);
+      batch=null;
+    }
+    if (batch == null) {
+      batch=new Batch(key,e.dest,peers);
+      state.batches.put(key,batch);
+      for (int i=0 ; i < peers.length ; i++)
+        state.peers.put(peers[i],batch);
+    }
+    batch.events.add(e);
+    batch.size+=size;
+
+    if (batch.events.size() >= param_MAX_EVENTS)
+      flush(state,batch);
+    else if (!state.timerOn)
+      startTimer(state);
+  }
+
+  private void startTimer(ChannelState state) {
+    try {
+      new BatchTimer(param_LINGER,state.channel,this,EventQualifier.ON).go();
+      state.timerOn=true;
+    } catch (AppiaEventException ex) {
+      ex.printStackTrace();
+    } catch (AppiaException ex) {
+      ex.printStackTrace();
+    }
+  }
+
+  private static Object[] getPeers(Object dest) {
+    if (dest instanceof AppiaMulticast) {
+      final AppiaMulticast multicast=(AppiaMulticast) dest;
+      if (multicast.getDestinations() != null)
+        return multicast.getDestinations();
+      return new Object[]{multicast.getMulticastAddress()};
+    }
+    return new Object[]{dest};
+  }
+
+  private void flushAll(ChannelState state) {
+    final Iterator<Batch> iter=state.batches.values().iterator();
+    while (iter.hasNext()) {
+      final Batch batch=iter.next();
+      iter.remove();
+      sendBatch(state,batch);
+    }
+    state.peers.clear();
+  }
+
+  private void flush(ChannelState state, Batch batch) {
+    state.batches.remove(batch.key);
+    for (int i=0 ; i < batch.peers.length ; i++) {
+      if (state.peers.get(batch.peers[i]) == batch)
+        state.peers.remove(batch.peers[i]);
+    }
+    sendBatch(state,batch);
+  }
+
+  private void sendBatch(ChannelState state, Batch batch) {
+    final ArrayList<SendableEvent> events=batch.events;
+    if (events.size() == 1) {
+      send(events.get(0));
+      return;
+    }
+
+    final Message msg=state.channel.getMessageFactory().newMessage();
+    for (int i=0 ; i < events.size() ; i++) {
+      final SendableEvent e=events.get(i);
+      eventTypes.pushHeader(e);
+      final Message m=e.getMessage();
+      m.pushInt(m.length());
+      msg.join(m);
+      // the event ends here, as it would at the end of its route
+      e.detachFromMemory();
+      m.release();
+    }
+
+    try {
+      final BatchEvent be=new BatchEvent(state.channel,Direction.DOWN,this,msg);
+      be.source=events.get(0).source;
+      be.dest=batch.dest;
+      be.go();
+      if (log.isDebugEnabled())
+        log.debug("Sent batch with "+events.size()+" events and "+msg.length()+" bytes to "+batch.dest);
+    } catch (AppiaEventException ex) {
+      ex.printStackTrace();
+    }
+  }
+
+  private void send(SendableEvent e) {
+    try {
+      e.go();
+    } catch (AppiaEventException ex) {
+      ex.printStackTrace();
+    }
+  }
+
+  private void handleBatch(BatchEvent e) {
+    // the events share a copy, since the buffers of the batch are reused after it is released
+    final Message msg=e.getMessage();
+    final byte[] data=msg.toByteArray();
+    final int end=data.length;
+    int pos=0;
+
+    while (pos < end) {
+      final int length=(end-pos >= LENGTH_SIZE) ? ParseUtils.byteArrayToInt(data,pos) : -1;
+      pos+=LENGTH_SIZE;
+      if (length < 0 || length > end-pos) {
+        log.warn("Discarding invalid batch from "+e.source);
+        break;
+      }
+
+      SendableEvent inner=null;
+      try {
+        inner=eventTypes.newEvent(data,pos,length,e.source);
+      } catch (IllegalArgumentException ex) {
+        log.warn("Discarding event of batch from "+e.source+": "+ex.getMessage());
+      }
+      pos+=length;
+      if (inner == null)
+        continue;
+
+      try {
+        inner.source=e.source;
+        inner.dest=e.dest;
+        inner.setDir(Direction.UP);
+        inner.setSourceSession(this);
+        inner.init();
+        inner.go();
+      } catch (AppiaEventException ex) {
+        ex.printStackTrace();
+      }
+    }
+
+    e.detachFromMemory();
+    msg.release();
+  }
+}
@@ -0,0 +1,440 @@
+/**
+ * Appia: Group communication and protocol composition framework library
+ * Copyright 2026 University of Lisbon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ *
+ * Contributor(s): See Appia web page for a list of contributors.
+ */
+package net.sf.appia.protocols.common;
+
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.sf.appia.core.Channel;
+import net.sf.appia.core.Layer;
+import net.sf.appia.core.QoS;
+import net.sf.appia.core.events.AppiaMulticast;
+import net.sf.appia.core.events.SendableEvent;
+import net.sf.appia.core.message.Message;
+import net.sf.appia.core.message.MsgBuffer;
+import net.sf.appia.protocols.utils.ParseUtils;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Dictionary of the event types and channels sent through the network by a
+ * transport session.
+ * <br>
+ * Instead of the event class name and the channel ID, each message carries a
+ * header with two integers:
+ * <ul>
+ * <li>the <b>type</b> of the event. Event classes are identified by the hash 
+ * of their names, with the sign bit set. Since it depends only on the class,
+ * both ends agree on it. But a peer only creates the events of the types it 
+ * knows: the concrete {@link SendableEvent SendableEvents} accepted or provided
+ * by the layers of the channel's QoS, whose hash is unique in it. So an event
+ * is sent with its class name, and created with <tt>Class.forName</tt>, until
+ * the peer tells it knows its type;
+ * <li>the <b>key</b> of the channel, the hash of the channel ID.
+ * </ul>
+ * Each type, or class name, has a flag telling the receiver that the sender
+ * knows that type in the channel. The receiver keeps the types known by both
+ * itself and each peer, given by the transport as the source of the message,
+ * and sends them to the peer without the name. So a hash that collides only
+ * in one of them is always sent with the name. An event sent to several 
+ * destinations only goes without the name if all of them know its type.
+ * <br>
+ * A transport should call {@link #removePeer(Object)} when it no longer
+ * talks with a peer, since the peer may return with another QoS. Otherwise,
+ * the type is forgotten when the peer sends it without the flag, and the events
+ * of types it no longer knows, sent before, are discarded with a warning.
+ * <br>
+ * The header is <tt>[int type][class name, if type &gt;= 0][int channel key]</tt>,
+ * where a negative type is the hash of the class and a positive one is
+ * the length of the class name that follows it.
+ * <br>
+ * The channel and peer methods may be called by any thread.
+ */
+public class EventTypeRegistry {
+    
+    private static Logger log = Logger.getLogger(EventTypeRegistry.class);
+    
+    private static final String CHARSET = "ISO-8859-1";
+    private static final int INT_SIZE = 4;
+    
+    /* Flag of the type, set if the sender knows it */
+    private static final int KNOWN = 0x40000000;
+    
+    private static final int[] NONE = new int[0];
+    
+    /* Event types of a QoS. Immutable. */
+    private static final class Types {
+        private final Map<Class<?>,Integer> ids = new IdentityHashMap<Class<?>,Integer>();
+        private final HashMap<Integer,Constructor<?>> constructors = new HashMap<Integer,Constructor<?>>();
+        
+        private Types(QoS qos) {
+            final HashMap<String,Class<?>> found = new HashMap<String,Class<?>>();
+            final Layer[] layers = qos.getLayers();
+            for (int i = 0; i < layers.length; i++) {
+                addTypes(layers[i].getAcceptedEvents(), found);
+                addTypes(layers[i].getProvidedEvents(), found);
+            }
+            
+            final HashSet<Integer> collisions = new HashSet<Integer>();
+            for (Class<?> type : found.values()) {
+                final Constructor<?> c = getConstructor(type);
+                if (c == null)
+                    continue;
+                final Integer id = new Integer(typeId(type.getName()));
+                if (constructors.put(id, c) != null)
+                    collisions.add(id);
+                ids.put(type, id);
+            }
+            // classes with the same hash are not known, and always sent with their names
+            ids.values().removeAll(collisions);
+            constructors.keySet().removeAll(collisions);
+        }
+        
+        private static void addTypes(Class[] types, Map<String,Class<?>> found) {
+            if (types == null)
+                return;
+            for (int i = 0; i < types.length; i++) {
+                if (SendableEvent.class.isAssignableFrom(types[i]) && !Modifier.isAbstract(types[i].getModifiers()))
+                    found.put(types[i].getName(), types[i]);
+            }
+        }
+    }
+    
+    /* A channel known by the session. */
+    private static final class Entry {
+        private final Channel channel;
+        private final Types types;
+        private final int key;
+        // types known by each peer in the channel, sorted
+        private final ConcurrentHashMap<Object,int[]> peers = new ConcurrentHashMap<Object,int[]>();
+        
+        private Entry(Channel channel, Types types) {
+            this.channel = channel;
+            this.types = types;
+            this.key = channel.getChannelID().hashCode();
+        }
+        
+        private boolean isKnown(Object dest, int id) {
+            if (dest instanceof AppiaMulticast) {
+                final Object[] dests = ((AppiaMulticast) dest).getDestinations();
+                if (dests == null || dests.length == 0)
+                    return false;
+                for (int i = 0; i < dests.length; i++) {
+                    if (!isKnownBy(dests[i], id))
+                        return false;
+                }
+                return true;
+            }
+            return isKnownBy(dest, id);
+        }
+        
+        private boolean isKnownBy(Object peer, int id) {
+            if (peer == null)
+                return false;
+            final int[] known = peers.get(peer);
+            return known != null && Arrays.binarySearch(known, id) >= 0;
+        }
+        
+        private void forget(Object peer, int id) {
+            if (!isKnownBy(peer, id))
+                return;
+            synchronized (this) {
+                final int[] known = peers.get(peer);
+                final int pos = known == null ? -1 : Arrays.binarySearch(known, id);
+                if (pos < 0)
+                    return;
+                final int[] aux = new int[known.length-1];
+                System.arraycopy(known, 0, aux, 0, pos);
+                System.arraycopy(known, pos+1, aux, pos, aux.length-pos);
+                peers.put(peer, aux);
+            }
+        }
+        
+        private void learn(Object peer, int id) {
+            if (peer == null || isKnownBy(peer, id))
+                return;
+            synchronized (this) {
+                int[] known = peers.get(peer);
+                if (known == null)
+                    known = NONE;
+                int pos = Arrays.binarySearch(known, id);
+                if (pos >= 0)
+                    return;
+                pos = -pos-1;
+                final int[] aux = new int[known.length+1];
+                System.arraycopy(known, 0, aux, 0, pos);
+                aux[pos] = id;
+                System.arraycopy(known, pos, aux, pos+1, known.length-pos);
+                peers.put(peer, aux);
+            }
+        }
+    }
+    
+    private static final ConcurrentHashMap<String,Constructor<?>> namedTypes = 
+        new ConcurrentHashMap<String,Constructor<?>>();
+    
+    private final Map<QoS,Types> qosTypes = new IdentityHashMap<QoS,Types>();
+    private final ConcurrentHashMap<String,Entry> channels = new ConcurrentHashMap<String,Entry>();
+    private final ConcurrentHashMap<Integer,Entry> keys = new ConcurrentHashMap<Integer,Entry>();
+    
+    private static int typeId(String className) {
+        return (className.hashCode() & ~KNOWN) | Integer.MIN_VALUE;
+    }
+    
+    private synchronized Types getTypes(QoS qos) {
+        Types types = qosTypes.get(qos);
+        if (types == null) {
+            types = new Types(qos);
+            qosTypes.put(qos, types);
+        }
+        return types;
+    }
+    
+    /**
+     * Adds a channel. Messages of the channel are only accepted after it is added.
+     */
+    public void addChannel(Channel channel) {
+        final Entry entry = new Entry(channel, getTypes(channel.getQoS()));
+        final Entry other = keys.put(new Integer(entry.key), entry);
+        if (other != null && other.channel != channel)
+            log.warn("Channels "+channel.getChannelID()+" and "+other.channel.getChannelID()+
+                    " have the same key. Messages of "+other.channel.getChannelID()+" will be lost.");
+        channels.put(channel.getChannelID(), entry);
+    }
+    
+    public void removeChannel(Channel channel) {
+        final Entry entry = channels.remove(channel.getChannelID());
+        if (entry != null)
+            keys.remove(new Integer(entry.key), entry);
+        
+        // the types of a QoS are kept while a channel uses it
+        final QoS qos = channel.getQoS();
+        for (Entry e : channels.values()) {
+            if (e.channel.getQoS() == qos)
+                return;
+        }
+        synchronized (this) {
+            qosTypes.remove(qos);
+        }
+    }
+    
+    public Channel getChannel(String channelID) {
+        final Entry entry = channels.get(channelID);
+        return entry == null ? null : entry.channel;
+    }
+    
+    public boolean isEmpty() {
+        return channels.isEmpty();
+    }
+    
+    /**
+     * Forgets the event types known by a peer, that is sent the class names
+     * again until it tells it knows them.
+     * 
+     * @param peer the address of the peer, as given to {@link #newEvent(byte[], int, int, Object)}.
+     */
+    public void removePeer(Object peer) {
+        final Iterator<Entry> it = channels.values().iterator();
+        while (it.hasNext())
+            it.next().peers.remove(peer);
+    }
+    
+    /* The entry of the channel of the event, or a temporary one if it was not added. */
+    private Entry getEntry(SendableEvent e) {
+        final Entry entry = channels.get(e.getChannel().getChannelID());
+        if (entry == null || entry.channel != e.getChannel())
+            return new Entry(e.getChannel(), getTypes(e.getChannel().getQoS()));
+        return entry;
+    }
+    
+    /**
+     * Pushes the type and channel header into the message of the event.
+     * The class name is only omitted if the destination of the event knows its type.
+     */
+    public void pushHeader(SendableEvent e) {
+        final Entry entry = getEntry(e);
+        final Message msg = e.getMessage();
+        msg.pushInt(entry.key);
+        
+        final Integer known = entry.types.ids.get(e.getClass());
+        final int flag = known != null ? KNOWN : 0;
+        final int id = known != null ? known.intValue() : typeId(e.getClass().getName());
+        if (entry.isKnown(e.dest, id)) {
+            msg.pushInt(id | flag);
+            return;
+        }
+        
+        byte[] name;
+        try {
+            name = e.getClass().getName().getBytes(CHARSET);
+        } catch (UnsupportedEncodingException ex) {
+            name = e.getClass().getName().getBytes();
+        }
+        final MsgBuffer mbuf = new MsgBuffer();
+        mbuf.len = name.length;
+        msg.push(mbuf);
+        System.arraycopy(name, 0, mbuf.data, mbuf.off, mbuf.len);
+        msg.pushInt(name.length | flag);
+    }
+    
+    /**
+     * Number of bytes that {@link #pushHeader(SendableEvent)} adds to the message of the event.
+     */
+    public int headerSize(SendableEvent e) {
+        final Entry entry = getEntry(e);
+        final Integer known = entry.types.ids.get(e.getClass());
+        final int id = known != null ? known.intValue() : typeId(e.getClass().getName());
+        if (entry.isKnown(e.dest, id))
+            return 2*INT_SIZE;
+        return 2*INT_SIZE + e.getClass().getName().length();
+    }
+
+    /**
+     * Creates the event received in the given data, without learning the types 
+     * known by its sender.
+     * @see #newEvent(byte[], int, int, Object)
+     */
+    public SendableEvent newEvent(byte[] data, int offset, int length) {
+        return newEvent(data, offset, length, null);
+    }
+    
+    /**
+     * Creates the event received in the given data. The channel and the message 
+     * of the event are set, with the data that follows the header.
+     * 
+     * @param source the peer that sent the data, to which the types it knows are sent without names.
+     * @return the event, or null if the channel or the event type is unknown.
+     * @throws IllegalArgumentException if the header is invalid or the event can not be created.
+     */
+    public SendableEvent newEvent(byte[] data, int offset, int length, Object source) {
+        if (length < 2*INT_SIZE)
+            throw new IllegalArgumentException("Message too short: "+length+" bytes");
+        
+        int pos = offset;
+        final int type = ParseUtils.byteArrayToInt(data, pos);
+        pos += INT_SIZE;
+        String className = null;
+        if (type >= 0) {
+            final int nameLength = type & ~KNOWN;
+            if (nameLength > length - 2*INT_SIZE)
+                throw new IllegalArgumentException("Invalid class name length "+nameLength);
+            try {
+                className = new String(data, pos, nameLength, CHARSET);
+            } catch (UnsupportedEncodingException ex) {
+                className = new String(data, pos, nameLength);
+            }
+            pos += nameLength;
+        }
+        
+        final int key = ParseUtils.byteArrayToInt(data, pos);
+        final Entry entry = keys.get(new Integer(key));
+        pos += INT_SIZE;
+        if (entry == null) {
+            log.warn("Discarding message of unknown channel (key "+key+")");
+            return null;
+        }
+        
+        Constructor<?> c;
+        int id;
+        if (className != null) {
+            c = getConstructor(className);
+            id = typeId(className);
+        }
+        else {
+            id = type & ~KNOWN;
+            c = entry.types.constructors.get(new Integer(id));
+            if (c == null) {
+                log.warn("Discarding event of unknown type "+id+" in channel "+entry.channel.getChannelID()+
+                        ". The channel was created again with another QoS.");
+                return null;
+            }
+        }
+        // the peer knows the type, and it may be sent without the name if it is also ours
+        if ((type & KNOWN) != 0 && c.equals(entry.types.constructors.get(new Integer(id))))
+            entry.learn(source, id);
+        else if ((type & KNOWN) == 0)
+            entry.forget(source, id);
+        
+        final SendableEvent e = newInstance(c);
+        e.setChannel(entry.channel);
+        e.setMessage(entry.channel.getMessageFactory().newMessage(data, pos, offset+length-pos));
+        return e;
+    }
+    
+    /**
+     * Creates an event of the given class, with its public constructor without
+     * arguments. Used by transports that do not serialize events.
+     * 
+     * @throws IllegalArgumentException if the event can not be created.
+     */
+    public static SendableEvent newEvent(Class<? extends SendableEvent> type) {
+        return newInstance(getConstructor(type.getName()));
+    }
+    
+    private static Constructor<?> getConstructor(String className) {
+        Constructor<?> c = namedTypes.get(className);
+        if (c == null) {
+            Class<?> type;
+            try {
+                type = Class.forName(className);
+            } catch (ClassNotFoundException ex) {
+                throw new IllegalArgumentException("Unknown event class "+className);
+            }
+            if (!SendableEvent.class.isAssignableFrom(type))
+                throw new IllegalArgumentException("Not a SendableEvent: "+className);
+            c = getConstructor(type);
+            if (c == null)
+                throw new IllegalArgumentException("No public constructor without arguments in "+className);
+            namedTypes.put(className, c);
+        }
+        return c;
+    }
+    
+    private static Constructor<?> getConstructor(Class<?> type) {
+        try {
+            final Constructor<?> c = type.getConstructor();
+            c.setAccessible(true);
+            return c;
+        } catch (NoSuchMethodException ex) {
+            return null;
+        } catch (SecurityException ex) {
+            return null;
+        }
+    }
+    
+    private static SendableEvent newInstance(Constructor<?> c) {
+        try {
+            return (SendableEvent) c.newInstance();
+        } catch (InstantiationException ex) {
+            throw new IllegalArgumentException("Could not create "+c.getDeclaringClass().getName(), ex);
+        } catch (IllegalAccessException ex) {
+            throw new IllegalArgumentException("Could not create "+c.getDeclaringClass().getName(), ex);
+        } catch (java.lang.reflect.InvocationTargetException ex) {
+            throw new IllegalArgumentException("Could not create "+c.getDeclaringClass().getName(), ex.getCause());
+        }
+    }
+}
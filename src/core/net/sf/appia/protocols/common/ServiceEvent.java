@@ -38,17 +38,25 @@ public class ServiceEvent extends Event {
 
 	/**
 	 * Basic Service event constructor. The argument passed should be used only to distinguish between several messages (as msgID).
+	 * The message is {@link Message#retain() retained}, as the notification may follow the end
+	 * of the route of its event.
 	 * @param m the message concerning the notification service.
 	 */
 	public ServiceEvent(Message m) {
 		super();
-		message = m;
+		setMessage(m);
 	}
 
 	public ServiceEvent(Channel channel, int dir, Session src, Message msg)
 			throws AppiaEventException {
 		super(channel, dir, src);
-		message = msg;
+		setMessage(msg);
+	}
+	
+	private void setMessage(Message m) {
+		message = m;
+		if (m != null)
+			m.retain();
 	}
 
 	public Message getMessageID() {
@@ -70,11 +70,13 @@ public class FifoSession extends Session {
 	private HashMap<Object,PeerInfo> addresses;
 
 	/*
-	 * List of pending messages.
-	 * This is a list of WaitingMessage classes 
-	 * that holds the event and the timeStamp.
+	 * List of pending messages, ordered by timeStamp.
+	 * The WaitingMessage classes that hold the event and the timeStamp
+	 * are the nodes of the list, so acknowledged messages are removed
+	 * without searching.
 	 */
-	private LinkedList<WaitingMessage> messages;
+	private WaitingMessage firstMessage, lastMessage;
+	private int nMessages;
 	private LinkedList<Channel> channels;
 	private Channel timerChannel;
 
@@ -95,7 +97,6 @@ public class FifoSession extends Session {
 		super(l);
 
 		addresses = new HashMap<Object,PeerInfo>();
-		messages = new LinkedList<WaitingMessage>();
 		channels = new LinkedList<Channel>();
 		timerPeriod = FifoConfig.TIMER_PERIOD;
 		currentTTR = timersToResend = FifoConfig.TIMERS_TO_RESEND;
@@ -289,7 +290,7 @@ public class FifoSession extends Session {
 		out.println("FIFO Session state dumping:");
 		out.println("Period : " + timerPeriod + "ms");
 		out.println("Current number of peers: " + addresses.size());
-		out.println("Buffer of messages size is " + messages.size());
+		out.println("Buffer of messages size is " + nMessages);
 
 		int count = 0;
 		for(PeerInfo p : addresses.values()){
@@ -386,7 +387,7 @@ public class FifoSession extends Session {
 
 	private WaitingMessage prepareMessage(SendableEvent e) {
 		final WaitingMessage we = new WaitingMessage(e, nResends);
-		messages.addLast(we);
+		addLast(we);
 		return we;
 	}
 
@@ -522,22 +523,49 @@ public class FifoSession extends Session {
 
 		peer.confirmedUntil(seq);
 		peer.usedOn(timeProvider.currentTimeMillis());
-		final ListIterator<Header> it = peer.headers.listIterator();
-		boolean done = false;
-		Header h = null;
-		while (it.hasNext() && !done) {
-			h = it.next();
-			if (h.sequenceNumber < seq) {
-				h.waitingMessage.endPoints--;
-				h.waitingMessage.removeHeader(h);
-				if (h.waitingMessage.endPoints <= 0)
-				    messages.remove(h.waitingMessage);
-				it.remove();
-			} else
-				done = true;
+		/* headers are ordered by sequence number */
+		final LinkedList<Header> headers = peer.headers;
+		while (!headers.isEmpty() && headers.getFirst().sequenceNumber < seq) {
+			final Header h = headers.removeFirst();
+			final WaitingMessage we = h.waitingMessage;
+			we.endPoints--;
+			we.removeHeader(h);
+			if (we.endPoints <= 0)
+			    unlink(we);
 		}
 	}
 
+	/* *************************
+	 *   list of pending messages
+	 * ************************* */
+
+	private void addLast(WaitingMessage we) {
+		we.next = null;
+		we.prev = lastMessage;
+		if (lastMessage == null)
+			firstMessage = we;
+		else
+			lastMessage.next = we;
+		lastMessage = we;
+		nMessages++;
+	}
+
+	/* removes the message from the list, if it is there */
+	private void unlink(WaitingMessage we) {
+		if (we.prev == null && firstMessage != we)
+			return;
+		if (we.prev == null)
+			firstMessage = we.next;
+		else
+			we.prev.next = we.next;
+		if (we.next == null)
+			lastMessage = we.prev;
+		else
+			we.next.prev = we.prev;
+		we.prev = we.next = null;
+		nMessages--;
+	}
+
 	/* *************************
 	 *   methods for the timer
 	 * ************************* */
@@ -568,23 +596,17 @@ public class FifoSession extends Session {
 				"(FIFO) fifo will verify if it needs to resend messages.");
 
         final long currentTime = timeProvider.currentTimeMillis();
-        long delta = 0;
+        /* The list is ordered by timeStamp, so only the expired messages 
+         * are visited. Resent messages get a new timeStamp and go to the 
+         * end of the list, after the expired ones. */
+        final WaitingMessage last = lastMessage;
         boolean stop = false;
-        WaitingMessage message = null;
-        LinkedList<WaitingMessage> localBuffer = new LinkedList<WaitingMessage>();
-        ListIterator<WaitingMessage>it = messages.listIterator();
-		while(!stop && it.hasNext()){
-		    message = it.next();
-            delta = currentTime - message.timeStamp;
-            if (delta > timerPeriod){
-                it.remove();
-                localBuffer.addLast(message);
-            }
-            else
-                stop = true;
-		}
-		for(WaitingMessage waiting : localBuffer)
-            resendMessage(waiting);
+        while (!stop && firstMessage != null && currentTime - firstMessage.timeStamp > timerPeriod) {
+            final WaitingMessage message = firstMessage;
+            stop = (message == last);
+            unlink(message);
+            resendMessage(message);
+        }
 	}
 
 	private void resendMessage(WaitingMessage we) {    
@@ -593,22 +615,23 @@ public class FifoSession extends Session {
 			if (FifoConfig.DEBUG_ON)
 				System.out.println(
 					"FifoSession: going to giveup sending some message because exceeded number of resends!");
-			for (Header header : we.getHeaders())
-				giveup(header.peer, we.event);
+			for (int i = 0; i < we.numHeaders(); i++) {
+				final Header header = we.getHeader(i);
+				if (header != null)
+					giveup(header.peer, we.event);
+			}
 		} else {
 			if (FifoConfig.DEBUG_ON)
 				System.out.println(
 					"FifoSession: going to resend a message! Number of retries left: "
 						+ we.nResends);
 			we.timeStamp = timeProvider.currentTimeMillis();
-			for (Header header : we.getHeaders())
-				sendMessage(we,header);
-			/*TODO: this could be buggy because the method
-			    is called inside an iterator.
-			    This could be fixed by returning the new we and
-			    adding later to the list;
-			*/
-			messages.addLast(we);
+			for (int i = 0; i < we.numHeaders(); i++) {
+				final Header header = we.getHeader(i);
+				if (header != null)
+					sendMessage(we,header);
+			}
+			addLast(we);
 		}
 	}
 
@@ -819,22 +842,26 @@ public class FifoSession extends Session {
 
 	@Deprecated
 	protected void addMessage(WaitingMessage message) {
-		messages.addLast(message);
+		addLast(message);
 	}
 
 	@Deprecated
 	protected void removeMessage(WaitingMessage message) {
-		messages.remove(message);
+		unlink(message);
 	}
 
 	@Deprecated
 	protected int sizeOfBuffer() {
-		return messages.size();
+		return nMessages;
 	}
 
 	@Deprecated
 	protected Object[] getArrayOfBuffer() {
-		return messages.toArray();
+		final Object[] array = new Object[nMessages];
+		int i = 0;
+		for (WaitingMessage we = firstMessage; we != null; we = we.next)
+			array[i++] = we;
+		return array;
 	}
 
 	/* *******************************************
@@ -52,6 +52,8 @@ public class Header {
 	protected int sequenceNumber;
 	protected WaitingMessage waitingMessage;
 	protected PeerInfo peer;
+	/* position in the headers of the waiting message */
+	protected int index;
     protected static final int INT_SIZE = 4;
     protected static final int HEADER_SIZE = INT_SIZE * 2;
 
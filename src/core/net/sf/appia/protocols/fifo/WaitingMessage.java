@@ -44,6 +44,9 @@ import net.sf.appia.core.events.SendableEvent;
 /**
  * this class keeps information about the Pending message
  * and number of endPoints that didn't ack
+ * <br> A single instance is shared by all the peers a message was sent to.
+ * Each peer releases its header when it acknowledges the message, 
+ * without searching.
  * <br> It is also a Node of the global list of messages
  * @see FifoSession
  * @author Nuno Carvalho
@@ -56,8 +59,13 @@ public class WaitingMessage {
     protected int endPoints, nResends;
     protected long timeStamp;
 
-    /* header of each user that this message was sent to */
-    private LinkedList<Header> headers;
+    /* header of each user that this message was sent to, 
+     * indexed by Header.index. Acknowledged headers are null. */
+    private Header[] headers;
+    private int nHeaders;
+
+    /* links of the global list of messages, kept by FifoSession */
+    protected WaitingMessage prev, next;
 
     /* constructors */
     public WaitingMessage(SendableEvent e, int nResends) {
@@ -73,17 +81,34 @@ public class WaitingMessage {
     }
 
     /**
-     * add a header into the LinkedList of headers
+     * add a header into the array of headers
      */
     public void addHeader(Header h) {
-	headers.addLast(h);
+	if (nHeaders == headers.length) {
+	    final Header[] aux = new Header[nHeaders * 2];
+	    System.arraycopy(headers, 0, aux, 0, nHeaders);
+	    headers = aux;
+	}
+	h.index = nHeaders;
+	headers[nHeaders++] = h;
     }
 
     /**
-     * remove a header from the LinkedList of headers
+     * remove a header from the array of headers
      */
     public void removeHeader(Header h) {
-	headers.remove((Object)h);
+	if (h.index < nHeaders && headers[h.index] == h)
+	    headers[h.index] = null;
+    }
+
+    /* number of positions of the array of headers, some may be null */
+    int numHeaders() {
+	return nHeaders;
+    }
+
+    /* header in the given position, or null if it was removed */
+    Header getHeader(int i) {
+	return headers[i];
     }
 
     /**
@@ -93,11 +118,19 @@ public class WaitingMessage {
      * @deprecated
      */
     public Object[] toHeaderArray() {
-	return headers.toArray();
+	return getHeaders().toArray();
     }
     
+    /**
+     * gets a list with the headers of Peers that this message was sent to.
+     * The list is a copy.
+     */
     public LinkedList<Header> getHeaders(){
-        return headers;
+        final LinkedList<Header> list = new LinkedList<Header>();
+        for (int i = 0; i < nHeaders; i++)
+            if (headers[i] != null)
+                list.addLast(headers[i]);
+        return list;
     }
     
     public boolean equals(Object o) {
@@ -117,7 +150,8 @@ public class WaitingMessage {
 	    endPoints = ((AppiaMulticast)e.dest).getDestinations().length;
 	else
 	    endPoints = 1;
-	this.headers = new LinkedList<Header>();
+	this.headers = new Header[Math.max(endPoints, 1)];
+	this.nHeaders = 0;
 	this.nResends = nResends;
     }
 }
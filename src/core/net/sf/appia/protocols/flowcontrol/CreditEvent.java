@@ -0,0 +1,42 @@
+/**
+ * Appia: Group communication and protocol composition framework library
+ * Copyright 2026 University of Lisbon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ *
+ * Contributor(s): See Appia web page for a list of contributors.
+ */
+package net.sf.appia.protocols.flowcontrol;
+
+import net.sf.appia.core.AppiaEventException;
+import net.sf.appia.core.Channel;
+import net.sf.appia.core.Session;
+import net.sf.appia.core.events.SendableEvent;
+import net.sf.appia.core.message.Message;
+
+/**
+ * Event sent by a receiver to grant more credits to a sender.
+ * The message carries the number of credits, an <tt>int</tt>.
+ * 
+ * @see FlowControlSession
+ */
+public class CreditEvent extends SendableEvent {
+
+  public CreditEvent() {
+    super();
+  }
+
+  public CreditEvent(Channel channel, int dir, Session source, Message msg) throws AppiaEventException {
+    super(channel,dir,source,msg);
+  }
+}
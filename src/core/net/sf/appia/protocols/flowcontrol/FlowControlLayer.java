@@ -0,0 +1,72 @@
+/**
+ * Appia: Group communication and protocol composition framework library
+ * Copyright 2026 University of Lisbon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ *
+ * Contributor(s): See Appia web page for a list of contributors.
+ */
+package net.sf.appia.protocols.flowcontrol;
+
+import net.sf.appia.core.Layer;
+import net.sf.appia.core.Session;
+import net.sf.appia.core.events.SendableEvent;
+import net.sf.appia.core.events.channel.ChannelClose;
+import net.sf.appia.core.events.channel.ChannelInit;
+import net.sf.appia.protocols.common.NetworkUndeliveredEvent;
+
+/**
+ * Layer of the credit based flow control protocol. It must be placed above
+ * a reliable protocol, such as
+ * {@link net.sf.appia.protocols.tcpcomplete.TcpCompleteLayer TcpCompleteLayer} or
+ * {@link net.sf.appia.protocols.fifo.FifoLayer FifoLayer}, because lost credits
+ * are never sent again.
+ * <br>
+ * Each receiver grants credits to each sender as the messages are delivered, and
+ * the sender keeps the messages while it has no credits. Since the kept messages
+ * are in the memory manager of the channel, the application is stopped by
+ * {@link net.sf.appia.core.Event#asyncGo(net.sf.appia.core.Channel, int) asyncGo}
+ * or refused by {@link net.sf.appia.core.Event#tryAsyncGo(net.sf.appia.core.Channel, int) tryAsyncGo}.
+ * <br>
+ * The up threshold of the memory manager must be higher than the down threshold.
+ * Otherwise, the kept messages also stop the transport from delivering the credits.
+ * 
+ * @see FlowControlSession
+ */
+public class FlowControlLayer extends Layer {
+
+  public FlowControlLayer() {
+    evProvide=new Class[]{
+        CreditEvent.class,
+    };
+
+    evRequire=new Class[]{
+        SendableEvent.class,
+        ChannelInit.class,
+    };
+
+    evAccept=new Class[]{
+        SendableEvent.class,
+        ChannelInit.class,
+        ChannelClose.class,
+        NetworkUndeliveredEvent.class,
+    };
+  }
+
+  /**
+   * @see net.sf.appia.core.Layer#createSession()
+   */
+  public Session createSession() {
+    return new FlowControlSession(this);
+  }
+}
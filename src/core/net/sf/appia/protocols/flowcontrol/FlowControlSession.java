@@ -0,0 +1,342 @@
+/**
+ * Appia: Group communication and protocol composition framework library
+ * Copyright 2026 University of Lisbon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ *
+ * Contributor(s): See Appia web page for a list of contributors.
+ */
+package net.sf.appia.protocols.flowcontrol;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import net.sf.appia.core.AppiaEventException;
+import net.sf.appia.core.Channel;
+import net.sf.appia.core.Direction;
+import net.sf.appia.core.Event;
+import net.sf.appia.core.Layer;
+import net.sf.appia.core.Session;
+import net.sf.appia.core.events.AppiaMulticast;
+import net.sf.appia.core.events.SendableEvent;
+import net.sf.appia.core.events.channel.ChannelClose;
+import net.sf.appia.core.events.channel.ChannelInit;
+import net.sf.appia.core.memoryManager.MemoryManager;
+import net.sf.appia.core.message.Message;
+import net.sf.appia.protocols.common.NetworkUndeliveredEvent;
+import net.sf.appia.xml.interfaces.InitializableSession;
+import net.sf.appia.xml.utils.SessionProperties;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Session of the credit based flow control protocol.
+ * <br>
+ * In each channel, a sender starts with <i>credits</i> credits for each destination
+ * and spends one for each event sent to it. An event sent to an {@link AppiaMulticast}
+ * spends one credit of each destination. Events that can not be sent are kept, in the
+ * order they were sent, until all their destinations grant more credits. 
+ * <br>
+ * Each receiver counts the events it delivers from each sender and, after <i>grant</i>
+ * events, returns those credits in a {@link CreditEvent}. So a sender never has more 
+ * than <i>credits</i> events in transit to a destination, and the remaining events
+ * stay in its memory manager, which stops the application.
+ * <br>
+ * Both ends of a channel must use the same number of credits. When the transport 
+ * reports that a destination failed, its events are no longer kept.
+ * 
+ * @see FlowControlLayer
+ */
+public class FlowControlSession extends Session implements InitializableSession {
+
+  private static Logger log = Logger.getLogger(FlowControlSession.class);
+
+  /**
+   * Default number of events that may be in transit to each destination.
+   */
+  public static final int DEFAULT_CREDITS=256;
+
+  private int param_CREDITS=DEFAULT_CREDITS;
+  private int param_GRANT=DEFAULT_CREDITS/4;
+
+  /* An event waiting for credits. */
+  private static final class Pending {
+    private final SendableEvent event;
+    private final Peer[] peers;
+
+    private Pending(SendableEvent event, Peer[] peers) {
+      this.event=event;
+      this.peers=peers;
+    }
+  }
+
+  private static final class Peer {
+    private final Object address;
+    // credits to send to the peer
+    private int credits;
+    // events delivered from the peer and not yet returned as credits
+    private int consumed=0;
+    private boolean failed=false;
+    private final LinkedList<Pending> pending=new LinkedList<Pending>();
+
+    private Peer(Object address, int credits) {
+      this.address=address;
+      this.credits=credits;
+    }
+
+    private boolean canSend() {
+      return failed || credits > 0;
+    }
+  }
+
+  private static final class ChannelState {
+    private final HashMap<Object,Peer> peers=new HashMap<Object,Peer>();
+  }
+
+  private final HashMap<Channel,ChannelState> channels=new HashMap<Channel,ChannelState>();
+  private final ArrayList<Peer> work=new ArrayList<Peer>();
+
+  public FlowControlSession(Layer layer) {
+    super(layer);
+  }
+
+  /**
+   * Initializes the session using the parameters given in the XML configuration.
+   * Possible parameters:
+   * <ul>
+   * <li><b>credits</b> number of events that may be in transit to each destination.
+   * It must be the same in all the members of the channel.
+   * <li><b>grant</b> number of events delivered from a sender before its credits are returned.
+   * The default is a quarter of the credits.
+   * </ul>
+   * 
+   * @param params The parameters given in the XML configuration.
+   */
+  public void init(SessionProperties params) {
+    if (params.containsKey("credits")) {
+      param_CREDITS=params.getInt("credits");
+      param_GRANT=Math.max(1,param_CREDITS/4);
+    }
+    if (params.containsKey("grant"))
+      param_GRANT=params.getInt("grant");
+    if (param_GRANT > param_CREDITS || param_GRANT < 1)
+      throw new IllegalArgumentException("Flow control grant must be between 1 and the credits: "+param_GRANT);
+  }
+
+  public void handle(Event e) {
+    if (e instanceof CreditEvent)
+      handleCredit((CreditEvent) e);
+    else if (e instanceof SendableEvent) {
+      if (e.getDir() == Direction.DOWN)
+        handleDown((SendableEvent) e);
+      else
+        handleUp((SendableEvent) e);
+    } else if (e instanceof NetworkUndeliveredEvent)
+      handleUndelivered((NetworkUndeliveredEvent) e);
+    else if (e instanceof ChannelInit)
+      handleChannelInit((ChannelInit) e);
+    else if (e instanceof ChannelClose)
+      handleChannelClose((ChannelClose) e);
+    else
+      send(e);
+  }
+
+  private void handleChannelInit(ChannelInit e) {
+    final MemoryManager mm=e.getChannel().getMemoryManager();
+    if (mm != null && mm.getThreshold(Direction.UP) <= mm.getThreshold(Direction.DOWN))
+      log.warn("The up threshold of the memory manager of channel "+e.getChannel().getChannelID()+
+          " is not above the down threshold. Credits may not be received.");
+    channels.put(e.getChannel(),new ChannelState());
+    send(e);
+  }
+
+  private void handleChannelClose(ChannelClose e) {
+    final ChannelState state=channels.remove(e.getChannel());
+    if (state != null) {
+      final Iterator<Peer> iter=state.peers.values().iterator();
+      while (iter.hasNext()) {
+        final Peer peer=iter.next();
+        for (Pending p : peer.pending)
+          p.event.detachFromMemory();
+        peer.pending.clear();
+      }
+    }
+    send(e);
+  }
+
+  private void handleDown(SendableEvent e) {
+    final ChannelState state=channels.get(e.getChannel());
+    final Peer[] peers=(state == null) ? null : getPeers(state,e.dest);
+    if (peers == null) {
+      send(e);
+      return;
+    }
+
+    boolean now=true;
+    for (int i=0 ; now && i < peers.length ; i++)
+      now=peers[i].pending.isEmpty() && peers[i].canSend();
+    if (now) {
+      spend(peers);
+      send(e);
+      return;
+    }
+
+    final Pending p=new Pending(e,peers);
+    for (int i=0 ; i < peers.length ; i++)
+      peers[i].pending.addLast(p);
+    if (log.isDebugEnabled())
+      log.debug("Keeping event "+e+" to "+e.dest+" until there are credits");
+  }
+
+  private void handleUp(SendableEvent e) {
+    final ChannelState state=channels.get(e.getChannel());
+    final Object source=e.source;
+    final Object dest=(e.dest instanceof AppiaMulticast) ? null : e.dest;
+    final Channel channel=e.getChannel();
+    send(e);
+
+    if (state == null || source == null)
+      return;
+    final Peer peer=getPeer(state,source);
+    if (++peer.consumed >= param_GRANT) {
+      grant(channel,peer,dest);
+      peer.consumed=0;
+    }
+  }
+
+  private void grant(Channel channel, Peer peer, Object source) {
+    try {
+      final Message msg=channel.getMessageFactory().newMessage();
+      msg.pushInt(peer.consumed);
+      final CreditEvent ce=new CreditEvent(channel,Direction.DOWN,this,msg);
+      ce.source=source;
+      ce.dest=peer.address;
+      ce.go();
+    } catch (AppiaEventException ex) {
+      ex.printStackTrace();
+    }
+  }
+
+  private void handleCredit(CreditEvent e) {
+    if (e.getDir() == Direction.DOWN) {
+      send(e);
+      return;
+    }
+
+    final ChannelState state=channels.get(e.getChannel());
+    final int credits=e.getMessage().popInt();
+    if (state == null || e.source == null)
+      return;
+    final Peer peer=getPeer(state,e.source);
+    peer.credits+=credits;
+    if (log.isDebugEnabled())
+      log.debug("Received "+credits+" credits from "+peer.address+", now "+peer.credits);
+    release(peer);
+  }
+
+  private void handleUndelivered(NetworkUndeliveredEvent e) {
+    final ChannelState state=channels.get(e.getChannel());
+    final Peer peer=(state == null || e.getFailedAddress() == null) ? 
+        null : state.peers.get(e.getFailedAddress());
+    if (peer != null && !peer.failed) {
+      log.debug("Destination "+peer.address+" failed, no longer controlling the flow to it");
+      peer.failed=true;
+      release(peer);
+    }
+    send(e);
+  }
+
+  /*
+   * Sends the kept events that have credits, starting with those of the peer.
+   * Sending an event to several destinations may release the events kept 
+   * for the other destinations.
+   */
+  private void release(Peer peer) {
+    work.add(peer);
+    while (!work.isEmpty()) {
+      final Peer next=work.remove(work.size()-1);
+      while (!next.pending.isEmpty()) {
+        final Pending p=next.pending.getFirst();
+        if (!isFirst(p))
+          break;
+        for (int i=0 ; i < p.peers.length ; i++) {
+          p.peers[i].pending.removeFirst();
+          if (p.peers[i] != next)
+            work.add(p.peers[i]);
+        }
+        spend(p.peers);
+        send(p.event);
+      }
+    }
+  }
+
+  private boolean isFirst(Pending p) {
+    for (int i=0 ; i < p.peers.length ; i++) {
+      if (p.peers[i].pending.getFirst() != p || !p.peers[i].canSend())
+        return false;
+    }
+    return true;
+  }
+
+  private void spend(Peer[] peers) {
+    for (int i=0 ; i < peers.length ; i++) {
+      if (!peers[i].failed)
+        peers[i].credits--;
+    }
+  }
+
+  private Peer getPeer(ChannelState state, Object address) {
+    Peer peer=state.peers.get(address);
+    if (peer == null) {
+      peer=new Peer(address,param_CREDITS);
+      state.peers.put(address,peer);
+    }
+    return peer;
+  }
+
+  private Peer[] getPeers(ChannelState state, Object dest) {
+    if (dest == null)
+      return null;
+    if (!(dest instanceof AppiaMulticast))
+      return new Peer[]{getPeer(state,dest)};
+
+    final Object[] dests=((AppiaMulticast) dest).getDestinations();
+    final Peer[] peers=new Peer[dests.length];
+    int n=0;
+    for (int i=0 ; i < dests.length ; i++) {
+      final Peer peer=getPeer(state,dests[i]);
+      int j=0;
+      while (j < n && peers[j] != peer)
+        j++;
+      if (j == n)
+        peers[n++]=peer;
+    }
+    if (n == 0)
+      return null;
+    if (n == peers.length)
+      return peers;
+    final Peer[] unique=new Peer[n];
+    System.arraycopy(peers,0,unique,0,n);
+    return unique;
+  }
+
+  private void send(Event e) {
+    try {
+      e.go();
+    } catch (AppiaEventException ex) {
+      ex.printStackTrace();
+    }
+  }
+}
@@ -22,7 +22,6 @@ package net.sf.appia.protocols.nakfifo;
 import java.net.InetSocketAddress;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.ListIterator;
 
 import net.sf.appia.core.AppiaError;
 import net.sf.appia.core.AppiaEventException;
@@ -303,7 +302,7 @@ public class NakFifoSession extends Session implements InitializableSession {
             if (peer.nacked != null) {
                 peer.nacked.rounds++;
                 if (peer.nacked.rounds > param_RESEND_NACK_ROUNDS) {
-                    nack(peer,peer.last_msg_delivered >= peer.nacked.first_msg ? peer.last_msg_delivered+1 : peer.nacked.first_msg, peer.nacked.last_msg, ((SendableEvent)peer.undelivered_msgs.getFirst()).getChannel());
+                    nack(peer,peer.last_msg_delivered >= peer.nacked.first_msg ? peer.last_msg_delivered+1 : peer.nacked.first_msg, peer.nacked.last_msg, nackChannel(peer));
                     peer.nacked.rounds=0;
                 }
             } else {
@@ -314,10 +313,9 @@ public class NakFifoSession extends Session implements InitializableSession {
             }
 
             if ((peer != null) && (peer.rounds_msg_recv > param_MAX_RECV_ROUNDS)) {
-                Iterator msgs=peer.unconfirmed_msgs.iterator();
-                while (msgs.hasNext()) {
-                    sendFIFOUndelivered((SendableEvent)msgs.next(),peer.addr);
-                }
+                final SeqWindow msgs=peer.unconfirmed_msgs;
+                for (long seq=msgs.first() ; seq >= 0 ; seq=msgs.next(seq+1))
+                    sendFIFOUndelivered((SendableEvent)msgs.get(seq),peer.addr);
                 peers_iter.remove();
                 peer=null;
             }
@@ -374,7 +372,7 @@ public class NakFifoSession extends Session implements InitializableSession {
             ev.go();
 
             peer.last_msg_sent++;
-            storeUnconfirmed(peer,event);
+            storeUnconfirmed(peer,event,peer.last_msg_sent);
 
             peer.rounds_msg_sent=0;
             if (!(ev instanceof PingEvent))
@@ -448,7 +446,7 @@ public class NakFifoSession extends Session implements InitializableSession {
             }
 
             peer.last_msg_delivered=seq;
-            if (peer.undelivered_msgs.size() > 0) {
+            if (!peer.undelivered_msgs.isEmpty()) {
                 long undelivered=deliverUndelivered(peer);
 
                 if (debugFull)
@@ -514,90 +512,71 @@ public class NakFifoSession extends Session implements InitializableSession {
         }
     }
 
-    private void storeUnconfirmed(Peer peer, SendableEvent ev) {
-        peer.unconfirmed_msgs.addLast(ev);
+    private void storeUnconfirmed(Peer peer, SendableEvent ev, long seq) {
+        peer.unconfirmed_msgs.put(seq,ev);
     }
 
     private void removeUnconfirmed(Peer peer, long last) {
-        while (peer.last_msg_confirmed < last) {
-            SendableEvent ev = (SendableEvent) peer.unconfirmed_msgs.removeFirst();
-            peer.last_msg_confirmed++;
-            // FIXME: this cannot be done here
-            //ev.getMessage().discardAll();
-        }
+        // FIXME: messages cannot be discarded here
+        peer.unconfirmed_msgs.removeUpTo(last);
+        peer.last_msg_confirmed=last;
     }
 
     private void resend(Peer peer, long first, long last) {
-        ListIterator aux=peer.unconfirmed_msgs.listIterator();
-        long seq=peer.last_msg_confirmed;
-        while (aux.hasNext() && (seq <= last)) {
-            SendableEvent evaux=(SendableEvent)aux.next();
-            seq++;
-            if ((seq >= first) && (seq <= last)) {
-                try {
-                    // Must send a clone because original may be shared among several peers
-                    // due to AppiaMulticast
-                    SendableEvent ev=(SendableEvent)evaux.cloneEvent();
-                    ev.setSourceSession(this);
-                    ev.init();
-
-                    utils.pushSeq(ev.getMessage(),peer.last_msg_delivered);
-                    utils.pushSeq(ev.getMessage(),seq);
-                    ev.getMessage().pushByte(MessageUtils.NOFLAGS);
-                    ev.dest=peer.addr;
-                    ev.go();
-
-                    peer.rounds_msg_sent=0;
-                } catch (AppiaEventException ex1) {
-                    ex1.printStackTrace();
-                } catch (CloneNotSupportedException ex2) {
-                    ex2.printStackTrace();
-                }
+        final SeqWindow msgs=peer.unconfirmed_msgs;
+        for (long seq=msgs.next(first) ; (seq >= 0) && (seq <= last) ; seq=msgs.next(seq+1)) {
+            final SendableEvent evaux=(SendableEvent)msgs.get(seq);
+            try {
+                // Must send a clone because original may be shared among several peers
+                // due to AppiaMulticast
+                SendableEvent ev=(SendableEvent)evaux.cloneEvent();
+                ev.setSourceSession(this);
+                ev.init();
+
+                utils.pushSeq(ev.getMessage(),peer.last_msg_delivered);
+                utils.pushSeq(ev.getMessage(),seq);
+                ev.getMessage().pushByte(MessageUtils.NOFLAGS);
+                ev.dest=peer.addr;
+                ev.go();
+
+                peer.rounds_msg_sent=0;
+            } catch (AppiaEventException ex1) {
+                ex1.printStackTrace();
+            } catch (CloneNotSupportedException ex2) {
+                ex2.printStackTrace();
             }
         }
     }
 
     private void storeUndelivered(Peer peer, SendableEvent ev, long seq) {
-        utils.pushSeq(ev.getMessage(),seq);
-        ListIterator aux=peer.undelivered_msgs.listIterator(peer.undelivered_msgs.size());
-        while (aux.hasPrevious()) {
-            SendableEvent evaux=(SendableEvent)aux.previous();
-            long seqaux=utils.popSeq(evaux.getMessage(),peer.last_msg_delivered,true);
-            if (seqaux == seq) {
-                log.debug("Received undelivered message already stored. Discarding new copy.");
-                return;
-            }
-            if (seqaux < seq) {
-                aux.next();
-                aux.add(ev);
-                return;
-            }
+        if (peer.undelivered_msgs.get(seq) != null) {
+            log.debug("Received undelivered message already stored. Discarding new copy.");
+            return;
         }
-        peer.undelivered_msgs.addFirst(ev);
+        peer.undelivered_msgs.put(seq,ev);
     }
 
     private long deliverUndelivered(Peer peer) {
-        ListIterator aux=peer.undelivered_msgs.listIterator();
-        while (aux.hasNext()) {
-            SendableEvent evaux=(SendableEvent)aux.next();
-            long seqaux=utils.popSeq(evaux.getMessage(),peer.last_msg_delivered,true);
-            if (seqaux == peer.last_msg_delivered+1) {
-                try {
-                    if (!(evaux instanceof PingEvent)) {
-                        evaux.getMessage().discard(MessageUtils.SEQ_SIZE);
-                        evaux.go();
-                    }
-                } catch (AppiaEventException ex) {
-                    ex.printStackTrace();
-                    log.debug("Discarding event "+evaux+". This may lead to incoherence.");
-                }
-                peer.last_msg_delivered=seqaux;
-                aux.remove();
-            } else {
-                return seqaux;
+        final SeqWindow msgs=peer.undelivered_msgs;
+        SendableEvent evaux;
+        while ((evaux=(SendableEvent)msgs.remove(peer.last_msg_delivered+1)) != null) {
+            try {
+                if (!(evaux instanceof PingEvent))
+                    evaux.go();
+            } catch (AppiaEventException ex) {
+                ex.printStackTrace();
+                log.debug("Discarding event "+evaux+". This may lead to incoherence.");
             }
+            peer.last_msg_delivered++;
         }
-        return -1;
+        return msgs.first();
+    }
+
+    private Channel nackChannel(Peer peer) {
+        final SeqWindow msgs=peer.undelivered_msgs;
+        if (msgs.isEmpty())
+            return peer.last_channel;
+        return ((SendableEvent)msgs.get(msgs.first())).getChannel();
     }
 
     private Peer createPeer(Object addr, Channel channel) {
@@ -707,12 +686,9 @@ public class NakFifoSession extends Session implements InitializableSession {
 
             int limit=debugListLimit;
             s+="\t Unconfirmed Msgs:"+"\n";
-            ListIterator iter=peer.unconfirmed_msgs.listIterator();
-            long l=peer.last_msg_confirmed;
-            while (iter.hasNext()) {
-                SendableEvent ev=(SendableEvent)iter.next();
-                l++;
-                s+="\t\t "+l+": "+ev+"\n";
+            SeqWindow msgs=peer.unconfirmed_msgs;
+            for (long l=msgs.first() ; l >= 0 ; l=msgs.next(l+1)) {
+                s+="\t\t "+l+": "+msgs.get(l)+"\n";
                 if (--limit <= 0) {
                     s+="\t\t  ..."+"\n";
                     break;
@@ -721,11 +697,9 @@ public class NakFifoSession extends Session implements InitializableSession {
 
             limit=debugListLimit;
             s+="\t Undelivered Msgs:"+"\n";
-            iter=peer.undelivered_msgs.listIterator();
-            while (iter.hasNext()) {
-                SendableEvent ev=(SendableEvent)iter.next();
-                l=utils.popSeq(ev.getMessage(),peer.last_msg_delivered,true);
-                s+="\t\t "+l+": "+ev+"\n";
+            msgs=peer.undelivered_msgs;
+            for (long l=msgs.first() ; l >= 0 ; l=msgs.next(l+1)) {
+                s+="\t\t "+l+": "+msgs.get(l)+"\n";
                 if (--limit <= 0) {
                     s+="\t\t  ..."+"\n";
                     break;
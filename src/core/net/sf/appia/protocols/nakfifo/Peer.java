@@ -25,8 +25,6 @@
 
 package net.sf.appia.protocols.nakfifo;
 
-import java.util.LinkedList;
-
 import net.sf.appia.core.Channel;
 import net.sf.appia.core.TimeProvider;
 
@@ -47,8 +45,10 @@ public class Peer {
   // Used only by NakFifoMulticast
   public long last_confirm_sent=0;
   
-  public LinkedList unconfirmed_msgs=new LinkedList();
-  public LinkedList undelivered_msgs=new LinkedList();
+  /** Messages sent and not yet confirmed, by sequence number. */
+  public SeqWindow unconfirmed_msgs=new SeqWindow();
+  /** Messages received out of order, by sequence number. */
+  public SeqWindow undelivered_msgs=new SeqWindow();
   
   // TODO: 
   // Option 1: add pending list for events waiting to be sent when unconfirmed grows to much
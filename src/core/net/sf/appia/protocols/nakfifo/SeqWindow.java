@@ -0,0 +1,206 @@
+/**
+ * Appia: Group communication and protocol composition framework library
+ * Copyright 2026 University of Lisbon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ *
+ * Contributor(s): See Appia web page for a list of contributors.
+ */
+package net.sf.appia.protocols.nakfifo;
+
+/** 
+ * Window of messages indexed by sequence number.
+ * <br>
+ * Messages are kept in a circular array, in the position given by the low bits
+ * of their sequence number, so they are found, added and removed without
+ * searching. A bitmap marks the positions in use, so the first message after a
+ * missing range is found a word at a time.
+ * <br>
+ * The array grows to hold the distance between the lowest and the highest
+ * sequence number stored. When the window is empty it may start at any number.
+ */
+public class SeqWindow {
+  
+  private static final int INITIAL_CAPACITY=64;
+  
+  private Object[] items;
+  private long[] bits;
+  private int mask;
+  
+  private int size=0;
+  private long low=-1;
+  private long high=-1;
+  
+  /** Creates a new empty window. */
+  public SeqWindow() {
+    items=new Object[INITIAL_CAPACITY];
+    bits=new long[INITIAL_CAPACITY >>> 6];
+    mask=INITIAL_CAPACITY-1;
+  }
+  
+  /** Number of messages in the window. */
+  public int size() {
+    return size;
+  }
+  
+  public boolean isEmpty() {
+    return size == 0;
+  }
+  
+  /** Lowest sequence number stored, or -1 if empty. */
+  public long first() {
+    return low;
+  }
+  
+  /** Highest sequence number stored, or -1 if empty. */
+  public long last() {
+    return high;
+  }
+  
+  /** Message with the given sequence number, or null. */
+  public Object get(long seq) {
+    if ((size == 0) || (seq < low) || (seq > high))
+      return null;
+    return items[(int)seq & mask];
+  }
+  
+  /** 
+   * Stores a message with the given sequence number. 
+   * @return the message previously stored with that number, or null.
+   */
+  public Object put(long seq, Object item) {
+    if (seq < 0)
+      throw new IllegalArgumentException("Negative sequence number "+seq);
+    if (item == null)
+      throw new IllegalArgumentException("Null message");
+    
+    if (size == 0) {
+      low=high=seq;
+    } else {
+      final long l=Math.min(low,seq);
+      final long h=Math.max(high,seq);
+      if (h-l > mask)
+        grow(h-l+1);
+      low=l;
+      high=h;
+    }
+    
+    final int i=(int)seq & mask;
+    final Object old=items[i];
+    items[i]=item;
+    if (old == null) {
+      bits[i >>> 6] |= 1L << i;
+      size++;
+    }
+    return old;
+  }
+  
+  /** 
+   * Removes the message with the given sequence number.
+   * @return the message removed, or null.
+   */
+  public Object remove(long seq) {
+    if ((size == 0) || (seq < low) || (seq > high))
+      return null;
+    final int i=(int)seq & mask;
+    final Object old=items[i];
+    if (old == null)
+      return null;
+    
+    items[i]=null;
+    bits[i >>> 6] &= ~(1L << i);
+    if (--size == 0) {
+      low=high=-1;
+    } else if (seq == low) {
+      low=next(seq+1);
+    } else if (seq == high) {
+      high=previous(seq-1);
+    }
+    return old;
+  }
+  
+  /** Removes the messages with sequence numbers up to, and including, the given one. */
+  public void removeUpTo(long seq) {
+    while ((size > 0) && (low <= seq))
+      remove(low);
+  }
+  
+  /** Removes all messages. */
+  public void clear() {
+    while (size > 0)
+      remove(low);
+  }
+  
+  /** Lowest sequence number stored that is equal or greater than the given one, or -1. */
+  public long next(long seq) {
+    if ((size == 0) || (seq > high))
+      return -1;
+    if (seq <= low)
+      return low;
+    
+    int i=(int)seq & mask;
+    long word=bits[i >>> 6] & (-1L << i);
+    long base=seq - (i & 63);
+    while (word == 0) {
+      base+=64;
+      if (base > high)
+        return -1;
+      i=(int)base & mask;
+      word=bits[i >>> 6];
+    }
+    final long r=base + Long.numberOfTrailingZeros(word);
+    return r <= high ? r : -1;
+  }
+  
+  /** Highest sequence number stored that is equal or lower than the given one, or -1. */
+  private long previous(long seq) {
+    if ((size == 0) || (seq < low))
+      return -1;
+    if (seq >= high)
+      return high;
+    
+    int i=(int)seq & mask;
+    long word=bits[i >>> 6] & (-1L >>> (63 - (i & 63)));
+    long base=seq - (i & 63);
+    while (word == 0) {
+      base-=64;
+      if (base+63 < low)
+        return -1;
+      i=(int)base & mask;
+      word=bits[i >>> 6];
+    }
+    final long r=base + 63 - Long.numberOfLeadingZeros(word);
+    return r >= low ? r : -1;
+  }
+  
+  private void grow(long span) {
+    int capacity=items.length;
+    while (capacity < span) {
+      capacity<<=1;
+      if (capacity <= 0)
+        throw new IllegalStateException("Window too large: "+span+" sequence numbers");
+    }
+    
+    final Object[] newItems=new Object[capacity];
+    final long[] newBits=new long[capacity >>> 6];
+    final int newMask=capacity-1;
+    for (long seq=low ; seq >= 0 ; seq=next(seq+1)) {
+      final int i=(int)seq & newMask;
+      newItems[i]=items[(int)seq & mask];
+      newBits[i >>> 6] |= 1L << i;
+    }
+    items=newItems;
+    bits=newBits;
+    mask=newMask;
+  }
+}
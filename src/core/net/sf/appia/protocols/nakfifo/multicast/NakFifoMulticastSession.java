@@ -28,7 +28,6 @@ package net.sf.appia.protocols.nakfifo.multicast;
 import java.net.InetSocketAddress;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.ListIterator;
 
 import net.sf.appia.core.AppiaError;
 import net.sf.appia.core.AppiaEventException;
@@ -53,6 +52,7 @@ import net.sf.appia.protocols.nakfifo.Nacked;
 import net.sf.appia.protocols.nakfifo.NakFifoTimer;
 import net.sf.appia.protocols.nakfifo.Peer;
 import net.sf.appia.protocols.nakfifo.PingEvent;
+import net.sf.appia.protocols.nakfifo.SeqWindow;
 import net.sf.appia.xml.interfaces.InitializableSession;
 import net.sf.appia.xml.utils.SessionProperties;
 
@@ -424,7 +424,7 @@ public class NakFifoMulticastSession extends Session implements InitializableSes
       if (peer.nacked != null) {
         peer.nacked.rounds++;
         if (peer.nacked.rounds > param_RESEND_NACK_ROUNDS) {
-          nack(peer,peer.last_msg_delivered >= peer.nacked.first_msg ? peer.last_msg_delivered+1 : peer.nacked.first_msg, peer.nacked.last_msg, ((SendableEvent)peer.undelivered_msgs.getFirst()).getChannel());
+          nack(peer,peer.last_msg_delivered >= peer.nacked.first_msg ? peer.last_msg_delivered+1 : peer.nacked.first_msg, peer.nacked.last_msg, nackChannel(peer));
           peer.nacked.rounds=0;
         }
       } else {
@@ -435,10 +435,9 @@ public class NakFifoMulticastSession extends Session implements InitializableSes
       }
       
       if ((peer != null) && (peer.rounds_msg_recv > param_MAX_RECV_ROUNDS)) {
-        Iterator msgs=peer.unconfirmed_msgs.iterator();
-        while (msgs.hasNext()) {
-          sendFIFOUndelivered((SendableEvent)msgs.next(),peer.addr);
-        }
+        final SeqWindow msgs=peer.unconfirmed_msgs;
+        for (long seq=msgs.first() ; seq >= 0 ; seq=msgs.next(seq+1))
+          sendFIFOUndelivered((SendableEvent)msgs.get(seq),peer.addr);
         peers_iter.remove();
         peer=null;
       }
@@ -541,7 +540,7 @@ public class NakFifoMulticastSession extends Session implements InitializableSes
       update(peer,seq-1,ev.getChannel());
     
     peer.last_msg_sent=seq;
-    storeUnconfirmed(peer,ev);
+    storeUnconfirmed(peer,ev,seq);
     
     peer.rounds_msg_sent=0;
     if (!(ev instanceof PingEvent))
@@ -573,7 +572,7 @@ public class NakFifoMulticastSession extends Session implements InitializableSes
       }
       
       peer.last_msg_delivered=seqto;
-      if (peer.undelivered_msgs.size() > 0) {
+      if (!peer.undelivered_msgs.isEmpty()) {
         long undelivered=deliverUndelivered(peer);
         
         if (debugFull)
@@ -596,7 +595,7 @@ public class NakFifoMulticastSession extends Session implements InitializableSes
       if (debugFull)
     	  log.debug("Storing undelivered from "+peer.addr+" with seq "+seqfrom);
       
-      storeUndelivered(peer,ev,seqfrom);
+      storeUndelivered(peer,ev,seqfrom,seqto);
       
       if (peer.nacked == null)
         nack(peer,peer.last_msg_delivered+1,seqfrom-1,ev.getChannel());
@@ -668,7 +667,7 @@ public class NakFifoMulticastSession extends Session implements InitializableSes
       update.dest=peer.addr;
       
       UpdateEvent clone=(UpdateEvent)update.cloneEvent();
-      storeUnconfirmed(peer,clone);
+      storeUnconfirmed(peer,clone,to);
       
       utils.pushSeq(update.getMessage(),update.to);
       utils.pushSeq(update.getMessage(),update.from);
@@ -702,49 +701,51 @@ public class NakFifoMulticastSession extends Session implements InitializableSes
         log.debug("Sent Confirm "+peer.last_confirm_sent+" to "+peer.addr);
   }
 
-  private void storeUnconfirmed(Peer peer, SendableEvent ev) {
+  private void storeUnconfirmed(Peer peer, SendableEvent ev, long seq) {
     if (!(ev instanceof UpdateEvent)) {
       // updates peer counter
     	//FIXME: uncomment
       //ev.getMessage().pushInt(ev.getMessage().popInt()+1);
     }
     
-    peer.unconfirmed_msgs.addLast(ev);
+    // Updates are stored with their last sequence number
+    peer.unconfirmed_msgs.put(seq,ev);
     
     // TODO: erase
     int size=peer.unconfirmed_msgs.size();
     if (((size / 500) > 0) && ((size % 500) == 0))
-        log.warn("Unconfirmed reached "+peer.unconfirmed_msgs.size());
+        log.warn("Unconfirmed reached "+size);
   }
   
   private void removeUnconfirmed(Peer peer, long last) {
-    while (peer.last_msg_confirmed < last) {
-    	SendableEvent ev = (SendableEvent) peer.unconfirmed_msgs.removeFirst();
-      if (ev instanceof UpdateEvent)
-        peer.last_msg_confirmed=((UpdateEvent)ev).to;
-      else {
-        peer.last_msg_confirmed++;
-
-        // handles peer counter
-        //FIXME: uncomment
-//        int c=ev.getMessage().popInt()-1;
-//        if (c <= 0)
-//          ev.getMessage().discardAll();
-//        else
-//          ev.getMessage().pushInt(c);
-      }
+    // handles peer counter
+    //FIXME: uncomment
+//    int c=ev.getMessage().popInt()-1;
+//    if (c <= 0)
+//      ev.getMessage().discardAll();
+//    else
+//      ev.getMessage().pushInt(c);
+    final SeqWindow msgs=peer.unconfirmed_msgs;
+    msgs.removeUpTo(last);
+    peer.last_msg_confirmed=last;
+    
+    // An update is confirmed as a whole
+    final long seq=msgs.first();
+    if ((seq >= 0) && (firstSeq(msgs.get(seq),seq) <= last)) {
+      msgs.remove(seq);
+      peer.last_msg_confirmed=seq;
     }
   }
   
   private void resend(Peer peer, long first, long last) {
-    ListIterator aux=peer.unconfirmed_msgs.listIterator();
-    long seq=peer.last_msg_confirmed;
-    while (aux.hasNext() && (seq <= last)) {
-      SendableEvent evaux=(SendableEvent)aux.next();
+    final SeqWindow msgs=peer.unconfirmed_msgs;
+    for (long seq=msgs.next(first) ; seq >= 0 ; seq=msgs.next(seq+1)) {
+      SendableEvent evaux=(SendableEvent)msgs.get(seq);
       if (evaux instanceof UpdateEvent) {
         UpdateEvent update=(UpdateEvent)evaux;
-        seq=update.to;
-        if (((update.from >= first) && (update.from <= last)) || ((update.to >= first) && (update.to <= last))) {
+        if (update.from > last)
+          return;
+        if ((update.from >= first) || (update.to <= last)) {
           try {
             SendableEvent ev=(UpdateEvent)update.cloneEvent();
             ev.setSourceSession(this);
@@ -763,102 +764,83 @@ public class NakFifoMulticastSession extends Session implements InitializableSes
           }
         }
       } else {
-        seq++;
-        if ((seq >= first) && (seq <= last)) {
-          try {
-            SendableEvent ev=(SendableEvent)evaux.cloneEvent();
-            // Removes peer counter
-            //FIXME: uncomment
-//            ev.getMessage().popInt();
-            ev.setSourceSession(this);
-            ev.init();
-            
-            utils.pushSeq(ev.getMessage(),seq);
-            ev.getMessage().pushByte(MessageUtils.NOFLAGS);
-            ev.dest=peer.addr;
-            ev.go();
-            
-            peer.rounds_msg_sent=0;
-          } catch (AppiaEventException ex1) {
-            ex1.printStackTrace();
-          } catch (CloneNotSupportedException ex2) {
-            ex2.printStackTrace();
-          }
+        if (seq > last)
+          return;
+        try {
+          SendableEvent ev=(SendableEvent)evaux.cloneEvent();
+          // Removes peer counter
+          //FIXME: uncomment
+//          ev.getMessage().popInt();
+          ev.setSourceSession(this);
+          ev.init();
+          
+          utils.pushSeq(ev.getMessage(),seq);
+          ev.getMessage().pushByte(MessageUtils.NOFLAGS);
+          ev.dest=peer.addr;
+          ev.go();
+          
+          peer.rounds_msg_sent=0;
+        } catch (AppiaEventException ex1) {
+          ex1.printStackTrace();
+        } catch (CloneNotSupportedException ex2) {
+          ex2.printStackTrace();
         }
       }
     }
   }
   
-  private void storeUndelivered(Peer peer, SendableEvent ev, long seq) {
-    if (!(ev instanceof UpdateEvent))
-      utils.pushSeq(ev.getMessage(),seq);
-    ListIterator aux=peer.undelivered_msgs.listIterator(peer.undelivered_msgs.size());
-    while (aux.hasPrevious()) {
-      SendableEvent evaux=(SendableEvent)aux.previous();
-      long seqaux;
-      if (evaux instanceof UpdateEvent) { 
-    	  UpdateEvent update=(UpdateEvent)evaux;
-    	  if ((seq >= update.from) && (seq <= update.to)) {
-    		  log.debug("Received undelivered message already stored. Discarding new copy.");
-    		  return;
-    	  }
-    	  seqaux=update.to;
-      }  else {
-    	  seqaux=utils.popSeq(evaux.getMessage(),peer.last_msg_delivered,true);
-    	  if (seqaux == seq) {
-    		  log.debug("Received undelivered message already stored. Discarding new copy.");
-    		  return;
-    	  }
-      }
-      if (seqaux < seq) {
-        aux.next();
-        aux.add(ev);
-        return;
-      }
+  private void storeUndelivered(Peer peer, SendableEvent ev, long seqfrom, long seqto) {
+    final SeqWindow msgs=peer.undelivered_msgs;
+    final long seq=msgs.next(seqfrom);
+    if ((seq >= 0) && (firstSeq(msgs.get(seq),seq) <= seqfrom)) {
+      log.debug("Received undelivered message already stored. Discarding new copy.");
+      return;
     }
-    peer.undelivered_msgs.addFirst(ev);
+    // Updates are stored with their last sequence number
+    msgs.put(seqto,ev);
   }
   
   private long deliverUndelivered(Peer peer) {
-    ListIterator aux=peer.undelivered_msgs.listIterator();
-    while (aux.hasNext()) {
-      SendableEvent evaux=(SendableEvent)aux.next();
-      if (evaux instanceof UpdateEvent) {
-        UpdateEvent update=(UpdateEvent)evaux;
-        if (update.to <= peer.last_msg_delivered) {
-        	log.debug("Discarded unwanted event from "+peer.addr+" with seq "+update.from+" -> "+update.to);
-        	aux.remove();
-        } else if (update.from == peer.last_msg_delivered+1) {
-          peer.last_msg_delivered=update.to;
-          aux.remove();
-        } else {
-          return update.from;
-        }
-      } else { // Not UpdateEvent interface regular SendableEvent
-        long seqaux=utils.popSeq(evaux.getMessage(),peer.last_msg_delivered,true);
-        if (seqaux <= peer.last_msg_delivered) {
-        	log.debug("Discarded unwanted event from "+peer.addr+" with seq "+seqaux);
-        	aux.remove();        	
-        } else if (seqaux == peer.last_msg_delivered+1) {
-          if (!(evaux instanceof PingEvent)) {
-            try {
-              evaux.getMessage().discard(MessageUtils.SEQ_SIZE);
-              evaux.go();
-            } catch (AppiaEventException ex) {
-              ex.printStackTrace();
-              log.debug("Discarding event "+evaux+". This may lead to incoherence.");
-            }
+    final SeqWindow msgs=peer.undelivered_msgs;
+    long seq;
+    while ((seq=msgs.first()) >= 0) {
+      SendableEvent evaux=(SendableEvent)msgs.get(seq);
+      long from=firstSeq(evaux,seq);
+      if (seq <= peer.last_msg_delivered) {
+        log.debug("Discarded unwanted event from "+peer.addr+" with seq "+from+" -> "+seq);
+        msgs.remove(seq);
+      } else if (from <= peer.last_msg_delivered+1) {
+        msgs.remove(seq);
+        if (!(evaux instanceof PingEvent) && !(evaux instanceof UpdateEvent)) {
+          try {
+            evaux.go();
+          } catch (AppiaEventException ex) {
+            ex.printStackTrace();
+            log.debug("Discarding event "+evaux+". This may lead to incoherence.");
           }
-          peer.last_msg_delivered=seqaux;
-          aux.remove();
-        } else {
-          return seqaux;
         }
+        peer.last_msg_delivered=seq;
+      } else {
+        return from;
       }
     }
     return -1;
   }
   
+  /** First sequence number of a stored message, given the number it is stored with. */
+  private static long firstSeq(Object ev, long seq) {
+    if (ev instanceof UpdateEvent)
+      return ((UpdateEvent)ev).from;
+    return seq;
+  }
+  
+  private Channel nackChannel(Peer peer) {
+    final SeqWindow msgs=peer.undelivered_msgs;
+    if (msgs.isEmpty())
+      return peer.last_channel;
+    return ((SendableEvent)msgs.get(msgs.first())).getChannel();
+  }
+  
   private Peer createPeer(Object addr, long init, Channel channel) {
     Peer peer=new Peer(addr,init);
     peers.put(peer.addr,peer);
@@ -934,12 +916,9 @@ public class NakFifoMulticastSession extends Session implements InitializableSes
 
           int limit=debugListLimit;
           s+="\t Unconfirmed Msgs:"+"\n";
-          ListIterator iter=peer.unconfirmed_msgs.listIterator();
-          long l=peer.last_msg_confirmed;
-          while (iter.hasNext()) {
-              SendableEvent ev=(SendableEvent)iter.next();
-              l++;
-              s+="\t\t "+l+": "+ev+"\n";
+          SeqWindow msgs=peer.unconfirmed_msgs;
+          for (long l=msgs.first() ; l >= 0 ; l=msgs.next(l+1)) {
+              s+="\t\t "+l+": "+msgs.get(l)+"\n";
               if (--limit <= 0) {
                   s+="\t\t  ..."+"\n";
                   break;
@@ -948,11 +927,9 @@ public class NakFifoMulticastSession extends Session implements InitializableSes
 
           limit=debugListLimit;
           s+="\t Undelivered Msgs:"+"\n";
-          iter=peer.undelivered_msgs.listIterator();
-          while (iter.hasNext()) {
-              SendableEvent ev=(SendableEvent)iter.next();
-              l=utils.popSeq(ev.getMessage(),peer.last_msg_delivered,true);
-              s+="\t\t "+l+": "+ev+"\n";
+          msgs=peer.undelivered_msgs;
+          for (long l=msgs.first() ; l >= 0 ; l=msgs.next(l+1)) {
+              s+="\t\t "+l+": "+msgs.get(l)+"\n";
               if (--limit <= 0) {
                   s+="\t\t  ..."+"\n";
                   break;
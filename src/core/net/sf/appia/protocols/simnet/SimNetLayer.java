@@ -0,0 +1,71 @@
+/**
+ * Appia: Group communication and protocol composition framework library
+ * Copyright 2026 University of Lisbon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ *
+ * Contributor(s): See Appia web page for a list of contributors.
+ */
+package net.sf.appia.protocols.simnet;
+
+import net.sf.appia.core.Layer;
+import net.sf.appia.core.Session;
+import net.sf.appia.core.events.AppiaMulticastSupport;
+import net.sf.appia.core.events.SendableEvent;
+import net.sf.appia.core.events.channel.ChannelClose;
+import net.sf.appia.core.events.channel.ChannelInit;
+import net.sf.appia.protocols.common.RegisterSocketEvent;
+import net.sf.appia.protocols.frag.MaxPDUSizeEvent;
+import net.sf.appia.protocols.tcpcomplete.TcpUndeliveredEvent;
+import net.sf.appia.protocols.udpsimple.MulticastInitEvent;
+
+/**
+ * Layer of a transport that sends events through a {@link SimNetwork}, inside
+ * the JVM, instead of sockets. It replaces
+ * {@link net.sf.appia.protocols.tcpcomplete.TcpCompleteLayer TcpCompleteLayer} or
+ * {@link net.sf.appia.protocols.udpsimple.UdpSimpleLayer UdpSimpleLayer}
+ * in benchmarks and tests of many nodes, accepting the same events.
+ * <br>
+ * Used with a {@link net.sf.appia.core.VirtualTimerManager VirtualTimerManager},
+ * simulations run in virtual time and are reproducible.
+ * 
+ * @see SimNetSession
+ * @see SimNetwork
+ */
+public class SimNetLayer extends Layer implements AppiaMulticastSupport {
+
+  public SimNetLayer() {
+    evProvide=new Class[]{
+        SendableEvent.class,
+        TcpUndeliveredEvent.class,
+    };
+
+    evRequire=new Class[0];
+
+    evAccept=new Class[]{
+        SendableEvent.class,
+        RegisterSocketEvent.class,
+        MulticastInitEvent.class,
+        MaxPDUSizeEvent.class,
+        ChannelInit.class,
+        ChannelClose.class,
+    };
+  }
+
+  /**
+   * @see net.sf.appia.core.Layer#createSession()
+   */
+  public Session createSession() {
+    return new SimNetSession(this);
+  }
+}
@@ -0,0 +1,304 @@
+/**
+ * Appia: Group communication and protocol composition framework library
+ * Copyright 2026 University of Lisbon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ *
+ * Contributor(s): See Appia web page for a list of contributors.
+ */
+package net.sf.appia.protocols.simnet;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.sf.appia.core.AppiaEventException;
+import net.sf.appia.core.Channel;
+import net.sf.appia.core.Direction;
+import net.sf.appia.core.Event;
+import net.sf.appia.core.Layer;
+import net.sf.appia.core.Session;
+import net.sf.appia.core.TimeProvider;
+import net.sf.appia.core.VirtualTimerManager;
+import net.sf.appia.core.events.AppiaMulticast;
+import net.sf.appia.core.events.SendableEvent;
+import net.sf.appia.core.events.channel.ChannelClose;
+import net.sf.appia.core.events.channel.ChannelInit;
+import net.sf.appia.core.message.Message;
+import net.sf.appia.protocols.common.EventTypeRegistry;
+import net.sf.appia.protocols.common.RegisterSocketEvent;
+import net.sf.appia.protocols.frag.MaxPDUSizeEvent;
+import net.sf.appia.protocols.tcpcomplete.TcpUndeliveredEvent;
+import net.sf.appia.protocols.udpsimple.MulticastInitEvent;
+import net.sf.appia.xml.interfaces.InitializableSession;
+import net.sf.appia.xml.utils.SessionProperties;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Session of the simulated transport. Each session is an endpoint of a 
+ * {@link SimNetwork}, with an address given by a {@link RegisterSocketEvent}
+ * or chosen when the first event is sent.
+ * <br>
+ * Events are sent to an {@link InetSocketAddress}, to the destinations of an
+ * {@link AppiaMulticast} or to a group joined with a {@link MulticastInitEvent}.
+ * Events sent to an endpoint that does not exist are reported with a 
+ * {@link TcpUndeliveredEvent}. Received events are delivered to the channel 
+ * with the same ID, with the address of the sender in <tt>source</tt> and the
+ * address of the endpoint, or group, in <tt>dest</tt>.
+ * 
+ * @see SimNetLayer
+ */
+public class SimNetSession extends Session implements InitializableSession {
+
+  private static Logger log = Logger.getLogger(SimNetSession.class);
+
+  /**
+   * Default maximum size of a message, returned in {@link MaxPDUSizeEvent}.
+   */
+  public static final int DEFAULT_MAX_PDU_SIZE=64*1024;
+
+  private SimNetwork network=SimNetwork.getNetwork(SimNetwork.DEFAULT_NAME);
+  private int param_MAX_PDU_SIZE=DEFAULT_MAX_PDU_SIZE;
+
+  // read by the thread that delivers the messages
+  private final ConcurrentHashMap<String,Channel> channels=new ConcurrentHashMap<String,Channel>();
+  private volatile InetSocketAddress address=null;
+  private volatile boolean disconnected=false;
+  private VirtualTimerManager clock=null;
+
+  public SimNetSession(Layer layer) {
+    super(layer);
+  }
+
+  /**
+   * Initializes the session using the parameters given in the XML configuration.
+   * Possible parameters:
+   * <ul>
+   * <li><b>network</b> the name of the {@link SimNetwork}.
+   * <li><b>latency</b> the latency of the network, in microseconds.
+   * <li><b>jitter</b> the maximum random delay added to the latency, in microseconds.
+   * <li><b>bandwidth</b> the bandwidth of each sender, in bytes per second.
+   * <li><b>loss</b> the probability of losing a message.
+   * <li><b>fifo</b> if messages between two endpoints keep their order.
+   * <li><b>seed</b> the seed of the random choices of the network.
+   * <li><b>max_pdu_size</b> the maximum size of a message.
+   * </ul>
+   * The parameters of the network are shared by all the sessions that use it.
+   * 
+   * @param params The parameters given in the XML configuration.
+   */
+  public void init(SessionProperties params) {
+    if (params.containsKey("network"))
+      network=SimNetwork.getNetwork(params.getString("network"));
+    if (params.containsKey("latency"))
+      network.setLatency(params.getLong("latency"));
+    if (params.containsKey("jitter"))
+      network.setJitter(params.getLong("jitter"));
+    if (params.containsKey("bandwidth"))
+      network.setBandwidth(params.getLong("bandwidth"));
+    if (params.containsKey("loss"))
+      network.setLoss(params.getDouble("loss"));
+    if (params.containsKey("fifo"))
+      network.setFifo(params.getBoolean("fifo"));
+    if (params.containsKey("seed"))
+      network.setSeed(params.getLong("seed"));
+    if (params.containsKey("max_pdu_size"))
+      param_MAX_PDU_SIZE=params.getInt("max_pdu_size");
+  }
+
+  /**
+   * Sets the network used by this session. Must be called before the session
+   * has an address.
+   */
+  public void setNetwork(SimNetwork network) {
+    this.network=network;
+  }
+
+  public SimNetwork getNetwork() {
+    return network;
+  }
+
+  /**
+   * The address of this endpoint, or null if it has none yet.
+   */
+  public InetSocketAddress getAddress() {
+    return address;
+  }
+
+  public void handle(Event e) {
+    if (e instanceof SendableEvent)
+      handleSendable((SendableEvent) e);
+    else if (e instanceof RegisterSocketEvent)
+      handleRegisterSocket((RegisterSocketEvent) e);
+    else if (e instanceof MulticastInitEvent)
+      handleMulticastInit((MulticastInitEvent) e);
+    else if (e instanceof MaxPDUSizeEvent)
+      handlePDUSize((MaxPDUSizeEvent) e);
+    else if (e instanceof ChannelInit)
+      handleChannelInit((ChannelInit) e);
+    else if (e instanceof ChannelClose)
+      handleChannelClose((ChannelClose) e);
+    else {
+      log.warn("Unexpected event "+e+". Forwarding it.");
+      forward(e);
+    }
+  }
+
+  private void handleChannelInit(ChannelInit e) {
+    channels.put(e.getChannel().getChannelID(),e.getChannel());
+    final TimeProvider tp=e.getChannel().getTimeProvider();
+    if (tp instanceof VirtualTimerManager)
+      clock=(VirtualTimerManager) tp;
+    else
+      log.warn("Channel "+e.getChannel().getChannelID()+" does not use virtual time. Messages are delivered in real time.");
+    forward(e);
+  }
+
+  private void handleChannelClose(ChannelClose e) {
+    channels.remove(e.getChannel().getChannelID());
+    if (channels.isEmpty() && address != null)
+      network.unbind(this,address);
+    forward(e);
+  }
+
+  private void handleRegisterSocket(RegisterSocketEvent e) {
+    if (address != null) {
+      e.error=true;
+      e.setErrorCode(RegisterSocketEvent.RESOURCE_ALREADY_BOUND_ERROR);
+      e.setErrorDescription("Already bound to "+address);
+    } else {
+      address=network.bind(this,e.localHost,e.port);
+      if (address != null) {
+        e.localHost=address.getAddress();
+        e.port=address.getPort();
+        e.error=false;
+        if (log.isDebugEnabled())
+          log.debug("Bound to "+address+" in "+network.getName());
+      } else {
+        e.error=true;
+        e.setErrorCode(RegisterSocketEvent.RESOURCE_BUSY_ERROR);
+        e.setErrorDescription("Address in use: "+e.localHost+":"+e.port);
+      }
+    }
+    reply(e);
+  }
+
+  private void handleMulticastInit(MulticastInitEvent e) {
+    network.join(this,e.ipMulticast,e.fullDuplex);
+    e.error=false;
+    reply(e);
+  }
+
+  private void handlePDUSize(MaxPDUSizeEvent e) {
+    e.pduSize=param_MAX_PDU_SIZE;
+    reply(e);
+  }
+
+  private void handleSendable(SendableEvent e) {
+    if (e.getDir() == Direction.DOWN)
+      send(e);
+    if (e.getChannel().isStarted())
+      forward(e);
+  }
+
+  private void send(SendableEvent e) {
+    if (disconnected)
+      return;
+    if (address == null)
+      address=network.bind(this,null,RegisterSocketEvent.FIRST_AVAILABLE);
+
+    if (e.dest instanceof AppiaMulticast) {
+      final AppiaMulticast multicast=(AppiaMulticast) e.dest;
+      if (multicast.getMulticastAddress() != null) {
+        if (!network.multicast(this,address,e,(SocketAddress) multicast.getMulticastAddress(),clock))
+          log.debug("No members in group "+multicast.getMulticastAddress());
+        return;
+      }
+      final Object[] dests=multicast.getDestinations();
+      for (int i=0 ; i < dests.length ; i++)
+        sendTo(e,dests[i]);
+    } else
+      sendTo(e,e.dest);
+  }
+
+  private void sendTo(SendableEvent e, Object dest) {
+    if (!(dest instanceof InetSocketAddress) || !network.send(this,address,e,(InetSocketAddress) dest,clock)) {
+      try {
+        new TcpUndeliveredEvent(e.getChannel(),Direction.UP,this,dest).go();
+      } catch (AppiaEventException ex) {
+        ex.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Delivers a message received from the network. Called by the thread
+   * of the {@link VirtualTimerManager}, or of the network.
+   */
+  void receive(Class<? extends SendableEvent> type, String channelID, Message message,
+      InetSocketAddress source, SocketAddress dest) {
+    final Channel channel=channels.get(channelID);
+    if (channel == null) {
+      if (log.isDebugEnabled())
+        log.debug("Discarding message from "+source+" to unknown channel "+channelID);
+      return;
+    }
+    try {
+      final SendableEvent e=EventTypeRegistry.newEvent(type);
+      e.setChannel(channel);
+      e.setMessage(message);
+      e.source=source;
+      e.dest=dest;
+      e.asyncGo(channel,Direction.UP);
+    } catch (IllegalArgumentException ex) {
+      log.warn("Discarding message from "+source+": "+ex.getMessage());
+    } catch (AppiaEventException ex) {
+      log.warn("Discarding message from "+source+": "+ex.getMessage());
+    }
+  }
+
+  /**
+   * Disconnects from the network, as if the process crashed.
+   * Events sent afterwards are lost.
+   */
+  void disconnect() {
+    disconnected=true;
+    final InetSocketAddress current=address;
+    if (current != null)
+      network.unbind(this,current);
+  }
+
+  boolean isDisconnected() {
+    return disconnected;
+  }
+
+  private void reply(Event e) {
+    try {
+      e.setDir(Direction.invert(e.getDir()));
+      e.setSourceSession(this);
+      e.init();
+      e.go();
+    } catch (AppiaEventException ex) {
+      ex.printStackTrace();
+    }
+  }
+
+  private void forward(Event e) {
+    try {
+      e.go();
+    } catch (AppiaEventException ex) {
+      ex.printStackTrace();
+    }
+  }
+}
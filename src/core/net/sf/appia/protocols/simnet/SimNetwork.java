@@ -0,0 +1,502 @@
+/**
+ * Appia: Group communication and protocol composition framework library
+ * Copyright 2026 University of Lisbon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ *
+ * Contributor(s): See Appia web page for a list of contributors.
+ */
+package net.sf.appia.protocols.simnet;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.TimerTask;
+
+import net.sf.appia.core.AppiaError;
+import net.sf.appia.core.VirtualTimerManager;
+import net.sf.appia.core.events.SendableEvent;
+import net.sf.appia.core.message.Message;
+
+/**
+ * A simulated network, shared by the {@link SimNetSession SimNetSessions} of
+ * one JVM, usually of several {@link net.sf.appia.core.Appia} instances or channels.
+ * <br>
+ * Each message has a transmission time, given by its size and the <i>bandwidth</i> 
+ * of the sender, a <i>latency</i> and a random <i>jitter</i>, and it is lost with 
+ * probability <i>loss</i>. Unless <i>fifo</i> is off, messages between two 
+ * endpoints are delivered in the order they were sent. With no loss and fifo on,
+ * the network behaves as TCP; with loss, as UDP.
+ * <br>
+ * Messages are not serialized: the receiver gets a new event of the same class
+ * with a copy of the bytes of the message. Blocks are not shared, as the receiver
+ * may run in another Appia instance, with its own thread.
+ * <br>
+ * Messages are delivered by the {@link VirtualTimerManager} of the sending channel.
+ * If the channel uses a real time manager, they are delivered by a thread of the 
+ * network, in real time. Random choices use a generator with a fixed seed, so runs
+ * in virtual time are reproducible.
+ * 
+ * @see SimNetLayer
+ */
+public class SimNetwork {
+
+  /**
+   * Name of the network used by sessions that do not choose one.
+   */
+  public static final String DEFAULT_NAME="default";
+  /**
+   * Default latency, in microseconds.
+   */
+  public static final long DEFAULT_LATENCY=100;
+  /**
+   * First port given to endpoints that do not choose one.
+   */
+  public static final int FIRST_PORT=10000;
+
+  private static final long NANOS_PER_MICRO=1000;
+  private static final long NANOS_PER_MILLI=1000000;
+  private static final long NANOS_PER_SECOND=1000000000;
+
+  private static final HashMap<String,SimNetwork> networks=new HashMap<String,SimNetwork>();
+
+  /**
+   * Gets the network with the given name, creating it if it does not exist.
+   */
+  public static synchronized SimNetwork getNetwork(String name) {
+    SimNetwork network=networks.get(name);
+    if (network == null) {
+      network=new SimNetwork(name);
+      networks.put(name,network);
+    }
+    return network;
+  }
+
+  /**
+   * Forgets the network with the given name. Sessions that use it keep it.
+   */
+  public static synchronized void removeNetwork(String name) {
+    final SimNetwork network=networks.remove(name);
+    if (network != null)
+      network.stopRealTime();
+  }
+
+  /* A message in transit. Executed when it arrives. */
+  private final class Delivery implements Runnable {
+    private final SimNetSession to;
+    private final Class<? extends SendableEvent> type;
+    private final String channelID;
+    private final Message message;
+    private final InetSocketAddress source;
+    private final SocketAddress dest;
+    private final boolean unicast;
+
+    private Delivery(SimNetSession to, SendableEvent e, Message message, InetSocketAddress source, 
+        SocketAddress dest, boolean unicast) {
+      this.to=to;
+      this.unicast=unicast;
+      this.type=e.getClass();
+      this.channelID=e.getChannel().getChannelID();
+      this.message=message;
+      this.source=source;
+      this.dest=dest;
+    }
+
+    public void run() {
+      if (arrived(this))
+        to.receive(type,channelID,message,source,dest);
+    }
+  }
+
+  /* State of a sender. */
+  private static final class Sender {
+    // instant the sender finishes transmitting the messages sent so far
+    private long busy=Long.MIN_VALUE;
+    // last arrival instant of each destination
+    private final HashMap<Object,Long> arrivals=new HashMap<Object,Long>();
+  }
+
+  /* An endpoint that joined a multicast group. */
+  private static final class Member {
+    private final SimNetSession session;
+    private final boolean fullDuplex;
+
+    private Member(SimNetSession session, boolean fullDuplex) {
+      this.session=session;
+      this.fullDuplex=fullDuplex;
+    }
+  }
+
+  private final String name;
+  private final InetAddress defaultAddress;
+  private final HashMap<InetSocketAddress,SimNetSession> endpoints=new HashMap<InetSocketAddress,SimNetSession>();
+  private final HashMap<SocketAddress,ArrayList<Member>> groups=new HashMap<SocketAddress,ArrayList<Member>>();
+  private final HashMap<InetSocketAddress,Sender> senders=new HashMap<InetSocketAddress,Sender>();
+  private int nextPort=FIRST_PORT;
+
+  private long latency=DEFAULT_LATENCY*NANOS_PER_MICRO;
+  private long jitter=0;
+  private long bandwidth=0;
+  private double loss=0;
+  private boolean fifo=true;
+  private Random random=new Random(0);
+
+  private long sent=0, delivered=0, lost=0, bytes=0;
+
+  private java.util.Timer realTime=null;
+
+  /**
+   * Creates a network that is not registered by name.
+   */
+  public SimNetwork(String name) {
+    this.name=name;
+    try {
+      defaultAddress=InetAddress.getByAddress(new byte[] {127,0,0,1});
+    } catch (UnknownHostException e) {
+      throw new AppiaError("SimNetwork: invalid default address");
+    }
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Sets the latency of all messages, in microseconds.
+   */
+  public synchronized void setLatency(long micros) {
+    latency=micros*NANOS_PER_MICRO;
+  }
+
+  public synchronized long getLatency() {
+    return latency/NANOS_PER_MICRO;
+  }
+
+  /**
+   * Sets the maximum random delay added to the latency, in microseconds.
+   */
+  public synchronized void setJitter(long micros) {
+    jitter=micros*NANOS_PER_MICRO;
+  }
+
+  public synchronized long getJitter() {
+    return jitter/NANOS_PER_MICRO;
+  }
+
+  /**
+   * Sets the bandwidth of each sender, in bytes per second. Zero means unlimited.
+   */
+  public synchronized void setBandwidth(long bytesPerSecond) {
+    bandwidth=bytesPerSecond;
+  }
+
+  public synchronized long getBandwidth() {
+    return bandwidth;
+  }
+
+  /**
+   * Sets the probability of losing each message.
+   */
+  public synchronized void setLoss(double probability) {
+    if (probability < 0 || probability > 1)
+      throw new IllegalArgumentException("SimNetwork: invalid loss probability "+probability);
+    loss=probability;
+  }
+
+  public synchronized double getLoss() {
+    return loss;
+  }
+
+  /**
+   * Sets if messages between two endpoints are delivered in the order they were sent.
+   */
+  public synchronized void setFifo(boolean fifo) {
+    this.fifo=fifo;
+  }
+
+  public synchronized boolean isFifo() {
+    return fifo;
+  }
+
+  /**
+   * Sets the seed of the random choices.
+   */
+  public synchronized void setSeed(long seed) {
+    random=new Random(seed);
+  }
+
+  /**
+   * Binds the session to the given address. If the port is not positive, 
+   * the next free port is chosen. 
+   * 
+   * @return the address, or null if it is in use
+   */
+  synchronized InetSocketAddress bind(SimNetSession session, InetAddress host, int port) {
+    if (host == null)
+      host=defaultAddress;
+    if (port <= 0) {
+      while (endpoints.containsKey(new InetSocketAddress(host,nextPort)))
+        nextPort++;
+      port=nextPort++;
+    }
+    final InetSocketAddress address=new InetSocketAddress(host,port);
+    if (endpoints.containsKey(address))
+      return null;
+    endpoints.put(address,session);
+    return address;
+  }
+
+  /**
+   * Removes the endpoint. Messages to it, including those in transit, are lost.
+   */
+  synchronized void unbind(SimNetSession session, InetSocketAddress address) {
+    if (endpoints.get(address) == session)
+      endpoints.remove(address);
+    senders.remove(address);
+    for (ArrayList<Member> members : groups.values()) {
+      for (int i=members.size()-1 ; i >= 0 ; i--) {
+        if (members.get(i).session == session)
+          members.remove(i);
+      }
+    }
+  }
+
+  synchronized void join(SimNetSession session, SocketAddress group, boolean fullDuplex) {
+    ArrayList<Member> members=groups.get(group);
+    if (members == null) {
+      members=new ArrayList<Member>();
+      groups.put(group,members);
+    }
+    for (int i=0 ; i < members.size() ; i++) {
+      if (members.get(i).session == session)
+        return;
+    }
+    members.add(new Member(session,fullDuplex));
+  }
+
+  /**
+   * Disconnects the endpoint with the given address, as if its process crashed.
+   * Messages in transit to it are lost and new ones are reported as undelivered.
+   * 
+   * @return true if the endpoint existed
+   */
+  public boolean disconnect(InetSocketAddress address) {
+    final SimNetSession session;
+    synchronized (this) {
+      session=endpoints.get(address);
+    }
+    if (session == null)
+      return false;
+    session.disconnect();
+    return true;
+  }
+
+  /**
+   * Tests if there is an endpoint with the given address.
+   */
+  public synchronized boolean isBound(InetSocketAddress address) {
+    return endpoints.containsKey(address);
+  }
+
+  /**
+   * Sends the event to one endpoint.
+   * 
+   * @return false if the destination does not exist
+   */
+  boolean send(SimNetSession from, InetSocketAddress source, SendableEvent e, 
+      InetSocketAddress dest, VirtualTimerManager clock) {
+    final Delivery delivery;
+    final long delay;
+    synchronized (this) {
+      final SimNetSession to=endpoints.get(dest);
+      if (to == null)
+        return false;
+      if (endpoints.get(source) != from)
+        return true;
+
+      final int size=e.getMessage().length();
+      final long now=now(clock);
+      final Sender sender=getSender(source);
+      sender.busy=transmit(sender,now,size);
+      sent++;
+      bytes+=size;
+      if (isLost()) {
+        lost++;
+        return true;
+      }
+      delay=arrival(sender,to,sender.busy)-now;
+      delivery=new Delivery(to,e,copy(e.getMessage()),source,dest,true);
+    }
+    schedule(clock,delivery,delay);
+    return true;
+  }
+
+  /**
+   * Sends the event to the members of a multicast group, with a single transmission.
+   * 
+   * @return false if the group does not exist
+   */
+  boolean multicast(SimNetSession from, InetSocketAddress source, SendableEvent e, 
+      SocketAddress group, VirtualTimerManager clock) {
+    final ArrayList<Delivery> deliveries=new ArrayList<Delivery>();
+    final ArrayList<Long> delays=new ArrayList<Long>();
+    synchronized (this) {
+      final ArrayList<Member> members=groups.get(group);
+      if (members == null)
+        return false;
+      if (endpoints.get(source) != from)
+        return true;
+
+      final int size=e.getMessage().length();
+      final long now=now(clock);
+      final Sender sender=getSender(source);
+      sender.busy=transmit(sender,now,size);
+      bytes+=size;
+      for (int i=0 ; i < members.size() ; i++) {
+        final Member member=members.get(i);
+        if (member.session == from && !member.fullDuplex)
+          continue;
+        sent++;
+        if (isLost()) {
+          lost++;
+          continue;
+        }
+        delays.add(new Long(arrival(sender,member.session,sender.busy)-now));
+        deliveries.add(new Delivery(member.session,e,copy(e.getMessage()),source,group,false));
+      }
+    }
+    for (int i=0 ; i < deliveries.size() ; i++)
+      schedule(clock,deliveries.get(i),delays.get(i).longValue());
+    return true;
+  }
+
+  private Sender getSender(InetSocketAddress source) {
+    Sender sender=senders.get(source);
+    if (sender == null) {
+      sender=new Sender();
+      senders.put(source,sender);
+    }
+    return sender;
+  }
+
+  /* Instant the sender finishes transmitting a message of the given size. */
+  private long transmit(Sender sender, long now, int size) {
+    final long start=Math.max(now,sender.busy);
+    if (bandwidth <= 0)
+      return start;
+    return start+size*NANOS_PER_SECOND/bandwidth;
+  }
+
+  private long arrival(Sender sender, Object dest, long transmitted) {
+    long time=transmitted+latency;
+    if (jitter > 0)
+      time+=(long) (random.nextDouble()*jitter);
+    if (fifo) {
+      final Long last=sender.arrivals.get(dest);
+      if (last != null && last.longValue() > time)
+        time=last.longValue();
+      sender.arrivals.put(dest,new Long(time));
+    }
+    return time;
+  }
+
+  private boolean isLost() {
+    return loss > 0 && random.nextDouble() < loss;
+  }
+
+  private static long now(VirtualTimerManager clock) {
+    return clock != null ? clock.nanoTime() : System.nanoTime();
+  }
+
+  /*
+   * Copies the bytes of the message, so that the receiver, that may run in another
+   * Appia instance, shares no buffer with the sender.
+   */
+  private static Message copy(Message msg) {
+    final byte[] data=msg.toByteArray();
+    return new Message(data,0,data.length);
+  }
+
+  /* Called when a message arrives. It is lost if its destination is gone. */
+  private synchronized boolean arrived(Delivery delivery) {
+    if (delivery.to.isDisconnected() || (delivery.unicast && endpoints.get(delivery.dest) != delivery.to)) {
+      lost++;
+      return false;
+    }
+    delivered++;
+    return true;
+  }
+
+  private void schedule(VirtualTimerManager clock, final Runnable task, long delay) {
+    if (clock != null) {
+      clock.schedule(task,delay);
+      return;
+    }
+    final TimerTask timerTask=new TimerTask() {
+      public void run() {
+        task.run();
+      }
+    };
+    getRealTime().schedule(timerTask,Math.max(0,delay/NANOS_PER_MILLI));
+  }
+
+  private synchronized java.util.Timer getRealTime() {
+    if (realTime == null)
+      realTime=new java.util.Timer("SimNetwork "+name,true);
+    return realTime;
+  }
+
+  private synchronized void stopRealTime() {
+    if (realTime != null) {
+      realTime.cancel();
+      realTime=null;
+    }
+  }
+
+  /**
+   * Number of messages sent, counting each destination.
+   */
+  public synchronized long getSent() {
+    return sent;
+  }
+
+  /**
+   * Number of messages delivered.
+   */
+  public synchronized long getDelivered() {
+    return delivered;
+  }
+
+  /**
+   * Number of messages lost, by the loss model or because the destination disconnected.
+   */
+  public synchronized long getLost() {
+    return lost;
+  }
+
+  /**
+   * Number of bytes transmitted.
+   */
+  public synchronized long getBytes() {
+    return bytes;
+  }
+
+  public synchronized String toString() {
+    return "SimNetwork "+name+": "+endpoints.size()+" endpoints, sent="+sent+
+      " delivered="+delivered+" lost="+lost+" bytes="+bytes;
+  }
+}
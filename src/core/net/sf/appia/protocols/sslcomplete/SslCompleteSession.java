@@ -24,7 +24,6 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.security.KeyStore;
-import java.util.Hashtable;
 import java.util.Random;
 
 import javax.net.ssl.KeyManagerFactory;
@@ -40,14 +39,10 @@ import net.sf.appia.core.Channel;
 import net.sf.appia.core.Direction;
 import net.sf.appia.core.Event;
 import net.sf.appia.core.Layer;
-import net.sf.appia.core.events.AppiaMulticast;
-import net.sf.appia.core.events.SendableEvent;
 import net.sf.appia.protocols.common.RegisterSocketEvent;
 import net.sf.appia.protocols.tcpcomplete.AcceptReader;
-import net.sf.appia.protocols.tcpcomplete.SocketInfoContainer;
 import net.sf.appia.protocols.tcpcomplete.TcpCompleteSession;
 import net.sf.appia.protocols.utils.HostUtils;
-import net.sf.appia.protocols.utils.ParseUtils;
 import net.sf.appia.xml.interfaces.InitializableSession;
 import net.sf.appia.xml.utils.SessionProperties;
 
@@ -160,9 +155,7 @@ public class SslCompleteSession extends TcpCompleteSession implements Initializa
    * @see net.sf.appia.protocols.tcpcomplete.TcpCompleteSession#handle(net.sf.appia.core.Event)
    */
   public void handle(Event e){
-    if(e instanceof SendableEvent)
-      handleSendable((SendableEvent)e);
-    else if(e instanceof SslRegisterSocketEvent)
+    if(e instanceof SslRegisterSocketEvent)
       handleSslRegisterSocket((SslRegisterSocketEvent)e);
     else if(e instanceof RegisterSocketEvent)
         handleRegisterSocket((RegisterSocketEvent) e);
@@ -170,90 +163,6 @@ public class SslCompleteSession extends TcpCompleteSession implements Initializa
       super.handle(e);
   }
   
-  private void handleSendable(SendableEvent e){
-    Object[] valids=null;
-    
-    if(log.isDebugEnabled())
-        log.debug("Preparing to send event "+e);
-    
-    if (e.dest instanceof AppiaMulticast) {
-      final Object[] dests=((AppiaMulticast)e.dest).getDestinations();
-      for (int i=0 ; i < dests.length ; i++) {
-        if (dests[i] instanceof InetSocketAddress) {
-          if (!validate((InetSocketAddress)dests[i], e.getChannel())) {
-            if (valids == null) {
-              valids=new Object[dests.length];
-              System.arraycopy(dests, 0, valids, 0, i);
-            }
-            valids[i]=null;
-            sendUndelivered(e.getChannel(), (InetSocketAddress) dests[i]);
-          } else {
-            if (valids != null)
-              valids[i]=dests[i];
-          }
-        } else
-          sendUndelivered(e.getChannel(),(InetSocketAddress) dests[i]);
-      }
-    } else if (e.dest instanceof InetSocketAddress) {
-      if (!validate((InetSocketAddress)e.dest, e.getChannel()))
-        sendUndelivered(e.getChannel(), (InetSocketAddress) e.dest);
-    } else {
-      sendUndelivered(e.getChannel(),(InetSocketAddress) e.dest);
-    }
-    
-    if (valids != null) {
-      int i,tam=0,j=0;
-      for (i=0 ; i < valids.length ; i++)
-        if (valids[i] != null)
-          tam++;
-      final Object[] trimmedDests=new Object[tam];
-      for (i=0 ; i < valids.length ; i++) {
-        if (valids[i] != null) {
-          trimmedDests[j]=valids[i];
-          j++;
-        }
-      }
-      e.dest = new AppiaMulticast(((AppiaMulticast)e.dest).getMulticastAddress(), trimmedDests);
-    }
-    
-    super.handle(e);
-  }
-  
-  private boolean validate(InetSocketAddress dest, Channel channel) {
-    
-    try {
-      //check if the socket exist int the opensockets created by us
-      if(existsSocket(ourReaders,dest)){
-        if(log.isDebugEnabled())
-            log.debug("recognized our ssl socket. sending...");
-        return true;
-      }
-      else{//if not
-        //check if socket exist in sockets created by the other
-        if(existsSocket(otherReaders,dest)){
-          if(log.isDebugEnabled())
-              log.debug("recognized other ssl socket. sending...");
-          return true;
-        }
-        else{//if not
-          //create new socket and put it opensockets created by us
-          if(createSSLSocket(ourReaders,dest,channel) != null)
-            if(log.isDebugEnabled())
-                log.debug("created new ssl socket, sending...");
-          return true;
-        }
-      }
-    } catch (IOException ex) {
-      if(log.isDebugEnabled()) {
-        ex.printStackTrace();
-        log.debug("Member "+dest.toString()+" has failed.");
-      }
-      sendUndelivered(channel,dest);
-//      removeSocket(dest);
-    }
-    return false;
-  }
-
   /**
    * 
    * @see net.sf.appia.protocols.tcpcomplete.TcpCompleteSession#handleRegisterSocket(net.sf.appia.protocols.common.RegisterSocketEvent)
@@ -415,7 +324,7 @@ public class SslCompleteSession extends TcpCompleteSession implements Initializa
         //create accept thread with the requested port.
         // FIXME: this is using class from tcpcomplete
           // comment: it should be Ok because it extends the class anyway...
-        acceptThread = new AcceptReader(ss,this,channel,socketLock);
+        acceptThread = new AcceptReader(ss,this,channel);
         final Thread t = channel.getThreadFactory().newThread(acceptThread);
         t.setName("TCP SSL accept reader");
         t.start();
@@ -429,34 +338,13 @@ public class SslCompleteSession extends TcpCompleteSession implements Initializa
   }
   
   /**
-   * Create the socket, put in hashmap and create thread
-   * @param hm
-   * @param iwp
-   * @param channel
-   * @return the new socket or null if an error occurred.
-   * @throws IOException
+   * Creates the SSL socket of a new connection.
+   * @see net.sf.appia.protocols.tcpcomplete.TcpCompleteSession#openSocket(java.net.InetSocketAddress)
    */
-  protected Socket createSSLSocket(Hashtable<InetSocketAddress,SocketInfoContainer> hm,
-          InetSocketAddress iwp,Channel channel) throws IOException{
-    synchronized(socketLock){
-      Socket newSocket = null;
-      
-      if (sf == null)
-        return null;
-      
-      //Create SslSocket.
-      newSocket  = (SSLSocket)sf.createSocket(iwp.getAddress(),iwp.getPort());
-
-      newSocket.setTcpNoDelay(true);
-      
-      final byte bPort[]= ParseUtils.intToByteArray(ourPort);
-      
-      newSocket.getOutputStream().write(bPort);
-      if(log.isDebugEnabled())
-        log.debug("Sending our original port "+ourPort);
-      addSocket(hm,iwp,newSocket,channel);
-      return newSocket;
-    }
+  protected Socket openSocket(InetSocketAddress iwp) throws IOException{
+    if (sf == null)
+      throw new IOException("SSL socket factory not initialized.");
+    return (SSLSocket)sf.createSocket(iwp.getAddress(),iwp.getPort());
   }
 
 }
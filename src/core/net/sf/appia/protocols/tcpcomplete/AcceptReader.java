@@ -46,14 +46,13 @@ public class AcceptReader implements Runnable {
   private ServerSocket socket;
   private TcpCompleteSession session;
   private Channel channel;
-  private Object lock;
   
   private boolean running;
   
   /**
    * Constructor for AcceptReader.
    */
-  public AcceptReader(ServerSocket ss, TcpCompleteSession s, Channel channel, Object lock) {
+  public AcceptReader(ServerSocket ss, TcpCompleteSession s, Channel channel) {
     super();
     socket = ss;
     try {
@@ -63,7 +62,6 @@ public class AcceptReader implements Runnable {
 	}
     session = s;
     this.channel = channel;
-    this.lock = lock;
     setRunning(true);
   }
   
@@ -96,13 +94,7 @@ public class AcceptReader implements Runnable {
           
           final InetSocketAddress iwp = new InetSocketAddress(newSocket.getInetAddress(),remotePort);
           
-          synchronized(lock){
-            if(session.existsSocket(session.ourReaders,iwp))
-              session.addSocket(session.otherReaders,iwp,newSocket,channel);
-            else
-              session.addSocket(session.ourReaders,iwp,newSocket,channel);
-          }
-          if(log.isDebugEnabled())
+          if(session.acceptSocket(iwp,newSocket,channel) && log.isDebugEnabled())
             log.debug("created socket");
         } catch (IOException ex) {
           if(log.isDebugEnabled())
@@ -20,6 +20,8 @@
  
 package net.sf.appia.protocols.tcpcomplete;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
@@ -30,25 +32,57 @@ public class SenderQueue<T> {
 	private ConcurrentLinkedQueue<T> mailbox =new ConcurrentLinkedQueue<T>();
 	private final ReentrantLock lock = new ReentrantLock();
 	private final Condition isEmpty = lock.newCondition();
+	private boolean closed = false;
 
 	public SenderQueue() {}
 
-	public void add(T item){
+	/**
+	 * Adds an item to the queue.
+	 * @return false if the queue is closed, and the item was not added.
+	 */
+	public boolean add(T item){
 		lock.lock();
 		try{
+			if(closed)
+				return false;
 			mailbox.add(item);
 			isEmpty.signalAll();
+			return true;
 		}
 		finally{
 			lock.unlock();
 		}
 	}
 	
+	/**
+	 * Closes the queue and wakes up the consumer.
+	 * @return the items that were not removed, in order.
+	 */
+	public List<T> close(){
+		lock.lock();
+		try{
+			closed = true;
+			final List<T> pending = new ArrayList<T>(mailbox);
+			mailbox.clear();
+			isEmpty.signalAll();
+			return pending;
+		}
+		finally{
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Removes the next item, waiting for one.
+	 * @return the item, or null if the queue was closed or the thread interrupted.
+	 */
 	public T removeNext(){
 		lock.lock();
 		try{
 			while(mailbox.isEmpty())
 				try {
+					if(closed)
+						return null;
 					isEmpty.await();
 				} catch (InterruptedException e) {
 					return null;
@@ -3,7 +3,8 @@ package net.sf.appia.protocols.tcpcomplete;
 import net.sf.appia.protocols.tcpcomplete.TcpCompleteSession.TcpSender;
 
 /**
- * This class defines a SocketInfoContainer
+ * This class defines a SocketInfoContainer.
+ * The reader is null while the connection is being opened.
  * 
  * @author <a href="mailto:nunomrc@di.fc.ul.pt">Nuno Carvalho</a>
  * @version 1.0
@@ -11,13 +12,16 @@ import net.sf.appia.protocols.tcpcomplete.TcpCompleteSession.TcpSender;
 public class SocketInfoContainer {
     public TcpReader reader;
     public TcpSender sender;
+    // when a connection opened by us was accepted, 0 if opened by the peer
+    public long connected = 0;
     public SocketInfoContainer(TcpReader r, TcpSender s){
         reader = r;
         sender = s;
     }
     
     public void close(){
-        reader.setRunning(false);
+        if(reader != null)
+            reader.setRunning(false);
         sender.setRunning(false);
     }
 }
@@ -20,13 +20,18 @@
  package net.sf.appia.protocols.tcpcomplete;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.Enumeration;
+import java.util.ArrayList;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.management.Attribute;
 import javax.management.MBeanAttributeInfo;
@@ -45,9 +50,9 @@ import net.sf.appia.core.events.SendableEvent;
 import net.sf.appia.core.events.channel.ChannelClose;
 import net.sf.appia.core.events.channel.ChannelInit;
 import net.sf.appia.core.message.Message;
-import net.sf.appia.core.message.MsgBuffer;
 import net.sf.appia.management.AppiaManagementException;
 import net.sf.appia.management.ManagedSession;
+import net.sf.appia.protocols.common.EventTypeRegistry;
 import net.sf.appia.protocols.common.RegisterSocketEvent;
 import net.sf.appia.protocols.utils.HostUtils;
 import net.sf.appia.protocols.utils.ParseUtils;
@@ -61,6 +66,12 @@ import org.apache.log4j.Logger;
  * Uses TCP to send/receive events to/from other Appia instances.<br>
  * TCP connections are established automatically when required and 
  * terminated after an inactivity period. <br>
+ * There is a single connection to each peer, shared by all the channels. When
+ * two peers connect to each other at the same time, the connection opened by the
+ * peer with the lowest address is kept and the other is refused. <br>
+ * A connection is opened, and the peer's reply awaited, by its reader thread. 
+ * Messages sent meanwhile are queued, and are moved to the connection that 
+ * replaces it, if any. <br>
  * <br>
  * <b>The TCP socket is bound to a local address</b>.
  * If {@link net.sf.appia.protocols.common.RegisterSocketEvent#localHost} is null, 
@@ -77,20 +88,24 @@ public class TcpCompleteSession extends Session
   private static final int MAX_INACTIVITY=2;
   private static final int SOTIMEOUT=5000;
   
+  // reply to the port sent by the peer that opens a connection
+  private static final int CONNECTION_ACCEPTED=1;
+  private static final int CONNECTION_REFUSED=0;
+  
   protected int param_DEST_TIMEOUT=DEST_TIMEOUT, param_MAX_INACTIVITY=MAX_INACTIVITY, 
   	param_SOTIMEOUT=SOTIMEOUT;
   protected boolean param_CLOSE_INACTIVE_SOCKETS=true;
   
   //Channels
   protected Hashtable<String,Channel> channels;
+  //Event types and channels on the wire
+  protected EventTypeRegistry eventTypes;
   
-  //Open Sockets created by this node
-//  protected HashMap ourSockets;
-  protected Hashtable<InetSocketAddress,SocketInfoContainer> ourReaders;
+  //Connections, one for each peer, open or being opened
+  protected ConcurrentHashMap<InetSocketAddress,SocketInfoContainer> connections;
   
-  //Sockets opened to us
-//  protected HashMap otherSockets;
-  protected Hashtable<InetSocketAddress,SocketInfoContainer> otherReaders;
+  //Accepted end of the connection to ourselves
+  private SocketInfoContainer loopback=null;
   
   //Accept Thread
   protected AcceptReader acceptThread;
@@ -115,10 +130,8 @@ public class TcpCompleteSession extends Session
     
     //init all
     channels = new Hashtable<String,Channel>();
-//    ourSockets = new HashMap();
-    ourReaders = new Hashtable<InetSocketAddress,SocketInfoContainer>();
-//    otherSockets = new HashMap();
-    otherReaders = new Hashtable<InetSocketAddress,SocketInfoContainer>();
+    eventTypes = new EventTypeRegistry();
+    connections = new ConcurrentHashMap<InetSocketAddress,SocketInfoContainer>();
     
     socketLock = new Object();
     channelLock = new Object();
@@ -252,7 +265,7 @@ public class TcpCompleteSession extends Session
             log.debug("TCP Session registered a socket in port "+ourPort);
         
         //create accept thread int the request port.
-      acceptThread = new AcceptReader(ss,this,e.getChannel(),socketLock);
+      acceptThread = new AcceptReader(ss,this,e.getChannel());
       final Thread t = e.getChannel().getThreadFactory().newThread(acceptThread);
       t.setName("TCP Accept thread from port "+ourPort);
       t.start();
@@ -286,12 +299,7 @@ public class TcpCompleteSession extends Session
   
   private void handleCloseSocket(CloseTcpSocket e) {
       InetSocketAddress dest = (InetSocketAddress) e.getAddress();
-      if(existsSocket(otherReaders,dest)){
-          otherReaders.remove(dest).close();
-          if(log.isDebugEnabled())
-              log.debug("Closing TCP socket for destination: "+dest);
-      } else if(existsSocket(ourReaders,dest)){
-          ourReaders.remove(dest).close();
+      if(removeSocket(dest)){
           if(log.isDebugEnabled())
               log.debug("Closing TCP socket for destination: "+dest);
       }
@@ -330,12 +338,15 @@ public class TcpCompleteSession extends Session
     if(channels.size() == 0){
         log.warn("No more channels. Cleaning sockets.");
     	acceptThread.setRunning(false);
-    	for(SocketInfoContainer comm : ourReaders.values())
-    	    comm.close();
-    	ourReaders.clear();
-        for(SocketInfoContainer comm : otherReaders.values())
-            comm.close();
-        otherReaders.clear();
+    	synchronized (socketLock) {
+    	    for(SocketInfoContainer comm : connections.values())
+    	        comm.close();
+    	    connections.clear();
+    	    if (loopback != null) {
+    	        loopback.close();
+    	        loopback=null;
+    	    }
+    	}
     }
     else if (timerChannel != null && e.getChannel().getChannelID().equals(timerChannel.getChannelID())) {
         try {
@@ -356,130 +367,247 @@ public class TcpCompleteSession extends Session
 		e1.printStackTrace();
 	}
 	
-	synchronized (socketLock) {
-	    Iterator<SocketInfoContainer> it = ourReaders.values().iterator();
-	    while(it.hasNext()){
-	        TcpReader reader = it.next().reader;
-	        if(reader.sumInactiveCounter() > param_MAX_INACTIVITY){
-	            reader.setRunning(false);
-	            it.remove();
-	        }
-	    }
-	    it = otherReaders.values().iterator();
-	    while(it.hasNext()){
-	        TcpReader reader = it.next().reader;
-	        if(reader.sumInactiveCounter() > param_MAX_INACTIVITY){
-	            reader.setRunning(false);
-	            it.remove();
-	        }
+	final Iterator<Map.Entry<InetSocketAddress,SocketInfoContainer>> it = connections.entrySet().iterator();
+	while(it.hasNext()){
+	    final Map.Entry<InetSocketAddress,SocketInfoContainer> entry = it.next();
+	    final SocketInfoContainer container = entry.getValue();
+	    if(container.reader != null && container.reader.sumInactiveCounter() > param_MAX_INACTIVITY 
+	            && connections.remove(entry.getKey(),container)){
+	        eventTypes.removePeer(entry.getKey());
+	        container.close();
 	    }
-    }
+	}
   }
   
   protected void send(byte[] data, InetSocketAddress dest, Channel channel) {
-    SocketInfoContainer container = null;
-    try {
-      //check if the socket exist int the opensockets created by us
-      if(existsSocket(ourReaders,dest)){
-        //if so use that socket
-        container = getSocket(ourReaders,dest);
-        if(log.isDebugEnabled())
-          log.debug("our socket, sending...");
-      }
-//    check if socket exist in sockets created by the other
-      else if(existsSocket(otherReaders,dest)){
-          //if so	use that socket
-          container = getSocket(otherReaders,dest);
-          if(log.isDebugEnabled())
-            log.debug("other socket, sending...");
-        }
-        else{//if not
-          //create new socket and put it open sockets created by us
-          container = createSocket(ourReaders,dest,channel);
-          if(log.isDebugEnabled())
-            log.debug("created new socket, sending...");
-        }
-      //send event by the chosen socket -> formatAndSend()
-      if (log.isDebugEnabled())
-        log.debug("Adding to socket Queue of "+container.sender+" Queue has now #Items: "+container.sender.getQueue().getSize());
-      measures.countBytesDown(data.length);
-      measures.countMessagesDown(1);      
-      container.sender.getQueue().add(new MessageContainer(data,dest,channel));
-    } catch (IOException ex) {
-      if(log.isDebugEnabled()) {
-        ex.printStackTrace();
-        log.debug("Node "+dest+" failed.");
-      }
+    final MessageContainer message = new MessageContainer(data,dest,channel);
+    SocketInfoContainer container = connections.get(dest);
+    //the queue of a connection that was closed or replaced refuses the message
+    while(container == null || !container.sender.getQueue().add(message))
+      container = createSocket(dest,channel);
+    if (log.isDebugEnabled())
+      log.debug("Added to socket Queue of "+container.sender+" Queue has now #Items: "+container.sender.getQueue().getSize());
+    measures.countBytesDown(data.length);
+    measures.countMessagesDown(1);
+  }
+  
+  protected boolean existsSocket(InetSocketAddress iwp){
+    return connections.containsKey(iwp);
+  }
+  
+  protected SocketInfoContainer getSocket(InetSocketAddress iwp){
+    return connections.get(iwp);
+  }
+  
+  /**
+   * Returns the connection to the given peer, and starts opening one if there is none.
+   * <br>
+   * The connection is opened by its reader thread, and messages are queued
+   * until it is open. The peer refuses the connection when it is 
+   * connecting to us at the same time and its connection is kept. In that case,
+   * the queued messages are moved to the connection of the peer.
+   * If the connection fails, they are reported with a {@link TcpUndeliveredEvent}.
+   */
+  protected SocketInfoContainer createSocket(InetSocketAddress iwp,Channel channel){
+    synchronized(socketLock){
+      SocketInfoContainer container = connections.get(iwp);
+      if(container != null)
+        return container;
+      container = new SocketInfoContainer(null,new TcpSender(null,new SenderQueue<MessageContainer>()));
+      connections.put(iwp,container);
+      final Thread t = channel.getThreadFactory().newThread(new TcpConnector(iwp,container,channel));
+      t.setName("TCP reader thread ["+iwp+"]");
+      t.start();
+      if(log.isDebugEnabled())
+        log.debug("Opening connection to "+iwp);
+      return container;
     }
   }
   
-  protected boolean existsSocket(Hashtable<InetSocketAddress,SocketInfoContainer> hr, InetSocketAddress iwp){
+  /*
+   * Starts the sender of a connection opened by us, unless it was closed or
+   * replaced meanwhile. Returns the reader, to run in the current thread.
+   */
+  private TcpReader connected(InetSocketAddress iwp, SocketInfoContainer pending, Socket socket, Channel channel){
     synchronized(socketLock){
-      if(hr.containsKey(iwp))
-        return true;
-      else
-        return false;
+      if(connections.get(iwp) != pending){
+        closeSocket(socket);
+        return null;
+      }
+      final SocketInfoContainer container = startSocket(iwp,socket,channel,pending.sender.getQueue(),false);
+      container.connected = System.currentTimeMillis();
+      connections.put(iwp,container);
+      return container.reader;
     }
   }
   
-  protected SocketInfoContainer getSocket(Hashtable<InetSocketAddress,SocketInfoContainer> hm, InetSocketAddress iwp){
+  /*
+   * Waits for the connection of the peer, that replaces the refused one.
+   */
+  private void refused(InetSocketAddress iwp, SocketInfoContainer pending){
+    if(log.isDebugEnabled())
+      log.debug("Connection to "+iwp+" refused, waiting for the connection of the peer");
     synchronized(socketLock){
-    	SocketInfoContainer container = hm.get(iwp);
-      return container;
+      final long deadline = System.currentTimeMillis()+param_SOTIMEOUT;
+      long remaining = param_SOTIMEOUT;
+      while(connections.get(iwp) == pending && remaining > 0){
+        try {
+          socketLock.wait(remaining);
+        } catch (InterruptedException e) {
+          break;
+        }
+        remaining = deadline-System.currentTimeMillis();
+      }
+    }
+    failed(iwp,pending);
+  }
+  
+  /*
+   * Removes a connection that could not be opened, unless it was replaced, 
+   * and reports its queued messages to their channels.
+   */
+  private void failed(InetSocketAddress iwp, SocketInfoContainer pending){
+    if(!connections.remove(iwp,pending))
+      return;
+    eventTypes.removePeer(iwp);
+    final List<MessageContainer> lost = pending.sender.getQueue().close();
+    final List<Channel> reported = new ArrayList<Channel>();
+    for(MessageContainer message : lost){
+      if(!reported.contains(message.channel)){
+        reported.add(message.channel);
+        sendASyncUndelivered(message.channel,iwp);
+      }
     }
   }
   
-  //create socket, put in hashmap and create thread
-  protected SocketInfoContainer createSocket(Hashtable<InetSocketAddress,SocketInfoContainer> hr, 
-          InetSocketAddress iwp,Channel channel) throws IOException{
+  /**
+   * Opens the socket of a new connection.
+   */
+  protected Socket openSocket(InetSocketAddress iwp) throws IOException{
+    return new Socket(iwp.getAddress(),iwp.getPort());
+  }
+  
+  /**
+   * Decides if a connection opened by a peer is kept, and replies to the peer.
+   * A peer connecting to us while we connect to it is refused if our 
+   * address is lower than its address. That includes a connection we opened that
+   * the peer accepted less than the handshake timeout ago, as the connection of the
+   * peer may have been sent before ours arrived. Other connections are replaced,
+   * as the peer may no longer be using them.
+   * <br>
+   * The reply is written before the connection is started, so that it is the
+   * first byte the peer reads.
+   * 
+   * @return true if the connection was kept.
+   */
+  protected boolean acceptSocket(InetSocketAddress iwp, Socket socket, Channel channel) throws IOException{
+    final int order = compare(socket.getLocalAddress(),ourPort,iwp.getAddress(),iwp.getPort());
+    boolean accepted = true;
     synchronized(socketLock){
-      Socket newSocket = null;
-      
-      //create socket
-      
-      newSocket = new Socket(iwp.getAddress(),iwp.getPort());
-      newSocket.setTcpNoDelay(true);
-//      newSocket.setSoTimeout(param_SOTIMEOUT);
-      
-      final byte bPort[]= ParseUtils.intToByteArray(ourPort);
-      
-      
-      newSocket.getOutputStream().write(bPort);
+      final SocketInfoContainer existing = connections.get(iwp);
+      if(order < 0 && existing != null && (existing.reader == null 
+              || System.currentTimeMillis()-existing.connected < param_SOTIMEOUT))
+        accepted = false;
+      socket.getOutputStream().write(accepted ? CONNECTION_ACCEPTED : CONNECTION_REFUSED);
+      socket.getOutputStream().flush();
+      if(order == 0){
+        // the accepted end of a connection to ourselves, only used to read
+        if(loopback != null)
+          loopback.close();
+        loopback = startSocket(iwp,socket,channel,new SenderQueue<MessageContainer>(),true);
+      }
+      else if(accepted)
+        addSocket(iwp,socket,channel);
+    }
+    if(!accepted){
       if(log.isDebugEnabled())
-        log.debug("Sending our original port "+ourPort);
-
-      return addSocket(hr, iwp, newSocket, channel);
+        log.debug("Refused connection from "+iwp+", already connecting to it");
+      closeSocket(socket);
     }
+    return accepted;
   }
   
-  protected SocketInfoContainer addSocket(Hashtable<InetSocketAddress,SocketInfoContainer> hr, 
-          InetSocketAddress iwp,Socket socket,Channel channel){
+  /*
+   * Order of the peers, used to decide which connection is kept.
+   */
+  private static int compare(InetAddress addr1, int port1, InetAddress addr2, int port2){
+    final byte[] b1 = addr1.getAddress();
+    final byte[] b2 = addr2.getAddress();
+    if(b1.length != b2.length)
+      return b1.length-b2.length;
+    for(int i=0 ; i < b1.length ; i++){
+      if(b1[i] != b2[i])
+        return (b1[i]&0xff)-(b2[i]&0xff);
+    }
+    return port1-port2;
+  }
+  
+  //create threads and put the connection in the table
+  protected SocketInfoContainer addSocket(InetSocketAddress iwp,Socket socket,Channel channel){
     synchronized(socketLock){
-      final TcpReader reader = new TcpReader(socket,this,ourPort,iwp.getPort(),channel, measures);
+      final SenderQueue<MessageContainer> queue = new SenderQueue<MessageContainer>();
+      final SocketInfoContainer old = connections.get(iwp);
+      if(old != null){
+        //messages not yet sent by the replaced connection are sent by the new one, first
+        for(MessageContainer message : old.sender.getQueue().close())
+          queue.add(message);
+        old.close();
+        //the peer may have restarted, with other event types
+        eventTypes.removePeer(iwp);
+      }
+      final SocketInfoContainer container = startSocket(iwp,socket,channel,queue,true);
+      connections.put(iwp,container);
+      socketLock.notifyAll();
+      return container;
+    }
+  }
+  
+  private SocketInfoContainer startSocket(InetSocketAddress iwp,Socket socket,Channel channel,
+          SenderQueue<MessageContainer> queue,boolean startReader){
+    final TcpReader reader = new TcpReader(socket,this,ourPort,iwp.getPort(),channel, measures);
+    final TcpSender sender = new TcpSender(socket,queue);
+    final Thread ts = channel.getThreadFactory().newThread(sender);
+    final SocketInfoContainer container = new SocketInfoContainer(reader,sender);
+    if(startReader){
       final Thread tr = channel.getThreadFactory().newThread(reader);
-      final TcpSender sender = new TcpSender(socket,new SenderQueue<MessageContainer>());
-      final Thread ts = channel.getThreadFactory().newThread(sender);
-      final SocketInfoContainer container = new SocketInfoContainer(reader,sender);
       tr.setName("TCP reader thread ["+iwp+"]");
       tr.start();
-      ts.setName("TCP sender thread ["+iwp+"]");
-      ts.start();
-      hr.put(iwp,container);
-      return container;
     }
+    ts.setName("TCP sender thread ["+iwp+"]");
+    ts.start();
+    return container;
   }
   
-  protected void removeSocket(InetSocketAddress iwp){
-    synchronized(socketLock){
-      if(existsSocket(ourReaders,iwp))
-        ourReaders.remove(iwp).close();
-      else if(existsSocket(otherReaders,iwp))
-          otherReaders.remove(iwp).close();
-      else{
-        if(log.isDebugEnabled())
-          log.debug("No socket to remove.");
-      }
+  private static void closeSocket(Socket socket){
+    try {
+      socket.close();
+    } catch (IOException e) {}
+  }
+  
+  protected boolean removeSocket(InetSocketAddress iwp){
+    final SocketInfoContainer container = connections.remove(iwp);
+    if(container == null){
+      if(log.isDebugEnabled())
+        log.debug("No socket to remove.");
+      return false;
     }
+    eventTypes.removePeer(iwp);
+    container.close();
+    return true;
+  }
+  
+  /**
+   * Removes the connection to the peer if it uses the given socket.
+   * 
+   * @return true if the connection was removed.
+   */
+  protected boolean removeSocket(InetSocketAddress iwp, Socket socket){
+    final SocketInfoContainer container = connections.get(iwp);
+    if(container == null || container.reader == null || container.reader.getSocket() != socket || !connections.remove(iwp,container))
+      return false;
+    eventTypes.removePeer(iwp);
+    container.close();
+    return true;
   }
   
   protected Channel getChannel(String channelName){
@@ -491,53 +619,48 @@ public class TcpCompleteSession extends Session
   protected void putChannel(Channel channel) {
     synchronized(channelLock){
       channels.put(channel.getChannelID(),channel);
+      eventTypes.addChannel(channel);
     }
   }
   
   protected void removeChannel(Channel channel) {
     synchronized(channelLock){
       channels.remove(channel.getChannelID());
+      eventTypes.removeChannel(channel);
     }
   }
   
   protected byte[] format(SendableEvent e) {
-    MsgBuffer mbuf = new MsgBuffer();
-    Message msg = e.getMessage();
-    
-    byte[] eventType = e.getClass().getName().getBytes();
-    byte[] channelID = e.getChannel().getChannelID().getBytes();
-    
-    
-    mbuf.len = channelID.length;
-    msg.push(mbuf);
-    System.arraycopy(channelID, 0, mbuf.data, mbuf.off, mbuf.len);
-    
-    mbuf.len = 4;
-    msg.push(mbuf);
-    ParseUtils.intToByteArray(channelID.length, mbuf.data, mbuf.off);
-    
-    mbuf.len = eventType.length;
-    msg.push(mbuf);
-    System.arraycopy(eventType, 0, mbuf.data, mbuf.off, mbuf.len);
-    
-    mbuf.len = 4;
-    msg.push(mbuf);
-    ParseUtils.intToByteArray(eventType.length, mbuf.data, mbuf.off);
-    
-    mbuf.len = 4;
-    msg.push(mbuf);
-    ParseUtils.intToByteArray(msg.length()-4,mbuf.data,mbuf.off);
-    
+    final Message msg = e.getMessage();
+    eventTypes.pushHeader(e);
+    msg.pushInt(msg.length());
     return msg.toByteArray();
   }
   
+  /**
+   * Creates the event received in the given data.
+   * @return the event, or null if its channel is unknown.
+   * @see EventTypeRegistry#newEvent(byte[], int, int)
+   */
+  protected SendableEvent newEvent(byte[] data, int offset, int length) {
+    return eventTypes.newEvent(data, offset, length);
+  }
+  
+  /**
+   * Creates the event received in the given data from the given peer.
+   * @return the event, or null if its channel or type is unknown.
+   * @see EventTypeRegistry#newEvent(byte[], int, int, Object)
+   */
+  protected SendableEvent newEvent(byte[] data, int offset, int length, InetSocketAddress source) {
+    return eventTypes.newEvent(data, offset, length, source);
+  }
+  
   protected void sendASyncUndelivered(Channel channel, InetSocketAddress who) {
       try {
           new TcpUndeliveredEvent(channel,Direction.UP,this,who).asyncGo(channel, Direction.UP);
       } catch (AppiaEventException exception) {
           exception.printStackTrace();
       }
-      removeSocket(who);
   }
 
   protected void sendUndelivered(Channel channel, InetSocketAddress who) {
@@ -551,17 +674,62 @@ public class TcpCompleteSession extends Session
   
   protected int getGlobalQueueSize(){
       int sum=0;
-      synchronized (socketLock) {
-          Enumeration<SocketInfoContainer> e = ourReaders.elements();
-          while (e.hasMoreElements())
-              sum += (e.nextElement().sender.getQueue().getSize());
-          e = otherReaders.elements();
-          while (e.hasMoreElements())
-              sum += (e.nextElement().sender.getQueue().getSize());
-      }
+      for (SocketInfoContainer container : connections.values())
+          sum += container.sender.getQueue().getSize();
       return sum;
   }
 
+  /*
+   * Opens a connection to a peer and, if it is kept, reads from it.
+   */
+  class TcpConnector implements Runnable {
+      private final InetSocketAddress iwp;
+      private final SocketInfoContainer pending;
+      private final Channel channel;
+      TcpConnector(InetSocketAddress iwp, SocketInfoContainer pending, Channel channel){
+          this.iwp = iwp;
+          this.pending = pending;
+          this.channel = channel;
+      }
+      public void run() {
+          Socket socket = null;
+          int reply;
+          try {
+              socket = openSocket(iwp);
+              socket.setTcpNoDelay(true);
+              socket.setSoTimeout(param_SOTIMEOUT);
+              
+              final OutputStream os = socket.getOutputStream();
+              os.write(ParseUtils.intToByteArray(ourPort));
+              os.flush();
+              if(log.isDebugEnabled())
+                  log.debug("Sending our original port "+ourPort);
+              
+              reply = socket.getInputStream().read();
+              if(reply < 0)
+                  throw new IOException("Connection closed by "+iwp);
+              socket.setSoTimeout(0);
+          } catch (IOException ex) {
+              if(log.isDebugEnabled())
+                  log.debug("Unable to connect to "+iwp+": "+ex);
+              if(socket != null)
+                  closeSocket(socket);
+              failed(iwp,pending);
+              return;
+          }
+          
+          if(reply == CONNECTION_ACCEPTED){
+              final TcpReader reader = connected(iwp,pending,socket,channel);
+              if(reader != null)
+                  reader.run();
+          }
+          else {
+              closeSocket(socket);
+              refused(iwp,pending);
+          }
+      }
+  }
+
   /**
    * This class defines a TcpSender
    * 
@@ -592,7 +760,7 @@ public class TcpCompleteSession extends Session
                   if (log.isDebugEnabled())
                       log.debug("Flushing done...");
               } catch (IOException e) {
-                  if(isRunning()){
+                  if(isRunning() && removeSocket(container.who,socket)){
                       sendASyncUndelivered(container.channel, container.who);
                       if(log.isDebugEnabled()){
                           log.debug("Exception when send ASyncUndelivered:\n");
@@ -616,7 +784,9 @@ public class TcpCompleteSession extends Session
       
     public synchronized void setRunning(boolean r){
         running = r;
-        if(!running && !socket.isClosed())
+        if(!running)
+            queue.close();
+        if(!running && socket != null && !socket.isClosed())
             try {
                 socket.shutdownOutput();
             } catch (IOException e) {
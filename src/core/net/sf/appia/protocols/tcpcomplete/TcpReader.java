@@ -51,6 +51,11 @@ public class TcpReader implements Runnable {
 	
 	private int inactiveCounter=0;
 	
+	// addresses of the events, the same for all the messages of the socket
+	private final InetSocketAddress source;
+	private final InetSocketAddress dest;
+	private final byte[] lengthBuffer = new byte[4];
+	
 	private boolean running;
 	
 	public TcpReader(Socket socket,TcpCompleteSession session, int originalPort, int remotePort, 
@@ -62,6 +67,8 @@ public class TcpReader implements Runnable {
 		this.remotePort = remotePort;
 		this.channel = channel;
         measures = m;
+        source = new InetSocketAddress(socket.getInetAddress(),remotePort);
+        dest = new InetSocketAddress(socket.getLocalAddress(),originalPort);
 		setRunning(true);
 	}
 
@@ -80,9 +87,10 @@ public class TcpReader implements Runnable {
             }            
 	
 			try {
-				TcpUndeliveredEvent undelivered = new TcpUndeliveredEvent(iwp);    
-				undelivered.asyncGo(channel,Direction.UP);
-				parentSession.removeSocket(iwp);
+				if (parentSession.removeSocket(iwp,s)) {
+					TcpUndeliveredEvent undelivered = new TcpUndeliveredEvent(iwp);    
+					undelivered.asyncGo(channel,Direction.UP);
+				}
 			} catch (AppiaEventException exception) {
 				log.debug("Could not insert event: "+exception);
 			}					
@@ -90,7 +98,7 @@ public class TcpReader implements Runnable {
 		}
 		while(isRunning()){
 		    try {
-		        event = receiveAndFormat();
+		        event = receiveAndFormat(is);
 		        clearInactiveCounter();
 		        if(event != null){
 		            if(log.isDebugEnabled())
@@ -112,9 +120,11 @@ public class TcpReader implements Runnable {
 		                log.debug("Message reception from "+iwp+" failed. Send undelivered event up.");
 		                ex.printStackTrace();
 		            }
-		            TcpUndeliveredEvent undelivered = new TcpUndeliveredEvent(iwp);    
-		            undelivered.asyncGo(channel,Direction.UP);
-		            parentSession.removeSocket(iwp);
+		            // a connection closed by us, or replaced, is not reported
+		            if (isRunning() && parentSession.removeSocket(iwp,s)) {
+		                TcpUndeliveredEvent undelivered = new TcpUndeliveredEvent(iwp);    
+		                undelivered.asyncGo(channel,Direction.UP);
+		            }
 		            setRunning(false);
 		        } catch (AppiaEventException e) {
 		            if(log.isDebugEnabled())
@@ -131,7 +141,7 @@ public class TcpReader implements Runnable {
 	}
 	
 	
-	private int receive_n(byte[] b,int length) throws IOException {
+	private static int receive_n(InputStream is, byte[] b,int length) throws IOException {
 		//if (bench != null) bench.startBench("receive_n");
 		int n=0,i=0,x=0;
 		while(n!=length && i!=-1) {
@@ -148,53 +158,32 @@ public class TcpReader implements Runnable {
         }
         
     /* Event deserialization. Returns the event or null if something
-     * happened.
+     * happened. Reads from the given stream, so it may also be used 
+     * with streams that are not from the socket.
      */
-	private SendableEvent receiveAndFormat() throws IOException {
+	SendableEvent receiveAndFormat(InputStream is) throws IOException {
 		SendableEvent e=null;
 		try {
-			byte bTotal[] = new byte[4];
 			int total;
 			//if (bench != null) bench.startBench("read msg size");
-			receive_n(bTotal,4);
+			receive_n(is,lengthBuffer,4);
 			//if (bench != null) bench.stopBench("read msg size");			
-			total = ParseUtils.byteArrayToInt(bTotal,0);
+			total = ParseUtils.byteArrayToInt(lengthBuffer,0);
 			
 			byte data[] = new byte[total];
-			receive_n(data,total);
-			int curPos = 0;
-			
-			/* Extract event class name */
-			//size of class name
-			int sLength=ParseUtils.byteArrayToInt(data, curPos);
-			//the class name
-		    String className=new String(data,curPos+4,sLength);
-
-		        //updating curPos
-		        curPos += sLength + 4;
-
-		        /* Create event */
-		        e = (SendableEvent)Class.forName(className).newInstance();
-
-		        /* Extract channel name and put event in it*/
-		        sLength = ParseUtils.byteArrayToInt(data, curPos);
-		        String channelName=new String(data,curPos+4,sLength);
-
-			Channel msgChannel = parentSession.getChannel(channelName);
+			receive_n(is,data,total);
 			
-			if(msgChannel == null)
+			/* Create event, with its channel and message */
+			e = parentSession.newEvent(data, 0, total, source);
+			if(e == null)
 				return null;
-			
-			e.setChannel(msgChannel);
-		        curPos += sLength + 4;
 
 		        /* Extract the addresses and put them on the event */
 
 		        //msg's source
-		        e.source=new InetSocketAddress(s.getInetAddress(),remotePort);
+		        e.source=source;
 			
-			e.dest=new InetSocketAddress(s.getLocalAddress(),originalPort);
-			e.setMessage(msgChannel.getMessageFactory().newMessage(data,curPos,total-curPos));
+			e.dest=dest;
         } catch(IOException ste){
         	throw ste;
         }
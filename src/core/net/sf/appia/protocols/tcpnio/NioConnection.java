@@ -0,0 +1,318 @@
+/**
+ * Appia: Group communication and protocol composition framework library
+ * Copyright 2026 University of Lisbon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ *
+ * Contributor(s): See Appia web page for a list of contributors.
+ */
+ package net.sf.appia.protocols.tcpnio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.sf.appia.core.Channel;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A TCP connection served by a {@link SelectorLoop}.
+ * <br>
+ * Messages to send are queued by the Appia thread and written by the loop,
+ * as many as possible in each gathering write. Received bytes are read into
+ * a pooled direct buffer and split into messages.
+ * <br>
+ * The first 4 bytes sent by the side that opens the connection are the port
+ * where it accepts connections, as in
+ * {@link net.sf.appia.protocols.tcpcomplete.TcpCompleteSession TcpCompleteSession}.
+ */
+public class NioConnection {
+
+    private static Logger log = Logger.getLogger(NioConnection.class);
+    
+    private static final int INT_SIZE = 4;
+    private static final int MAX_GATHER = 64;
+    private static final int SLAB_SIZE = 64*1024;
+    
+    private final TcpNioSession session;
+    private final SelectorLoop loop;
+    private final SocketChannel socket;
+    private final Channel channel;
+    private volatile InetSocketAddress peer;
+    
+    private SelectionKey key = null;
+    private ByteBuffer readBuffer = null;
+    // received messages are copied to a shared array, used by their events
+    private byte[] slab = null;
+    private int slabOffset = 0;
+    // message larger than the read buffer, being copied to the slab
+    private int largeFrameLength = -1;
+    private int largeFrameOffset = 0;
+    
+    private final ConcurrentLinkedQueue<ByteBuffer> outbound = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicBoolean flushing = new AtomicBoolean(false);
+    private final ByteBuffer[] writing = new ByteBuffer[MAX_GATHER];
+    private int writeOffset = 0, writeLength = 0;
+    private boolean writeInterest = false;
+    
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private volatile int inactiveCounter = 0;
+
+    /**
+     * Creates a new NioConnection.
+     * @param peer the address of the peer, or null if it is still unknown (accepted connections).
+     */
+    NioConnection(TcpNioSession session, SelectorLoop loop, SocketChannel socket, 
+            InetSocketAddress peer, Channel channel) {
+        this.session = session;
+        this.loop = loop;
+        this.socket = socket;
+        this.peer = peer;
+        this.channel = channel;
+    }
+
+    /**
+     * Gets the address where the peer accepts connections.
+     */
+    public InetSocketAddress getPeer() {
+        return peer;
+    }
+    
+    SocketChannel getSocket() {
+        return socket;
+    }
+    
+    Channel getChannel() {
+        return channel;
+    }
+    
+    public boolean isClosed() {
+        return closed.get();
+    }
+    
+    /**
+     * Queues a message, given as a sequence of buffers, to be sent. May be called by any thread.
+     * @return false if the connection is closed.
+     */
+    boolean send(ByteBuffer[] data) {
+        if (closed.get())
+            return false;
+        // the buffers of a message must not be interleaved with others
+        synchronized (outbound) {
+            for (int i = 0; i < data.length; i++)
+                outbound.offer(data[i]);
+        }
+        if (flushing.compareAndSet(false, true))
+            loop.flush(this);
+        return true;
+    }
+    
+    int getQueueSize() {
+        return outbound.size();
+    }
+    
+    int sumInactiveCounter() {
+        return ++inactiveCounter;
+    }
+    
+    /**
+     * Closes the connection. May be called by any thread.
+     * @param undelivered if true, upper layers are notified with a 
+     * {@link net.sf.appia.protocols.tcpcomplete.TcpUndeliveredEvent TcpUndeliveredEvent}.
+     */
+    void close(boolean undelivered) {
+        if (!closed.compareAndSet(false, true))
+            return;
+        session.removeConnection(this);
+        try {
+            socket.close();
+        } catch (IOException e) {
+            if (log.isDebugEnabled())
+                log.debug("Exception closing socket: "+e);
+        }
+        if (undelivered && peer != null)
+            session.sendASyncUndelivered(channel, peer);
+        loop.closed(this);
+    }
+    
+    /* The following methods are only called by the selector loop. */
+    
+    void register(Selector selector) {
+        if (closed.get()) {
+            release();
+            return;
+        }
+        try {
+            readBuffer = session.getBufferPool().acquire();
+            if (socket.isConnected()) {
+                key = socket.register(selector, SelectionKey.OP_READ, this);
+                flush();
+            }
+            else
+                key = socket.register(selector, SelectionKey.OP_CONNECT, this);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+    
+    void release() {
+        if (key != null)
+            key.cancel();
+        session.getBufferPool().release(readBuffer);
+        readBuffer = null;
+        slab = null;
+        outbound.clear();
+        for (int i = 0; i < writing.length; i++)
+            writing[i] = null;
+    }
+    
+    void finishConnect() {
+        try {
+            if (socket.finishConnect()) {
+                key.interestOps(SelectionKey.OP_READ);
+                writeInterest = false;
+                flush();
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+    
+    void flush() {
+        if (closed.get() || key == null || !socket.isConnected())
+            return;
+        try {
+            do {
+                while (true) {
+                    if (writeOffset == writeLength) {
+                        writeOffset = writeLength = 0;
+                        ByteBuffer buffer;
+                        while (writeLength < writing.length && (buffer = outbound.poll()) != null)
+                            writing[writeLength++] = buffer;
+                        if (writeLength == 0)
+                            break;
+                    }
+                    socket.write(writing, writeOffset, writeLength - writeOffset);
+                    while (writeOffset < writeLength && !writing[writeOffset].hasRemaining())
+                        writing[writeOffset++] = null;
+                    if (writeOffset < writeLength) {
+                        // socket buffer is full, wait until it is writable
+                        setWriteInterest(true);
+                        return;
+                    }
+                }
+                setWriteInterest(false);
+                flushing.set(false);
+            // a message queued meanwhile may have seen the flag set
+            } while (!outbound.isEmpty() && flushing.compareAndSet(false, true));
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+    
+    private void setWriteInterest(boolean interest) {
+        if (interest != writeInterest) {
+            key.interestOps(interest ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+            writeInterest = interest;
+        }
+    }
+    
+    void read() {
+        try {
+            final int n = socket.read(readBuffer);
+            if (n < 0)
+                throw new IOException("Received EOF in the socket input stream.");
+            inactiveCounter = 0;
+            
+            readBuffer.flip();
+            try {
+                parse(readBuffer);
+            } finally {
+                readBuffer.compact();
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+    
+    private void parse(ByteBuffer buffer) throws IOException {
+        while (true) {
+            if (largeFrameLength >= 0) {
+                // message larger than the read buffer
+                final int n = Math.min(buffer.remaining(), largeFrameLength - largeFrameOffset);
+                buffer.get(slab, slabOffset + largeFrameOffset, n);
+                largeFrameOffset += n;
+                if (largeFrameOffset < largeFrameLength)
+                    return;
+                final int length = largeFrameLength;
+                largeFrameLength = -1;
+                receive(length);
+                continue;
+            }
+            
+            if (buffer.remaining() < INT_SIZE)
+                return;
+            
+            if (peer == null) {
+                peer = session.handshake(this, buffer.getInt());
+                continue;
+            }
+            
+            final int length = buffer.getInt(buffer.position());
+            if (length < 0 || length > session.getMaxMessageSize())
+                throw new IOException("Invalid message length "+length+" from "+socket.socket().getRemoteSocketAddress());
+            
+            if (buffer.remaining() >= INT_SIZE + length) {
+                buffer.position(buffer.position() + INT_SIZE);
+                allocate(length);
+                buffer.get(slab, slabOffset, length);
+                receive(length);
+            } else if (INT_SIZE + length > buffer.capacity()) {
+                buffer.position(buffer.position() + INT_SIZE);
+                allocate(length);
+                largeFrameLength = length;
+                largeFrameOffset = 0;
+            } else
+                return;
+        }
+    }
+    
+    private void allocate(int length) {
+        if (slab == null || length > slab.length - slabOffset) {
+            // the previous array is released with the messages that use it
+            slab = new byte[Math.max(SLAB_SIZE, length)];
+            slabOffset = 0;
+        }
+    }
+    
+    private void receive(int length) {
+        session.receive(this, slab, slabOffset, length);
+        slabOffset += length;
+    }
+    
+    private void fail(IOException e) {
+        if (!closed.get() && log.isDebugEnabled())
+            log.debug("Connection to "+peer+" failed: "+e);
+        close(true);
+    }
+    
+    public String toString() {
+        return "NioConnection["+peer+"]";
+    }
+}
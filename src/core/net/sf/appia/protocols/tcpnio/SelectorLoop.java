@@ -0,0 +1,173 @@
+/**
+ * Appia: Group communication and protocol composition framework library
+ * Copyright 2026 University of Lisbon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ *
+ * Contributor(s): See Appia web page for a list of contributors.
+ */
+ package net.sf.appia.protocols.tcpnio;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A thread that serves a set of connections using a {@link Selector}.
+ * <br>
+ * All the I/O of a connection is done by the loop it is registered in.
+ * Other threads only hand requests to the loop, through lock free queues,
+ * and wake up the selector.
+ */
+public class SelectorLoop implements Runnable {
+
+    private static Logger log = Logger.getLogger(SelectorLoop.class);
+
+    private final TcpNioSession session;
+    private final Selector selector;
+    
+    private final ConcurrentLinkedQueue<NioConnection> registrations = new ConcurrentLinkedQueue<NioConnection>();
+    private final ConcurrentLinkedQueue<NioConnection> flushes = new ConcurrentLinkedQueue<NioConnection>();
+    private final ConcurrentLinkedQueue<NioConnection> closes = new ConcurrentLinkedQueue<NioConnection>();
+    private volatile ServerSocketChannel server = null;
+    
+    private volatile boolean running = true;
+
+    /**
+     * Creates a new SelectorLoop.
+     * @throws IOException if the selector could not be opened.
+     */
+    public SelectorLoop(TcpNioSession session) throws IOException {
+        this.session = session;
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Asks the loop to accept connections on the given server socket.
+     */
+    void accept(ServerSocketChannel server) {
+        this.server = server;
+        selector.wakeup();
+    }
+
+    /**
+     * Asks the loop to serve the given connection.
+     */
+    void register(NioConnection connection) {
+        registrations.offer(connection);
+        selector.wakeup();
+    }
+
+    /**
+     * Asks the loop to write the pending messages of the given connection.
+     */
+    void flush(NioConnection connection) {
+        flushes.offer(connection);
+        selector.wakeup();
+    }
+
+    /**
+     * Asks the loop to release the resources of a closed connection.
+     */
+    void closed(NioConnection connection) {
+        closes.offer(connection);
+        selector.wakeup();
+    }
+
+    public void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    public void run() {
+        while (running) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                log.debug("Exception in select: "+e);
+            }
+            
+            processRequests();
+            
+            final Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+            while (it.hasNext()) {
+                final SelectionKey key = it.next();
+                it.remove();
+                if (!key.isValid())
+                    continue;
+                
+                if (key.isAcceptable()) {
+                    doAccept((ServerSocketChannel) key.channel());
+                    continue;
+                }
+
+                final NioConnection connection = (NioConnection) key.attachment();
+                if (key.isConnectable())
+                    connection.finishConnect();
+                if (key.isValid() && key.isReadable())
+                    connection.read();
+                if (key.isValid() && key.isWritable())
+                    connection.flush();
+            }
+        }
+        
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof NioConnection)
+                ((NioConnection) key.attachment()).close(false);
+        }
+        processRequests();
+        try {
+            selector.close();
+        } catch (IOException e) {
+            log.debug("Exception closing selector: "+e);
+        }
+    }
+
+    private void processRequests() {
+        final ServerSocketChannel ss = server;
+        if (ss != null) {
+            server = null;
+            try {
+                ss.register(selector, SelectionKey.OP_ACCEPT);
+            } catch (ClosedChannelException e) {
+                log.debug("Server socket closed before being registered.");
+            }
+        }
+        
+        NioConnection connection;
+        while ((connection = registrations.poll()) != null)
+            connection.register(selector);
+        while ((connection = flushes.poll()) != null)
+            connection.flush();
+        while ((connection = closes.poll()) != null)
+            connection.release();
+    }
+
+    private void doAccept(ServerSocketChannel ss) {
+        SocketChannel socket;
+        try {
+            while ((socket = ss.accept()) != null)
+                session.accepted(socket);
+        } catch (IOException e) {
+            if (running)
+                log.debug("Exception accepting connection: "+e);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * Appia: Group communication and protocol composition framework library
+ * Copyright 2026 University of Lisbon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ *
+ * Contributor(s): See Appia web page for a list of contributors.
+ */
+ package net.sf.appia.protocols.tcpnio;
+
+import net.sf.appia.core.Layer;
+import net.sf.appia.core.Session;
+import net.sf.appia.core.events.SendableEvent;
+import net.sf.appia.core.events.channel.ChannelClose;
+import net.sf.appia.core.events.channel.ChannelInit;
+import net.sf.appia.protocols.common.RegisterSocketEvent;
+import net.sf.appia.protocols.frag.MaxPDUSizeEvent;
+import net.sf.appia.protocols.tcpcomplete.CloseTcpSocket;
+import net.sf.appia.protocols.tcpcomplete.TcpTimer;
+import net.sf.appia.protocols.tcpcomplete.TcpUndeliveredEvent;
+
+/**
+ * Layer definition of the non-blocking TCP protocol.
+ * <br>
+ * It has the same events and wire format of the
+ * {@link net.sf.appia.protocols.tcpcomplete.TcpCompleteLayer TcpCompleteLayer},
+ * so both can be used by the members of the same group.
+ * 
+ * @see TcpNioSession
+ */
+public class TcpNioLayer extends Layer implements net.sf.appia.core.events.AppiaMulticastSupport {
+
+	public TcpNioLayer(){
+		evProvide = new Class[]{
+				TcpUndeliveredEvent.class,
+				SendableEvent.class,
+				TcpTimer.class,
+		};
+		
+		evAccept = new Class[]{
+				RegisterSocketEvent.class,
+				SendableEvent.class,
+				ChannelInit.class,
+				ChannelClose.class,
+				TcpTimer.class,
+				CloseTcpSocket.class,
+				MaxPDUSizeEvent.class,
+		};
+		
+		evRequire = new Class[]{
+				RegisterSocketEvent.class,
+				SendableEvent.class,
+				ChannelInit.class,
+		};
+	}
+
+	/**
+	 * @see net.sf.appia.core.Layer#createSession()
+	 */
+	public Session createSession() {
+		return new TcpNioSession(this);
+	}
+
+}
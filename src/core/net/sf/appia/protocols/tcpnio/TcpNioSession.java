@@ -0,0 +1,616 @@
+/**
+ * Appia: Group communication and protocol composition framework library
+ * Copyright 2026 University of Lisbon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ *
+ * Contributor(s): See Appia web page for a list of contributors.
+ */
+package net.sf.appia.protocols.tcpnio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.sf.appia.core.AppiaEventException;
+import net.sf.appia.core.AppiaException;
+import net.sf.appia.core.Channel;
+import net.sf.appia.core.Direction;
+import net.sf.appia.core.Event;
+import net.sf.appia.core.EventQualifier;
+import net.sf.appia.core.Layer;
+import net.sf.appia.core.Session;
+import net.sf.appia.core.events.AppiaMulticast;
+import net.sf.appia.core.events.SendableEvent;
+import net.sf.appia.core.events.channel.ChannelClose;
+import net.sf.appia.core.events.channel.ChannelInit;
+import net.sf.appia.core.message.Message;
+import net.sf.appia.protocols.common.EventTypeRegistry;
+import net.sf.appia.protocols.common.RegisterSocketEvent;
+import net.sf.appia.protocols.frag.MaxPDUSizeEvent;
+import net.sf.appia.protocols.tcpcomplete.CloseTcpSocket;
+import net.sf.appia.protocols.tcpcomplete.TcpTimer;
+import net.sf.appia.protocols.tcpcomplete.TcpUndeliveredEvent;
+import net.sf.appia.protocols.utils.HostUtils;
+import net.sf.appia.xml.interfaces.InitializableSession;
+import net.sf.appia.xml.utils.SessionProperties;
+
+import org.apache.log4j.Logger;
+
+
+/**
+ * Uses TCP to send/receive events to/from other Appia instances, with non-blocking sockets.<br>
+ * Instead of two threads per connection, a small pool of {@link SelectorLoop selector threads} 
+ * serves all the connections. Messages queued for a connection are written together with 
+ * gathering writes, and data is received into pooled direct buffers.
+ * <br>
+ * TCP connections are established automatically when required and 
+ * terminated after an inactivity period. The events and the wire format are the same of
+ * {@link net.sf.appia.protocols.tcpcomplete.TcpCompleteSession TcpCompleteSession}, 
+ * with event types and channels encoded by an {@link EventTypeRegistry}. <br>
+ * <br>
+ * <b>The TCP socket is bound to a local address</b>.
+ * If {@link net.sf.appia.protocols.common.RegisterSocketEvent#localHost} is null, 
+ * {@link net.sf.appia.protocols.utils.HostUtils} is used to select one. 
+ */
+public class TcpNioSession extends Session implements InitializableSession {
+  
+    private static Logger log = Logger.getLogger(TcpNioSession.class);
+
+  private static final int DEST_TIMEOUT=150000; // 2,5 minutes
+  private static final int MAX_INACTIVITY=2;
+  private static final int SELECTORS=2;
+  private static final int BUFFER_SIZE=64*1024;
+  private static final int MAX_POOLED_BUFFERS=256;
+  private static final int MAX_MESSAGE_SIZE=64*1024*1024;
+  private static final int MAX_HEADERS=256;
+  
+  protected int param_DEST_TIMEOUT=DEST_TIMEOUT, param_MAX_INACTIVITY=MAX_INACTIVITY,
+    param_SELECTORS=SELECTORS, param_BUFFER_SIZE=BUFFER_SIZE, param_MAX_MESSAGE_SIZE=MAX_MESSAGE_SIZE;
+  protected boolean param_CLOSE_INACTIVE_SOCKETS=true;
+  
+  //Channels
+  protected ConcurrentHashMap<String,Channel> channels=new ConcurrentHashMap<String,Channel>();
+  //Event types and channels on the wire
+  protected EventTypeRegistry eventTypes=new EventTypeRegistry();
+  
+  //Connections created by this node
+  protected ConcurrentHashMap<InetSocketAddress,NioConnection> ourConnections=
+      new ConcurrentHashMap<InetSocketAddress,NioConnection>();
+  //Connections opened to us
+  protected ConcurrentHashMap<InetSocketAddress,NioConnection> otherConnections=
+      new ConcurrentHashMap<InetSocketAddress,NioConnection>();
+  
+  private ServerSocketChannel server=null;
+  protected int ourPort = -1;
+  
+  private SelectorLoop[] loops=null;
+  private int nextLoop=0;
+  private BufferPool bufferPool=null;
+  
+  private Channel timerChannel=null;
+  
+  /**
+   * Constructor for TcpNioSession.
+   * @param layer
+   */
+  public TcpNioSession(Layer layer) {
+    super(layer);
+  }
+  
+  /**
+   * Initializes the session using the parameters given in the XML configuration.
+   * Possible parameters:
+   * <ul>
+   * <li><b>dest_timeout</b> time between unused open connections verification. (in milliseconds);
+   * <li><b>max_inactivity</b> number of times that the dest_timeout expires without closing the connection;
+   * <li><b>close_inactive_sockets</b> boolean that defines if inactive sockets should be closed or not.
+   * <li><b>selectors</b> number of threads that serve the connections.
+   * <li><b>buffer_size</b> size of the receive buffer of each connection. (in bytes);
+   * <li><b>max_message_size</b> maximum size of a message. (in bytes).
+   * </ul>
+   * 
+   * @param params The parameters given in the XML configuration.
+   * @see net.sf.appia.xml.interfaces.InitializableSession#init(SessionProperties)
+   */
+  public void init(SessionProperties params) {
+      if (params.containsKey("dest_timeout"))
+          param_DEST_TIMEOUT=params.getInt("dest_timeout");
+      if (params.containsKey("max_inactivity"))
+          param_MAX_INACTIVITY=params.getInt("max_inactivity");
+      if (params.containsKey("close_inactive_sockets"))
+          param_CLOSE_INACTIVE_SOCKETS=params.getBoolean("close_inactive_sockets");
+      if (params.containsKey("selectors"))
+          param_SELECTORS=params.getInt("selectors");
+      if (params.containsKey("buffer_size"))
+          param_BUFFER_SIZE=params.getInt("buffer_size");
+      if (params.containsKey("max_message_size"))
+          param_MAX_MESSAGE_SIZE=params.getInt("max_message_size");
+  }
+
+  public void handle(Event e){
+      if(e instanceof SendableEvent)
+          handleSendable((SendableEvent)e);
+      else if(e instanceof RegisterSocketEvent)
+          handleRegisterSocket((RegisterSocketEvent)e);
+      else if(e instanceof ChannelInit)
+          handleChannelInit((ChannelInit)e);
+      else if(e instanceof ChannelClose)
+          handleChannelClose((ChannelClose)e);
+      else if(e instanceof TcpTimer)
+          handleTcpTimer((TcpTimer)e);
+      else if(e instanceof CloseTcpSocket)
+          handleCloseSocket((CloseTcpSocket)e);
+      else if(e instanceof MaxPDUSizeEvent)
+          handlePDUSize((MaxPDUSizeEvent)e);
+      else {
+          try {
+              e.go();
+          } catch (AppiaEventException ex) {
+              ex.printStackTrace();
+          }
+      }
+  }
+  
+  private void handleSendable(SendableEvent e){
+    
+	  if(e.getDir() == Direction.UP){
+	      if (e.getChannel().isStarted()) {
+	          try {
+	              e.go();
+	          } catch (AppiaEventException e1) {
+	              e1.printStackTrace();
+	          }
+	      }
+		  return;
+	  }
+	  
+    if(log.isDebugEnabled())
+      log.debug("preparing to send ::"+e+" CHANNEL: "+e.getChannel().getChannelID());
+    
+    final ByteBuffer[] data=format(e);
+    
+    if (e.dest instanceof AppiaMulticast) {
+      final Object[] dests=((AppiaMulticast)e.dest).getDestinations();
+      for (int i=0 ; i < dests.length ; i++) {
+        if (dests[i] instanceof InetSocketAddress)
+          send(duplicate(data), (InetSocketAddress)dests[i], e.getChannel());
+        else
+          sendUndelivered(e.getChannel(),dests[i]);
+      }
+    } else if (e.dest instanceof InetSocketAddress) {
+      send(data, (InetSocketAddress)e.dest, e.getChannel());
+    } else {
+      sendUndelivered(e.getChannel(),e.dest);
+    }
+    
+    try {
+      e.go();
+    } catch (AppiaEventException ex) {
+      ex.printStackTrace();
+    }
+  }
+  
+  protected void handleRegisterSocket(RegisterSocketEvent e){
+      if(log.isDebugEnabled())
+          log.debug("TCP Session received RegisterSocketEvent to register a socket in port "+e.port);
+    
+    if(e.localHost == null){
+        e.localHost = HostUtils.getLocalAddress();
+    }
+    
+    ServerSocketChannel ss=null;
+    if(server == null){
+        try {
+            ss = ServerSocketChannel.open();
+            ss.configureBlocking(false);
+        } catch (IOException ex) {
+            log.debug("Exception when trying to create a server socket channel: "+ex);
+            ss = null;
+        }
+        if (ss != null && !bind(ss, e)) {
+            try {
+                ss.close();
+            } catch (IOException ex) {}
+            ss = null;
+        }
+    }
+    
+    if (ss != null && startLoops(e.getChannel())) {
+      server = ss;
+      ourPort = ss.socket().getLocalPort();
+      if(log.isDebugEnabled())
+          log.debug("TCP Session registered a socket in port "+ourPort);
+      loops[0].accept(ss);
+      
+      e.localHost=ss.socket().getInetAddress();
+      e.port=ourPort;
+      e.error=false;
+    } else {
+      e.error=true;
+      if(server != null && server.socket().getLocalPort() == e.port){
+          e.setErrorCode(RegisterSocketEvent.RESOURCE_ALREADY_BOUND_ERROR);
+          e.setErrorDescription("Socket already bound in port "+e.port);
+      }
+      else {
+          e.setErrorCode(RegisterSocketEvent.RESOURCE_BUSY_ERROR);
+          e.setErrorDescription("Could not create socket. Resource is busy.");
+      }
+    }
+    
+    //		send RegisterSocketEvent
+    e.setDir(Direction.invert(e.getDir()));
+    e.setSourceSession(this);
+    
+    try {
+      e.init();
+      e.go();
+    } catch (AppiaEventException ex) {
+      ex.printStackTrace();
+    }
+  }
+  
+  private boolean bind(ServerSocketChannel ss, RegisterSocketEvent e) {
+      if(e.port == RegisterSocketEvent.RANDOMLY_AVAILABLE){
+          final Random rand = new Random();
+          while(true){
+              try {
+                  ss.socket().bind(new InetSocketAddress(e.localHost, rand.nextInt(Short.MAX_VALUE)), 50);
+                  return true;
+              } catch(IllegalArgumentException ex){
+                  log.debug("Exception when trying to create a server socket in Randomly Available mode: "+ex);
+              } catch (IOException ex) {
+                  log.debug("Exception when trying to create a server socket in Randomly Available mode: "+ex);
+              }
+          }
+      }
+      try {
+          ss.socket().bind(new InetSocketAddress(e.localHost, e.port), 50);
+          return true;
+      } catch (IOException ex) {
+          log.debug("Exception when trying to create a server socket using the port: "+e.port+"\nException: "+ex);
+          return false;
+      }
+  }
+  
+  private boolean startLoops(Channel channel) {
+      if (loops != null)
+          return true;
+      bufferPool = new BufferPool(param_BUFFER_SIZE, MAX_POOLED_BUFFERS);
+      final SelectorLoop[] newLoops = new SelectorLoop[Math.max(1, param_SELECTORS)];
+      try {
+          for (int i=0 ; i < newLoops.length ; i++)
+              newLoops[i] = new SelectorLoop(this);
+      } catch (IOException ex) {
+          log.debug("Exception when trying to open a selector: "+ex);
+          return false;
+      }
+      for (int i=0 ; i < newLoops.length ; i++) {
+          final Thread t = channel.getThreadFactory().newThread(newLoops[i]);
+          t.setName("TCP selector thread "+i+" ["+channel.getChannelID()+"]");
+          t.setDaemon(true);
+          t.start();
+      }
+      loops = newLoops;
+      return true;
+  }
+  
+  private synchronized SelectorLoop nextLoop() {
+      final SelectorLoop loop = loops[nextLoop];
+      nextLoop = (nextLoop + 1) % loops.length;
+      return loop;
+  }
+  
+  private void handleCloseSocket(CloseTcpSocket e) {
+      final InetSocketAddress dest = (InetSocketAddress) e.getAddress();
+      NioConnection connection = otherConnections.get(dest);
+      if (connection == null)
+          connection = ourConnections.get(dest);
+      if (connection != null) {
+          connection.close(false);
+          if(log.isDebugEnabled())
+              log.debug("Closing TCP socket for destination: "+dest);
+      }
+      else
+          log.debug("Requested to close socket "+dest+" but the socket does not exist.");
+  }
+  
+  private void handlePDUSize(MaxPDUSizeEvent e) {
+      e.pduSize = param_MAX_MESSAGE_SIZE - MAX_HEADERS;
+      e.setDir(Direction.invert(e.getDir()));
+      e.setSourceSession(this);
+      try {
+          e.init();
+          e.go();
+      } catch (AppiaEventException ex) {
+          ex.printStackTrace();
+      }
+  }
+
+  private void handleChannelInit(ChannelInit e){
+    channels.put(e.getChannel().getChannelID(), e.getChannel());
+    eventTypes.addChannel(e.getChannel());
+    try {
+      e.go();
+    } catch (AppiaEventException ex) {
+      ex.printStackTrace();
+    }
+    
+    if (timerChannel == null && param_CLOSE_INACTIVE_SOCKETS) {
+      try {
+        final TcpTimer timer=new TcpTimer(param_DEST_TIMEOUT, e.getChannel(), this, EventQualifier.ON);
+        timer.go();
+        timerChannel=timer.getChannel();
+      } catch (AppiaEventException ex) {
+        ex.printStackTrace();
+      } catch (AppiaException ex) {
+        ex.printStackTrace();
+      }
+    }
+  }
+  
+  private void handleChannelClose(ChannelClose e){
+    channels.remove(e.getChannel().getChannelID());
+    eventTypes.removeChannel(e.getChannel());
+    
+    if(channels.size() == 0){
+        log.warn("No more channels. Cleaning sockets.");
+        if (server != null) {
+            try {
+                server.close();
+            } catch (IOException ex) {
+                log.debug("Exception closing server socket: "+ex);
+            }
+        }
+        for (NioConnection connection : ourConnections.values())
+            connection.close(false);
+        for (NioConnection connection : otherConnections.values())
+            connection.close(false);
+        if (loops != null) {
+            for (int i=0 ; i < loops.length ; i++)
+                loops[i].stop();
+        }
+    }
+    else if (timerChannel != null && e.getChannel().getChannelID().equals(timerChannel.getChannelID())) {
+        try {
+            timerChannel=channels.values().iterator().next();
+            final TcpTimer timer=new TcpTimer(param_DEST_TIMEOUT, timerChannel, this, EventQualifier.ON);
+            timer.go();
+        } catch (Exception ex) {
+            timerChannel=null;
+            ex.printStackTrace();
+        }
+    }
+    
+    try {
+      e.go();
+    } catch (AppiaEventException ex) {
+      ex.printStackTrace();
+    }
+  }
+
+  private void handleTcpTimer(TcpTimer e) {
+	  try {
+		e.go();
+	} catch (AppiaEventException e1) {
+		e1.printStackTrace();
+	}
+	
+	for (NioConnection connection : ourConnections.values()) {
+	    if (connection.sumInactiveCounter() > param_MAX_INACTIVITY)
+	        connection.close(false);
+	}
+	for (NioConnection connection : otherConnections.values()) {
+	    if (connection.sumInactiveCounter() > param_MAX_INACTIVITY)
+	        connection.close(false);
+	}
+  }
+  
+  protected void send(ByteBuffer[] data, InetSocketAddress dest, Channel channel) {
+    NioConnection connection = ourConnections.get(dest);
+    if (connection == null)
+        connection = otherConnections.get(dest);
+    if (connection == null || !connection.send(data)) {
+        connection = connect(dest, channel);
+        if (connection != null)
+            connection.send(data);
+    }
+  }
+  
+  private NioConnection connect(InetSocketAddress dest, Channel channel) {
+      if (loops == null) {
+          log.debug("Unable to send to "+dest+": socket not registered.");
+          return null;
+      }
+      SocketChannel socket = null;
+      try {
+          socket = SocketChannel.open();
+          socket.configureBlocking(false);
+          socket.socket().setTcpNoDelay(true);
+          socket.connect(dest);
+      } catch (IOException ex) {
+          if(log.isDebugEnabled())
+              log.debug("Node "+dest+" failed: "+ex);
+          if (socket != null) {
+              try {
+                  socket.close();
+              } catch (IOException ex1) {}
+          }
+          sendUndelivered(channel, dest);
+          return null;
+      }
+      
+      final SelectorLoop loop = nextLoop();
+      final NioConnection connection = new NioConnection(this, loop, socket, dest, channel);
+      // the first bytes are the port where we accept connections
+      final ByteBuffer port = ByteBuffer.allocate(4);
+      port.putInt(ourPort).flip();
+      connection.send(new ByteBuffer[] { port });
+      ourConnections.put(dest, connection);
+      loop.register(connection);
+      return connection;
+  }
+  
+  /**
+   * Called by a selector loop when a connection is accepted.
+   */
+  void accepted(SocketChannel socket) {
+      try {
+          socket.configureBlocking(false);
+          socket.socket().setTcpNoDelay(true);
+      } catch (IOException ex) {
+          log.debug("Error initiating connection. Closing connection: "+ex);
+          try {
+              socket.close();
+          } catch (IOException ex1) {}
+          return;
+      }
+      final Channel channel = timerChannel != null ? timerChannel : anyChannel();
+      final SelectorLoop loop = nextLoop();
+      loop.register(new NioConnection(this, loop, socket, null, channel));
+  }
+  
+  /**
+   * Called by a selector loop when the port of the peer of an accepted connection is received.
+   * @return the address of the peer.
+   */
+  InetSocketAddress handshake(NioConnection connection, int port) {
+      final InetSocketAddress peer = new InetSocketAddress(connection.getSocket().socket().getInetAddress(), port);
+      if(log.isDebugEnabled())
+          log.debug("received remote port:: "+port);
+      //the peer may have restarted, with other event types
+      eventTypes.removePeer(peer);
+      if (ourConnections.putIfAbsent(peer, connection) != null)
+          otherConnections.put(peer, connection);
+      return peer;
+  }
+  
+  void removeConnection(NioConnection connection) {
+      final InetSocketAddress peer = connection.getPeer();
+      if (peer == null)
+          return;
+      ourConnections.remove(peer, connection);
+      otherConnections.remove(peer, connection);
+      eventTypes.removePeer(peer);
+  }
+  
+  /**
+   * Called by a selector loop when a message is received.
+   */
+  void receive(NioConnection connection, byte[] data, int offset, int length) {
+      final SendableEvent e = parse(connection, data, offset, length);
+      if (e == null)
+          return;
+      try {
+          if(log.isDebugEnabled())
+              log.debug("received an event. sending it to the appia stack: "+e+" Channel: "+e.getChannel());
+          e.asyncGo(e.getChannel(), Direction.UP);
+      } catch (AppiaEventException ex) {
+          log.debug("Could not insert event: "+ex);
+      }
+  }
+  
+  /* Event deserialization. Returns the event or null if something
+   * happened.
+   */
+  private SendableEvent parse(NioConnection connection, byte[] data, int offset, int length) {
+      try {
+          /* Create event, with its channel and message */
+          final SendableEvent e = eventTypes.newEvent(data, offset, length, connection.getPeer());
+          if (e == null)
+              return null;
+          
+          /* Extract the addresses and put them on the event */
+          e.source=connection.getPeer();
+          e.dest=new InetSocketAddress(connection.getSocket().socket().getLocalAddress(),ourPort);
+          return e;
+      } catch(IllegalArgumentException ex) {
+          if (log.isDebugEnabled())
+              log.debug("Exception catched while processing message from "+connection.getPeer()+": "+ex);
+          return null;
+      }
+  }
+  
+  /* The buffers share the blocks of a clone of the message, so
+   * changes made to the message after sending do not affect them.
+   */
+  protected ByteBuffer[] format(SendableEvent e) {
+    final Message msg = e.getMessage();
+    eventTypes.pushHeader(e);
+    msg.pushInt(msg.length());
+    try {
+      // the copy keeps the data while it is written, but is not in the memory manager
+      final Message copy = (Message) msg.clone();
+      copy.setMemoryManager(null);
+      return copy.toByteBuffers();
+    } catch (CloneNotSupportedException ex) {
+      return new ByteBuffer[] { ByteBuffer.wrap(msg.toByteArray()) };
+    }
+  }
+  
+  /* Each connection needs its own positions. */
+  private static ByteBuffer[] duplicate(ByteBuffer[] data) {
+    final ByteBuffer[] copy=new ByteBuffer[data.length];
+    for (int i=0 ; i < data.length ; i++)
+      copy[i]=data[i].duplicate();
+    return copy;
+  }
+  
+  void sendASyncUndelivered(Channel channel, Object who) {
+      if (channel == null)
+          return;
+      try {
+          new TcpUndeliveredEvent(who).asyncGo(channel, Direction.UP);
+      } catch (AppiaEventException exception) {
+          exception.printStackTrace();
+      }
+  }
+
+  protected void sendUndelivered(Channel channel, Object who) {
+      try {
+          new TcpUndeliveredEvent(channel,Direction.UP,this,who).go();
+      } catch (AppiaEventException exception) {
+          exception.printStackTrace();
+      }
+  }
+  
+  /**
+   * Number of messages waiting to be written, in all connections.
+   */
+  protected int getGlobalQueueSize(){
+      int sum=0;
+      for (NioConnection connection : ourConnections.values())
+          sum += connection.getQueueSize();
+      for (NioConnection connection : otherConnections.values())
+          sum += connection.getQueueSize();
+      return sum;
+  }
+  
+  private Channel anyChannel() {
+      for (Channel c : channels.values())
+          return c;
+      return null;
+  }
+  
+  BufferPool getBufferPool() {
+      return bufferPool;
+  }
+  
+  int getMaxMessageSize() {
+      return param_MAX_MESSAGE_SIZE;
+  }
+}
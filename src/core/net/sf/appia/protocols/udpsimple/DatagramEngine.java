@@ -0,0 +1,340 @@
+/**
+ * Appia: Group communication and protocol composition framework library
+ * Copyright 2026 University of Lisbon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ *
+ * Contributor(s): See Appia web page for a list of contributors.
+ */
+package net.sf.appia.protocols.udpsimple;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.sf.appia.core.AppiaEventException;
+import net.sf.appia.core.Channel;
+import net.sf.appia.core.Direction;
+import net.sf.appia.core.events.SendableEvent;
+import net.sf.appia.core.message.Message;
+import net.sf.appia.protocols.common.SendableNotDeliveredEvent;
+import net.sf.appia.protocols.tcpnio.BufferPool;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The point-to-point socket of a {@link UdpSimpleSession}, served by a
+ * dedicated I/O thread through a non-blocking {@link DatagramChannel}.
+ * <br>
+ * The Appia thread only copies each datagram to a pooled buffer and queues it,
+ * with all its destinations. The selector is woken once for all the datagrams
+ * queued while the I/O thread is busy. If the socket is full, the I/O thread
+ * waits until it is writable, without stopping the Appia thread.
+ * <br>
+ * Received datagrams are read in bursts. Their data is copied to large shared 
+ * arrays, instead of one array per datagram, and the events of a burst are
+ * inserted in their channels with a single wake-up of each event loop.
+ * 
+ * @see UdpSimpleSession
+ */
+public class DatagramEngine implements Runnable {
+
+  private static Logger log = Logger.getLogger(DatagramEngine.class);
+
+  /**
+   * Default maximum number of datagrams read before inserting their events.
+   */
+  public static final int DEFAULT_BURST=64;
+
+  private static final int MAX_DATAGRAM_SIZE=65536;
+  private static final int SLAB_SIZE=64*1024;
+  private static final int MAX_POOLED=256;
+
+  /* A datagram to send to one or more destinations. */
+  private static final class Outgoing {
+    private final ByteBuffer data;
+    private final SocketAddress[] dests;
+    private final Channel channel;
+    /* detached from the sent event, whose message may be reused after it goes */
+    private final SendableEvent event;
+    private int next=0;
+
+    private Outgoing(ByteBuffer data, SocketAddress[] dests, Channel channel, SendableEvent event) {
+      this.data=data;
+      this.dests=dests;
+      this.channel=channel;
+      this.event=event;
+    }
+  }
+
+  private final UdpSimpleSession session;
+  private final DatagramChannel socket;
+  private final InetSocketAddress address;
+  private final Selector selector;
+  private final SelectionKey key;
+  private final BufferPool pool;
+  private final int burst;
+
+  private final ConcurrentLinkedQueue<Outgoing> outbound=new ConcurrentLinkedQueue<Outgoing>();
+  private final AtomicBoolean wakeupPending=new AtomicBoolean(false);
+  private volatile boolean running=true;
+
+  // used only by the I/O thread
+  private Outgoing current=null;
+  private final ByteBuffer receiveBuffer=ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+  private byte[] slab=new byte[SLAB_SIZE];
+  private int slabOffset=0;
+  private final ArrayList<SendableEvent> received=new ArrayList<SendableEvent>();
+  private final ArrayList<Channel> woken=new ArrayList<Channel>();
+
+  /**
+   * Creates an engine for the given bound channel.
+   * 
+   * @param session the session that owns the socket
+   * @param socket a bound datagram channel
+   * @param maxDatagramSize the size of the send buffers
+   * @param burst the maximum number of datagrams read at once
+   * @throws IOException if the selector could not be opened
+   */
+  public DatagramEngine(UdpSimpleSession session, DatagramChannel socket, int maxDatagramSize, int burst) 
+  throws IOException {
+    this.session=session;
+    this.socket=socket;
+    this.address=new InetSocketAddress(socket.socket().getLocalAddress(),socket.socket().getLocalPort());
+    this.pool=new BufferPool(maxDatagramSize,MAX_POOLED);
+    this.burst=burst;
+    socket.configureBlocking(false);
+    selector=Selector.open();
+    key=socket.register(selector,SelectionKey.OP_READ);
+  }
+
+  public InetSocketAddress getAddress() {
+    return address;
+  }
+
+  public int getMaxDatagramSize() {
+    return pool.getBufferSize();
+  }
+
+  /**
+   * Gets a buffer to fill with a datagram and give to {@link #send}.
+   */
+  ByteBuffer acquire() {
+    return pool.acquire();
+  }
+
+  /**
+   * Returns a buffer from {@link #acquire()} that will not be sent.
+   */
+  void release(ByteBuffer buffer) {
+    pool.release(buffer);
+  }
+
+  /**
+   * Queues a datagram to be sent to the given destinations. Called by the Appia thread.
+   * 
+   * @param data the datagram, ready to be read, from {@link #acquire()}
+   * @param dests the destinations
+   * @param event the event sent, reported if the datagram can not be sent
+   */
+  void send(ByteBuffer data, SocketAddress[] dests, SendableEvent event) {
+    outbound.offer(new Outgoing(data,dests,event.getChannel(),detach(event)));
+    if (!wakeupPending.getAndSet(true))
+      selector.wakeup();
+  }
+
+  public void stop() {
+    running=false;
+    selector.wakeup();
+  }
+
+  public void run() {
+    while (running) {
+      try {
+        selector.select();
+      } catch (IOException e) {
+        log.debug("Exception in select: "+e);
+      }
+      // datagrams queued from now on wake the selector again
+      wakeupPending.set(false);
+
+      if (selector.selectedKeys().remove(key) && key.isValid() && key.isReadable())
+        receive();
+      flush();
+    }
+
+    try {
+      selector.close();
+      socket.close();
+    } catch (IOException e) {
+      log.debug("Exception closing the socket: "+e);
+    }
+  }
+
+  /* Sends the queued datagrams until the socket is full. */
+  private void flush() {
+    Outgoing out=current;
+    if (out == null)
+      out=outbound.poll();
+
+    while (out != null) {
+      while (out.next < out.dests.length) {
+        final SocketAddress dest=out.dests[out.next];
+        try {
+          out.data.position(0);
+          if (socket.send(out.data,dest) == 0) {
+            current=out;
+            setWriteInterest(true);
+            return;
+          }
+        } catch (IOException e) {
+          if (log.isDebugEnabled())
+            log.debug("Exception sending datagram to "+dest+": "+e);
+          undelivered(out);
+        }
+        out.next++;
+      }
+      pool.release(out.data);
+      out=outbound.poll();
+    }
+    current=null;
+    setWriteInterest(false);
+  }
+
+  private void setWriteInterest(boolean interest) {
+    if (!key.isValid())
+      return;
+    final int ops=interest ? SelectionKey.OP_READ|SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+    if (key.interestOps() != ops)
+      key.interestOps(ops);
+  }
+
+  /* Reads a burst of datagrams and inserts their events. */
+  private void receive() {
+    for (int i=0 ; i < burst ; i++) {
+      receiveBuffer.clear();
+      SocketAddress from;
+      try {
+        from=socket.receive(receiveBuffer);
+      } catch (ClosedChannelException e) {
+        break;
+      } catch (IOException e) {
+        log.debug("Exception receiving datagram: "+e);
+        continue;
+      }
+      if (from == null)
+        break;
+
+      receiveBuffer.flip();
+      final int length=receiveBuffer.remaining();
+      if (length > slab.length-slabOffset) {
+        // the previous array is released with the messages that use it
+        slab=new byte[Math.max(SLAB_SIZE,length)];
+        slabOffset=0;
+      }
+      receiveBuffer.get(slab,slabOffset,length);
+
+      try {
+        final SendableEvent e=session.eventTypes.newEvent(slab,slabOffset,length,from);
+        if (e != null) {
+          e.source=from;
+          e.dest=address;
+          received.add(e);
+        } else if (log.isDebugEnabled())
+          log.debug("Discarding datagram from "+from+" of an unknown channel.");
+      } catch (IllegalArgumentException ex) {
+        if (log.isDebugEnabled())
+          log.debug("Discarding datagram from "+from+": "+ex.getMessage());
+      }
+      slabOffset+=length;
+    }
+    if (!received.isEmpty())
+      insert();
+  }
+
+  private void insert() {
+    for (int i=0 ; i < received.size() ; i++) {
+      final SendableEvent e=received.get(i);
+      final Channel channel=e.getChannel();
+      try {
+        e.asyncGo(channel,Direction.UP,false);
+        if (!woken.contains(channel))
+          woken.add(channel);
+      } catch (AppiaEventException ex) {
+        if (log.isDebugEnabled())
+          log.debug("Discarding event "+e+": "+ex.getMessage());
+      }
+    }
+    for (int i=0 ; i < woken.size() ; i++)
+      woken.get(i).wakeEventLoop();
+    received.clear();
+    woken.clear();
+  }
+
+  /*
+   * Clones the event without its message, which is only rebuilt from the 
+   * datagram if it can not be sent. The sent event goes on as soon as it is 
+   * queued, so its message may be released and reused meanwhile.
+   */
+  private static SendableEvent detach(SendableEvent event) {
+    try {
+      final SendableEvent clone=(SendableEvent) event.cloneEvent();
+      clone.detachFromMemory();
+      clone.getMessage().release();
+      clone.setMessage(null);
+      return clone;
+    } catch (CloneNotSupportedException ex) {
+      log.debug("Unable to clone event "+event+": "+ex);
+      return null;
+    }
+  }
+
+  private void undelivered(Outgoing out) {
+    if (out.event == null)
+      return;
+    if (out.event.getMessage() == null) {
+      final byte[] data=new byte[out.data.limit()];
+      out.data.position(0);
+      out.data.get(data);
+      out.event.setMessage(new Message(data,0,data.length));
+    }
+    try {
+      new SendableNotDeliveredEvent(out.channel,session,out.event).asyncGo(out.channel,Direction.UP);
+    } catch (AppiaEventException ex) {
+      log.debug("Unable to report undelivered datagram: "+ex);
+    }
+  }
+
+  /**
+   * Copies the message to the given buffer.
+   * 
+   * @return false if the message does not fit
+   */
+  static boolean copy(Message msg, ByteBuffer buffer) {
+    if (msg.length() > buffer.remaining())
+      return false;
+    final ByteBuffer[] blocks=msg.toByteBuffers();
+    for (int i=0 ; i < blocks.length ; i++)
+      buffer.put(blocks[i]);
+    buffer.flip();
+    return true;
+  }
+}
@@ -30,6 +30,8 @@ import java.net.SocketAddress;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 import java.util.HashMap;
 import java.util.Random;
 import java.util.concurrent.ThreadFactory;
@@ -47,12 +49,11 @@ import net.sf.appia.core.events.channel.ChannelClose;
 import net.sf.appia.core.events.channel.ChannelInit;
 import net.sf.appia.core.events.channel.Debug;
 import net.sf.appia.core.message.Message;
-import net.sf.appia.core.message.MsgBuffer;
+import net.sf.appia.protocols.common.EventTypeRegistry;
 import net.sf.appia.protocols.common.RegisterSocketEvent;
 import net.sf.appia.protocols.common.SendableNotDeliveredEvent;
 import net.sf.appia.protocols.frag.MaxPDUSizeEvent;
 import net.sf.appia.protocols.utils.HostUtils;
-import net.sf.appia.protocols.utils.ParseUtils;
 import net.sf.appia.xml.interfaces.InitializableSession;
 import net.sf.appia.xml.utils.SessionProperties;
 
@@ -82,10 +83,10 @@ public class UdpSimpleSession extends Session implements InitializableSession {
     private static Logger log = Logger.getLogger(UdpSimpleSession.class);
     private static Logger logReader = Logger.getLogger(UdpSimpleReader.class);
 
-  private DatagramSocket sock = null; //point-to-point socket
-  private UdpSimpleReader sockReader = null; //point-to-point reader
+  private DatagramEngine engine = null; //point-to-point socket
   private HashMap<SocketAddress,UdpSimpleReader> multicastReaders = new HashMap<SocketAddress, UdpSimpleReader>(); //multicast readers
   protected HashMap<Integer,Channel> channels = new HashMap<Integer, Channel>(); // known channels
+  protected EventTypeRegistry eventTypes = new EventTypeRegistry(); // event types and channels on the wire
   
   private InetAddress param_LOCAL_ADDRESS=null;
   private int param_MAX_UDPMSG_SIZE=DEFAULT_MAX_UDPMSG_SIZE;
@@ -93,6 +94,7 @@ public class UdpSimpleSession extends Session implements InitializableSession {
   public static final int DEFAULT_MAX_UDPMSG_SIZE=8192;
   public static final int DEFAULT_SOTIMEOUT=5000;
   private int param_SOTIMEOUT=DEFAULT_SOTIMEOUT;
+  private int param_RECEIVE_BURST=DatagramEngine.DEFAULT_BURST;
   
   private InetSocketAddress myAddress = null;
   private InetSocketAddress ipMulticast = null;
@@ -117,7 +119,9 @@ public class UdpSimpleSession extends Session implements InitializableSession {
    * <ul>
    * <li><b>local_address</b> the address to which the UDP socket is bound.
    * <li><b>max_udp_message_size</b> the maximum size of an underlying UDP message payload.
-   * <li><b>reader_sotimeout</b> the timeout of the threads that listen on UDP sockets. (in milliseconds)
+   * <li><b>reader_sotimeout</b> the timeout of the threads that listen on multicast sockets. (in milliseconds)
+   * <li><b>receive_burst</b> the maximum number of datagrams read from the socket before 
+   * inserting their events.
    * </ul>
    * 
    * @param params The parameters given in the XML configuration.
@@ -135,6 +139,8 @@ public class UdpSimpleSession extends Session implements InitializableSession {
       param_MAX_UDPMSG_SIZE=params.getInt("max_udp_message_size");
     if (params.containsKey("reader_sotimeout"))
         param_SOTIMEOUT=params.getInt("reader_sotimeout");
+    if (params.containsKey("receive_burst"))
+        param_RECEIVE_BURST=params.getInt("receive_burst");
   }
 
   /**
@@ -208,8 +214,8 @@ public class UdpSimpleSession extends Session implements InitializableSession {
   private void printState(PrintStream out) {
     
     out.println("UdpSimpleSession state dumping:");
-    if (sock != null)
-      out.println("Local UDP port: " + sock.getLocalPort());
+    if (engine != null)
+      out.println("Local UDP port: " + engine.getAddress().getPort());
     for(SocketAddress _addr : multicastReaders.keySet())
       out.println("Local Multicast address: " + _addr);
     
@@ -236,7 +242,7 @@ public class UdpSimpleSession extends Session implements InitializableSession {
                 /* if the socket is already binded then something is
                  * wrong. Keep existing information.
                  */
-    if (sock != null) {
+    if (engine != null) {
       reverseRegister(e, myAddress.getPort(), myAddress.getAddress(), true);
       return;
     }
@@ -353,6 +359,7 @@ public class UdpSimpleSession extends Session implements InitializableSession {
     log.debug(":handleChannelInit from channel: "+e.getChannel().getChannelID());
     
     channels.put(new Integer(e.getChannel().getChannelID().hashCode()), e.getChannel());
+    eventTypes.addChannel(e.getChannel());
    
     try {
       e.go();
@@ -370,6 +377,7 @@ public class UdpSimpleSession extends Session implements InitializableSession {
     
     // Access to vectors is synchronized
     channels.remove(new Integer(e.getChannel().getChannelID().hashCode()));
+    eventTypes.removeChannel(e.getChannel());
     try {
       e.go();
     } catch (AppiaEventException ex) {
@@ -378,7 +386,8 @@ public class UdpSimpleSession extends Session implements InitializableSession {
     
     if (channels.isEmpty()) {
       // Terminating 
-      sockReader.terminate();
+      if (engine != null)
+        engine.stop();
       
       for(UdpSimpleReader _reader : multicastReaders.values())
         _reader.terminate();
@@ -394,67 +403,78 @@ public class UdpSimpleSession extends Session implements InitializableSession {
         addr=param_LOCAL_ADDRESS;
     }
   		
+    DatagramChannel channel = null;
     if (port == RegisterSocketEvent.FIRST_AVAILABLE) {
       /*first available port*/
-      try {
-        sock = new DatagramSocket(0,addr);
-      } catch (SocketException ex) {
-        ex.printStackTrace();
+      channel = bind(0,addr);
+      if (channel == null)
         return false;
-      }
     } else if (port == RegisterSocketEvent.RANDOMLY_AVAILABLE) {
       /*chooses a random port*/
       Random random = new Random();
       
-      boolean sucess = false;
-      
       /*verifies if the random port is a valid one*/
-      while (!sucess) {
+      while (channel == null) {
         port = Math.abs(random.nextInt() % Short.MAX_VALUE);
         /* Open Socket with any port*/
-        try {
-          sock = new DatagramSocket(port,addr);
-          sucess = true;
-        } catch (IllegalArgumentException ex) {} catch (SocketException se) {}
+        channel = bind(port,addr);
       }
       
     } else { /*Regular RegisterSocketEvent */
       
-      /* Open the specified socket (if possible) */
-      try {
-        sock = new DatagramSocket(port,addr);
-      }
-      /* Socket exception. Possibly the socket is already bound.
-       Return the event up to notify that the command could not
-       be issued.
+      /* Open the specified socket (if possible) 
+       * Possibly the socket is already bound.
+       * Return the event up to notify that the command could not
+       * be issued.
        */
-      catch (SocketException se) {
+      channel = bind(port,addr);
+      if (channel == null)
         return false;
-      } catch (IllegalArgumentException ex) {
-        return false;
-      }
     }
     
-    // Determine local address
-    myAddress = new InetSocketAddress(sock.getLocalAddress(),sock.getLocalPort());
-    
     try {
-		sock.setSoTimeout(param_SOTIMEOUT);
-	} catch (SocketException e) {
-    	System.err.println("Unable to set SoTimeout value on UdpSimpleSession. Using default OS value.");
-		e.printStackTrace();
-	}
+      engine = new DatagramEngine(this, channel, param_MAX_UDPMSG_SIZE, param_RECEIVE_BURST);
+    } catch (IOException e) {
+      log.error("Unable to create the UDP socket engine: "+e);
+      try {
+        channel.close();
+      } catch (IOException ex) {}
+      return false;
+    }
+    
+    // Determine local address
+    myAddress = engine.getAddress();
 
-    /* The socket is binded. Launch reader*/
-    sockReader = new UdpSimpleReader(this, sock, myAddress);
-    final Thread t = threadFactory.newThread(sockReader);
-    t.setName("UdpSimpleReader ["+myAddress+"]");
-    sockReader.setParentThread(t);
+    /* The socket is binded. Launch the I/O thread*/
+    final Thread t = threadFactory.newThread(engine);
+    t.setName("UdpSimple I/O ["+myAddress+"]");
+    t.setDaemon(true);
     t.start();
     
     return true;
   }
   
+  private DatagramChannel bind(int port, InetAddress addr) {
+    DatagramChannel channel = null;
+    try {
+      channel = DatagramChannel.open();
+      channel.socket().bind(new InetSocketAddress(addr,port));
+      return channel;
+    } catch (IOException ex) {
+      if (log.isDebugEnabled())
+        log.debug("Unable to bind UDP socket to "+addr+":"+port+": "+ex);
+    } catch (IllegalArgumentException ex) {
+      if (log.isDebugEnabled())
+        log.debug("Unable to bind UDP socket to "+addr+":"+port+": "+ex);
+    }
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException ex) {}
+    }
+    return null;
+  }
+  
   /*
    * Event serialization and sending it to socket (int+className+int+channelName+message)
    */
@@ -463,62 +483,46 @@ public class UdpSimpleSession extends Session implements InitializableSession {
     
     /* Event Class name */
     try {
-      if (sock == null) {
+      if (engine == null) {
         if (!newSock(RegisterSocketEvent.FIRST_AVAILABLE,null,e.getChannel().getThreadFactory()))
           throw new IOException("Impossible to create new socket.");
       }
       
       Message msg = e.getMessage();
-      MsgBuffer mbuf = new MsgBuffer();
-      
-      byte[] eventType = e.getClass().getName().getBytes("ISO-8859-1");
-      int channelHash = e.getChannel().getChannelID().hashCode();
-      
-      mbuf.len = 4;
-      msg.push(mbuf);
-      ParseUtils.intToByteArray(channelHash, mbuf.data, mbuf.off);
-      
-      mbuf.len = eventType.length;
-      msg.push(mbuf);
-      System.arraycopy(eventType, 0, mbuf.data, mbuf.off, mbuf.len);
-      
-      mbuf.len = 4;
-      msg.push(mbuf);
-      ParseUtils.intToByteArray(eventType.length, mbuf.data, mbuf.off);
+      eventTypes.pushHeader(e);
       
       if (msg.length() > param_MAX_UDPMSG_SIZE)
         throw new IOException("Message length to great, may be truncated");
       
-      /* Create the packet and send it */
-      byte[] bytes = msg.toByteArray();
-      
+      SocketAddress[] dests = null;
       if ((e.dest instanceof AppiaMulticast)
           && (((AppiaMulticast) e.dest).getMulticastAddress() == null)) {
         
-        Object[] dests = ((AppiaMulticast) e.dest).getDestinations();
+        Object[] members = ((AppiaMulticast) e.dest).getDestinations();
         
-        if (dests == null) {
+        if (members == null) {
           System.err.println(
           "UdpSimpleSession: Destinations field of AppiaMulticast empty. Not sending event " + e);
           return;
         }
         
-        DatagramPacket dp = new DatagramPacket(bytes, bytes.length);
-        
-        for (int i = 0; i < dests.length; i++) {
-          if (dests[i] instanceof InetSocketAddress) {
-            
-            dp.setAddress(((InetSocketAddress) dests[i]).getAddress());
-            dp.setPort(((InetSocketAddress) dests[i]).getPort());
-            sock.send(dp);
+        dests = new SocketAddress[members.length];
+        int n = 0;
+        for (int i = 0; i < members.length; i++) {
+          if (members[i] instanceof InetSocketAddress) {
+            dests[n++] = (InetSocketAddress) members[i];
             
             if (debugFull)
-              log.debug(":formatAndSend: Multicast emulation: " + dp.getLength() 
-                  + " bytes datagram sent to " + dp.getAddress().getHostAddress() 
-                  + " (port " + dp.getPort() + ")");
+              log.debug(":formatAndSend: Multicast emulation: " + msg.length() 
+                  + " bytes datagram queued to " + members[i]);
           } else
             log.error("UdpSimpleSession: Wrong destination address type in event " + e);
         }
+        if (n < dests.length) {
+          final SocketAddress[] aux = new SocketAddress[n];
+          System.arraycopy(dests, 0, aux, 0, n);
+          dests = aux;
+        }
       } else {
         InetSocketAddress dest = null;
         if (e.dest instanceof InetSocketAddress) {
@@ -540,14 +544,19 @@ public class UdpSimpleSession extends Session implements InitializableSession {
           return;
         }
         
-        DatagramPacket dp = new DatagramPacket(bytes, bytes.length, dest.getAddress(), dest.getPort());
-        
-        sock.send(dp);
+        dests = new SocketAddress[]{dest};
         
         if (debugFull)
-          log.debug(":formatAndSend: "+dp.getLength()+" bytes datagram sent to "
-              + dp.getAddress().getHostAddress() + " (port " + dp.getPort() + ")");
+          log.debug(":formatAndSend: "+msg.length()+" bytes datagram queued to "+dest);
+      }
+      
+      /* Create the datagram, once the destinations are known, and queue it to the I/O thread */
+      final ByteBuffer buffer = engine.acquire();
+      if (!DatagramEngine.copy(msg, buffer)) {
+        engine.release(buffer);
+        throw new IOException("Message length to great, may be truncated");
       }
+      engine.send(buffer, dests, e);
     } catch (IOException ex) {
       if (log.isDebugEnabled())
           ex.printStackTrace();
@@ -582,15 +591,6 @@ public class UdpSimpleSession extends Session implements InitializableSession {
     private byte[] b = new byte[MAX_BUFFER_SIZE];    
     private boolean terminate=false;
     
-    /**
-     * Waits on a DatagramSocket - point-to-point communication
-     */
-    public UdpSimpleReader(UdpSimpleSession parentSession, DatagramSocket s, InetSocketAddress dest) {
-      this.parentSession = parentSession;
-      this.sock = s;
-      this.dest = dest;
-    }
-    
     void setParentThread(Thread t){
     		this.parentThread = t;
     }
@@ -659,53 +659,32 @@ public class UdpSimpleSession extends Session implements InitializableSession {
       byte[] data = new byte[p.getLength()];
       System.arraycopy(p.getData(), p.getOffset(), data, 0, p.getLength());
       SendableEvent e = null;
-      Message msg = null;
+      InetSocketAddress addr = new InetSocketAddress(p.getAddress(),p.getPort());
       
       try {
-        /* Extract event class name */
-        //size of class name
-        int sLength = ParseUtils.byteArrayToInt(data, 0);
-        //the class name
-        String className = new String(data, 4, sLength, "ISO-8859-1");
-        
-        /* Create event */
-        Class<?> c = Class.forName(className);
-        if (debugFull) {
-          logReader.debug(":receiveAndFormat: Reader, creating "+className+" event.");
-        }
-        
-        /* Extract channel hash and put event in it*/
-        
-        int channelHash = ParseUtils.byteArrayToInt(data, 4 + sLength);
-        Channel msgChannel = parentSession.channels.get(new Integer(channelHash));
+        /* Create event, with its channel and message */
+        e = parentSession.eventTypes.newEvent(data, 0, data.length, addr);
 
         /* If channel does not exist, discard message */
-        if (msgChannel == null) {
+        if (e == null) {
         	if (debugFull)
         		logReader.debug(this.getClass().getName()+
-        				": channel does not exist. message will be discarded. "
-        				+ "hash="+channelHash);
+        				": channel does not exist. message will be discarded.");
         	return;
         }
         
-        e = (SendableEvent) c.newInstance();
-        e.setMessage(msgChannel.getMessageFactory().newMessage());
-        msg = e.getMessage();
-        msg.setByteArray(data, 8 + sLength, data.length - (8 + sLength));
-        
         if (debugFull)
-          logReader.debug(":receiveAndFormat: "+msgChannel.getChannelID()+" ("+channelHash+")");
+          logReader.debug(":receiveAndFormat: Reader, created "+e.getClass().getName()+
+                  " event in channel "+e.getChannel().getChannelID());
 
-        
         /* Extract the addresses and put them on the event */        
-        InetSocketAddress addr = new InetSocketAddress(p.getAddress(),p.getPort());
         e.source = addr;
         
         //msg's destination
         e.dest = dest;
         
         // send event
-        e.asyncGo(msgChannel, Direction.UP);
+        e.asyncGo(e.getChannel(), Direction.UP);
         
       } catch (Exception ex) {
         if (logReader.isDebugEnabled()) {
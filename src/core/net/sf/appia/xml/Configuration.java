@@ -36,9 +36,11 @@ import net.sf.appia.core.AppiaException;
 import net.sf.appia.core.Channel;
 import net.sf.appia.core.EventScheduler;
 import net.sf.appia.core.Layer;
+import net.sf.appia.core.TimerManager;
 import net.sf.appia.core.memoryManager.MemoryManager;
 import net.sf.appia.core.message.MessageFactory;
 import net.sf.appia.management.jmx.JMXConfiguration;
+import net.sf.appia.protocols.common.AppiaThreadFactory;
 import net.sf.appia.xml.templates.ChannelTemplate;
 import net.sf.appia.xml.templates.SessionTemplate;
 import net.sf.appia.xml.utils.ChannelInfo;
@@ -203,6 +205,51 @@ public class Configuration {
         threadFactory = (ThreadFactory) Class.forName(className).newInstance();
     }    
 
+    /**
+     * Sets the class of the TimerManager used by Appia. The class must have a constructor
+     * that receives the {@link ThreadFactory} used by Appia.
+     * 
+     * @param className the name of the TimerManager class.
+     * @throws AppiaXMLException if the TimerManager could not be created.
+     * @see net.sf.appia.core.WheelTimerManager
+     */
+    public void setTimerManager(String className) throws AppiaXMLException {
+        try {
+            final ThreadFactory thf = (appia == null) ? new AppiaThreadFactory() : appia.getThreadFactory();
+            final TimerManager timerManager = (TimerManager) Class.forName(className)
+                .getConstructor(new Class[] {ThreadFactory.class}).newInstance(new Object[] {thf});
+            if (appia == null)
+                Appia.setTimerManager(timerManager);
+            else
+                appia.instanceSetTimerManager(timerManager);
+        } catch (ClassNotFoundException e) {
+            throw new AppiaXMLException("Unable to create timer manager instance of type:"+className,e);
+        } catch (NoSuchMethodException e) {
+            throw new AppiaXMLException("Unable to create timer manager instance of type:"+className,e);
+        } catch (InstantiationException e) {
+            throw new AppiaXMLException("Unable to create timer manager instance of type:"+className,e);
+        } catch (IllegalAccessException e) {
+            throw new AppiaXMLException("Unable to create timer manager instance of type:"+className,e);
+        } catch (InvocationTargetException e) {
+            throw new AppiaXMLException("Unable to create timer manager instance of type:"+className,e);
+        }
+    }
+
+    /**
+     * Sets the number of event loops used by Appia. Each EventScheduler is pinned to one loop,
+     * so this only has effect when multiple schedulers are used.
+     * 
+     * @param eventLoops the number of event loops.
+     * @throws AppiaException if Appia is already running.
+     * @see Appia#instanceSetEventLoops(int)
+     */
+    public void setEventLoops(int eventLoops) throws AppiaException {
+        if (appia == null)
+            Appia.setEventLoops(eventLoops);
+        else
+            appia.instanceSetEventLoops(eventLoops);
+    }
+
 	private EventScheduler getEventScheduler() throws AppiaXMLException {
 		if (globalEventScheduler != null)
 			return globalEventScheduler;
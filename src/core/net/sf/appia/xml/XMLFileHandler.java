@@ -26,6 +26,7 @@ package net.sf.appia.xml;
 import java.lang.reflect.InvocationTargetException;
 
 import net.sf.appia.core.AppiaConfig;
+import net.sf.appia.core.AppiaException;
 import net.sf.appia.core.AppiaError;
 import net.sf.appia.core.memoryManager.MemoryManager;
 import net.sf.appia.xml.utils.ChannelProperties;
@@ -68,7 +69,7 @@ public class XMLFileHandler extends DefaultHandler {
 	private String mmSize, mmUPThreshold, mmDOWNThreshold;
 	private MemoryManager memoryManager = null;
     //JMX Management variables
-    private String namingHost,namingPort,local;
+    private String namingHost,namingPort,local,schedulerStatistics;
 	// Auxiliary flag used to solve the problem of the characters() method not reading
 	// all the text at once
 	private boolean charactersUsed;
@@ -142,6 +143,24 @@ public class XMLFileHandler extends DefaultHandler {
                     throw new SAXException(e);
                 }
             }
+			att = attributes.getValue("timerManager");
+			if (att != null && !att.equals("")) {
+				try {
+					config.setTimerManager(att);
+				} catch (AppiaXMLException e) {
+					throw new SAXException(e);
+				}
+			}
+			att = attributes.getValue("eventloops");
+			if (att != null && !att.equals("")) {
+				try {
+					config.setEventLoops(Integer.parseInt(att));
+				} catch (NumberFormatException e) {
+					throw new SAXException(e);
+				} catch (AppiaException e) {
+					throw new SAXException(e);
+				}
+			}
 			att = attributes.getValue("scheduler");
 			if (att != null) {
 				try {
@@ -200,6 +219,7 @@ public class XMLFileHandler extends DefaultHandler {
             namingHost = attributes.getValue("naming_host");
             namingPort = attributes.getValue("naming_port");
             local = attributes.getValue("local");
+            schedulerStatistics = attributes.getValue("scheduler_statistics");
             
         }
 		else if (qName.equals("parameter")) {
@@ -259,6 +279,8 @@ public class XMLFileHandler extends DefaultHandler {
                 config.getJMXConfiguration().setNamingPort(Integer.parseInt(namingPort));
             if(local != null)
                 config.getJMXConfiguration().setLocal(local.equals("yes") ? true : false);
+            if(schedulerStatistics != null)
+                config.getJMXConfiguration().setSchedulerStatistics(schedulerStatistics.equals("yes"));
         }
 		else if (qName.equals("parameter")) {
 			settingParameter = false;
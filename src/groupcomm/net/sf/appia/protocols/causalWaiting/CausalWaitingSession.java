@@ -19,6 +19,7 @@
  */
  package net.sf.appia.protocols.causalWaiting;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.ListIterator;
@@ -30,12 +31,15 @@ import net.sf.appia.core.Event;
 import net.sf.appia.core.Layer;
 import net.sf.appia.core.Session;
 import net.sf.appia.core.message.Message;
+import net.sf.appia.core.message.MsgBuffer;
 import net.sf.appia.protocols.group.LocalState;
 import net.sf.appia.protocols.group.ViewState;
 import net.sf.appia.protocols.group.events.GroupSendableEvent;
 import net.sf.appia.protocols.group.events.Send;
 import net.sf.appia.protocols.group.intra.View;
 import net.sf.appia.protocols.group.leave.LeaveEvent;
+import net.sf.appia.xml.interfaces.InitializableSession;
+import net.sf.appia.xml.utils.SessionProperties;
 
 import org.apache.log4j.Logger;
 
@@ -44,12 +48,20 @@ import org.apache.log4j.Logger;
  * Causal order protocol that implements the waiting causal broadcast algorithm
  * as described in the book <i>Introduction to Reliable Distributed Programming</i> by
  * Rachid Guerraoui and Luis Rodrigues. 
+ * <br>
+ * By default each message carries the whole causality vector. In compact mode
+ * a message carries only the entries that changed since the previous message of
+ * its sender, and receivers rebuild the vector from the previous one. 
+ * <br>
+ * Received messages are kept in a queue per sender, and the first message of each
+ * queue that can not be delivered waits on the first entry it depends on. So a
+ * delivery only checks the messages it may release.
  * 
  * @see net.sf.appia.protocols.causalWaiting.CausalWaitingLayer
  * @see EventContainer
  * @author Jose Mocito
  */
-public class CausalWaitingSession extends Session {
+public class CausalWaitingSession extends Session implements InitializableSession {
 
     private static Logger log = Logger.getLogger(CausalWaitingSession.class);
     private static final boolean debugOn = true;
@@ -63,9 +75,50 @@ public class CausalWaitingSession extends Session {
 	private long[] VC;
 	
 	/**
-	 * List of received events still to be delivered.
+	 * Received events still to be delivered, in a queue per sender ordered
+	 * by the entry of the sender.
 	 */
-	private LinkedList<EventContainer> pending = new LinkedList<EventContainer>();
+	private ArrayList<LinkedList<EventContainer>> pending = new ArrayList<LinkedList<EventContainer>>();
+	private int pendingSize = 0;
+	
+	/**
+	 * Entry of VC the first pending event of each sender waits on, or -1.
+	 */
+	private int[] blockedOn;
+	
+	/**
+	 * Senders whose first pending event waits on each entry. It may hold 
+	 * senders that no longer wait on it, which are ignored.
+	 */
+	private int[][] waiting;
+	private int[] waitingSize;
+	
+	/**
+	 * Senders whose first pending event must be checked.
+	 */
+	private int[] work;
+	private int workSize;
+	private boolean[] inWork;
+	
+	/**
+	 * Sends only the changed entries of the causality vector.
+	 */
+	private boolean compact = false;
+	
+	/**
+	 * Values of VC sent in our last message, and the entries changed since.
+	 */
+	private long[] sentVC;
+	private int[] changed;
+	private int changedSize;
+	private boolean[] isChanged;
+	private byte[] header;
+	
+	/**
+	 * Causality vector of the last message received from each sender, in compact mode.
+	 */
+	private long[][] senderVC;
+	private long[] received;
 	
 	/**
 	 * Constructs a new waiting causal order protocol session.
@@ -76,6 +129,23 @@ public class CausalWaitingSession extends Session {
 		super(layer);
 	}
 	
+	/**
+	 * Initializes the session using the parameters given in the XML configuration.
+	 * Possible parameters:
+	 * <ul>
+	 * <li><b>compact_headers</b> if <tt>true</tt>, messages carry only the entries of the
+	 * causality vector that changed since the previous message of the sender. It 
+	 * must be the same in all the members of the group.
+	 * </ul>
+	 * 
+	 * @param params The parameters given in the XML configuration.
+	 * @see net.sf.appia.xml.interfaces.InitializableSession#init(SessionProperties)
+	 */
+	public void init(SessionProperties params) {
+		if (params.containsKey("compact_headers"))
+			compact = params.getBoolean("compact_headers");
+	}
+	
 	/**
 	 * This is the protocol's main event handler.
 	 * It accepts the following events:
@@ -107,15 +177,36 @@ public class CausalWaitingSession extends Session {
 		ls = view.ls;
 		vs = view.vs;
 		
-		VC = new long[vs.view.length];
-		Arrays.fill(VC,0);
-		
 		// Sanity check
-		if (!pending.isEmpty()) {
+		if (pendingSize != 0) {
 			log.fatal("Received new view but pending messages still exist! View synchrony properties compromised!");
             throw new AppiaError("Received new view but pending messages still exist! View synchrony properties compromised!");
 		}
 		
+		final int n = vs.view.length;
+		VC = new long[n];
+		pending.clear();
+		for (int i = 0; i < n; i++)
+			pending.add(new LinkedList<EventContainer>());
+		blockedOn = new int[n];
+		Arrays.fill(blockedOn,-1);
+		waiting = new int[n][];
+		waitingSize = new int[n];
+		work = new int[n];
+		workSize = 0;
+		inWork = new boolean[n];
+		
+		if (compact) {
+			sentVC = new long[n];
+			changed = new int[n];
+			changedSize = 0;
+			isChanged = new boolean[n];
+			// count, plus a rank and a value for each entry
+			header = new byte[5+15*n];
+			senderVC = new long[n][];
+			received = new long[n];
+		}
+		
 		try {
 			view.go();
 		} catch (AppiaEventException e) {
@@ -137,8 +228,11 @@ public class CausalWaitingSession extends Session {
         if (!(event instanceof Send)) {
             if (event.getDir() == Direction.DOWN) {
                 Message omsg = event.getMessage();
-                for (int i = 0; i < VC.length; i++)
-                    omsg.pushLong(VC[i]);
+                if (compact)
+                    pushChanges(omsg);
+                else
+                    for (int i = 0; i < VC.length; i++)
+                        omsg.pushLong(VC[i]);
                 try {
                     event.go();
                 } catch (AppiaEventException e) {
@@ -148,10 +242,14 @@ public class CausalWaitingSession extends Session {
             }
             else {
                 if (event.orig != ls.my_rank) {
-                    long[] VCm = new long[VC.length];
-                    extractVCm(event.getMessage(), VCm);
-                    pending.add(new EventContainer(event, VCm));
-                    deliverPending();
+                    long[] VCm;
+                    if (compact)
+                        VCm = popChanges(event.getMessage(), event.orig);
+                    else {
+                        VCm = new long[VC.length];
+                        extractVCm(event.getMessage(), VCm);
+                    }
+                    addPending(new EventContainer(event, VCm));
                 }
                 else {
                     clearVC(event.getMessage());
@@ -187,31 +285,183 @@ public class CausalWaitingSession extends Session {
 	 * @param omsg the message whose header will be cleared.
 	 */
 	private void clearVC(Message omsg) {
+		if (compact) {
+			MsgBuffer buf = new MsgBuffer();
+			buf.len = omsg.popInt();
+			omsg.pop(buf);
+			return;
+		}
 		for (int i = 0; i < VC.length; i++)
 			omsg.popLong();
 	}
 	
 	/**
-	 * Delivers pending messages that satisfy the causality order criteria.
+	 * Pushes the entries of VC that changed since our last message, as
+	 * a count followed by pairs of rank and increment, all as varints.
+	 * Our own entry is not sent, receivers count our messages.
+	 * 
+	 * @param omsg the message where the entries are pushed.
+	 */
+	private void pushChanges(Message omsg) {
+		int len = putVarint(header, 0, changedSize);
+		for (int i = 0; i < changedSize; i++) {
+			final int k = changed[i];
+			len = putVarint(header, len, k);
+			len = putVarint(header, len, VC[k]-sentVC[k]);
+			sentVC[k] = VC[k];
+			isChanged[k] = false;
+		}
+		changedSize = 0;
+		
+		MsgBuffer buf = new MsgBuffer();
+		buf.len = len;
+		omsg.push(buf);
+		System.arraycopy(header, 0, buf.data, buf.off, len);
+		omsg.pushInt(len);
+	}
+	
+	/**
+	 * Pops the entries pushed by {@link #pushChanges(Message)} and rebuilds 
+	 * the VC of the message from the previous message of the same sender.
+	 * 
+	 * @param omsg the message from where the entries are popped.
+	 * @param sender the rank of the sender of the message.
+	 * @return the VC of the message.
+	 */
+	private long[] popChanges(Message omsg, int sender) {
+		long[] last = senderVC[sender];
+		if (last == null)
+			last = senderVC[sender] = new long[VC.length];
+		
+		MsgBuffer buf = new MsgBuffer();
+		buf.len = omsg.popInt();
+		omsg.pop(buf);
+		final int[] pos = new int[]{ buf.off };
+		int count = (int) getVarint(buf.data, pos);
+		while (count-- > 0) {
+			final int k = (int) getVarint(buf.data, pos);
+			last[k] += getVarint(buf.data, pos);
+		}
+		last[sender] = received[sender]++;
+		
+		long[] VCm = new long[last.length];
+		System.arraycopy(last, 0, VCm, 0, last.length);
+		return VCm;
+	}
+	
+	private static int putVarint(byte[] b, int off, long v) {
+		while ((v & ~0x7FL) != 0) {
+			b[off++] = (byte) ((v & 0x7F) | 0x80);
+			v >>>= 7;
+		}
+		b[off++] = (byte) v;
+		return off;
+	}
+	
+	private static long getVarint(byte[] b, int[] pos) {
+		long v = 0;
+		int shift = 0;
+		byte x;
+		do {
+			x = b[pos[0]++];
+			v |= (long) (x & 0x7F) << shift;
+			shift += 7;
+		} while ((x & 0x80) != 0);
+		return v;
+	}
+	
+	/**
+	 * Keeps a received event in the queue of its sender and delivers it,
+	 * and the events it releases, if possible. 
+	 * 
+	 * @param cont the received event and its VC.
+	 */
+	private void addPending(EventContainer cont) {
+		final int sender = cont.getEvent().orig;
+		final long seq = cont.getVC()[sender];
+		final LinkedList<EventContainer> queue = pending.get(sender);
+		final ListIterator<EventContainer> it = queue.listIterator(queue.size());
+		while (it.hasPrevious()) {
+			if (it.previous().getVC()[sender] <= seq) {
+				it.next();
+				break;
+			}
+		}
+		it.add(cont);
+		pendingSize++;
+		
+		if (queue.getFirst() == cont) {
+			blockedOn[sender] = -1;
+			check(sender);
+			deliverPending();
+		}
+	}
+	
+	/**
+	 * Delivers the pending messages that satisfy the causality order criteria,
+	 * checking only the senders in the work list.
 	 */
 	private void deliverPending() {
-		ListIterator it = pending.listIterator();
-		while (it.hasNext()) {
-			EventContainer cont = (EventContainer) it.next();
-			long[] VCx = cont.getVC();
-			if (canDeliver(VCx)) {
-				it.remove();
-				GroupSendableEvent ev = cont.getEvent();
+		while (workSize > 0) {
+			final int sender = work[--workSize];
+			inWork[sender] = false;
+			final LinkedList<EventContainer> queue = pending.get(sender);
+			while (!queue.isEmpty()) {
+				final int dep = blockingEntry(queue.getFirst().getVC());
+				if (dep >= 0) {
+					waitOn(sender, dep);
+					break;
+				}
+				GroupSendableEvent ev = queue.removeFirst().getEvent();
+				pendingSize--;
 				try {
 					ev.go();
 				} catch (AppiaEventException e) {
 					e.printStackTrace();
 				}
-				VC[ev.orig]++;
-				if (!pending.isEmpty() && it.nextIndex() != 0)
-					it = pending.listIterator();
+				VC[sender]++;
+				if (compact && !isChanged[sender]) {
+					isChanged[sender] = true;
+					changed[changedSize++] = sender;
+				}
+				release(sender);
+			}
+		}
+	}
+	
+	/**
+	 * Moves the senders waiting on an entry of VC to the work list.
+	 */
+	private void release(int entry) {
+		final int[] w = waiting[entry];
+		for (int i = waitingSize[entry] - 1; i >= 0; i--) {
+			final int sender = w[i];
+			if (blockedOn[sender] == entry) {
+				blockedOn[sender] = -1;
+				check(sender);
 			}
 		}
+		waitingSize[entry] = 0;
+	}
+	
+	private void check(int sender) {
+		if (!inWork[sender]) {
+			inWork[sender] = true;
+			work[workSize++] = sender;
+		}
+	}
+	
+	private void waitOn(int sender, int entry) {
+		blockedOn[sender] = entry;
+		int[] w = waiting[entry];
+		if (w == null)
+			w = waiting[entry] = new int[4];
+		else if (waitingSize[entry] == w.length) {
+			final int[] bigger = new int[w.length*2];
+			System.arraycopy(w, 0, bigger, 0, w.length);
+			w = waiting[entry] = bigger;
+		}
+		w[waitingSize[entry]++] = sender;
 	}
 
 	/**
@@ -219,12 +469,12 @@ public class CausalWaitingSession extends Session {
 	 * with the VCx vector.
 	 * 
 	 * @param VCx the causality information vector associated with the message to be checked.
-	 * @return <tt>true</tt> if the causality order criteria is met, <tt>false</tt> otherwise.  
+	 * @return the first entry of VC lower than in VCx, or -1 if the criteria is met.  
 	 */
-	private boolean canDeliver(long[] VCx) {
+	private int blockingEntry(long[] VCx) {
 		for (int i = 0; i < VC.length; i++)
 			if (VC[i] < VCx[i])
-				return false;
-		return true;
+				return i;
+		return -1;
 	}
 }
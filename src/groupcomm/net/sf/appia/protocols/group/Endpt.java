@@ -43,6 +43,10 @@ public class Endpt implements Externalizable {
 
   private static final long serialVersionUID = -3355596169573334939L;
 
+  static {
+    GroupCodecs.register();
+  }
+
   /**
    * The endpoint identifier.
    */
@@ -42,6 +42,10 @@ public class Group implements Externalizable {
 
   private static final long serialVersionUID = -379704347167008367L;
 
+  static {
+    GroupCodecs.register();
+  }
+
   /**
    * The group identifier.
    */
@@ -0,0 +1,64 @@
+/**
+ * Appia: Group communication and protocol composition framework library
+ * Copyright 2026 University of Lisbon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ *
+ * Contributor(s): See Appia web page for a list of contributors.
+ */
+
+package net.sf.appia.protocols.group;
+
+import net.sf.appia.core.message.Message;
+import net.sf.appia.core.message.ObjectCodec;
+import net.sf.appia.core.message.ObjectCodecs;
+
+/**
+ * Registers the {@link net.sf.appia.core.message.ObjectCodec codecs} of
+ * {@link Endpt}, {@link ViewID}, {@link Group} and {@link ViewState}, so
+ * that {@link net.sf.appia.core.message.Message#pushObject(Object) Message.pushObject}
+ * encodes them with their own <i>push</i> methods instead of serializing them.
+ * <br>
+ * It is called when any of these classes is loaded.
+ *
+ * @see net.sf.appia.core.message.ObjectCodecs
+ */
+final class GroupCodecs {
+
+  private static boolean registered=false;
+
+  private GroupCodecs() {}
+
+  static synchronized void register() {
+    if (registered)
+      return;
+    registered=true;
+
+    ObjectCodecs.register(16,Endpt.class,new ObjectCodec() {
+      public void push(Object obj, Message message) { Endpt.push((Endpt) obj,message); }
+      public Object pop(Message message) { return Endpt.pop(message); }
+    });
+    ObjectCodecs.register(17,ViewID.class,new ObjectCodec() {
+      public void push(Object obj, Message message) { ViewID.push((ViewID) obj,message); }
+      public Object pop(Message message) { return ViewID.pop(message); }
+    });
+    ObjectCodecs.register(18,Group.class,new ObjectCodec() {
+      public void push(Object obj, Message message) { Group.push((Group) obj,message); }
+      public Object pop(Message message) { return Group.pop(message); }
+    });
+    ObjectCodecs.register(19,ViewState.class,new ObjectCodec() {
+      public void push(Object obj, Message message) { ViewState.push((ViewState) obj,message); }
+      public Object pop(Message message) { return ViewState.pop(message); }
+    });
+  }
+}
@@ -44,6 +44,10 @@ public class ViewID implements Externalizable {
 
   private static final long serialVersionUID = -7452984900144476889L;
 
+  static {
+    GroupCodecs.register();
+  }
+
   /**
    * The logical time of the view.
    */
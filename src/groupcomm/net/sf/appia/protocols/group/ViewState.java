@@ -28,6 +28,8 @@ import java.io.ObjectOutput;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.ListIterator;
 
@@ -49,6 +51,10 @@ import net.sf.appia.core.message.MessageException;
 public class ViewState implements Externalizable {
 	
 	private static final long serialVersionUID = 8901541793832881340L;
+
+	static {
+		GroupCodecs.register();
+	}
 	
 	/**
 	 * The version of the <i>view</i>.
@@ -80,6 +86,31 @@ public class ViewState implements Externalizable {
 	 */
 	public SocketAddress[] addresses;
 	
+	/*
+	 * Ranks of the members and of the addresses. Each index is built on first
+	 * use and rebuilt when the array it was built from is replaced.
+	 */
+	private transient RankIndex endptIndex;
+	private transient RankIndex addressIndex;
+	
+	private static final class RankIndex {
+		private final Object[] array;
+		private final HashMap<Object,Integer> ranks;
+		
+		private RankIndex(Object[] array) {
+			this.array=array;
+			ranks=new HashMap<Object,Integer>(array.length*2);
+			// the last rank wins, as in a backwards search
+			for (int i=0 ; i < array.length ; i++)
+				ranks.put(array[i],Integer.valueOf(i));
+		}
+		
+		private int get(Object o) {
+			final Integer rank=ranks.get(o);
+			return (rank == null) ? -1 : rank.intValue();
+		}
+	}
+	
 	/**
 	 * Calculates the rank of the given member
 	 *
@@ -87,9 +118,10 @@ public class ViewState implements Externalizable {
 	 * @return the rank of the member
 	 */
 	public int getRank(Endpt endpt) {
-		int i;
-		for(i=view.length-1 ; (i >= 0) && !endpt.equals(view[i]) ; i--);
-		return i;
+		RankIndex index=endptIndex;
+		if ((index == null) || (index.array != view))
+			endptIndex=index=new RankIndex(view);
+		return index.get(endpt);
 	}
 	
 	/**
@@ -99,9 +131,10 @@ public class ViewState implements Externalizable {
 	 * @return the rank of the member
 	 */
 	public int getRankByAddress(InetSocketAddress address) {
-		int i;
-		for(i=addresses.length-1 ; (i >= 0) && !address.equals(addresses[i]) ; i--);
-		return i;
+		RankIndex index=addressIndex;
+		if ((index == null) || (index.array != addresses))
+			addressIndex=index=new RankIndex(addresses);
+		return index.get(address);
 	}
 	
 	public ViewState() {}
@@ -318,10 +351,7 @@ public class ViewState implements Externalizable {
 		boolean found;
 		
 		for(int i=0; i!=v.view.length; i++){
-			found = false;
-			for(int j=0; j!=view.length ; j++)
-				if(v.view[i].equals(view[j]))
-					found = true;
+			found = getRank(v.view[i]) >= 0;
 			
 			if(!found) //doesn't exist in the current view.
 				aux[current++] = v.view[i];
@@ -347,10 +377,7 @@ public class ViewState implements Externalizable {
 		boolean found;
 		
 		for(int i=0; i!=view.length; i++){
-			found = false;
-			for(int j=0; j!=v.view.length ; j++)
-				if(view[i].equals(v.view[j]))
-					found = true;
+			found = v.getRank(view[i]) >= 0;
 			
 			if(!found) //doesn't exist in the given view.
 				aux[current++] = view[i];
@@ -376,10 +403,7 @@ public class ViewState implements Externalizable {
 		boolean found;
 		
 		for(int i=0; i!=view.length; i++){
-			found = false;
-			for(int j=0; j!=v.view.length ; j++)
-				if(view[i].equals(v.view[j]))
-					found = true;
+			found = v.getRank(view[i]) >= 0;
 			
 			if(found) //exists in both views
 				aux[current++] = view[i];
@@ -414,6 +438,133 @@ public class ViewState implements Externalizable {
 		}
 	}
 	
+	/**
+	 * Pushes the view state as a delta of a view state the receivers already have,
+	 * usually their current view.
+	 * <br>
+	 * The members that are also in the base view are pushed as runs of consecutive
+	 * ranks of the base view, so only the new members are pushed in full. The coordinator
+	 * is pushed as its rank, and a previous view that is the base view as a flag.
+	 * <br>
+	 * It must be popped with {@link #popDelta(ViewState, Message)} and the same base view.
+	 *
+	 * @param vs the view state to push
+	 * @param base the view state of the receivers
+	 * @param message the message
+	 */
+	public static void pushDelta(ViewState vs, ViewState base, Message message) {
+		for (int i=vs.previous.length-1 ; i >= 0 ; i--) {
+			final boolean isBase=vs.previous[i].equals(base.id);
+			if (!isBase)
+				ViewID.push(vs.previous[i],message);
+			message.pushBoolean(isBase);
+		}
+		message.pushInt(vs.previous.length);
+		
+		final int coord=vs.getRank(vs.id.coord);
+		if (coord < 0)
+			Endpt.push(vs.id.coord,message);
+		message.pushInt(coord);
+		message.pushLong(vs.id.ltime);
+		
+		// runs are pushed from the last member to the first
+		int runs=0;
+		int i=vs.view.length-1;
+		while (i >= 0) {
+			final int rank=baseRank(vs,base,i);
+			int len=1;
+			if (rank >= 0) {
+				while ((i-len >= 0) && (rank-len >= 0) && (baseRank(vs,base,i-len) == rank-len))
+					len++;
+				message.pushInt(len);
+				message.pushInt(rank-len+1);
+			} else {
+				pushMember(vs,i,message);
+				while ((i-len >= 0) && (baseRank(vs,base,i-len) < 0)) {
+					pushMember(vs,i-len,message);
+					len++;
+				}
+				message.pushInt(-len);
+			}
+			i-=len;
+			runs++;
+		}
+		message.pushInt(runs);
+		message.pushInt(base.view.length);
+		
+		Group.push(vs.group,message);
+		message.pushString(vs.version);
+	}
+	
+	/**
+	 * Pops a view state pushed with {@link #pushDelta(ViewState, ViewState, Message)}.
+	 * <br>
+	 * The members that are also in the base view share its
+	 * {@link net.sf.appia.protocols.group.Endpt Endpts} and addresses.
+	 *
+	 * @param base the view state of the receiver
+	 * @param message the message
+	 * @return the view state
+	 */
+	public static ViewState popDelta(ViewState base, Message message) {
+		try {
+			final String version=message.popString();
+			final Group group=Group.pop(message);
+			if (message.popInt() != base.view.length)
+				throw new MessageException("View state delta of a different base view.");
+			
+			final ArrayList<Endpt> endpts=new ArrayList<Endpt>(base.view.length);
+			final ArrayList<SocketAddress> addrs=new ArrayList<SocketAddress>(base.view.length);
+			int runs=message.popInt();
+			while (runs-- > 0) {
+				int first=message.popInt();
+				if (first >= 0) {
+					final int len=message.popInt();
+					for (int i=0 ; i < len ; i++, first++) {
+						endpts.add(base.view[first]);
+						addrs.add(base.addresses[first]);
+					}
+				} else {
+					for (int i=0 ; i < -first ; i++) {
+						endpts.add(Endpt.pop(message));
+						addrs.add((SocketAddress) message.popObject());
+					}
+				}
+			}
+			final Endpt[] view=endpts.toArray(new Endpt[endpts.size()]);
+			final SocketAddress[] addresses=addrs.toArray(new SocketAddress[addrs.size()]);
+			
+			final long ltime=message.popLong();
+			final int coord=message.popInt();
+			final ViewID id=new ViewID(ltime,(coord < 0) ? Endpt.pop(message) : view[coord]);
+			
+			final ViewID[] previous=new ViewID[message.popInt()];
+			for (int i=0 ; i < previous.length ; i++) {
+				if (message.popBoolean())
+					previous[i]=new ViewID(base.id.ltime,base.id.coord);
+				else
+					previous[i]=ViewID.pop(message);
+			}
+			
+			return new ViewState(version,group,id,previous,view,addresses);
+		} catch (AppiaGroupException ex) {
+			throw new MessageException("Error poping view state.",ex);
+		}
+	}
+	
+	/* Rank in the base view of the member with the given rank, if it has the same address. */
+	private static int baseRank(ViewState vs, ViewState base, int rank) {
+		final int r=base.getRank(vs.view[rank]);
+		if ((r >= 0) && base.addresses[r].equals(vs.addresses[rank]))
+			return r;
+		return -1;
+	}
+	
+	private static void pushMember(ViewState vs, int rank, Message message) {
+		message.pushObject(vs.addresses[rank]);
+		Endpt.push(vs.view[rank],message);
+	}
+	
 	public static ViewState peek(Message message) {
 	    ViewState vs=ViewState.pop(message);
 	    ViewState.push(vs,message);
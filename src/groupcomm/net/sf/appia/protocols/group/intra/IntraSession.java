@@ -142,7 +142,8 @@ public class IntraSession extends Session {
 
     int k=ev.getMessage().popInt();
 
-    ViewState new_vs=ViewState.pop(ev.getMessage());
+    // the InstallView was sent in our view, so it is the base of the delta
+    ViewState new_vs=ViewState.popDelta(vs,ev.getMessage());
 
     // see if i am not a member of the new view
     if (new_vs.getRank(my_endpt) < 0) {
@@ -155,7 +156,7 @@ public class IntraSession extends Session {
     // resend InstallView
     if (new_ls.my_rank < k) {
       try {
-        ViewState.push(new_vs,ev.getMessage());
+        ViewState.pushDelta(new_vs,vs,ev.getMessage());
         ev.getMessage().pushInt(k);
         ev.setDir(Direction.DOWN);
         ev.setSourceSession(this);
@@ -243,7 +244,7 @@ public class IntraSession extends Session {
   private void sendInstallView(Channel channel, ViewState new_vs, int k) {
     try {
       InstallView ev=new InstallView(channel,Direction.DOWN,this,vs.group,vs.id);
-      ViewState.push(new_vs,ev.getMessage());
+      ViewState.pushDelta(new_vs,vs,ev.getMessage());
       ev.getMessage().pushInt(k);
       ev.go();
     } catch (AppiaEventException ex) {
@@ -21,11 +21,7 @@
 package net.sf.appia.protocols.group.phiSuspect;
 
 import java.net.InetSocketAddress;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 
 import net.sf.appia.core.AppiaEventException;
 import net.sf.appia.core.AppiaException;
@@ -41,7 +37,6 @@ import net.sf.appia.core.events.channel.EchoEvent;
 import net.sf.appia.management.AbstractSensorSession;
 import net.sf.appia.protocols.common.FIFOUndeliveredEvent;
 import net.sf.appia.protocols.group.ArrayOptimized;
-import net.sf.appia.protocols.group.Endpt;
 import net.sf.appia.protocols.group.LocalState;
 import net.sf.appia.protocols.group.ViewState;
 import net.sf.appia.protocols.group.events.GroupSendableEvent;
@@ -55,8 +50,6 @@ import net.sf.appia.xml.utils.SessionProperties;
 
 import org.apache.log4j.Logger;
 
-import flanagan.analysis.Stat;
-
 /** The Phi failure detector, by Naohiro Hayashibara.
  * @see net.sf.appia.protocols.group.phiSuspect.PhiSuspectLayer
  * @author Dan Mihai Dumitriu
@@ -66,6 +59,9 @@ public class PhiSuspectSession extends AbstractSensorSession implements Initiali
     private static Logger log = Logger.getLogger(PhiSuspectSession.class);
 
     private static long IMMUNITY_THRESHOLD = 4;
+    // minimum standard deviation of the intervals, relative to their mean
+    private static final double MIN_DEVIATION_RATIO = 0.1;
+    private static final double LN_10 = Math.log(10);
     private int sampleWindowSize_ = 100;
     private int phiSuspectThreshold_ = 5;
     private long aliveInterval_ = 100; // very short
@@ -77,7 +73,8 @@ public class PhiSuspectSession extends AbstractSensorSession implements Initiali
 
     private TimeProvider time = null;
     
-    private Map<Endpt, PeerState> windows_ = new HashMap<Endpt, PeerState>();
+    // state of each member, by rank in the current view
+    private PeerState[] windows_ = new PeerState[0];
     
     private boolean firstView_ = true;
     
@@ -218,25 +215,19 @@ public class PhiSuspectSession extends AbstractSensorSession implements Initiali
             }
             
             firstView_ = false;
-            
-            for (int i=0; i<ev.vs.view.length; i++)
-            	if (i != ev.ls.my_rank) // don't add self
-            		windows_.put(ev.vs.view[i], new PeerState(time.currentTimeMillis()));
-            
-        } else {
-        	
-        	// remove dead members
-        	Endpt[] dead = ev.vs.getDeadMembers(vs);
-        	for (Endpt e : dead)
-        		windows_.remove(e);
-
-        	// create state for new members
-        	Endpt[] added = ev.vs.getNewMembers(vs);
-        	for (Endpt e : added)
-        		windows_.put(e, new PeerState(time.currentTimeMillis()));
-            
         }
         
+        // keep the state of the surviving members and create state for new members
+        final PeerState[] windows = new PeerState[ev.vs.view.length];
+        final long now = time.currentTimeMillis();
+        for (int i=0; i<windows.length; i++) {
+        	if (i == ev.ls.my_rank) // don't add self
+        		continue;
+        	final int old = (vs == null) ? -1 : vs.getRank(ev.vs.view[i]);
+        	windows[i] = (old >= 0 && windows_[old] != null) ? windows_[old] : new PeerState(now);
+        }
+        windows_ = windows;
+        
         vs=ev.vs;
         ls=ev.ls;
     }
@@ -247,8 +238,9 @@ public class PhiSuspectSession extends AbstractSensorSession implements Initiali
             if (debugFull)
                 log.debug("Recv msg from "+ev.orig+"@"+time.currentTimeMillis());
             
-            PeerState window = windows_.get(vs.view[ev.orig]);
-            window.observeArrival(time.currentTimeMillis());
+            final PeerState window = windows_[ev.orig];
+            if (window != null)
+            	window.observeArrival(time.currentTimeMillis());
         }
 
     }
@@ -332,17 +324,16 @@ public class PhiSuspectSession extends AbstractSensorSession implements Initiali
 
         long now = time.currentTimeMillis();
         
-        for (Map.Entry<Endpt, PeerState> e : windows_.entrySet()) {
+        for (int rank = 0; rank < windows_.length; rank++) {
+        	final PeerState window = windows_[rank];
         	
         	// check if this peer is still immune from suspicion
-        	if (now < e.getValue().getTimeCreated() + immunityTime_)
+        	if (window == null || ls.failed[rank] || now < window.getTimeCreated() + immunityTime_)
         		continue;
         	
-        	double phi = e.getValue().getPhi(now);
-        	
-        	int rank = vs.getRank(e.getKey());
+        	double phi = window.getPhi(now);
         	
-			if (phi > phiSuspectThreshold_ && !ls.failed(rank)) {
+			if (phi > phiSuspectThreshold_) {
 				ls.fail(rank);
 				
 				if (new_failed == null) {
@@ -353,7 +344,7 @@ public class PhiSuspectSession extends AbstractSensorSession implements Initiali
 				
 //				double elapsed = now - e.getValue().lastTimeReceived_;
 				
-				log.debug("Suspected "+e.getKey()+" because its phi is " + phi);
+				log.debug("Suspected "+vs.view[rank]+" because its phi is " + phi);
 			}
 		}
         
@@ -477,18 +468,25 @@ public class PhiSuspectSession extends AbstractSensorSession implements Initiali
      */
     public static final boolean debugFull=false;
     
+    /*
+     * The intervals between the last alive messages of a member, in a circular 
+     * buffer, with their mean and variance updated as they are added and removed.
+     */
     class PeerState {
     	
     	long timeCreated_;
 		long lastTimeReceived_ = 0L;
-		List<Double> arrivalIntervals_ = new ArrayList<Double>();
-		private int maxWindowSize_;
-		private double sum_;
+		private final double[] arrivalIntervals_;
+		private int first_ = 0;
+		private int size_ = 0;
+		private double mean_ = 0.0;
+		// sum of the squared differences to the mean
+		private double squares_ = 0.0;
 
 		PeerState(long created) {
 			timeCreated_ = created;
 			
-			maxWindowSize_ = sampleWindowSize_;
+			arrivalIntervals_ = new double[Math.max(2, sampleWindowSize_)];
 
 			/*
 			 * add two dummy samples so that mean is not zero and stddev is not NaN
@@ -502,64 +500,75 @@ public class PhiSuspectSession extends AbstractSensorSession implements Initiali
 		}
 		
 		void addSample(double sample) {
-			arrivalIntervals_.add(sample);
-			sum_ += sample;
+			if (size_ == arrivalIntervals_.length) {
+				removeSample(arrivalIntervals_[first_]);
+				first_ = (first_ + 1) % arrivalIntervals_.length;
+			}
+			arrivalIntervals_[(first_ + size_) % arrivalIntervals_.length] = sample;
+			
+			size_++;
+			final double delta = sample - mean_;
+			mean_ += delta / size_;
+			squares_ += delta * (sample - mean_);
+		}
+		
+		private void removeSample(double sample) {
+			size_--;
+			if (size_ == 0) {
+				mean_ = 0.0;
+				squares_ = 0.0;
+				return;
+			}
+			final double delta = sample - mean_;
+			mean_ -= delta / size_;
+			squares_ -= delta * (sample - mean_);
+			if (squares_ < 0.0)
+				squares_ = 0.0;
 		}
 		
 		void observeArrival(long now) {
 			
-			if (arrivalIntervals_.size() == maxWindowSize_) {
-				sum_ -= arrivalIntervals_.remove(0);
-			}
-
-			if (lastTimeReceived_ > 0L) {
-				double interArrivalTime = now - lastTimeReceived_;
-				System.out.println(interArrivalTime+"");
-				addSample(interArrivalTime);
-			}
+			if (lastTimeReceived_ > 0L)
+				addSample(now - lastTimeReceived_);
 			
 			lastTimeReceived_ = now;
 			
 		}
 
 		double mean() {	
-			return sum_ / arrivalIntervals_.size();
+			return mean_;
 		}
 
 		double deviation() {
-			return Math.sqrt(variance());
+			return Math.max(Math.sqrt(variance()), mean_ * MIN_DEVIATION_RATIO);
 		}
 
 		double variance() {
-			
-			double mean = mean();
-			
-			double sumOfDeviations = 0.0F;
-			for (double l : arrivalIntervals_) {
-				sumOfDeviations += (l - mean) * (l - mean);
-			}
-			
-			return sumOfDeviations / arrivalIntervals_.size();
-			
+			return squares_ / size_;
 		}
 
-		double p(double current) {
-
-			double mean = mean();
-			double deviation = deviation();
+		/*
+		 * -log10 of the probability of an interval longer than the given one, 
+		 * using the logistic approximation of the normal distribution, 
+		 * computed in the log domain so that it does not overflow.
+		 */
+		double phi(double current) {
 
-			// integrate from current position until infinity
-			return Stat.gaussianCDF(mean, deviation, current, Double.POSITIVE_INFINITY);
+			final double deviation = deviation();
+			if (deviation <= 0.0)
+				return 0.0;
 			
+			final double y = (current - mean()) / deviation;
+			// the probability is 1/(1+exp(e))
+			final double e = y * (1.5976 + 0.070566 * y * y);
+			if (e > 0.0)
+				return (e + Math.log1p(Math.exp(-e))) / LN_10;
+			else
+				return Math.log1p(Math.exp(e)) / LN_10;
 		}
 
 		double getPhi(long now) {
-
-			double timeElapsed = now - lastTimeReceived_;
-			double probability = p(timeElapsed);
-			
-			return (-1) * Math.log10(probability);
-
+			return phi(now - lastTimeReceived_);
 		}
 	}
 
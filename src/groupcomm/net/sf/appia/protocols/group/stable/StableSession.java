@@ -29,6 +29,12 @@
 package net.sf.appia.protocols.group.stable;
 
 import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanOperationInfo;
 
 import net.sf.appia.core.AppiaEventException;
 import net.sf.appia.core.Channel;
@@ -39,6 +45,8 @@ import net.sf.appia.core.Layer;
 import net.sf.appia.core.Session;
 import net.sf.appia.core.events.channel.PeriodicTimer;
 import net.sf.appia.core.message.Message;
+import net.sf.appia.management.AppiaManagementException;
+import net.sf.appia.management.ManagedSession;
 import net.sf.appia.protocols.group.LocalState;
 import net.sf.appia.protocols.group.ViewState;
 import net.sf.appia.protocols.group.events.GroupSendableEvent;
@@ -47,10 +55,12 @@ import net.sf.appia.protocols.group.intra.View;
 import net.sf.appia.protocols.group.suspect.Fail;
 import net.sf.appia.protocols.group.suspect.Suspect;
 import net.sf.appia.protocols.group.suspect.SuspectedMemberEvent;
+import net.sf.appia.xml.interfaces.InitializableSession;
+import net.sf.appia.xml.utils.SessionProperties;
 
 import org.apache.log4j.Logger;
 
-public class StableSession extends Session {
+public class StableSession extends Session implements InitializableSession, ManagedSession {
     private static Logger log = Logger.getLogger(StableSession.class);
 
     /**
@@ -61,11 +71,85 @@ public class StableSession extends Session {
 
     private long gossip_interval=DEFAULT_GOSSIP_INTERVAL;
     private long gossip_time=DEFAULT_GOSSIP_TIME;
+    private long max_storage=0;
+
+    private static final String GET_MESSAGES="stored_messages";
+    private static final String GET_BYTES="stored_bytes";
+    private static final String GET_PEAK_BYTES="peak_stored_bytes";
+    private static final String GET_OVERFLOWS="storage_overflows";
+    private Map<String,String> attributesMap=new Hashtable<String,String>();
 
     public StableSession(Layer layer) {
         super(layer);
     }
 
+    /**
+     * Initializes the session using the parameters given in the XML configuration.
+     * Possible parameters:
+     * <ul>
+     * <li><b>gossip_interval</b> number of messages sent between gossip messages.
+     * <li><b>gossip_time</b> time, in milliseconds, after which gossip is sent 
+     * if no messages were sent.
+     * <li><b>max_storage</b> number of bytes of unstable messages above which 
+     * gossip is sent immediately, to release them sooner. 0 means no limit.
+     * Messages are never discarded before they are stable.
+     * </ul>
+     * 
+     * @param params The parameters given in the XML configuration.
+     * @see net.sf.appia.xml.interfaces.InitializableSession#init(SessionProperties)
+     */
+    public void init(SessionProperties params) {
+        if (params.containsKey("gossip_interval"))
+            gossip_interval=params.getLong("gossip_interval");
+        if (params.containsKey("gossip_time"))
+            gossip_time=params.getLong("gossip_time");
+        if (params.containsKey("max_storage"))
+            max_storage=params.getLong("max_storage");
+    }
+
+    public Object invoke(String action, MBeanOperationInfo info, Object[] params, String[] signature) 
+        throws AppiaManagementException {
+        throw new AppiaManagementException("Action "+action+" is not accepted");
+    }
+
+    public MBeanOperationInfo[] getOperations(String sessionID) {
+        return null;
+    }
+
+    public MBeanAttributeInfo[] getAttributes(String sessionID) {
+        MBeanAttributeInfo[] mbai = new MBeanAttributeInfo[4];
+        mbai[0] = new MBeanAttributeInfo(sessionID+GET_MESSAGES,Integer.class.getName(),
+                "gets the number of unstable messages stored",true,false,false);
+        mbai[1] = new MBeanAttributeInfo(sessionID+GET_BYTES,Long.class.getName(),
+                "gets the number of bytes of unstable messages stored",true,false,false);
+        mbai[2] = new MBeanAttributeInfo(sessionID+GET_PEAK_BYTES,Long.class.getName(),
+                "gets the highest number of bytes of unstable messages stored",true,false,false);
+        mbai[3] = new MBeanAttributeInfo(sessionID+GET_OVERFLOWS,Long.class.getName(),
+                "gets the number of times the storage limit was exceeded",true,false,false);
+        attributesMap.put(sessionID+GET_MESSAGES, GET_MESSAGES);
+        attributesMap.put(sessionID+GET_BYTES, GET_BYTES);
+        attributesMap.put(sessionID+GET_PEAK_BYTES, GET_PEAK_BYTES);
+        attributesMap.put(sessionID+GET_OVERFLOWS, GET_OVERFLOWS);
+        return mbai;
+    }
+
+    public Object attributeGetter(String attribute, MBeanAttributeInfo info) throws AppiaManagementException {
+        final String name=attributesMap.get(attribute);
+        if (GET_MESSAGES.equals(name))
+            return new Integer(storage.getMessages());
+        if (GET_BYTES.equals(name))
+            return new Long(storage.getBytes());
+        if (GET_PEAK_BYTES.equals(name))
+            return new Long(storage.getPeakBytes());
+        if (GET_OVERFLOWS.equals(name))
+            return new Long(overflows);
+        throw new AppiaManagementException("Attribute '"+attribute+"' not defined in session "+StableSession.class.getName());
+    }
+
+    public void attributeSetter(Attribute attribute, MBeanAttributeInfo info) throws AppiaManagementException {
+        throw new AppiaManagementException("Attribute '"+attribute.getName()+"' is read only");
+    }
+
     public void handle(Event event) {
 
         // StableGossip
@@ -104,6 +188,9 @@ public class StableSession extends Session {
     private long last_timer=0;
     private long last_timer_gossip_value=-1;
     private boolean stabilizing=false;
+    private long overflows=0;
+    private long received=0;
+    private long last_overflow_gossip=0;
 
     private void handleView(View ev) {
         vs=ev.vs;
@@ -227,6 +314,9 @@ public class StableSession extends Session {
                 try {
                     Message omsg=(Message)ev.getMessage().clone();
                     storage.put(ev.orig,new StableInfo(seqno,ev.getClass().getName(),omsg));
+                    received++;
+                    if ((max_storage > 0) && (storage.getBytes() > max_storage))
+                        storageOverflow(ev.getChannel());
                 } catch (CloneNotSupportedException ex) {
                     table[ls.my_rank][ev.orig]--;
                     ex.printStackTrace();
@@ -248,14 +338,10 @@ public class StableSession extends Session {
         int rank=ev.getMessage().popInt();
         long lo=ev.getMessage().popLong();
         long hi=ev.getMessage().popLong();
-        StableInfo info;
-
-        while (lo <= hi) {
-            if ((info=storage.get(rank,lo)) == null) {
-                log.debug("I don't have message "+lo+" from "+rank+" as requested");
-                return;
-            }
 
+        final StableInfo[] infos=storage.get(rank,lo,hi);
+        for (int i=0 ; i < infos.length ; i++) {
+            final StableInfo info=infos[i];
             try {
                 Message omsg = (Message)info.omsg.clone();
                 omsg.pushString(info.eventName);
@@ -265,9 +351,9 @@ public class StableSession extends Session {
             } catch (CloneNotSupportedException e) {
                 e.printStackTrace();
             }
-
-            lo++;
         }
+        if (infos.length < hi-lo+1)
+            log.debug("I don't have message "+(lo+infos.length)+" from "+rank+" as requested");
     }
 
     private void handleRetransmission(Retransmission ev) {
@@ -365,6 +451,24 @@ public class StableSession extends Session {
         }
     }
 
+    /*
+     * The stored messages exceeded max_storage. Gossip is sent at once,
+     * instead of waiting for gossip_interval messages, so that the other 
+     * members learn what was received and stable messages are released.
+     * Gossip is repeated after gossip_interval received messages if the 
+     * storage is still above the limit.
+     */
+    private void storageOverflow(Channel channel) {
+        if (received-last_overflow_gossip < gossip_interval)
+            return;
+        overflows++;
+        last_overflow_gossip=received;
+        log.warn("Unstable messages use "+storage.getBytes()+" bytes, more than the limit of "+max_storage+". Sending gossip.");
+        // forces gossip even if this member has not sent messages
+        last_gossip=table[ls.my_rank][ls.my_rank]-gossip_interval-1;
+        sendStableGossip(channel);
+    }
+
     private void sendStableGossip(Channel channel) {    
         try {
             StableGossip ev=new StableGossip(channel,Direction.DOWN,this,vs.group,vs.id);
@@ -19,117 +19,173 @@
  */
 package net.sf.appia.protocols.group.stable;
 
+import java.util.Arrays;
+
 import net.sf.appia.core.AppiaError;
 
 import org.apache.log4j.Logger;
 
+/**
+ * Messages received from each member, kept until they are stable.
+ * <br>
+ * The messages of each rank are kept in a circular array indexed by 
+ * sequence number, so any of them is found without searching. Since 
+ * sequence numbers of a rank are consecutive, stable messages are 
+ * released from the front of the array in blocks.
+ * <br>
+ * The storage also counts the messages and bytes it holds.
+ */
 public class StableStorage {
     private static Logger log = Logger.getLogger(StableStorage.class);
 
-    private Header[] storage;
-    private StableInfo cache_no=null;
-    private int cache_rank=-1;
+    private static final int INITIAL_CAPACITY=32;
+
+    private Window[] storage;
+    
+    private int messages=0;
+    private long bytes=0;
+    private long peakBytes=0;
 
     public StableStorage() {
-        storage=new Header[0];
+        storage=new Window[0];
     }
 
     public void reset(int size) {
         int i;
         for (i=0  ; i < storage.length ; i++) {
-            if (storage[i].last != null)
-                clean(i,storage[i].last.seqno);
+            if (storage[i].count > 0)
+                clean(i,storage[i].first+storage[i].count-1);
         }
 
         if (size < storage.length) {
-            Header[] aux=new Header[size];
+            Window[] aux=new Window[size];
             System.arraycopy(storage,0,aux,0,size);
             storage=aux;
             return;
         }
 
         if (size > storage.length) {
-            Header[] aux=new Header[size];
+            Window[] aux=new Window[size];
             System.arraycopy(storage,0,aux,0,storage.length);
             for (i=storage.length ; i < aux.length ; i++)
-                aux[i]=new Header();
+                aux[i]=new Window();
             storage=aux;
             return;
         }
     }
 
+    /**
+     * Releases the messages of the given rank with sequence numbers up to, 
+     * and including, the given one.
+     */
     public void clean(int rank, long seqno) {
-        Header h=storage[rank];
+        Window w=storage[rank];
+        if ((w.count == 0) || (seqno < w.first))
+            return;
 
-        while ((h.first != null) && (h.first.seqno <= seqno)) {
+        int n=(int)Math.min(seqno-w.first+1, w.count);
+        if (debugFull)
+            log.debug("Cleaned "+w.first+" to "+(w.first+n-1)+" from "+rank);
 
-            if (debugFull) {
-                log.debug("Cleaned "+h.first.seqno+" from "+rank);
-            }
-            h.first.omsg.discardAll();
-            h.first=h.first.next;
+        final int start=(int)w.first & w.mask;
+        for (int i=0 ; i < n ; i++) {
+            final StableInfo info=w.items[(start+i) & w.mask];
+            bytes-=info.omsg.length();
+            info.omsg.discardAll();
         }
-
-        if (h.first == null)
-            h.last=null;
+        
+        // the released block wraps around at most once
+        final int end=start+n;
+        if (end <= w.items.length) {
+            Arrays.fill(w.items,start,end,null);
+        } else {
+            Arrays.fill(w.items,start,w.items.length,null);
+            Arrays.fill(w.items,0,end-w.items.length,null);
+        }
+        
+        w.first+=n;
+        w.count-=n;
+        messages-=n;
     }
 
     public void put(int rank, StableInfo no) {
-        if ((storage[rank].last != null) && (storage[rank].last.seqno != no.seqno-1))
+        Window w=storage[rank];
+        if ((w.count > 0) && (w.first+w.count != no.seqno))
             throw new AppiaError("StableStorage: This is impossible");
 
-        if (storage[rank].last == null) {
-            storage[rank].first=storage[rank].last=no;
-        } else {
-            storage[rank].last.next=no;
-            storage[rank].last=no;
-        }
+        if (w.count == 0)
+            w.first=no.seqno;
+        else if (w.count == w.items.length)
+            w.grow();
+        
+        w.items[(int)no.seqno & w.mask]=no;
+        w.count++;
+        
+        messages++;
+        bytes+=no.omsg.length();
+        if (bytes > peakBytes)
+            peakBytes=bytes;
     }
 
     public StableInfo get(int rank, long seqno) {
-        StableInfo no=null;
-
-        if ((cache_rank == rank) && (cache_no != null) && (cache_no.seqno == seqno)) {
-            no=cache_no;
-            cache_no=cache_no.next;
-            return no;
-        }
-
-        for (no=storage[rank].first ; no != null ; no=no.next) {
-            if (no.seqno == seqno) {
-                cache_rank=rank;
-                cache_no=no.next;
-                return no;
-            } else if (no.seqno > seqno)
-                return null;
-        }
+        Window w=storage[rank];
+        if ((seqno < w.first) || (seqno >= w.first+w.count))
+            return null;
+        return w.items[(int)seqno & w.mask];
+    }
 
-        return null;
+    /**
+     * Gets the messages of the given rank with sequence numbers from 
+     * <i>lo</i> to <i>hi</i>, inclusive.
+     * 
+     * @return the messages found, in order, starting with <i>lo</i>. 
+     * Messages after the last one stored are not returned. 
+     */
+    public StableInfo[] get(int rank, long lo, long hi) {
+        Window w=storage[rank];
+        if ((w.count == 0) || (lo < w.first) || (hi < lo)) 
+            return new StableInfo[0];
+        
+        final long last=Math.min(hi, w.first+w.count-1);
+        if (last < lo)
+            return new StableInfo[0];
+        
+        final StableInfo[] infos=new StableInfo[(int)(last-lo+1)];
+        for (int i=0 ; i < infos.length ; i++)
+            infos[i]=w.items[(int)(lo+i) & w.mask];
+        return infos;
+    }
+    
+    /** Number of messages stored. */
+    public int getMessages() {
+        return messages;
+    }
+    
+    /** Number of bytes of the messages stored. */
+    public long getBytes() {
+        return bytes;
+    }
+    
+    /** Highest number of bytes stored at the same time. */
+    public long getPeakBytes() {
+        return peakBytes;
     }
 
-    private class Header {
-        public StableInfo first=null;
-        public StableInfo last=null;
+    private static class Window {
+        public StableInfo[] items=new StableInfo[INITIAL_CAPACITY];
+        public int mask=INITIAL_CAPACITY-1;
+        public long first=0;
+        public int count=0;
+        
+        private void grow() {
+            StableInfo[] aux=new StableInfo[items.length*2];
+            for (int i=0 ; i < count ; i++)
+                aux[(int)(first+i) & (aux.length-1)]=items[(int)(first+i) & mask];
+            items=aux;
+            mask=aux.length-1;
+        }
     }
 
     // DEBUG
     private static final boolean debugFull=true;
-
-    /*
-  private void debug() {
-    int i;
-    StableInfo aux;
-
-    for (i=0 ; i < storage.length ; i++) {
-
-      log.debug("\t DEBUG STORAGE rank "+i);
-
-      for (aux=storage[i].first ; aux != null ; aux=aux.next) {
-        log.debug("\t\t DEBUG STORAGE seqno "+aux.seqno);
-      }
-    }
-  }
-     */
-
-
-}
\ No newline at end of file
+}
@@ -0,0 +1,92 @@
+/**
+ * Appia: Group communication and protocol composition framework library
+ * Copyright 2026 University of Lisbon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ *
+ * Contributor(s): See Appia web page for a list of contributors.
+ */
+package net.sf.appia.protocols.group.swimSuspect;
+
+import net.sf.appia.core.Layer;
+import net.sf.appia.core.Session;
+import net.sf.appia.core.events.channel.ChannelInit;
+import net.sf.appia.core.events.channel.EchoEvent;
+import net.sf.appia.protocols.common.FIFOUndeliveredEvent;
+import net.sf.appia.protocols.group.events.GroupSendableEvent;
+import net.sf.appia.protocols.group.intra.View;
+import net.sf.appia.protocols.group.suspect.Fail;
+import net.sf.appia.protocols.group.suspect.Suspect;
+import net.sf.appia.protocols.group.suspect.SuspectedMemberEvent;
+import net.sf.appia.protocols.tcpcomplete.TcpUndeliveredEvent;
+
+/** <I>SWIM</I> failure detector.
+ * <br>
+ * An alternative to the {@link net.sf.appia.protocols.group.suspect.SuspectLayer Suspect layer}
+ * for large groups, based on the work of Abhinandan Das, Indranil Gupta and Ashish Motivala.
+ * <br>
+ * In each period (<I>probe_interval</I>), each member probes a single member, chosen 
+ * in a random order, with a {@link Ping}. If it does not receive an {@link Ack} in 
+ * <I>ping_timeout</I>, it asks <I>indirect_probes</I> other members to probe it.
+ * A member that is not heard of, directly or through the other members, 
+ * until the end of <I>probe_attempts</I> consecutive periods is suspected. 
+ * Any other message received from the member is also taken as a reply, and members
+ * heard of recently are not probed.
+ * <br>
+ * The number of messages sent by each member in each period does not depend on 
+ * the size of the group.
+ * <br>
+ * Suspected members are announced with the same {@link Suspect} and {@link Fail} events 
+ * of the Suspect layer.
+ * 
+ * @see SwimSuspectSession
+ */
+public class SwimSuspectLayer extends Layer {
+  
+  /** Creates a new layer 
+   */
+  public SwimSuspectLayer() {
+    evProvide=new Class[] {
+        Ping.class,
+        PingRequest.class,
+        Ack.class,
+        Suspect.class,
+        Fail.class,
+        ProbeTimer.class,
+        PingTimeout.class,
+        EchoEvent.class,
+    };
+    
+    evRequire=new Class[] {
+        View.class,
+    };
+    
+    evAccept=new Class[] {
+        GroupSendableEvent.class,
+        View.class,
+        ProbeTimer.class,
+        PingTimeout.class,
+        FIFOUndeliveredEvent.class,
+        TcpUndeliveredEvent.class,
+        ChannelInit.class,
+        SuspectedMemberEvent.class,
+    };
+  }
+  
+  /** Creates a new SWIM Suspect session.
+   * @return The new session.
+   */
+  public Session createSession() {
+    return new SwimSuspectSession(this);
+  }
+}
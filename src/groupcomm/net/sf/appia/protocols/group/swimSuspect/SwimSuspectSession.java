@@ -0,0 +1,549 @@
+/**
+ * Appia: Group communication and protocol composition framework library
+ * Copyright 2026 University of Lisbon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ *
+ * Contributor(s): See Appia web page for a list of contributors.
+ */
+package net.sf.appia.protocols.group.swimSuspect;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Random;
+
+import net.sf.appia.core.AppiaEventException;
+import net.sf.appia.core.AppiaException;
+import net.sf.appia.core.Channel;
+import net.sf.appia.core.Direction;
+import net.sf.appia.core.Event;
+import net.sf.appia.core.Layer;
+import net.sf.appia.core.Session;
+import net.sf.appia.core.TimeProvider;
+import net.sf.appia.core.events.AppiaMulticast;
+import net.sf.appia.core.events.channel.ChannelInit;
+import net.sf.appia.core.events.channel.EchoEvent;
+import net.sf.appia.core.message.Message;
+import net.sf.appia.protocols.common.FIFOUndeliveredEvent;
+import net.sf.appia.protocols.group.ArrayOptimized;
+import net.sf.appia.protocols.group.LocalState;
+import net.sf.appia.protocols.group.ViewState;
+import net.sf.appia.protocols.group.events.GroupSendableEvent;
+import net.sf.appia.protocols.group.intra.View;
+import net.sf.appia.protocols.group.suspect.Fail;
+import net.sf.appia.protocols.group.suspect.Suspect;
+import net.sf.appia.protocols.group.suspect.SuspectedMemberEvent;
+import net.sf.appia.protocols.tcpcomplete.TcpUndeliveredEvent;
+import net.sf.appia.xml.interfaces.InitializableSession;
+import net.sf.appia.xml.utils.SessionProperties;
+
+import org.apache.log4j.Logger;
+
+/** The <I>SWIM</I> failure detector.
+ * @see net.sf.appia.protocols.group.swimSuspect.SwimSuspectLayer
+ */
+public class SwimSuspectSession extends Session implements InitializableSession {
+    private static Logger log = Logger.getLogger(SwimSuspectSession.class);
+
+    /** Default duration of a probe period.
+     */
+    public static final long DEFAULT_PROBE_INTERVAL=1000; //in milliseconds
+    /** Default time to wait for the reply of a probed member, before asking other members to probe it.
+     */
+    public static final long DEFAULT_PING_TIMEOUT=300; //in milliseconds
+    /** Default number of members asked to probe a member that did not reply.
+     */
+    public static final int DEFAULT_INDIRECT_PROBES=3;
+    /** Default number of consecutive probes a member must fail to be suspected.
+     */
+    public static final int DEFAULT_PROBE_ATTEMPTS=2;
+
+    /** 
+     * Major debug mode.
+     */
+    public static final boolean debugFull=false;
+
+    private ViewState vs;
+    private LocalState ls;
+    private TimeProvider time = null;
+
+    private long probe_interval=DEFAULT_PROBE_INTERVAL;
+    private long ping_timeout=DEFAULT_PING_TIMEOUT;
+    private int indirect_probes=DEFAULT_INDIRECT_PROBES;
+    private int probe_attempts=DEFAULT_PROBE_ATTEMPTS;
+
+    private boolean started=false;
+    // time of the last message received from each member
+    private long[] last_recv=new long[0];
+    // random order in which the members are probed
+    private int[] order=new int[0];
+    private int next=0;
+    // member probed in the current period
+    private int target=-1;
+    private int attempts=0;
+    private int probe=0;
+    private long probe_start=0;
+    private final Random random=new Random();
+
+    /** Creates a new SWIM Suspect session.
+     */  
+    public SwimSuspectSession(Layer layer) {
+        super(layer);
+    }
+
+    /**
+     * Initializes the session using the parameters given in the XML configuration.
+     * Possible parameters:
+     * <ul>
+     * <li><b>probe_interval</b> duration of a probe period, in milliseconds.
+     * <li><b>ping_timeout</b> time to wait for a reply before asking other members to 
+     * probe the member, in milliseconds. It must be lower than the probe interval.
+     * <li><b>indirect_probes</b> number of members asked to probe a member that did not reply.
+     * <li><b>probe_attempts</b> number of consecutive periods in which a member must not
+     * reply to be suspected.
+     * </ul>
+     * 
+     * @param params The parameters given in the XML configuration.
+     * @see net.sf.appia.xml.interfaces.InitializableSession#init(SessionProperties)
+     */
+    public void init(SessionProperties params) {
+        if (params.containsKey("probe_interval"))
+            probe_interval=params.getLong("probe_interval");
+        if (params.containsKey("ping_timeout"))
+            ping_timeout=params.getLong("ping_timeout");
+        if (params.containsKey("indirect_probes"))
+            indirect_probes=params.getInt("indirect_probes");
+        if (params.containsKey("probe_attempts"))
+            probe_attempts=params.getInt("probe_attempts");
+        if (ping_timeout >= probe_interval)
+            throw new IllegalArgumentException("SWIM ping timeout must be lower than the probe interval: "+ping_timeout);
+    }
+
+    /** 
+     * Event handler.
+     */  
+    public void handle(Event event) {
+
+        if (event instanceof Ping) {
+            handlePing((Ping)event); return;
+        } else if (event instanceof PingRequest) {
+            handlePingRequest((PingRequest)event); return;
+        } else if (event instanceof Ack) {
+            handleAck((Ack)event); return;
+        } else if (event instanceof Suspect) {
+            handleSuspect((Suspect)event); return;
+        } else if (event instanceof GroupSendableEvent) {
+            handleGroupSendableEvent((GroupSendableEvent)event); return;
+        } else if (event instanceof ProbeTimer) {
+            handleProbeTimer((ProbeTimer)event); return;
+        } else if (event instanceof PingTimeout) {
+            handlePingTimeout((PingTimeout)event); return;
+        } else if (event instanceof View) {
+            handleView((View)event); return;
+        } else if (event instanceof FIFOUndeliveredEvent) {
+            handleFIFOUndeliveredEvent((FIFOUndeliveredEvent)event); return;
+        } else if (event instanceof TcpUndeliveredEvent) {
+            handleTcpUndeliveredEvent((TcpUndeliveredEvent)event); return;
+        } else if (event instanceof SuspectedMemberEvent) {
+            handleSuspectedMember((SuspectedMemberEvent)event); return;
+        } else if (event instanceof ChannelInit){
+            handleChannelInit((ChannelInit)event); return;
+        }
+
+        log.warn("Unwanted event (\""+event.getClass().getName()+"\") received. Continued...");
+        try { event.go(); } catch (AppiaEventException ex) { ex.printStackTrace(); }
+    }
+
+    private void handleChannelInit(ChannelInit init) {
+        try {
+            init.go();
+        } catch (AppiaEventException e) {
+            e.printStackTrace();
+        }
+        time = init.getChannel().getTimeProvider();
+    }
+
+    private void handleView(View ev) {
+        vs=ev.vs;
+        ls=ev.ls;
+
+        try { ev.go(); } catch (AppiaEventException ex) { ex.printStackTrace(); }
+
+        if (!started) {
+            try {
+                ProbeTimer periodic=new ProbeTimer("SWIM Probe Timer",probe_interval,ev.getChannel(),this);
+                periodic.go();
+                started=true;
+            } catch (AppiaException ex) {
+                ex.printStackTrace();
+                log.error("impossible to set ProbeTimer, SwimSuspectSession will be idle");
+            }
+        }
+
+        // new members are not suspected before being probed for a whole period
+        last_recv=new long[vs.view.length];
+        Arrays.fill(last_recv,time.currentTimeMillis());
+        order=new int[vs.view.length];
+        for (int i=0 ; i < order.length ; i++)
+            order[i]=i;
+        next=order.length;
+        target=-1;
+    }
+
+    private void handleGroupSendableEvent(GroupSendableEvent ev) {
+        if (ev.getDir() == Direction.UP)
+            heard(ev.orig);
+        try { ev.go(); } catch (AppiaEventException ex) { ex.printStackTrace(); }
+    }
+
+    private void handlePing(Ping ev) {
+        if (ev.getDir() == Direction.DOWN) {
+            try { ev.go(); } catch (AppiaEventException ex) { ex.printStackTrace(); }
+            return;
+        }
+        heard(ev.orig);
+
+        final Message msg=ev.getMessage();
+        final int requester=msg.popInt();
+        final int seq=msg.popInt();
+        if (debugFull)
+            log.debug("Received Ping "+seq+" from "+ev.orig);
+        sendAck(ev.orig,seq,ls.my_rank,requester,ev.getChannel());
+    }
+
+    private void handlePingRequest(PingRequest ev) {
+        if (ev.getDir() == Direction.DOWN) {
+            try { ev.go(); } catch (AppiaEventException ex) { ex.printStackTrace(); }
+            return;
+        }
+        heard(ev.orig);
+
+        final Message msg=ev.getMessage();
+        final int member=msg.popInt();
+        final int seq=msg.popInt();
+        if (!isMember(member) || member == ls.my_rank || ls.failed[member])
+            return;
+        if (debugFull)
+            log.debug("Probing "+member+" for "+ev.orig);
+        sendPing(member,seq,ev.orig,ev.getChannel());
+    }
+
+    private void handleAck(Ack ev) {
+        if (ev.getDir() == Direction.DOWN) {
+            try { ev.go(); } catch (AppiaEventException ex) { ex.printStackTrace(); }
+            return;
+        }
+        heard(ev.orig);
+
+        final Message msg=ev.getMessage();
+        final int requester=msg.popInt();
+        final int subject=msg.popInt();
+        final int seq=msg.popInt();
+        if (!isMember(subject))
+            return;
+        if (requester >= 0 && requester != ls.my_rank) {
+            // reply to a probe made for another member
+            if (isMember(requester) && !ls.failed[requester])
+                sendAck(requester,seq,subject,-1,ev.getChannel());
+            return;
+        }
+        heard(subject);
+        if (debugFull)
+            log.debug("Received Ack "+seq+" of "+subject+" from "+ev.orig);
+    }
+
+    private void handleProbeTimer(ProbeTimer ev) {
+        try { 
+            ev.go(); 
+        } catch (AppiaEventException ex) {
+            ex.printStackTrace(); 
+        }
+
+        if (vs == null || vs.view.length < 2)
+            return;
+
+        final long now=time.currentTimeMillis();
+        if (target >= 0 && !ls.failed[target] && last_recv[target] < probe_start) {
+            if (++attempts >= probe_attempts) {
+                log.debug("Suspected "+target+" because it did not reply to "+attempts+" probes");
+                processFailure(target,ev.getChannel());
+                target=-1;
+            }
+        } else
+            target=-1;
+
+        // a member that did not reply is probed again in the next period
+        if (target < 0) {
+            target=nextTarget();
+            attempts=0;
+        }
+        if (target < 0)
+            return;
+        probe++;
+        probe_start=now;
+
+        if (now-last_recv[target] < probe_interval) {
+            // recently heard, no need to probe it
+            target=-1;
+            return;
+        }
+
+        sendPing(target,probe,-1,ev.getChannel());
+        try {
+            PingTimeout timeout=new PingTimeout(ping_timeout,probe,ev.getChannel(),this);
+            timeout.go();
+        } catch (AppiaException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    private void handlePingTimeout(PingTimeout ev) {
+        try { 
+            ev.go(); 
+        } catch (AppiaEventException ex) {
+            ex.printStackTrace(); 
+        }
+
+        if (ev.getProbe() != probe || target < 0 || ls.failed[target] || last_recv[target] >= probe_start)
+            return;
+
+        final int[] helpers=chooseHelpers(target);
+        if (helpers.length == 0)
+            return;
+        if (debugFull)
+            log.debug("Asking "+helpers.length+" members to probe "+target);
+        try {
+            final PingRequest req=new PingRequest(ev.getChannel(),Direction.DOWN,this,vs.group,vs.id);
+            final Message msg=req.getMessage();
+            msg.pushInt(probe);
+            msg.pushInt(target);
+            req.dest=helpers;
+            req.go();
+        } catch (AppiaEventException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    /*
+     * Next member in a random order, that is shuffled again after all the
+     * members were probed.
+     */
+    private int nextTarget() {
+        for (int pass=0 ; pass < 2 ; pass++) {
+            while (next < order.length) {
+                final int rank=order[next++];
+                if (rank != ls.my_rank && !ls.failed[rank])
+                    return rank;
+            }
+            for (int i=order.length-1 ; i > 0 ; i--) {
+                final int j=random.nextInt(i+1);
+                final int aux=order[i];
+                order[i]=order[j];
+                order[j]=aux;
+            }
+            next=0;
+        }
+        return -1;
+    }
+
+    /*
+     * Random members, other than us and the given member, that did not fail.
+     */
+    private int[] chooseHelpers(int member) {
+        final int[] helpers=new int[Math.max(0,Math.min(indirect_probes,vs.view.length-2))];
+        int count=0;
+        for (int attempts=0 ; count < helpers.length && attempts < helpers.length*8 ; attempts++) {
+            final int rank=random.nextInt(vs.view.length);
+            if (rank == ls.my_rank || rank == member || ls.failed[rank])
+                continue;
+            int i=0;
+            while (i < count && helpers[i] != rank)
+                i++;
+            if (i == count)
+                helpers[count++]=rank;
+        }
+        if (count == helpers.length)
+            return helpers;
+        final int[] chosen=new int[count];
+        System.arraycopy(helpers,0,chosen,0,count);
+        return chosen;
+    }
+
+    private void heard(int rank) {
+        if (isMember(rank))
+            last_recv[rank]=time.currentTimeMillis();
+    }
+
+    private boolean isMember(int rank) {
+        return rank >= 0 && rank < last_recv.length;
+    }
+
+    private void sendPing(int dest, int seq, int requester, Channel channel) {
+        try {
+            final Ping ping=new Ping(channel,Direction.DOWN,this,vs.group,vs.id);
+            final Message msg=ping.getMessage();
+            msg.pushInt(seq);
+            msg.pushInt(requester);
+            ping.dest=new int[]{dest};
+            ping.go();
+        } catch (AppiaEventException ex) {
+            ex.printStackTrace();
+            log.warn("Impossible to send Ping");
+        }
+    }
+
+    private void sendAck(int dest, int seq, int subject, int requester, Channel channel) {
+        try {
+            final Ack ack=new Ack(channel,Direction.DOWN,this,vs.group,vs.id);
+            final Message msg=ack.getMessage();
+            msg.pushInt(seq);
+            msg.pushInt(subject);
+            msg.pushInt(requester);
+            ack.dest=new int[]{dest};
+            ack.go();
+        } catch (AppiaEventException ex) {
+            ex.printStackTrace();
+            log.warn("Impossible to send Ack");
+        }
+    }
+
+    private void handleSuspect(Suspect ev) {
+
+        if (ev.getDir() == Direction.UP) {
+            heard(ev.orig);
+            if ( ls.failed[ev.orig] ) {
+                log.debug("Invalid (failed) message source");
+                return;
+            }
+
+            ev.failed=ArrayOptimized.popArrayBoolean(ev.getMessage());
+        }
+
+        if (ev.failed[ls.my_rank]) {
+            log.debug("i am not failed, but someone suspected me!!");
+            return;
+        }
+
+        boolean[] new_failed=null;
+
+        for (int i=0 ; i < ev.failed.length ; i++) {
+            if (ev.failed[i] && !ls.failed[i]) {
+                ls.fail(i);
+                if (new_failed == null)
+                    new_failed=new boolean[ls.failed.length];
+                new_failed[i]=true;
+            }
+        }
+
+        if (new_failed != null) {
+            if (ev.getDir() == Direction.DOWN) {
+                ArrayOptimized.pushArrayBoolean(ls.failed,ev.getMessage());
+                try { ev.go(); } catch (AppiaEventException ex) { ex.printStackTrace(); }
+            }
+
+            sendFail(new_failed,ev.getChannel());
+        }
+    }
+
+    private void handleFIFOUndeliveredEvent(FIFOUndeliveredEvent ev) {
+        try { ev.go(); } catch (AppiaEventException ex) { ex.printStackTrace(); }
+
+        if (vs == null)
+            return;
+
+        if (!(ev.getEvent() instanceof GroupSendableEvent))
+            return;
+
+        final GroupSendableEvent event=(GroupSendableEvent)ev.getEvent();
+
+        if (!vs.group.equals(event.group) || !vs.id.equals(event.view_id)) {
+            log.debug("Ignored FIFOUndelivered due to wrong group or view id");
+            return;
+        }
+
+        if (event.dest instanceof InetSocketAddress)
+            undelivered((InetSocketAddress)event.dest,ev.getChannel());
+        else if (event.dest instanceof AppiaMulticast) {
+            Object[] dests=((AppiaMulticast)event.dest).getDestinations();
+            for (int i=0 ; i < dests.length ; i++) {
+                if (dests[i] instanceof InetSocketAddress)
+                    undelivered((InetSocketAddress)dests[i],ev.getChannel());
+            }
+        } else
+            log.debug("Received FIFOUndelivered with unknown destination address. Ignoring it.");
+    }
+
+    private void handleTcpUndeliveredEvent(TcpUndeliveredEvent ev) {
+        try { ev.go(); } catch (AppiaEventException ex) { ex.printStackTrace(); }
+
+        if (vs == null)
+            return;
+
+        undelivered((InetSocketAddress)ev.getFailedAddress(),ev.getChannel());
+    }
+
+    private void handleSuspectedMember(SuspectedMemberEvent ev){
+        try { ev.go(); } catch (AppiaEventException ex) { ex.printStackTrace(); }
+        if (vs == null)
+            return;
+        if(!ev.getGroup().equals(vs.group) || !ev.getViewID().equals(vs.id)){
+            log.debug("SuspectedMemberEvent from another group or view. Discarding it");
+            return;
+        }
+        if(isMember(ev.getSuspectedMember()))
+            processFailure(ev.getSuspectedMember(),ev.getChannel());
+        else
+            log.debug("SuspectedMemberEvent didn't contain a valid view member.");
+    }
+
+    private void undelivered(InetSocketAddress addr, Channel channel) {
+        final int rank=vs.getRankByAddress(addr);
+        if (rank >= 0) {
+            log.debug("Suspected member "+rank+" due to Undelivered");
+            processFailure(rank,channel);
+        } else
+            log.debug("Undelivered didn't contain a current view member");
+    }
+
+    private void processFailure(int rank, Channel channel) {
+        if (!ls.failed[rank] && rank != ls.my_rank) {
+            ls.fail(rank);
+            final boolean[] new_failed=new boolean[vs.view.length];
+            new_failed[rank]=true;
+            sendSuspect(channel);
+            sendFail(new_failed,channel);
+        }
+    }
+
+    private void sendSuspect(Channel channel) {
+        try {
+            Suspect ev=new Suspect(ls.failed,channel,Direction.DOWN,this,vs.group,vs.id);
+            ArrayOptimized.pushArrayBoolean(ls.failed,ev.getMessage());
+            ev.go();
+        } catch (AppiaEventException ex) {
+            ex.printStackTrace();
+            log.warn("Impossible to send Suspect");
+        }
+    }
+
+    private void sendFail(boolean[] failed, Channel channel) {
+        try {
+            Fail ev=new Fail(failed,vs.group,vs.id);
+            EchoEvent echo=new EchoEvent(ev,channel,Direction.DOWN,this);
+            echo.go();
+        } catch (AppiaEventException ex) {
+            ex.printStackTrace();
+            log.warn("Impossible to inform locally of failure");
+        }
+    }
+}
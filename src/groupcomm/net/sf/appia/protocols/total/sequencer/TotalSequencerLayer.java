@@ -37,14 +37,16 @@ public class TotalSequencerLayer extends Layer {
 		evRequire[1]=net.sf.appia.protocols.group.intra.View.class;
 		evRequire[2]=net.sf.appia.protocols.total.sequencer.TotalOrderEvent.class;
 		
-		evAccept=new Class[5];
+		evAccept=new Class[6];
 		evAccept[0]=evRequire[0];
 		evAccept[1]=net.sf.appia.core.events.channel.ChannelInit.class;
 		evAccept[2]=evRequire[1];
 		evAccept[3]=evRequire[2];
 		evAccept[4]=net.sf.appia.protocols.group.sync.BlockOk.class;
-		evProvide=new Class[1];
+		evAccept[5]=TotalSequencerTimer.class;
+		evProvide=new Class[2];
 		evProvide[0]= evRequire[2];
+		evProvide[1]= TotalSequencerTimer.class;
 	}
 	
 	/** Creates a new session of this layer*/
@@ -26,15 +26,31 @@ import net.sf.appia.protocols.group.*;
 import net.sf.appia.protocols.group.events.*;
 import net.sf.appia.protocols.group.intra.*;
 import net.sf.appia.protocols.group.sync.*;
+import net.sf.appia.xml.interfaces.InitializableSession;
+import net.sf.appia.xml.utils.SessionProperties;
 
 
 
 
 /**
  *     Class that implements a total order protocol
- *     using a sequencer based approach
+ *     using a sequencer based approach.
+ *     <br>
+ *     The sequencer may accumulate the orders it assigns and send them
+ *     in a single TotalOrderEvent, when it has <i>batch_size</i> orders
+ *     or after <i>batch_period</i> milliseconds.
  */
-public class TotalSequencerSession extends Session {
+public class TotalSequencerSession extends Session implements InitializableSession {
+    
+    /**
+     * Default number of orders sent in one TotalOrderEvent.
+     * With 1, each order is sent as soon as it is assigned.
+     */
+    public static final int DEFAULT_BATCH_SIZE=1;
+    /**
+     * Default maximum time, in milliseconds, that an order waits to be sent.
+     */
+    public static final long DEFAULT_BATCH_PERIOD=10;
     
     private Channel channel;
 
@@ -48,6 +64,18 @@ public class TotalSequencerSession extends Session {
 
     private boolean blocked=false;
 
+    private int batchSize=DEFAULT_BATCH_SIZE;
+    private long batchPeriod=DEFAULT_BATCH_PERIOD;
+
+    /* orders assigned by the sequencer and not sent yet. They are consecutive, from pendingFirst */
+    private int pendingFirst;
+    private int pendingCount=0;
+    private int[] pendingSenders=new int[16];
+    private int[] pendingSeqs=new int[16];
+    private Group pendingGroup;
+    private ViewID pendingViewID;
+    private boolean timerOn=false;
+
     /**
      *   Defaul Constructor 
      *   @param l The layer associated to this section
@@ -59,11 +87,33 @@ public class TotalSequencerSession extends Session {
         list=new Buffer();
     }
 
+    /**
+     * Initializes the session using the parameters given in the XML configuration.
+     * Possible parameters:
+     * <ul>
+     * <li><b>batch_size</b> number of orders sent by the sequencer in one message.
+     * <li><b>batch_period</b> maximum time, in milliseconds, that an order waits to be sent.
+     * </ul>
+     * 
+     * @param params The parameters given in the XML configuration.
+     */
+    public void init(SessionProperties params) {
+        if(params.containsKey("batch_size"))
+            batchSize=params.getInt("batch_size");
+        if(params.containsKey("batch_period"))
+            batchPeriod=params.getLong("batch_period");
+    }
+
     /**
      * Handles incoming events.
      * @param e incoming event.
      */
     public void handle(Event e) {
+        if(e instanceof TotalSequencerTimer){
+            handleTimer((TotalSequencerTimer)e);
+            return;
+        }
+
         if(e instanceof BlockOk){
             handleBlockOk((BlockOk)e);
             return;
@@ -113,7 +163,9 @@ public class TotalSequencerSession extends Session {
     /*
      * 
      */
-    private void handleBlockOk(BlockOk e){        
+    private void handleBlockOk(BlockOk e){
+        // the other members must receive all the orders before the view changes
+        sendOrders();
         try{
             e.go();
         }
@@ -129,15 +181,18 @@ public class TotalSequencerSession extends Session {
     private void handleTotalOrderEvent(TotalOrderEvent e) {
         if(TotalSequencerConfig.debugOn)
         	debug("received TotalOrderEvent");
-        if(e.getDir()==Direction.UP) {
-            TotalSequencerHeader h=getHeader(e);
-
-            if(! amCoordinator()) {
-        	if(TotalSequencerConfig.debugOn)
-                	debug("inserted the order in the list");
-                list.insertOrder(h.getOrder(),h.getSender(),h.getnSeqInd());
-                sendEvents();
+        if(e.getDir()==Direction.UP && !amCoordinator()) {
+            Message om = e.getMessage();
+            int order = om.popInt();
+            int count = om.popInt();
+            for(int i=0; i<count; i++){
+                int sender = om.popInt();
+                int seq = om.popInt();
+                list.insertOrder(order+i,sender,seq);
             }
+            if(TotalSequencerConfig.debugOn)
+                debug("inserted "+count+" orders in the list");
+            sendEvents();
         }
         e = null;
     }
@@ -268,7 +323,6 @@ public class TotalSequencerSession extends Session {
      */
     private void handleGroupSendableEventUp(GroupSendableEvent e){
         TotalSequencerHeader h;
-        TotalOrderEvent toe=null;
         
         if(TotalSequencerConfig.debugOn)	
         	debug("Received GroupSendableEvent from DOWN");
@@ -285,19 +339,9 @@ public class TotalSequencerSession extends Session {
             else{
                 if(TotalSequencerConfig.debugOn)
                 	debug("Message was ordered. Sending: "+ordemTotal);
-                try{
-                    toe = new TotalOrderEvent(channel,Direction.DOWN,this,e.group,e.view_id);
-                }
-                catch(Exception ex){
-                    ex.printStackTrace();
-                }
-                
-                TotalSequencerHeader totalSeq_h=new TotalSequencerHeader(ordemTotal++,h.getSender(),h.getnSeqInd());
-
-                setHeader(toe,totalSeq_h);
+                addOrder(ordemTotal++,h.getSender(),h.getnSeqInd(),e.group,e.view_id);
                 
                 try {
-                    toe.go();
                     e.go();
                 }
                 catch(AppiaEventException ex) {
@@ -321,6 +365,87 @@ public class TotalSequencerSession extends Session {
         }
     }
 
+    /*
+     * Keeps an order assigned by the sequencer, sending the accumulated
+     * orders if there are enough of them.
+     */
+    private void addOrder(int order, int sender, int seq, Group group, ViewID viewID){
+        // orders taken by the sequencer's own messages break the sequence
+        if(pendingCount > 0 && order != pendingFirst+pendingCount)
+            sendOrders();
+        if(pendingCount == 0){
+            pendingFirst=order;
+            pendingGroup=group;
+            pendingViewID=viewID;
+        }
+        if(pendingCount == pendingSenders.length){
+            int[] senders=new int[pendingCount*2];
+            int[] seqs=new int[pendingCount*2];
+            System.arraycopy(pendingSenders,0,senders,0,pendingCount);
+            System.arraycopy(pendingSeqs,0,seqs,0,pendingCount);
+            pendingSenders=senders;
+            pendingSeqs=seqs;
+        }
+        pendingSenders[pendingCount]=sender;
+        pendingSeqs[pendingCount]=seq;
+        pendingCount++;
+
+        if(pendingCount >= batchSize)
+            sendOrders();
+        else if(!timerOn)
+            startTimer();
+    }
+
+    /*
+     * Sends the accumulated orders in one TotalOrderEvent.
+     * The message has the first order, the number of orders and
+     * the sender and sequence number of each message.
+     */
+    private void sendOrders(){
+        if(pendingCount == 0)
+            return;
+
+        try{
+            TotalOrderEvent toe = new TotalOrderEvent(channel,Direction.DOWN,this,pendingGroup,pendingViewID);
+            Message om = toe.getMessage();
+            for(int i=pendingCount-1; i>=0; i--){
+                om.pushInt(pendingSeqs[i]);
+                om.pushInt(pendingSenders[i]);
+            }
+            om.pushInt(pendingCount);
+            om.pushInt(pendingFirst);
+            pendingCount=0;
+            toe.go();
+        }
+        catch(AppiaEventException ex){
+            ex.printStackTrace();
+        }
+    }
+
+    private void startTimer(){
+        try{
+            new TotalSequencerTimer(batchPeriod,channel,this,EventQualifier.ON).go();
+            timerOn=true;
+        }
+        catch(AppiaException ex){
+            ex.printStackTrace();
+        }
+    }
+
+    private void handleTimer(TotalSequencerTimer e){
+        if(e.getDir() == Direction.DOWN){
+            try{
+                e.go();
+            }
+            catch(AppiaEventException ex){
+                ex.printStackTrace();
+            }
+            return;
+        }
+        timerOn=false;
+        sendOrders();
+    }
+
     /*
      * 
      */
@@ -328,6 +453,8 @@ public class TotalSequencerSession extends Session {
         if(TotalSequencerConfig.debugOn)
         	debug("Received new view.");
         blocked = false;
+        // orders of the previous view that were not sent are no longer valid
+        pendingCount=0;
         /*Old View*/
         cleanCounters();
 
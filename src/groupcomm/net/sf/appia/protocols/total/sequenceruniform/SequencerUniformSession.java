@@ -375,6 +375,8 @@ public class SequencerUniformSession extends Session implements InitializableSes
 		    log.debug("Received DATA message: "+header.id+":"+header.sn+" timestpamp is "+timeProvider.currentTimeMillis());
 		ListContainer container = new ListContainer(event, header);
 		// add the event to the RECEIVED list...
+		// its message is notified after its route ends
+		msg.retain();
 		R.addLast(container);
         if(coordinator() && !isBlocked) {
             if(log.isDebugEnabled())
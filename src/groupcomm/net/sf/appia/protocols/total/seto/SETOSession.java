@@ -392,6 +392,8 @@ public class SETOSession extends Session implements InitializableSession {
 		header.setTime(delay[header.id]+timeProvider.currentTimeMillis());
 		ListContainer container = new ListContainer(event, header);
 		// add the event to the RECEIVED list...
+		// its message is notified after its route ends
+		msg.retain();
 		R.addLast(container);
 		// ... and set a timer to be delivered later, according to the delay that came with the message
 		setTimer(container,delay[header.id],vs.id);
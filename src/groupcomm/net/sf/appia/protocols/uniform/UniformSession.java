@@ -20,6 +20,7 @@
  */
 package net.sf.appia.protocols.uniform;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.ListIterator;
@@ -38,6 +39,7 @@ import net.sf.appia.core.events.channel.ChannelInit;
 import net.sf.appia.core.message.Message;
 import net.sf.appia.protocols.group.LocalState;
 import net.sf.appia.protocols.group.ViewState;
+import net.sf.appia.protocols.group.Endpt;
 import net.sf.appia.protocols.group.events.GroupSendableEvent;
 import net.sf.appia.protocols.group.intra.View;
 import net.sf.appia.protocols.group.sync.BlockOk;
@@ -48,12 +50,22 @@ import net.sf.appia.xml.utils.SessionProperties;
 
 /**
  * Protocol that ensures uniformity in messages delivered by group members.
+ * <br>
+ * Each member keeps, for each origin, the sequence number of the last message
+ * it received, and exchanges this vector with the group. A message is uniform
+ * when a majority of the members received it.
+ * <br>
+ * In the aggregated mode, the vector is only piggybacked on data messages when
+ * it changed, and is sent alone after <i>ack_batch</i> messages or a period. 
+ * The sequence number received by a majority is kept for each origin, and all
+ * the messages of an origin up to it are notified as uniform at once.
  * 
  * @author Jose Mocito
  */
 public class UniformSession extends Session implements InitializableSession{
 	
 	private static final long DEFAULT_UNIFORM_INFO_PERIOD = 100;
+	private static final int DEFAULT_ACK_BATCH = 32;
 		
 	private long sn,unifInfoPeriod=DEFAULT_UNIFORM_INFO_PERIOD;
 	private long[][] snInfoList;
@@ -67,6 +79,18 @@ public class UniformSession extends Session implements InitializableSession{
 	
 	private LinkedList<MessageContainer> receivedMessages = new LinkedList<MessageContainer>();
 	
+	// aggregated mode
+	private boolean aggregate = false;
+	private int ackBatch = DEFAULT_ACK_BATCH;
+	// our vector changed since we last sent it, and messages received since
+	private boolean acksChanged;
+	private int unacked;
+	// sequence number of each origin received by a majority
+	private long[] watermark;
+	private ArrayList<LinkedList<MessageContainer>> heldMessages = new ArrayList<LinkedList<MessageContainer>>();
+	private long[] column;
+	private boolean[] advanced;
+	
 	private long timeLastMsgSent;
 	private boolean utSet; // Uniform timer is set?
 	
@@ -80,10 +104,31 @@ public class UniformSession extends Session implements InitializableSession{
 	}
 
 
+    /**
+     * Initializes the session using the parameters given in the XML configuration.
+     * Possible parameters:
+     * <ul>
+     * <li><b>uniform_info_period</b> period of the uniformity information sent 
+     * when no messages are sent, in milliseconds. If 0, it is sent after each
+     * received message.
+     * <li><b>aggregate_acks</b> if <tt>true</tt>, uses the aggregated mode.
+     * It must be the same in all the members of the group.
+     * <li><b>ack_batch</b> in the aggregated mode, number of received messages
+     * after which the uniformity information is sent, if no message was sent.
+     * </ul>
+     * 
+     * @param params The parameters given in the XML configuration.
+     */
     public void init(SessionProperties params) {
         if(params.containsKey("uniform_info_period")){
             unifInfoPeriod = params.getLong("uniform_info_period");
         }        
+        if(params.containsKey("aggregate_acks"))
+            aggregate = params.getBoolean("aggregate_acks");
+        if(params.containsKey("ack_batch"))
+            ackBatch = params.getInt("ack_batch");
+        if(aggregate && (unifInfoPeriod <= 0 || ackBatch < 1))
+            throw new IllegalArgumentException("Aggregated uniformity requires a positive info period and ack batch");
     }
 	
 	/** 
@@ -155,6 +200,8 @@ public class UniformSession extends Session implements InitializableSession{
 	 */
 	private void handleNewView(View view) {
 		isBlocked = false;
+		if (aggregate && vs != null)
+			flushHeld(view);
 		ls=view.ls;
 		vs=view.vs;
 
@@ -185,9 +232,17 @@ public class UniformSession extends Session implements InitializableSession{
 	private void handleGroupSendable(GroupSendableEvent event) {
 		final Message msg = event.getMessage();
 		if(event.getDir() == Direction.DOWN) {
-			msg.pushLong(sn);
-			for (int i = 0; i < snInfoList[ls.my_rank].length; i++)
-				msg.pushLong(snInfoList[ls.my_rank][i]);
+			msg.pushLong(++sn);
+			if (aggregate) {
+				if (acksChanged)
+					pushAcks(msg);
+				msg.pushBoolean(acksChanged);
+				acksChanged = false;
+				unacked = 0;
+			}
+			else
+				for (int i = 0; i < snInfoList[ls.my_rank].length; i++)
+					msg.pushLong(snInfoList[ls.my_rank][i]);
 			try {
 				event.go();
 			} catch (AppiaEventException e) {
@@ -195,12 +250,16 @@ public class UniformSession extends Session implements InitializableSession{
 			}
 			timeLastMsgSent = timeProvider.currentTimeMillis();
 		}
+		else if (aggregate)
+			handleAggregated(event);
 		else{
 			final long[] uniformInfo = new long[vs.view.length];
 			for (int i = uniformInfo.length; i > 0; i--)
 				uniformInfo[i-1] = msg.popLong();
 			mergeUniformInfo(uniformInfo, event.orig);
 			final long msgSN = msg.popLong();
+			// notified after its route ends
+			msg.retain();
 			receivedMessages.add(new MessageContainer(msgSN,event));
 			snInfoList[ls.my_rank][event.orig] = msgSN;
 			try {
@@ -213,7 +272,38 @@ public class UniformSession extends Session implements InitializableSession{
 		}	
 	}
 	
+	private void handleAggregated(GroupSendableEvent event) {
+		final Message msg = event.getMessage();
+		final long[] uniformInfo = msg.popBoolean() ? popAcks(msg) : null;
+		final long msgSN = msg.popLong();
+		// notified after its route ends
+		msg.retain();
+		heldMessages.get(event.orig).addLast(new MessageContainer(msgSN,event));
+		snInfoList[ls.my_rank][event.orig] = msgSN;
+		updateWatermark(event.orig);
+		// the acks of the others may have reached the message before it arrived
+		if (msgSN <= watermark[event.orig])
+			advanced[event.orig] = true;
+		acksChanged = true;
+		unacked++;
+		if (uniformInfo != null)
+			mergeAcks(uniformInfo, event.orig);
+		try {
+			event.go();
+		} catch (AppiaEventException e) {
+			e.printStackTrace();
+		}
+		releaseUniform(event.getChannel());
+		if (unacked >= ackBatch)
+			sendUniformInfo(event.getChannel());
+	}
+	
 	private void handleUniformTimer(UniformTimer timer) {
+	    if (aggregate) {
+	        if (!isBlocked && acksChanged)
+	            sendUniformInfo(timer.getChannel());
+	        return;
+	    }
 	    if (!isBlocked && timeProvider.currentTimeMillis() - timeLastMsgSent >= unifInfoPeriod) {
 	        sendUniformInfo(timer.getChannel());
 	    }
@@ -225,8 +315,9 @@ public class UniformSession extends Session implements InitializableSession{
 	            final UniformInfoEvent event = new UniformInfoEvent(channel,Direction.DOWN,this,vs.group,vs.id);
 
 	            final Message msg = event.getMessage();
-	            for (int i = 0; i < snInfoList[ls.my_rank].length; i++)
-	                msg.pushLong(snInfoList[ls.my_rank][i]);
+	            pushAcks(msg);
+	            acksChanged = false;
+	            unacked = 0;
 
 	            event.go();
 	        } catch (AppiaEventException e) {
@@ -240,12 +331,94 @@ public class UniformSession extends Session implements InitializableSession{
 	    // FIXME: for now, I'm ignoring the message, but this should work without this... fix later
 	    if(vs == null)
 	        return;
-		final Message msg = event.getMessage();
+		final long[] uniformInfo = popAcks(event.getMessage());
+		if (aggregate) {
+			mergeAcks(uniformInfo, event.orig);
+			releaseUniform(event.getChannel());
+		}
+		else {
+			mergeUniformInfo(uniformInfo, event.orig);
+			deliverUniform(event.getChannel());
+		}
+	}
+	
+	private void pushAcks(Message msg) {
+		final long[] acks = snInfoList[ls.my_rank];
+		for (int i = 0; i < acks.length; i++)
+			msg.pushLong(acks[i]);
+	}
+	
+	private long[] popAcks(Message msg) {
 		final long[] uniformInfo = new long[vs.view.length];
 		for (int i = uniformInfo.length; i > 0; i--)
 			uniformInfo[i-1] = msg.popLong();
-		mergeUniformInfo(uniformInfo, event.orig);
-		deliverUniform(event.getChannel());
+		return uniformInfo;
+	}
+	
+	/**
+	 * Merges the vector of a member and updates the watermarks of the
+	 * origins that changed.
+	 */
+	private void mergeAcks(long[] table, int orig) {
+		final long[] acks = snInfoList[orig];
+		for (int i = 0; i < table.length; i++)
+			if (table[i] > acks[i]) {
+				acks[i] = table[i];
+				updateWatermark(i);
+			}
+	}
+	
+	/**
+	 * Computes the sequence number of the origin received by a majority,
+	 * which is the majority-th highest of the vectors.
+	 */
+	private void updateWatermark(int orig) {
+		for (int i = 0; i < snInfoList.length; i++)
+			column[i] = snInfoList[i][orig];
+		Arrays.sort(column);
+		final long w = column[column.length - (column.length/2 + 1)];
+		if (w > watermark[orig]) {
+			watermark[orig] = w;
+			advanced[orig] = true;
+		}
+	}
+	
+	/**
+	 * Notifies, in bulk, the held messages up to the watermarks that advanced.
+	 */
+	private void releaseUniform(Channel channel) {
+		for (int j = 0; j < advanced.length; j++) {
+			if (!advanced[j])
+				continue;
+			advanced[j] = false;
+			final LinkedList<MessageContainer> held = heldMessages.get(j);
+			while (!held.isEmpty() && held.getFirst().getSn() <= watermark[j])
+				notifyUniform(channel, held.removeFirst());
+		}
+	}
+	
+	/**
+	 * Notifies the messages of the view that ended. By view synchrony all the 
+	 * members that remain in the new view received them, so they are uniform 
+	 * if those members are a majority of the old view.
+	 */
+	private void flushHeld(View view) {
+		final Endpt[] survivors = vs.getSurvivingMembers(view.vs);
+		final boolean uniform = survivors.length >= vs.view.length/2 + 1;
+		for (int j = 0; j < heldMessages.size(); j++) {
+			final LinkedList<MessageContainer> held = heldMessages.get(j);
+			while (uniform && !held.isEmpty())
+				notifyUniform(view.getChannel(), held.removeFirst());
+			held.clear();
+		}
+	}
+	
+	private void notifyUniform(Channel channel, MessageContainer cont) {
+		try {
+			new UniformServiceEvent(channel, Direction.UP, this, cont.getSendableEvent().getMessage()).go();
+		} catch (AppiaEventException e) {
+			e.printStackTrace();
+		}
 	}
 	
 	private void mergeUniformInfo(long[] table, int orig) {
@@ -297,5 +470,15 @@ public class UniformSession extends Session implements InitializableSession{
 		snInfoList = new long[vs.view.length][vs.view.length];
 		for (int i = 0; i < snInfoList.length; i++)
 			Arrays.fill(snInfoList[i], 0);
+		if (aggregate) {
+			acksChanged = false;
+			unacked = 0;
+			watermark = new long[vs.view.length];
+			column = new long[vs.view.length];
+			advanced = new boolean[vs.view.length];
+			heldMessages.clear();
+			for (int i = 0; i < vs.view.length; i++)
+				heldMessages.add(new LinkedList<MessageContainer>());
+		}
 	}
 }
@@ -0,0 +1,165 @@
+/**
+ * Appia: Group communication and protocol composition framework library
+ * Copyright 2026 University of Lisbon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ *
+ * Contributor(s): See Appia web page for a list of contributors.
+ */
+package net.sf.appia.protocols.tcpcomplete;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.Socket;
+
+import net.sf.appia.core.Channel;
+import net.sf.appia.core.Event;
+import net.sf.appia.core.Layer;
+import net.sf.appia.core.QoS;
+import net.sf.appia.core.Session;
+import net.sf.appia.core.events.SendableEvent;
+import net.sf.appia.core.message.Message;
+import net.sf.appia.core.message.MsgBuffer;
+import net.sf.appia.protocols.common.RegisterSocketEvent;
+import net.sf.appia.test.bench.Benchmark;
+
+/**
+ * Benchmarks of the serialization of events done by the {@link TcpCompleteSession}.
+ * <br>
+ * It is in the package of the protocol, to reach the methods used by
+ * the session and its readers.
+ */
+public final class TcpCompleteBenchmarks {
+
+  /**
+   * Size of the payload of the messages.
+   */
+  public static final int SIZE=100;
+
+  private TcpCompleteBenchmarks() {}
+
+  public static Benchmark[] getBenchmarks() {
+    return new Benchmark[] {
+        new Format(),
+        new Read(),
+    };
+  }
+
+  /* The event that is serialized. */
+  public static class BenchEvent extends SendableEvent {
+    public BenchEvent() {
+      super();
+    }
+  }
+
+  static class BenchLayer extends Layer {
+    BenchLayer() {
+      evProvide=new Class[] { BenchEvent.class, RegisterSocketEvent.class };
+      evRequire=new Class[] {};
+      evAccept=new Class[] { BenchEvent.class };
+    }
+
+    public Session createSession() {
+      return new BenchSession(this);
+    }
+  }
+
+  static class BenchSession extends Session {
+    BenchSession(Layer layer) {
+      super(layer);
+    }
+
+    public void handle(Event e) {}
+  }
+
+  /* A session with a channel that is known but not started. */
+  private abstract static class SessionBenchmark extends Benchmark {
+    protected TcpCompleteSession session;
+    protected Channel channel;
+
+    protected SessionBenchmark(String name) {
+      super(name);
+    }
+
+    public void setUp() throws Exception {
+      final Layer[] layers={ new TcpCompleteLayer(), new BenchLayer() };
+      channel=new QoS("bench",layers).createUnboundChannel("bench");
+      session=(TcpCompleteSession) layers[0].createSession();
+      session.putChannel(channel);
+    }
+
+    protected byte[] newFrame() {
+      final BenchEvent e=new BenchEvent();
+      e.setChannel(channel);
+      e.setMessage(newMessage());
+      return session.format(e);
+    }
+
+    protected Message newMessage() {
+      final Message msg=channel.getMessageFactory().newMessage();
+      final MsgBuffer mbuf=new MsgBuffer();
+      mbuf.len=SIZE;
+      msg.push(mbuf);
+      return msg;
+    }
+  }
+
+  /* Serialization of an event, with its header. */
+  private static final class Format extends SessionBenchmark {
+    private Format() {
+      super("tcpcomplete.format");
+    }
+
+    public long run(int operations) throws Exception {
+      long r=0;
+      final BenchEvent e=new BenchEvent();
+      e.setChannel(channel);
+      for (int i=0 ; i < operations ; i++) {
+        e.setMessage(newMessage());
+        r+=session.format(e).length;
+      }
+      return r;
+    }
+  }
+
+  /* Deserialization of events read from a stream. */
+  private static final class Read extends SessionBenchmark {
+    private static final int FRAMES=1024;
+
+    private TcpReader reader;
+    private ByteArrayInputStream in;
+
+    private Read() {
+      super("tcpcomplete.read");
+    }
+
+    public void setUp() throws Exception {
+      super.setUp();
+      final ByteArrayOutputStream out=new ByteArrayOutputStream();
+      for (int i=0 ; i < FRAMES ; i++)
+        out.write(newFrame());
+      in=new ByteArrayInputStream(out.toByteArray());
+      reader=new TcpReader(new Socket(),session,0,0,channel,new Measures(session));
+    }
+
+    public long run(int operations) throws Exception {
+      long r=0;
+      for (int i=0 ; i < operations ; i++) {
+        if (in.available() == 0)
+          in.reset();
+        r+=reader.receiveAndFormat(in).getMessage().length();
+      }
+      return r;
+    }
+  }
+}
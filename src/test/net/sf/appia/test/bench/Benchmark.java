@@ -0,0 +1,57 @@
+/**
+ * Appia: Group communication and protocol composition framework library
+ * Copyright 2026 University of Lisbon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ *
+ * Contributor(s): See Appia web page for a list of contributors.
+ */
+package net.sf.appia.test.bench;
+
+/**
+ * A microbenchmark, executed by the {@link BenchmarkRunner}.
+ * <br>
+ * The runner calls {@link #run(int)} repeatedly, with a number of operations
+ * that makes each call last a few milliseconds, and reports the time per 
+ * operation. The value returned by <tt>run</tt> is consumed by the runner,
+ * so that the measured code is not removed by the compiler.
+ */
+public abstract class Benchmark {
+
+  private final String name;
+
+  protected Benchmark(String name) {
+    this.name=name;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Prepares the state of the benchmark. It is not measured.
+   */
+  public void setUp() throws Exception {}
+
+  /**
+   * Executes the given number of operations.
+   * 
+   * @return any value that depends on the work done.
+   */
+  public abstract long run(int operations) throws Exception;
+
+  /**
+   * Releases the state of the benchmark. It is not measured.
+   */
+  public void tearDown() throws Exception {}
+}
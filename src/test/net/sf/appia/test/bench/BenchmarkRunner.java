@@ -0,0 +1,174 @@
+/**
+ * Appia: Group communication and protocol composition framework library
+ * Copyright 2026 University of Lisbon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ *
+ * Contributor(s): See Appia web page for a list of contributors.
+ */
+package net.sf.appia.test.bench;
+
+import java.util.ArrayList;
+import java.util.regex.Pattern;
+
+import net.sf.appia.protocols.tcpcomplete.TcpCompleteBenchmarks;
+
+/**
+ * Runs the microbenchmarks of the core message, scheduling and transport code.
+ * <br>
+ * Each benchmark is first calibrated, so that a call lasts about 10 ms, and then 
+ * executed during some warmup iterations, that are not reported, and some measured
+ * iterations of fixed duration. The result is the mean time per operation and its 
+ * standard deviation over the measured iterations.
+ * <br>
+ * Usage: <tt>java net.sf.appia.test.bench.BenchmarkRunner [-f regex] [-w warmups] [-i iterations] [-t millis]</tt>
+ * <ul>
+ * <li><b>-f</b> runs only the benchmarks whose name contains the regular expression;
+ * <li><b>-w</b> number of warmup iterations, 5 by default;
+ * <li><b>-i</b> number of measured iterations, 10 by default;
+ * <li><b>-t</b> duration of each iteration, in milliseconds, 1000 by default.
+ * </ul>
+ * Results are more stable if each benchmark runs in its own JVM, using <b>-f</b>.
+ * The <tt>bench</tt> target of the Ant build runs all of them.
+ */
+public class BenchmarkRunner {
+
+  private static final long CALL_NANOS=10*1000*1000;
+
+  private int warmups=5;
+  private int iterations=10;
+  private long iterationNanos=1000*1000*1000;
+
+  // consumes the results of the benchmarks
+  private static volatile long sink;
+
+  /**
+   * Gets all the benchmarks.
+   */
+  public static Benchmark[] getBenchmarks() {
+    final ArrayList<Benchmark> list=new ArrayList<Benchmark>();
+    addAll(list,MessageBenchmarks.getBenchmarks());
+    addAll(list,SchedulerBenchmarks.getBenchmarks());
+    addAll(list,TcpCompleteBenchmarks.getBenchmarks());
+    return list.toArray(new Benchmark[list.size()]);
+  }
+
+  private static void addAll(ArrayList<Benchmark> list, Benchmark[] benchmarks) {
+    for (int i=0 ; i < benchmarks.length ; i++)
+      list.add(benchmarks[i]);
+  }
+
+  /**
+   * Executes a benchmark and prints its result.
+   */
+  public void execute(Benchmark b) throws Exception {
+    b.setUp();
+    try {
+      final int ops=calibrate(b);
+      for (int i=0 ; i < warmups ; i++)
+        iteration(b,ops);
+
+      final double[] results=new double[iterations];
+      double mean=0;
+      for (int i=0 ; i < iterations ; i++) {
+        results[i]=iteration(b,ops);
+        mean+=results[i];
+      }
+      mean/=iterations;
+      double var=0;
+      for (int i=0 ; i < iterations ; i++)
+        var+=(results[i]-mean)*(results[i]-mean);
+      final double stddev=(iterations > 1) ? Math.sqrt(var/(iterations-1)) : 0;
+
+      System.out.println(format(b.getName(),mean,stddev));
+    } finally {
+      b.tearDown();
+    }
+  }
+
+  /* Finds how many operations take about CALL_NANOS. */
+  private int calibrate(Benchmark b) throws Exception {
+    int ops=1;
+    while (true) {
+      final long start=System.nanoTime();
+      sink+=b.run(ops);
+      final long time=System.nanoTime()-start;
+      if (time >= CALL_NANOS/10 || ops >= (1 << 24)) {
+        final long scaled=(time > 0) ? (ops*CALL_NANOS)/time : ops;
+        return (int)Math.max(1,Math.min(scaled,Integer.MAX_VALUE));
+      }
+      ops*=2;
+    }
+  }
+
+  /* Returns nanoseconds per operation. */
+  private double iteration(Benchmark b, int ops) throws Exception {
+    long total=0;
+    long time=0;
+    final long start=System.nanoTime();
+    do {
+      sink+=b.run(ops);
+      total+=ops;
+      time=System.nanoTime()-start;
+    } while (time < iterationNanos);
+    return (double)time/total;
+  }
+
+  private static String format(String name, double mean, double stddev) {
+    final StringBuffer sb=new StringBuffer(name);
+    while (sb.length() < 48)
+      sb.append(' ');
+    sb.append(pad(String.format("%.1f",mean),12)).append(" ns/op");
+    sb.append(pad(String.format("+- %.1f",stddev),14));
+    sb.append(pad(String.format("%.0f",1e9/mean),14)).append(" ops/s");
+    return sb.toString();
+  }
+
+  private static String pad(String s, int width) {
+    final StringBuffer sb=new StringBuffer();
+    for (int i=s.length() ; i < width ; i++)
+      sb.append(' ');
+    return sb.append(s).toString();
+  }
+
+  public static void main(String[] args) throws Exception {
+    final BenchmarkRunner runner=new BenchmarkRunner();
+    Pattern filter=null;
+    for (int i=0 ; i < args.length ; i++) {
+      if (args[i].equals("-f") && i+1 < args.length)
+        filter=Pattern.compile(args[++i]);
+      else if (args[i].equals("-w") && i+1 < args.length)
+        runner.warmups=Integer.parseInt(args[++i]);
+      else if (args[i].equals("-i") && i+1 < args.length)
+        runner.iterations=Integer.parseInt(args[++i]);
+      else if (args[i].equals("-t") && i+1 < args.length)
+        runner.iterationNanos=Long.parseLong(args[++i])*1000*1000;
+      else {
+        System.err.println("Usage: BenchmarkRunner [-f regex] [-w warmups] [-i iterations] [-t millis]");
+        System.exit(1);
+      }
+    }
+
+    System.out.println("# "+System.getProperty("java.vm.name")+" "+System.getProperty("java.version")+
+        ", "+Runtime.getRuntime().availableProcessors()+" processors");
+    System.out.println("# "+runner.warmups+" warmup and "+runner.iterations+" measured iterations of "+
+        (runner.iterationNanos/1000000)+" ms");
+
+    final Benchmark[] benchmarks=getBenchmarks();
+    for (int i=0 ; i < benchmarks.length ; i++) {
+      if (filter == null || filter.matcher(benchmarks[i].getName()).find())
+        runner.execute(benchmarks[i]);
+    }
+    System.exit(0);
+  }
+}
@@ -0,0 +1,169 @@
+/**
+ * Appia: Group communication and protocol composition framework library
+ * Copyright 2026 University of Lisbon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ *
+ * Contributor(s): See Appia web page for a list of contributors.
+ */
+package net.sf.appia.test.bench;
+
+import net.sf.appia.core.message.Message;
+import net.sf.appia.core.message.MsgBuffer;
+
+/**
+ * Benchmarks of {@link Message}.
+ */
+public final class MessageBenchmarks {
+
+  private MessageBenchmarks() {}
+
+  public static Benchmark[] getBenchmarks() {
+    return new Benchmark[] {
+        new PushPopPrimitives(),
+        new PushPopObject(),
+        new FragJoin(),
+        new Clone(),
+        new ToByteArray(),
+    };
+  }
+
+  /* Creates a message with the given number of bytes, in several blocks. */
+  static Message newMessage(int size, int blocks) {
+    final Message msg=new Message();
+    final MsgBuffer mbuf=new MsgBuffer();
+    for (int i=0 ; i < blocks ; i++) {
+      mbuf.len=size/blocks;
+      msg.push(mbuf);
+      for (int j=0 ; j < mbuf.len ; j++)
+        mbuf.data[mbuf.off+j]=(byte)j;
+    }
+    return msg;
+  }
+
+  /* Push and pop of an int and a long. */
+  private static final class PushPopPrimitives extends Benchmark {
+    private Message msg;
+
+    private PushPopPrimitives() {
+      super("message.pushPopIntLong");
+    }
+
+    public void setUp() {
+      msg=new Message();
+    }
+
+    public long run(int operations) {
+      long r=0;
+      for (int i=0 ; i < operations ; i++) {
+        msg.pushInt(i);
+        msg.pushLong(i);
+        r+=msg.popLong()+msg.popInt();
+      }
+      return r;
+    }
+  }
+
+  /* Push and pop of a small serializable object. */
+  private static final class PushPopObject extends Benchmark {
+    private Message msg;
+
+    private PushPopObject() {
+      super("message.pushPopObject");
+    }
+
+    public void setUp() {
+      msg=new Message();
+    }
+
+    public long run(int operations) {
+      long r=0;
+      for (int i=0 ; i < operations ; i++) {
+        msg.pushObject("benchmark");
+        r+=((String) msg.popObject()).length();
+      }
+      return r;
+    }
+  }
+
+  /* Fragmentation of an 8 KB message in 1400 bytes, and the join of the fragment. */
+  private static final class FragJoin extends Benchmark {
+    private final byte[] data=new byte[8192];
+    private Message msg;
+    private Message frag;
+
+    private FragJoin() {
+      super("message.fragJoin");
+    }
+
+    public void setUp() {
+      msg=new Message();
+      frag=new Message();
+    }
+
+    public long run(int operations) {
+      long r=0;
+      for (int i=0 ; i < operations ; i++) {
+        // each join leaves one more block, so start again every time
+        msg.setByteArray(data,0,data.length);
+        msg.frag(frag,1400);
+        r+=frag.length();
+        msg.join(frag);
+      }
+      return r;
+    }
+  }
+
+  /* Clone of a 1 KB message, that is then discarded. */
+  private static final class Clone extends Benchmark {
+    private Message msg;
+
+    private Clone() {
+      super("message.clone");
+    }
+
+    public void setUp() {
+      msg=newMessage(1024,4);
+    }
+
+    public long run(int operations) throws CloneNotSupportedException {
+      long r=0;
+      for (int i=0 ; i < operations ; i++) {
+        final Message copy=(Message) msg.clone();
+        r+=copy.length();
+        copy.discardAll();
+      }
+      return r;
+    }
+  }
+
+  /* Copy of a 1 KB message, in 4 blocks, to an array. */
+  private static final class ToByteArray extends Benchmark {
+    private Message msg;
+
+    private ToByteArray() {
+      super("message.toByteArray");
+    }
+
+    public void setUp() {
+      msg=newMessage(1024,4);
+    }
+
+    public long run(int operations) {
+      long r=0;
+      for (int i=0 ; i < operations ; i++)
+        r+=msg.toByteArray().length;
+      return r;
+    }
+  }
+}
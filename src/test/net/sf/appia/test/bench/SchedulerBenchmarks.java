@@ -0,0 +1,303 @@
+/**
+ * Appia: Group communication and protocol composition framework library
+ * Copyright 2026 University of Lisbon
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ *
+ * Contributor(s): See Appia web page for a list of contributors.
+ */
+package net.sf.appia.test.bench;
+
+import java.util.concurrent.CountDownLatch;
+
+import net.sf.appia.core.AppiaEventException;
+import net.sf.appia.core.Appia;
+import net.sf.appia.core.Channel;
+import net.sf.appia.core.ChannelCursor;
+import net.sf.appia.core.Direction;
+import net.sf.appia.core.Event;
+import net.sf.appia.core.EventQualifier;
+import net.sf.appia.core.EventScheduler;
+import net.sf.appia.core.Layer;
+import net.sf.appia.core.QoS;
+import net.sf.appia.core.Session;
+import net.sf.appia.core.TimerManager;
+import net.sf.appia.core.WheelTimerManager;
+import net.sf.appia.core.events.channel.ChannelInit;
+import net.sf.appia.core.events.channel.Timer;
+import net.sf.appia.protocols.common.AppiaThreadFactory;
+
+/**
+ * Benchmarks of the {@link EventScheduler}, of the event routes of a {@link Channel}
+ * and of the {@link TimerManager TimerManagers}.
+ */
+public final class SchedulerBenchmarks {
+
+  /**
+   * Number of layers between the first and the last session of the channel.
+   */
+  public static final int DEPTH=8;
+
+  private SchedulerBenchmarks() {}
+
+  public static Benchmark[] getBenchmarks() {
+    return new Benchmark[] {
+        new InsertConsume(),
+        new EventRoute(false),
+        new EventRoute(true),
+        new Timers(false),
+        new Timers(true),
+    };
+  }
+
+  /* The event that goes through the channel. */
+  static class BenchEvent extends Event {
+    public BenchEvent() {
+      super();
+    }
+
+    public BenchEvent(Channel channel, int dir, Session source) throws AppiaEventException {
+      super(channel,dir,source);
+    }
+  }
+
+  /* An event class that is not declared by the layers. */
+  static class SubBenchEvent extends BenchEvent {
+    public SubBenchEvent() {
+      super();
+    }
+  }
+
+  /* Asks the first session to send events. */
+  static class TriggerEvent extends Event {
+    int count;
+  }
+
+  static class SourceLayer extends Layer {
+    SourceLayer() {
+      evProvide=new Class[] { BenchEvent.class };
+      evRequire=new Class[] {};
+      evAccept=new Class[] { ChannelInit.class, TriggerEvent.class };
+    }
+
+    public Session createSession() {
+      return new SourceSession(this);
+    }
+  }
+
+  static class SourceSession extends Session {
+    SourceSession(Layer layer) {
+      super(layer);
+    }
+
+    public void handle(Event e) {
+      try {
+        if (e instanceof TriggerEvent) {
+          final int count=((TriggerEvent) e).count;
+          for (int i=0 ; i < count ; i++)
+            new BenchEvent(e.getChannel(),Direction.UP,this).go();
+        } else
+          e.go();
+      } catch (AppiaEventException ex) {
+        ex.printStackTrace();
+      }
+    }
+  }
+
+  static class PassLayer extends Layer {
+    PassLayer() {
+      evProvide=new Class[] {};
+      evRequire=new Class[] { BenchEvent.class };
+      evAccept=new Class[] { BenchEvent.class };
+    }
+
+    public Session createSession() {
+      return new PassSession(this);
+    }
+  }
+
+  static class PassSession extends Session {
+    PassSession(Layer layer) {
+      super(layer);
+    }
+
+    public void handle(Event e) {
+      try {
+        e.go();
+      } catch (AppiaEventException ex) {
+        ex.printStackTrace();
+      }
+    }
+  }
+
+  static class SinkLayer extends Layer {
+    SinkLayer() {
+      evProvide=new Class[] {};
+      evRequire=new Class[] { BenchEvent.class };
+      evAccept=new Class[] { BenchEvent.class };
+    }
+
+    public Session createSession() {
+      return new SinkSession(this);
+    }
+  }
+
+  static class SinkSession extends Session {
+    int remaining=0;
+    CountDownLatch done=null;
+
+    SinkSession(Layer layer) {
+      super(layer);
+    }
+
+    public void handle(Event e) {
+      if (--remaining == 0)
+        done.countDown();
+    }
+  }
+
+  /* A channel with its own Appia and event loop. */
+  private abstract static class ChannelBenchmark extends Benchmark {
+    protected Appia appia;
+    protected Channel channel;
+    protected SinkSession sink;
+
+    protected ChannelBenchmark(String name) {
+      super(name);
+    }
+
+    public void setUp() throws Exception {
+      final Layer[] layers=new Layer[DEPTH+2];
+      layers[0]=new SourceLayer();
+      for (int i=1 ; i <= DEPTH ; i++)
+        layers[i]=new PassLayer();
+      layers[DEPTH+1]=new SinkLayer();
+
+      appia=new Appia();
+      channel=new QoS("bench",layers).createUnboundChannel("bench",new EventScheduler(appia));
+      sink=(SinkSession) layers[DEPTH+1].createSession();
+      final ChannelCursor cc=channel.getCursor();
+      cc.top();
+      cc.setSession(sink);
+      channel.start();
+
+      final Thread thread=new Thread(new Runnable() {
+        public void run() {
+          appia.instanceRun();
+        }
+      },"Benchmark Appia");
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    public void tearDown() {
+      channel.end();
+      appia.instanceStop();
+    }
+  }
+
+  /* 
+   * Events inserted by the first session and consumed by all the others.
+   * An operation is an event that goes through DEPTH+1 sessions.
+   */
+  private static final class InsertConsume extends ChannelBenchmark {
+    private InsertConsume() {
+      super("scheduler.insertConsume");
+    }
+
+    public long run(int operations) throws Exception {
+      final CountDownLatch done=new CountDownLatch(1);
+      final TriggerEvent trigger=new TriggerEvent();
+      trigger.count=operations;
+      // read by the Appia thread after the trigger is inserted
+      sink.remaining=operations;
+      sink.done=done;
+      trigger.asyncGo(channel,Direction.UP);
+      done.await();
+      return operations;
+    }
+  }
+
+  /* Lookup of the route of an event, of a declared class or of a subclass. */
+  private static final class EventRoute extends ChannelBenchmark {
+    private final boolean subclass;
+    private Event event;
+
+    private EventRoute(boolean subclass) {
+      super(subclass ? "channel.getEventRoute.subclass" : "channel.getEventRoute");
+      this.subclass=subclass;
+    }
+
+    public void setUp() throws Exception {
+      super.setUp();
+      event=subclass ? new SubBenchEvent() : new BenchEvent();
+    }
+
+    public long run(int operations) throws Exception {
+      long r=0;
+      for (int i=0 ; i < operations ; i++)
+        r+=channel.getEventRoute(event).getRoute().length;
+      return r;
+    }
+  }
+
+  /*
+   * Setting and cancelling a timer, with PENDING other timers.
+   * An operation is a timer set and cancelled.
+   */
+  private static final class Timers extends Benchmark {
+    private static final int PENDING=1000;
+    private static final long HOUR=60*60*1000;
+
+    private final boolean wheel;
+    private TimerManager manager;
+    private final Timer on=new Timer();
+    private final Timer off=new Timer();
+    private int next=0;
+
+    private Timers(boolean wheel) {
+      super(wheel ? "timer.WheelTimerManager.setCancel" : "timer.TimerManager.setCancel");
+      this.wheel=wheel;
+    }
+
+    public void setUp() throws Exception {
+      final AppiaThreadFactory thf=new AppiaThreadFactory();
+      manager=wheel ? new WheelTimerManager(thf) : new TimerManager(thf);
+      manager.start();
+      for (int i=0 ; i < PENDING ; i++) {
+        final Timer timer=new Timer();
+        timer.timerID="pending"+i;
+        timer.setTimeout(HOUR+i);
+        timer.setQualifierMode(EventQualifier.ON);
+        manager.handleTimerRequest(timer);
+      }
+      on.timerID=off.timerID="bench";
+      on.setQualifierMode(EventQualifier.ON);
+      off.setQualifierMode(EventQualifier.OFF);
+    }
+
+    public long run(int operations) throws Exception {
+      for (int i=0 ; i < operations ; i++) {
+        // spread the timers among the pending ones
+        on.setTimeout(HOUR+(next++ % PENDING));
+        manager.handleTimerRequest(on);
+        manager.handleTimerRequest(off);
+      }
+      return operations;
+    }
+
+    public void tearDown() {
+      manager.stop();
+    }
+  }
+}